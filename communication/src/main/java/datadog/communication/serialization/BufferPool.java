@@ -0,0 +1,48 @@
+package datadog.communication.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of equally sized buffers. Buffers which are handed over to another thread, for instance
+ * to be sent, are released back to the pool once they are no longer needed instead of being
+ * garbage collected.
+ *
+ * <p>The pool never blocks: a new buffer is allocated when the pool is empty, and a released
+ * buffer is dropped when the pool already retains {@code maxPooledBuffers} buffers.
+ */
+public final class BufferPool {
+
+  private final int bufferSize;
+  private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+  public BufferPool(int bufferSize, int maxPooledBuffers) {
+    this.bufferSize = bufferSize;
+    this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooledBuffers));
+  }
+
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  /** @return a cleared buffer of {@link #bufferSize()} bytes */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    return null == buffer ? ByteBuffer.allocate(bufferSize) : buffer;
+  }
+
+  /**
+   * Returns a buffer obtained from {@link #acquire()} to the pool. The buffer must not be used by
+   * the caller afterwards.
+   */
+  public void release(ByteBuffer buffer) {
+    if (null != buffer && buffer.capacity() == bufferSize && !buffer.isReadOnly()) {
+      buffer.clear();
+      buffers.offer(buffer);
+    }
+  }
+
+  int pooledBuffers() {
+    return buffers.size();
+  }
+}
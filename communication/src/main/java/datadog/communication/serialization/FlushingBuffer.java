@@ -2,19 +2,35 @@ package datadog.communication.serialization;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Buffer which publishes its contents to a {@link ByteBufferConsumer} when flushed.
+ *
+ * <p>By default the same buffer is reused after each flush, so the consumer must be done with the
+ * published buffer when it returns. When a {@link BufferPool} is provided, the published buffer is
+ * handed over to the consumer, which must release it to the pool once it is done with it, and a
+ * new buffer is acquired from the pool.
+ */
 public final class FlushingBuffer implements StreamingBuffer {
 
-  private final ByteBuffer buffer;
+  private final BufferPool bufferPool;
   private final ByteBufferConsumer consumer;
+  private ByteBuffer buffer;
 
   private int messageCount;
   private int mark;
 
   public FlushingBuffer(int capacity, ByteBufferConsumer consumer) {
+    this.bufferPool = null;
     this.buffer = ByteBuffer.allocate(capacity);
     this.consumer = consumer;
   }
 
+  public FlushingBuffer(BufferPool bufferPool, ByteBufferConsumer consumer) {
+    this.bufferPool = bufferPool;
+    this.buffer = bufferPool.acquire();
+    this.consumer = consumer;
+  }
+
   @Override
   public int capacity() {
     return buffer.capacity();
@@ -38,7 +54,14 @@ public final class FlushingBuffer implements StreamingBuffer {
     }
     buffer.limit(mark);
     buffer.flip();
-    ByteBuffer toPublish = buffer.slice();
+    ByteBuffer toPublish;
+    if (null == bufferPool) {
+      toPublish = buffer.slice();
+    } else {
+      // hand over the whole buffer so the consumer can release it
+      toPublish = buffer;
+      buffer = bufferPool.acquire();
+    }
     consumer.accept(messageCount, toPublish);
     reset();
     return true;
@@ -0,0 +1,75 @@
+package datadog.communication.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void releasedBuffersAreReused() {
+    BufferPool pool = new BufferPool(16, 2);
+    ByteBuffer buffer = pool.acquire();
+    assertEquals(16, buffer.capacity());
+    buffer.putLong(1L);
+    pool.release(buffer);
+    ByteBuffer reused = pool.acquire();
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(16, reused.limit());
+  }
+
+  @Test
+  public void poolRetainsAtMostMaxPooledBuffers() {
+    BufferPool pool = new BufferPool(16, 2);
+    ByteBuffer first = pool.acquire();
+    ByteBuffer second = pool.acquire();
+    ByteBuffer third = pool.acquire();
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertEquals(2, pool.pooledBuffers());
+  }
+
+  @Test
+  public void foreignBuffersAreNotPooled() {
+    BufferPool pool = new BufferPool(16, 2);
+    pool.release(ByteBuffer.allocate(8));
+    pool.release(null);
+    assertEquals(0, pool.pooledBuffers());
+  }
+
+  @Test
+  public void flushingBufferHandsOverPooledBuffers() {
+    BufferPool pool = new BufferPool(16, 2);
+    final ByteBuffer[] published = new ByteBuffer[1];
+    FlushingBuffer flushingBuffer =
+        new FlushingBuffer(
+            pool,
+            new ByteBufferConsumer() {
+              @Override
+              public void accept(int messageCount, ByteBuffer buffer) {
+                published[0] = buffer;
+              }
+            });
+    assertEquals(16, flushingBuffer.capacity());
+    flushingBuffer.putInt(42);
+    flushingBuffer.mark();
+    flushingBuffer.flush();
+    assertEquals(4, published[0].remaining());
+    assertEquals(42, published[0].getInt(0));
+
+    // the published buffer belongs to the consumer until released
+    flushingBuffer.putInt(43);
+    flushingBuffer.mark();
+    assertEquals(42, published[0].getInt(0));
+    ByteBuffer first = published[0];
+    pool.release(first);
+    flushingBuffer.flush();
+    assertNotSame(first, published[0]);
+    assertEquals(43, published[0].getInt(0));
+  }
+}
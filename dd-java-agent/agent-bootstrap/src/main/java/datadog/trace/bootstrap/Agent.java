@@ -390,6 +390,8 @@ public class Agent {
   private static synchronized void createSharedClassloader(final URL bootstrapURL) {
     if (SHARED_CLASSLOADER == null) {
       try {
+        configureClassSharing();
+
         final Class<?> bootstrapProxyClass =
             ClassLoader.getSystemClassLoader()
                 .loadClass("datadog.trace.bootstrap.DatadogClassLoader$BootstrapClassLoaderProxy");
@@ -410,6 +412,24 @@ public class Agent {
     }
   }
 
+  /**
+   * The JVM can share the agent's classes across runs with a dynamic AppCDS archive (JDK 13+):
+   *
+   * <pre>
+   * java -XX:ArchiveClassesAtExit=app.jsa -Ddd.cds.classlist=app.classlist -javaagent:...
+   * java -XX:SharedArchiveFile=app.jsa -javaagent:...
+   * </pre>
+   *
+   * <p>Setting {@code dd.cds.classlist} marks the training run, see {@link
+   * DatadogClassLoader#recordClassList}.
+   */
+  private static void configureClassSharing() {
+    final String classListFile = ddGetProperty("dd.cds.classlist");
+    if (null != classListFile) {
+      DatadogClassLoader.recordClassList(classListFile);
+    }
+  }
+
   private static synchronized void startDatadogAgent(
       final Instrumentation inst, final URL bootstrapURL) {
     if (AGENT_CLASSLOADER == null) {
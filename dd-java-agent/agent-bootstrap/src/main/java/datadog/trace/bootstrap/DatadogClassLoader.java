@@ -1,15 +1,23 @@
 package datadog.trace.bootstrap;
 
+import static datadog.trace.util.AgentThreadFactory.AGENT_THREAD_GROUP;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import org.slf4j.Logger;
@@ -28,6 +36,9 @@ public class DatadogClassLoader extends URLClassLoader {
     ClassLoader.registerAsParallelCapable();
   }
 
+  // only set when training a class data sharing archive
+  private static volatile ClassList classList = null;
+
   protected final InternalJarURLHandler internalJarURLHandler;
 
   // Calling java.lang.instrument.Instrumentation#appendToBootstrapClassLoaderSearch
@@ -66,6 +77,32 @@ public class DatadogClassLoader extends URLClassLoader {
     }
   }
 
+  /**
+   * Records every agent class loaded by this run. On shutdown the recorded classes are linked, so a
+   * dynamic AppCDS archive dumped at exit keeps the ones which were loaded but never used, and
+   * their names are written to the given file. Must be called before the agent creates its
+   * classloaders.
+   */
+  public static void recordClassList(final String classListFile) {
+    final ClassList list = new ClassList(classListFile);
+    try {
+      Runtime.getRuntime().addShutdownHook(list);
+      classList = list;
+    } catch (final IllegalStateException e) {
+      // JVM is shutting down, there is nothing to record
+    }
+  }
+
+  @Override
+  protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    final Class<?> clazz = super.findClass(name);
+    final ClassList list = classList;
+    if (null != list) {
+      list.add(clazz);
+    }
+    return clazz;
+  }
+
   @Override
   public URL getResource(final String resourceName) {
     final URL bootstrapResource = bootstrapProxy.getResource(resourceName);
@@ -196,6 +233,40 @@ public class DatadogClassLoader extends URLClassLoader {
     }
   }
 
+  /** Agent classes loaded by this run, linked and written out on shutdown. */
+  static final class ClassList extends Thread {
+    private final String classListFile;
+    private final Queue<Class<?>> classes = new ConcurrentLinkedQueue<>();
+
+    ClassList(final String classListFile) {
+      super(AGENT_THREAD_GROUP, "dd-class-list-writer");
+      this.classListFile = classListFile;
+    }
+
+    void add(final Class<?> clazz) {
+      classes.offer(clazz);
+    }
+
+    @Override
+    public void run() {
+      try (BufferedWriter out = Files.newBufferedWriter(Paths.get(classListFile), UTF_8)) {
+        // linking may load more classes, which are appended to the queue as we go
+        for (final Class<?> clazz : classes) {
+          try {
+            // the JVM links a class before listing its methods
+            clazz.getDeclaredMethods();
+          } catch (final Throwable e) {
+            // references an optional dependency which isn't there, the archive will skip it
+          }
+          out.write(clazz.getName().replace('.', '/'));
+          out.newLine();
+        }
+      } catch (final IOException e) {
+        log.warn("Unable to write agent class list to {}", classListFile, e);
+      }
+    }
+  }
+
   static final class JarIndex {
     private final HashMap<String, Set<String>> index;
     private final JarFile jarFile;
@@ -115,6 +115,31 @@ class DatadogClassLoaderTest extends DDSpecification {
     z.getClassLoader() == child
   }
 
+  def "test class list records loaded classes"() {
+    setup:
+    assumeTrue(isJavaVersionAtLeast(8))
+    File classListFile = File.createTempFile("agent", ".classlist")
+    DatadogClassLoader.ClassList classList = new DatadogClassLoader.ClassList(classListFile.getPath())
+    DatadogClassLoader.classList = classList
+    DatadogClassLoader.BootstrapClassLoaderProxy bootstrapProxy =
+      new DatadogClassLoader.BootstrapClassLoaderProxy()
+    DatadogClassLoader parent = new DatadogClassLoader(testJarLocation, "parent", bootstrapProxy, null)
+    DatadogClassLoader.DelegateClassLoader child = new DatadogClassLoader.DelegateClassLoader(testJarLocation,
+      "child", bootstrapProxy, null, parent)
+
+    when:
+    child.loadClass("a.b.c.C")
+    child.loadClass("x.y.z.Z")
+    classList.run()
+
+    then:
+    classListFile.readLines() == ["a/b/c/C", "x/y/z/Z"]
+
+    cleanup:
+    DatadogClassLoader.classList = null
+    classListFile.delete()
+  }
+
   def "test class not found"() {
     setup:
     DatadogClassLoader.BootstrapClassLoaderProxy bootstrapProxy =
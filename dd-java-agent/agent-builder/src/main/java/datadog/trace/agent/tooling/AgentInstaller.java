@@ -4,12 +4,16 @@ import static datadog.trace.agent.tooling.bytebuddy.matcher.ClassLoaderMatchers.
 import static datadog.trace.agent.tooling.bytebuddy.matcher.GlobalIgnoresMatcher.globalIgnoresMatcher;
 import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.nameStartsWith;
 import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.namedOneOf;
+import static datadog.trace.util.AgentThreadFactory.AgentThread.INSTRUMENTATION_STARTUP;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static net.bytebuddy.matcher.ElementMatchers.any;
 import static net.bytebuddy.matcher.ElementMatchers.isDefaultFinalizer;
 import static net.bytebuddy.matcher.ElementMatchers.none;
 
 import datadog.trace.agent.tooling.context.FieldBackedContextProvider;
 import datadog.trace.api.Config;
+import datadog.trace.api.InstrumentationMetrics;
 import datadog.trace.bootstrap.FieldBackedContextAccessor;
 import datadog.trace.bootstrap.instrumentation.java.concurrent.ExcludeFilter;
 import java.lang.instrument.Instrumentation;
@@ -57,7 +61,8 @@ public class AgentInstaller {
         || Config.get().isProfilingEnabled()
         || Config.get().isAppSecEnabled()
         || Config.get().isCiVisibilityEnabled()) {
-      installBytebuddyAgent(inst, false, new AgentBuilder.Listener[0]);
+      installBytebuddyAgent(
+          inst, false, Config.get().isIntegrationsDeferred(), new AgentBuilder.Listener[0]);
       if (DEBUG) {
         log.debug("Class instrumentation installed");
       }
@@ -76,6 +81,20 @@ public class AgentInstaller {
       final Instrumentation inst,
       final boolean skipAdditionalLibraryMatcher,
       final AgentBuilder.Listener... listeners) {
+    return installBytebuddyAgent(inst, skipAdditionalLibraryMatcher, false, listeners);
+  }
+
+  /**
+   * @param deferNonCritical install the tracing instrumentations which aren't critical on a
+   *     background thread, retransforming the classes they match which have been loaded since
+   * @return the agent's class transformer, for the critical instrumentations when deferring
+   */
+  private static ResettableClassFileTransformer installBytebuddyAgent(
+      final Instrumentation inst,
+      final boolean skipAdditionalLibraryMatcher,
+      final boolean deferNonCritical,
+      final AgentBuilder.Listener... listeners) {
+    final long startNanos = System.nanoTime();
     Utils.setInstrumentation(inst);
 
     FieldBackedContextProvider.resetContextMatchers();
@@ -140,6 +159,8 @@ public class AgentInstaller {
     AgentTransformerBuilder transformerBuilder = new AgentTransformerBuilder(agentBuilder);
 
     Set<Instrumenter.TargetSystem> enabledSystems = getEnabledSystems();
+    Set<String> criticalIntegrations = Config.get().getCriticalIntegrations();
+    final List<Instrumenter> deferred = new ArrayList<>();
     for (final Instrumenter instrumenter : loader) {
       if (!instrumenter.isApplicable(enabledSystems)) {
         if (DEBUG) {
@@ -147,23 +168,100 @@ public class AgentInstaller {
         }
         continue;
       }
-      if (DEBUG) {
-        log.debug("Loading - instrumentation.class={}", instrumenter.getClass().getName());
+      if (deferNonCritical && !isCritical(instrumenter, criticalIntegrations)) {
+        deferred.add(instrumenter);
+        continue;
       }
-
-      try {
-        instrumenter.instrument(transformerBuilder);
+      if (instrument(instrumenter, transformerBuilder)) {
         numInstrumenters++;
-      } catch (final Exception | LinkageError e) {
-        log.error(
-            "Failed to load - instrumentation.class={}", instrumenter.getClass().getName(), e);
       }
     }
     if (DEBUG) {
       log.debug("Installed {} instrumenter(s)", numInstrumenters);
     }
 
-    return transformerBuilder.installOn(inst);
+    String resolverCacheDir = Config.get().getResolverCacheDir();
+    if (null != resolverCacheDir) {
+      StartupCache.open(resolverCacheDir, transformerBuilder.instrumentationFingerprint());
+    }
+
+    ResettableClassFileTransformer transformer = transformerBuilder.installOn(inst);
+    if (!deferred.isEmpty()) {
+      installDeferred(inst, agentBuilder, deferred);
+    }
+
+    long installNanos = System.nanoTime() - startNanos;
+    InstrumentationMetrics.onInstall(installNanos);
+    if (DEBUG) {
+      log.debug("Instrumentation installed in {} ms", NANOSECONDS.toMillis(installNanos));
+    }
+    return transformer;
+  }
+
+  private static boolean instrument(
+      final Instrumenter instrumenter, final AgentTransformerBuilder transformerBuilder) {
+    if (DEBUG) {
+      log.debug("Loading - instrumentation.class={}", instrumenter.getClass().getName());
+    }
+    try {
+      instrumenter.instrument(transformerBuilder);
+      return true;
+    } catch (final Exception | LinkageError e) {
+      log.error("Failed to load - instrumentation.class={}", instrumenter.getClass().getName(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Only tracing instrumentations can be deferred, others like profiling and appsec must see every
+   * class being loaded. Of those, the critical ones are installed before the application starts.
+   */
+  private static boolean isCritical(
+      final Instrumenter instrumenter, final Set<String> criticalIntegrations) {
+    if (!(instrumenter instanceof Instrumenter.Tracing)) {
+      return true;
+    }
+    for (String name : ((Instrumenter.Tracing) instrumenter).names()) {
+      if (criticalIntegrations.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Installs the deferred instrumentations with their own transformer, which retransforms the
+   * classes they match which were loaded in the meantime. Context stores can't be field-injected
+   * into those classes, so their instrumentations fall back to weak maps for them.
+   */
+  private static void installDeferred(
+      final Instrumentation inst,
+      final AgentBuilder agentBuilder,
+      final List<Instrumenter> deferred) {
+    newAgentThread(
+            INSTRUMENTATION_STARTUP,
+            new Runnable() {
+              @Override
+              public void run() {
+                long startNanos = System.nanoTime();
+                AgentTransformerBuilder transformerBuilder =
+                    new AgentTransformerBuilder(agentBuilder);
+                int numInstrumenters = 0;
+                for (Instrumenter instrumenter : deferred) {
+                  if (instrument(instrumenter, transformerBuilder)) {
+                    numInstrumenters++;
+                  }
+                }
+                transformerBuilder.installOn(inst);
+                if (DEBUG) {
+                  log.debug(
+                      "Installed {} deferred instrumenter(s) in {} ms",
+                      numInstrumenters,
+                      NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                }
+              }
+            })
+        .start();
   }
 
   private static Set<Instrumenter.TargetSystem> getEnabledSystems() {
@@ -1,15 +1,13 @@
 package datadog.trace.agent.tooling;
 
 import static datadog.trace.agent.tooling.bytebuddy.DDTransformers.defaultTransformers;
-import static datadog.trace.agent.tooling.bytebuddy.matcher.ClassLoaderMatchers.ANY_CLASS_LOADER;
 import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.NOT_DECORATOR_MATCHER;
 import static java.util.Collections.singletonMap;
 import static net.bytebuddy.matcher.ElementMatchers.isSynthetic;
 import static net.bytebuddy.matcher.ElementMatchers.not;
 
 import datadog.trace.agent.tooling.bytebuddy.ExceptionHandlers;
-import datadog.trace.agent.tooling.bytebuddy.matcher.FailSafeRawMatcher;
-import datadog.trace.agent.tooling.bytebuddy.matcher.KnownTypesMatcher;
+import datadog.trace.agent.tooling.bytebuddy.matcher.CombiningMatcher;
 import datadog.trace.agent.tooling.bytebuddy.matcher.SingleTypeMatcher;
 import datadog.trace.agent.tooling.context.FieldBackedContextProvider;
 import datadog.trace.agent.tooling.context.InstrumentationContextProvider;
@@ -28,6 +26,10 @@ import net.bytebuddy.utility.JavaModule;
 public class AgentTransformerBuilder
     implements Instrumenter.TransformerBuilder, Instrumenter.AdviceTransformation {
 
+  private static final String[] NO_NAMES = {};
+
+  private final CombiningMatcher combiningMatcher = new CombiningMatcher();
+
   private AgentBuilder agentBuilder;
   private ElementMatcher<? super MethodDescription> ignoreMatcher;
   private AgentBuilder.Identified.Extendable adviceBuilder;
@@ -47,8 +49,14 @@ public class AgentTransformerBuilder
     }
   }
 
+  /** @return a fingerprint of the instrumentations applied so far, in order */
+  public long instrumentationFingerprint() {
+    return combiningMatcher.fingerprint();
+  }
+
   public ResettableClassFileTransformer installOn(Instrumentation instrumentation) {
-    return agentBuilder.installOn(instrumentation);
+    combiningMatcher.index();
+    return agentBuilder.with(combiningMatcher).installOn(instrumentation);
   }
 
   private AgentBuilder buildInstrumentation(final Instrumenter.Default instrumenter) {
@@ -115,45 +123,41 @@ public class AgentTransformerBuilder
     return adviceBuilder;
   }
 
+  @SuppressWarnings("unchecked")
   private AgentBuilder.RawMatcher matcher(Instrumenter.Default instrumenter) {
-    ElementMatcher<? super TypeDescription> typeMatcher;
+    String[] names;
     if (instrumenter instanceof Instrumenter.ForSingleType) {
-      typeMatcher =
-          new SingleTypeMatcher(((Instrumenter.ForSingleType) instrumenter).instrumentedType());
+      names = new String[] {((Instrumenter.ForSingleType) instrumenter).instrumentedType()};
     } else if (instrumenter instanceof Instrumenter.ForKnownTypes) {
-      typeMatcher =
-          new KnownTypesMatcher(((Instrumenter.ForKnownTypes) instrumenter).knownMatchingTypes());
+      names = ((Instrumenter.ForKnownTypes) instrumenter).knownMatchingTypes();
     } else if (instrumenter instanceof Instrumenter.ForTypeHierarchy) {
-      typeMatcher = ((Instrumenter.ForTypeHierarchy) instrumenter).hierarchyMatcher();
+      names = NO_NAMES;
     } else {
       return AgentBuilder.RawMatcher.Trivial.NON_MATCHING;
     }
 
-    if (instrumenter instanceof Instrumenter.CanShortcutTypeMatching
-        && !((Instrumenter.CanShortcutTypeMatching) instrumenter).onlyMatchKnownTypes()) {
-      // not taking shortcuts, so include wider hierarchical matching
-      typeMatcher =
-          new ElementMatcher.Junction.Disjunction(
-              typeMatcher, ((Instrumenter.ForTypeHierarchy) instrumenter).hierarchyMatcher());
+    ElementMatcher<? super TypeDescription> hierarchyMatcher = null;
+    if (instrumenter instanceof Instrumenter.CanShortcutTypeMatching) {
+      if (!((Instrumenter.CanShortcutTypeMatching) instrumenter).onlyMatchKnownTypes()) {
+        // not taking shortcuts, so include wider hierarchical matching
+        hierarchyMatcher = ((Instrumenter.ForTypeHierarchy) instrumenter).hierarchyMatcher();
+      }
+    } else if (instrumenter instanceof Instrumenter.ForTypeHierarchy && names == NO_NAMES) {
+      hierarchyMatcher = ((Instrumenter.ForTypeHierarchy) instrumenter).hierarchyMatcher();
     }
 
+    ElementMatcher<? super TypeDescription> structureMatcher = null;
     if (instrumenter instanceof Instrumenter.WithTypeStructure) {
       // only perform structure matching after we've matched the type
-      typeMatcher =
-          new ElementMatcher.Junction.Conjunction(
-              typeMatcher, ((Instrumenter.WithTypeStructure) instrumenter).structureMatcher());
-    }
-
-    ElementMatcher<ClassLoader> classLoaderMatcher = instrumenter.classLoaderMatcher();
-
-    if (classLoaderMatcher == ANY_CLASS_LOADER && typeMatcher instanceof AgentBuilder.RawMatcher) {
-      // optimization when using raw (named) type matcher with no classloader filtering
-      return (AgentBuilder.RawMatcher) typeMatcher;
+      structureMatcher =
+          (ElementMatcher) ((Instrumenter.WithTypeStructure) instrumenter).structureMatcher();
     }
 
-    return new FailSafeRawMatcher(
-        typeMatcher,
-        classLoaderMatcher,
+    return combiningMatcher.add(
+        names,
+        hierarchyMatcher,
+        structureMatcher,
+        instrumenter.classLoaderMatcher(),
         "Instrumentation matcher unexpected exception - instrumentation.names="
             + instrumenter.names()
             + " instrumentation.class="
@@ -0,0 +1,255 @@
+package datadog.trace.agent.tooling.bytebuddy.matcher;
+
+import static datadog.trace.agent.tooling.StartupCache.NOT_CACHEABLE;
+
+import datadog.trace.agent.tooling.StartupCache;
+import datadog.trace.api.Config;
+import datadog.trace.util.ClassNameTrie;
+import datadog.trace.util.FNV64Hash;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.utility.JavaModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matches a type against the type matchers of all instrumentations in a single pass, rather than
+ * asking each instrumentation's transformation in turn.
+ *
+ * <p>The types named by the instrumentations are indexed in one {@link ClassNameTrie}, so that the
+ * instrumentations naming a type are found with a single lookup. Hierarchy matchers are then only
+ * evaluated once per type, and only when the instrumentation's class-loader matcher accepts the
+ * type's class-loader. The instrumentations which matched are recorded for the current thread
+ * until ByteBuddy is done with the type, and each transformation's matcher only checks whether its
+ * instrumentation was recorded.
+ *
+ * <p>When the {@link StartupCache} is enabled, the instrumentations matching a type are taken from
+ * previous runs if none of the jars its class-loader can see has changed since. Types generated at
+ * runtime are always matched again, as they can reuse a name with a different hierarchy.
+ */
+public final class CombiningMatcher extends AgentBuilder.Listener.Adapter {
+  private static final Logger log = LoggerFactory.getLogger(CombiningMatcher.class);
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final Map<String, BitSet> idsByName = new HashMap<>();
+  private final BitSet hierarchyIds = new BitSet();
+
+  private ClassNameTrie namedIndex;
+  private BitSet[] namedGroups;
+  private long fingerprint;
+
+  private final ThreadLocal<Matches> recorded = new ThreadLocal<>();
+
+  /**
+   * Adds the type matching of an instrumentation.
+   *
+   * @param names types matched by name, may be empty
+   * @param hierarchyMatcher matches other types by their hierarchy, may be null
+   * @param structureMatcher further checks types matched by name or hierarchy, may be null
+   * @param classLoaderMatcher class-loaders the instrumentation applies to
+   * @param description logged when a matcher throws an exception
+   * @return the matcher to use for the instrumentation's transformation
+   */
+  public AgentBuilder.RawMatcher add(
+      String[] names,
+      ElementMatcher<? super TypeDescription> hierarchyMatcher,
+      ElementMatcher<? super TypeDescription> structureMatcher,
+      ElementMatcher<? super ClassLoader> classLoaderMatcher,
+      String description) {
+    if (null != namedIndex) {
+      throw new IllegalStateException("Matcher already indexed");
+    }
+    int id = entries.size();
+    entries.add(new Entry(hierarchyMatcher, structureMatcher, classLoaderMatcher, description));
+    for (String name : names) {
+      BitSet ids = idsByName.get(name);
+      if (null == ids) {
+        idsByName.put(name, ids = new BitSet());
+      }
+      ids.set(id);
+    }
+    if (null != hierarchyMatcher) {
+      hierarchyIds.set(id);
+    }
+    return new Recorded(id);
+  }
+
+  /** Builds the index of named types, once all instrumentations have been added. */
+  public void index() {
+    // names matched by the same instrumentations share a group, so there are few of them
+    Map<BitSet, Integer> groups = new HashMap<>();
+    List<BitSet> namedGroups = new ArrayList<>();
+    ClassNameTrie.Builder builder = new ClassNameTrie.Builder();
+    for (Map.Entry<String, BitSet> named : idsByName.entrySet()) {
+      Integer group = groups.get(named.getValue());
+      if (null == group) {
+        group = namedGroups.size();
+        groups.put(named.getValue(), group);
+        namedGroups.add(named.getValue());
+      }
+      builder.put(named.getKey(), group);
+    }
+    this.namedGroups = namedGroups.toArray(new BitSet[0]);
+    this.namedIndex = builder.buildTrie();
+    this.fingerprint = fingerprint();
+  }
+
+  /**
+   * @return a fingerprint of the instrumentations added, in order, and of the settings adding to
+   *     the types they match
+   */
+  public long fingerprint() {
+    long fingerprint = 1;
+    for (Entry entry : entries) {
+      fingerprint = StartupCache.combine(fingerprint, entry.description.hashCode());
+    }
+    Config config = Config.get();
+    fingerprint = StartupCache.combine(fingerprint, hash(config.getTraceAnnotations()));
+    fingerprint = StartupCache.combine(fingerprint, hash(config.getTraceExecutors()));
+    return StartupCache.combine(fingerprint, config.isTraceExecutorsAll() ? 2 : 1);
+  }
+
+  private static long hash(Object setting) {
+    return FNV64Hash.generateHash(String.valueOf(setting), FNV64Hash.Version.v1A);
+  }
+
+  boolean matches(
+      int id, TypeDescription type, ClassLoader classLoader, ProtectionDomain protectionDomain) {
+    Matches matches = recorded.get();
+    if (null == matches || matches.type != type || matches.classLoader != classLoader) {
+      matches = new Matches(type, classLoader, cachedMatch(type, classLoader, protectionDomain));
+      recorded.set(matches);
+    }
+    return matches.ids.get(id);
+  }
+
+  /** @return the ids of the instrumentations matching the type, from previous runs if possible */
+  private BitSet cachedMatch(
+      TypeDescription type, ClassLoader classLoader, ProtectionDomain protectionDomain) {
+    StartupCache cache = StartupCache.get();
+    // ids are only meaningful to matchers with the same instrumentations
+    long cacheKey =
+        null != cache
+            ? StartupCache.combine(cache.fingerprint(classLoader), fingerprint)
+            : NOT_CACHEABLE;
+    String name = type.getName();
+    if (NOT_CACHEABLE == cacheKey
+        || !cache.isFingerprinted(classLoader, protectionDomain)
+        // CGLIB and Javassist proxies can claim the protection domain of the class they extend
+        || name.contains("$$")) {
+      return match(type, classLoader);
+    }
+    BitSet ids = cache.getMatches(cacheKey, name);
+    if (null == ids) {
+      ids = match(type, classLoader);
+      cache.putMatches(cacheKey, name, ids);
+    }
+    return ids;
+  }
+
+  /** @return the ids of the instrumentations matching the type */
+  private BitSet match(TypeDescription type, ClassLoader classLoader) {
+    BitSet named;
+    int group = namedGroups.length > 0 ? namedIndex.apply(type.getName()) : -1;
+    if (group >= 0) {
+      named = namedGroups[group];
+    } else {
+      named = new BitSet();
+    }
+    BitSet ids = new BitSet();
+    for (int id = nextCandidate(named, -1); id >= 0; id = nextCandidate(named, id)) {
+      if (entries.get(id).matches(type, classLoader, named.get(id))) {
+        ids.set(id);
+      }
+    }
+    return ids;
+  }
+
+  private int nextCandidate(BitSet named, int id) {
+    int nextNamed = named.nextSetBit(id + 1);
+    int nextHierarchy = hierarchyIds.nextSetBit(id + 1);
+    if (nextNamed < 0 || nextHierarchy < 0) {
+      return Math.max(nextNamed, nextHierarchy);
+    }
+    return Math.min(nextNamed, nextHierarchy);
+  }
+
+  @Override
+  public void onComplete(
+      String typeName, ClassLoader classLoader, JavaModule module, boolean loaded) {
+    // don't keep the type and its class-loader reachable from the thread
+    recorded.set(null);
+  }
+
+  private static final class Entry {
+    private final ElementMatcher<? super TypeDescription> hierarchyMatcher;
+    private final ElementMatcher<? super TypeDescription> structureMatcher;
+    private final ElementMatcher<? super ClassLoader> classLoaderMatcher;
+    private final String description;
+
+    Entry(
+        ElementMatcher<? super TypeDescription> hierarchyMatcher,
+        ElementMatcher<? super TypeDescription> structureMatcher,
+        ElementMatcher<? super ClassLoader> classLoaderMatcher,
+        String description) {
+      this.hierarchyMatcher = hierarchyMatcher;
+      this.structureMatcher = structureMatcher;
+      this.classLoaderMatcher = classLoaderMatcher;
+      this.description = description;
+    }
+
+    boolean matches(TypeDescription type, ClassLoader classLoader, boolean named) {
+      try {
+        return classLoaderMatcher.matches(classLoader)
+            && (named || hierarchyMatcher.matches(type))
+            && (null == structureMatcher || structureMatcher.matches(type));
+      } catch (Exception e) {
+        log.debug(description, e);
+        return false;
+      }
+    }
+  }
+
+  private static final class Matches {
+    final TypeDescription type;
+    final ClassLoader classLoader;
+    final BitSet ids;
+
+    Matches(TypeDescription type, ClassLoader classLoader, BitSet ids) {
+      this.type = type;
+      this.classLoader = classLoader;
+      this.ids = ids;
+    }
+  }
+
+  /** Checks whether an instrumentation was recorded as matching the type. */
+  private final class Recorded implements AgentBuilder.RawMatcher {
+    private final int id;
+
+    Recorded(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean matches(
+        TypeDescription typeDescription,
+        ClassLoader classLoader,
+        JavaModule module,
+        Class<?> classBeingRedefined,
+        ProtectionDomain protectionDomain) {
+      return CombiningMatcher.this.matches(id, typeDescription, classLoader, protectionDomain);
+    }
+
+    @Override
+    public String toString() {
+      return "combined(" + entries.get(id).description + ")";
+    }
+  }
+}
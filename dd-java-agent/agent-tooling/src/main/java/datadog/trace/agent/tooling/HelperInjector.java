@@ -3,10 +3,12 @@ package datadog.trace.agent.tooling;
 import static datadog.trace.bootstrap.AgentClassLoading.INJECTING_HELPERS;
 
 import datadog.trace.api.Config;
+import datadog.trace.api.InstrumentationMetrics;
 import datadog.trace.util.Strings;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -54,6 +56,8 @@ public class HelperInjector implements Instrumenter.AdviceTransformer {
 
   private final Set<String> helperClassNames;
   private final Map<String, byte[]> dynamicTypeMap = new LinkedHashMap<>();
+  // softly held, so the bytecode can be reclaimed under memory pressure and read again if needed
+  private volatile SoftReference<Map<String, byte[]>> helperBundle;
 
   private final Map<ClassLoader, Boolean> injectedClassLoaders =
       Collections.synchronizedMap(new WeakHashMap<ClassLoader, Boolean>());
@@ -90,18 +94,28 @@ public class HelperInjector implements Instrumenter.AdviceTransformer {
     return new HelperInjector(requestingName, helperMap);
   }
 
+  /**
+   * The helpers are read from the agent jar, then injected as a bundle into each loader. The bundle
+   * is kept while memory allows, and is read again from the agent jar once it has been cleared.
+   */
   private Map<String, byte[]> getHelperMap() throws IOException {
     if (dynamicTypeMap.isEmpty()) {
-      final Map<String, byte[]> classnameToBytes = new LinkedHashMap<>();
+      final SoftReference<Map<String, byte[]>> bundleRef = helperBundle;
+      Map<String, byte[]> classnameToBytes = null == bundleRef ? null : bundleRef.get();
+      if (null == classnameToBytes) {
+        classnameToBytes = new LinkedHashMap<>();
 
-      final ClassFileLocator locator =
-          ClassFileLocator.ForClassLoader.of(Utils.getAgentClassLoader());
+        final ClassFileLocator locator =
+            ClassFileLocator.ForClassLoader.of(Utils.getAgentClassLoader());
 
-      for (final String helperClassName : helperClassNames) {
-        final byte[] classBytes = locator.locate(helperClassName).resolve();
-        classnameToBytes.put(helperClassName, classBytes);
-      }
+        for (final String helperClassName : helperClassNames) {
+          final byte[] classBytes = locator.locate(helperClassName).resolve();
+          classnameToBytes.put(helperClassName, classBytes);
+        }
 
+        classnameToBytes = Collections.unmodifiableMap(classnameToBytes);
+        helperBundle = new SoftReference<>(classnameToBytes);
+      }
       return classnameToBytes;
     } else {
       return dynamicTypeMap;
@@ -129,6 +143,7 @@ public class HelperInjector implements Instrumenter.AdviceTransformer {
                 Strings.join(",", helperClassNames));
           }
 
+          final long startNanos = System.nanoTime();
           final Map<String, byte[]> classnameToBytes = getHelperMap();
           final Map<String, Class<?>> classes;
           if (classLoader == BOOTSTRAP_CLASSLOADER_PLACEHOLDER) {
@@ -136,6 +151,7 @@ public class HelperInjector implements Instrumenter.AdviceTransformer {
           } else {
             classes = injectClassLoader(classLoader, classnameToBytes);
           }
+          InstrumentationMetrics.onHelperInjection(System.nanoTime() - startNanos);
 
           // All datadog helper classes are in the unnamed module
           // And there's exactly one unnamed module per classloader
@@ -149,9 +149,22 @@ public interface Instrumenter {
        * prevents unnecessary loading of muzzle references during agentBuilder
        * setup.
        */
+      final StartupCache cache = StartupCache.get();
+      final long loaderFingerprint =
+          null != cache ? cache.fingerprint(classLoader) : StartupCache.NOT_CACHEABLE;
+      if (StartupCache.NOT_CACHEABLE != loaderFingerprint) {
+        // only recorded when there are muzzle references, no need to load them to reuse it
+        final Boolean verdict = cache.getMuzzleVerdict(loaderFingerprint, getClass().getName());
+        if (null != verdict) {
+          return verdict;
+        }
+      }
       final IReferenceMatcher muzzle = getInstrumentationMuzzle();
       if (null != muzzle) {
         final boolean isMatch = muzzle.matches(classLoader);
+        if (StartupCache.NOT_CACHEABLE != loaderFingerprint) {
+          cache.putMuzzleVerdict(loaderFingerprint, getClass().getName(), isMatch);
+        }
         if (!isMatch) {
           if (log.isDebugEnabled()) {
             final List<Reference.Mismatch> mismatches =
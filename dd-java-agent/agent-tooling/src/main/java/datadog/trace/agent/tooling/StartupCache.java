@@ -0,0 +1,415 @@
+package datadog.trace.agent.tooling;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import datadog.trace.api.Function;
+import datadog.trace.bootstrap.WeakCache;
+import datadog.trace.util.AgentTaskScheduler;
+import datadog.trace.util.FNV64Hash;
+import de.thetaphi.forbiddenapis.SuppressForbidden;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the results of matching types against instrumentations, and of the muzzle checks, between
+ * runs of the JVM, so that they don't have to be worked out again while the classpath is unchanged.
+ *
+ * <p>Results are kept for each class-loader whose classpath can be fingerprinted: the bootstrap,
+ * platform and system class-loaders, and {@link URLClassLoader}s only made of jars, when their
+ * parents can be fingerprinted too. The fingerprint covers the path, size and modification time of
+ * each jar, so results are only reused when none of the jars a class-loader can see has changed.
+ * Only the results of types loaded from the JDK or from one of these jars are kept, as classes
+ * generated at runtime can reuse a name with a different hierarchy.
+ *
+ * <p>The cache file is named after the fingerprint of the agent and of the instrumentations it
+ * applies, is read at startup, and is written again periodically when there are new results. Only
+ * the results of the class-loaders seen during this run are written, to a temporary file of this
+ * JVM which then replaces the cache file, so JVMs can share the cache directory.
+ */
+public final class StartupCache {
+  private static final Logger log = LoggerFactory.getLogger(StartupCache.class);
+
+  public static final long NOT_CACHEABLE = 0;
+
+  private static final int MAGIC = 0xDDCAC4E1;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long SAVE_PERIOD_SECONDS = 30;
+
+  private static final long JDK_FINGERPRINT = jdkFingerprint();
+
+  private static volatile StartupCache instance;
+
+  /** @return the cache, or null when it isn't enabled */
+  public static StartupCache get() {
+    return instance;
+  }
+
+  /**
+   * Enables the cache, reading the results of previous runs with the same agent and
+   * instrumentations.
+   *
+   * @param directory where the cache files are kept
+   * @param instrumentationFingerprint fingerprint of the instrumentations applied, in order
+   */
+  public static synchronized void open(String directory, long instrumentationFingerprint) {
+    if (null != instance) {
+      return;
+    }
+    long agentFingerprint = combine(instrumentationFingerprint, JDK_FINGERPRINT);
+    ClassLoader agentJar = Utils.getBootstrapProxy();
+    if (agentJar instanceof URLClassLoader) {
+      agentFingerprint =
+          combine(agentFingerprint, jarsFingerprint((URLClassLoader) agentJar, null));
+    }
+    if (NOT_CACHEABLE == agentFingerprint) {
+      log.debug("Startup cache disabled, the agent cannot be fingerprinted");
+      return;
+    }
+    Path file =
+        Paths.get(directory, "dd-java-agent-" + Long.toHexString(agentFingerprint) + ".cache");
+    StartupCache cache = new StartupCache(file, agentFingerprint);
+    try {
+      if (Files.exists(file)) {
+        cache.read();
+      } else {
+        Files.createDirectories(file.getParent());
+      }
+    } catch (Exception e) {
+      log.debug("Ignoring unreadable startup cache {}", file, e);
+      cache.resultsByLoader.clear();
+    }
+    instance = cache;
+    AgentTaskScheduler.INSTANCE.scheduleAtFixedRate(
+        new AgentTaskScheduler.Task<StartupCache>() {
+          @Override
+          public void run(StartupCache target) {
+            target.saveIfChanged();
+          }
+        },
+        cache,
+        SAVE_PERIOD_SECONDS,
+        SAVE_PERIOD_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  private final Path file;
+  private final long agentFingerprint;
+  private final ConcurrentMap<Long, LoaderResults> resultsByLoader = new ConcurrentHashMap<>();
+  private final WeakCache<ClassLoader, Long> fingerprints = WeakCaches.newWeakCache(64);
+  private final Set<String> fingerprintedJars =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final WeakCache<CodeSource, Boolean> fingerprintedSources =
+      WeakCaches.newWeakCache(256);
+  private volatile boolean changed;
+
+  StartupCache(Path file, long agentFingerprint) {
+    this.file = file;
+    this.agentFingerprint = agentFingerprint;
+  }
+
+  /** @return the fingerprint of the class-loader's classpath, or {@link #NOT_CACHEABLE} */
+  public long fingerprint(ClassLoader classLoader) {
+    if (null == classLoader) {
+      return JDK_FINGERPRINT;
+    }
+    return fingerprints.computeIfAbsent(classLoader, computeFingerprint);
+  }
+
+  /**
+   * @return whether types from the protection domain were loaded from the JDK or from a jar
+   *     covered by a class-loader fingerprint, rather than generated at runtime
+   */
+  public boolean isFingerprinted(ClassLoader classLoader, ProtectionDomain protectionDomain) {
+    if (null == protectionDomain) {
+      // JDK classes of the bootstrap class-loader have no protection domain
+      return null == classLoader;
+    }
+    CodeSource codeSource = protectionDomain.getCodeSource();
+    if (null == codeSource || null == codeSource.getLocation()) {
+      return false;
+    }
+    return fingerprintedSources.computeIfAbsent(codeSource, checkCodeSource);
+  }
+
+  /** @return the ids of the instrumentations matching the type, or null when unknown */
+  public BitSet getMatches(long loaderFingerprint, String className) {
+    return resultsFor(loaderFingerprint).matches.get(className);
+  }
+
+  public void putMatches(long loaderFingerprint, String className, BitSet ids) {
+    resultsFor(loaderFingerprint).matches.put(className, ids);
+    changed = true;
+  }
+
+  /** @return whether the instrumentation passed its muzzle checks, or null when unknown */
+  public Boolean getMuzzleVerdict(long loaderFingerprint, String instrumentation) {
+    return resultsFor(loaderFingerprint).muzzleVerdicts.get(instrumentation);
+  }
+
+  public void putMuzzleVerdict(long loaderFingerprint, String instrumentation, boolean verdict) {
+    resultsFor(loaderFingerprint).muzzleVerdicts.put(instrumentation, verdict);
+    changed = true;
+  }
+
+  private LoaderResults resultsFor(long loaderFingerprint) {
+    LoaderResults results = resultsByLoader.get(loaderFingerprint);
+    if (null == results) {
+      results = new LoaderResults();
+      LoaderResults existing = resultsByLoader.putIfAbsent(loaderFingerprint, results);
+      if (null != existing) {
+        results = existing;
+      }
+    }
+    results.used = true;
+    return results;
+  }
+
+  private final Function<ClassLoader, Long> computeFingerprint =
+      new Function<ClassLoader, Long>() {
+        @Override
+        public Long apply(ClassLoader classLoader) {
+          return classpathFingerprint(classLoader);
+        }
+      };
+
+  private final Function<CodeSource, Boolean> checkCodeSource =
+      new Function<CodeSource, Boolean>() {
+        @Override
+        public Boolean apply(CodeSource codeSource) {
+          URL location = codeSource.getLocation();
+          if ("jrt".equals(location.getProtocol())) {
+            // JDK modules are covered by the JDK fingerprint
+            return true;
+          } else if (!"file".equals(location.getProtocol())) {
+            return false;
+          }
+          try {
+            return fingerprintedJars.contains(new File(location.toURI()).getCanonicalPath());
+          } catch (Exception e) {
+            return false;
+          }
+        }
+      };
+
+  @SuppressForbidden // the path separator is a single character, which split doesn't compile
+  private long classpathFingerprint(ClassLoader classLoader) {
+    ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
+    if (classLoader == systemClassLoader.getParent()) {
+      // platform or extension class-loader, which is part of the JDK
+      return JDK_FINGERPRINT;
+    } else if (classLoader == systemClassLoader) {
+      long fingerprint = JDK_FINGERPRINT;
+      for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+        if (!entry.isEmpty()) {
+          fingerprint = combine(fingerprint, jarFingerprint(new File(entry), fingerprintedJars));
+        }
+      }
+      return fingerprint;
+    } else if (classLoader instanceof URLClassLoader) {
+      long parentFingerprint = fingerprint(classLoader.getParent());
+      if (NOT_CACHEABLE == parentFingerprint) {
+        return NOT_CACHEABLE;
+      }
+      return combine(
+          parentFingerprint, jarsFingerprint((URLClassLoader) classLoader, fingerprintedJars));
+    }
+    return NOT_CACHEABLE;
+  }
+
+  private static long jarsFingerprint(URLClassLoader classLoader, Set<String> jars) {
+    long fingerprint = 1;
+    for (URL url : classLoader.getURLs()) {
+      if (!"file".equals(url.getProtocol())) {
+        return NOT_CACHEABLE;
+      }
+      try {
+        fingerprint = combine(fingerprint, jarFingerprint(new File(url.toURI()), jars));
+      } catch (Exception e) {
+        return NOT_CACHEABLE;
+      }
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Directories are not fingerprinted, as their classes can change without them changing.
+   *
+   * @param jars where to record the canonical path of the jar, may be null
+   */
+  private static long jarFingerprint(File jar, Set<String> jars) {
+    if (!jar.isFile()) {
+      return NOT_CACHEABLE;
+    }
+    if (null != jars) {
+      try {
+        jars.add(jar.getCanonicalPath());
+      } catch (IOException e) {
+        return NOT_CACHEABLE;
+      }
+    }
+    long fingerprint = FNV64Hash.generateHash(jar.getAbsolutePath(), FNV64Hash.Version.v1A);
+    fingerprint = combine(fingerprint, jar.length());
+    return combine(fingerprint, jar.lastModified());
+  }
+
+  private static long jdkFingerprint() {
+    long fingerprint = 1;
+    for (String property :
+        new String[] {
+          "java.home",
+          "java.vm.version",
+          "java.runtime.version",
+          "sun.boot.class.path",
+          "jdk.boot.class.path.append"
+        }) {
+      String value = System.getProperty(property, "");
+      fingerprint = combine(fingerprint, FNV64Hash.generateHash(value, FNV64Hash.Version.v1A));
+    }
+    return fingerprint;
+  }
+
+  /** @return the combined fingerprint, which is not cacheable if either is not cacheable */
+  public static long combine(long fingerprint, long value) {
+    if (NOT_CACHEABLE == fingerprint || NOT_CACHEABLE == value) {
+      return NOT_CACHEABLE;
+    }
+    long combined = (fingerprint ^ value) * FNV_PRIME;
+    return NOT_CACHEABLE == combined ? 1 : combined;
+  }
+
+  void read() throws IOException {
+    try (InputStream is = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+      if (in.readInt() != MAGIC || in.readLong() != agentFingerprint) {
+        return;
+      }
+      int loaderCount = in.readInt();
+      for (int i = 0; i < loaderCount; ++i) {
+        LoaderResults results = new LoaderResults();
+        resultsByLoader.put(in.readLong(), results);
+        int matchCount = in.readInt();
+        for (int j = 0; j < matchCount; ++j) {
+          String className = readString(in);
+          long[] words = new long[in.readUnsignedByte()];
+          for (int k = 0; k < words.length; ++k) {
+            words[k] = in.readLong();
+          }
+          results.matches.put(className, BitSet.valueOf(words));
+        }
+        int verdictCount = in.readInt();
+        for (int j = 0; j < verdictCount; ++j) {
+          String instrumentation = readString(in);
+          results.muzzleVerdicts.put(instrumentation, in.readByte() != 0);
+        }
+      }
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedShort()];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  void saveIfChanged() {
+    if (!changed) {
+      return;
+    }
+    changed = false;
+    try {
+      save();
+    } catch (Exception e) {
+      log.debug("Failed to write startup cache {}", file, e);
+    }
+  }
+
+  void save() throws IOException {
+    // results of the class-loaders seen during this run, new results can be added while writing
+    List<Map.Entry<Long, LoaderResults>> used = new ArrayList<>();
+    for (Map.Entry<Long, LoaderResults> entry : resultsByLoader.entrySet()) {
+      if (entry.getValue().used) {
+        used.add(entry);
+      }
+    }
+    // JVMs sharing the cache directory each write to their own temporary file
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      write(tmp, used);
+      try {
+        Files.move(
+            tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void write(Path tmp, List<Map.Entry<Long, LoaderResults>> used) throws IOException {
+    try (OutputStream os = Files.newOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+      out.writeInt(MAGIC);
+      out.writeLong(agentFingerprint);
+      out.writeInt(used.size());
+      for (Map.Entry<Long, LoaderResults> entry : used) {
+        out.writeLong(entry.getKey());
+        Map<String, BitSet> matches = new HashMap<>(entry.getValue().matches);
+        out.writeInt(matches.size());
+        for (Map.Entry<String, BitSet> match : matches.entrySet()) {
+          writeString(out, match.getKey());
+          long[] words = match.getValue().toLongArray();
+          out.writeByte(words.length);
+          for (long word : words) {
+            out.writeLong(word);
+          }
+        }
+        Map<String, Boolean> verdicts = new HashMap<>(entry.getValue().muzzleVerdicts);
+        out.writeInt(verdicts.size());
+        for (Map.Entry<String, Boolean> verdict : verdicts.entrySet()) {
+          writeString(out, verdict.getKey());
+          out.writeByte(verdict.getValue() ? 1 : 0);
+        }
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static final class LoaderResults {
+    final Map<String, BitSet> matches = new ConcurrentHashMap<>();
+    final Map<String, Boolean> muzzleVerdicts = new ConcurrentHashMap<>();
+    volatile boolean used;
+  }
+}
@@ -101,6 +101,11 @@ public class DDCachingPoolStrategy {
             BOOTSTRAP_HASH, null, sharedResolutionCache, fallBackToLoadClass);
   }
 
+  /** @return whether types whose class file cannot be located are loaded instead */
+  public final boolean fallsBackToLoadClass() {
+    return fallBackToLoadClass;
+  }
+
   public final TypePool typePool(
       final ClassFileLocator classFileLocator, final ClassLoader classLoader) {
     if (classLoader == null) {
@@ -207,6 +207,9 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
      *     new String[] {
      *       // helper class names
      *     },
+     *     new String[] {
+     *       // class resources probed before checking references
+     *     },
      *     new Reference[] {
      *       // reference builders
      *     });
@@ -233,9 +236,12 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
         mv.visitTypeInsn(Opcodes.NEW, "datadog/trace/agent/tooling/muzzle/ReferenceMatcher");
         mv.visitInsn(Opcodes.DUP);
 
-        writeStrings(mv, instrumenter.muzzleIgnoredClassNames());
-
+        String[] helperClassNames = instrumenter.muzzleIgnoredClassNames();
         Reference[] references = generateReferences();
+
+        writeStrings(mv, helperClassNames);
+        writeStrings(mv, ReferenceMatcher.probes(helperClassNames, references));
+
         mv.visitLdcInsn(references.length);
         mv.visitTypeInsn(Opcodes.ANEWARRAY, "datadog/trace/agent/tooling/muzzle/Reference");
 
@@ -275,7 +281,8 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
             Opcodes.INVOKESPECIAL,
             "datadog/trace/agent/tooling/muzzle/ReferenceMatcher",
             "<init>",
-            "([Ljava/lang/String;[Ldatadog/trace/agent/tooling/muzzle/Reference;)V",
+            "([Ljava/lang/String;[Ljava/lang/String;"
+                + "[Ldatadog/trace/agent/tooling/muzzle/Reference;)V",
             false);
 
         mv.visitFieldInsn(
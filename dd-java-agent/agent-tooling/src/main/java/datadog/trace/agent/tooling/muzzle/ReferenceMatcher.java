@@ -1,5 +1,8 @@
 package datadog.trace.agent.tooling.muzzle;
 
+import static datadog.trace.bootstrap.AgentClassLoading.PROBING_CLASSLOADER;
+import static datadog.trace.util.Strings.getClassName;
+import static datadog.trace.util.Strings.getResourceName;
 import static net.bytebuddy.dynamic.loading.ClassLoadingStrategy.BOOTSTRAP_LOADER;
 
 import datadog.trace.agent.tooling.Utils;
@@ -8,6 +11,7 @@ import datadog.trace.agent.tooling.bytebuddy.DDCachingPoolStrategy;
 import datadog.trace.agent.tooling.bytebuddy.DDClassFileLocator;
 import datadog.trace.agent.tooling.muzzle.Reference.Mismatch;
 import datadog.trace.api.Function;
+import datadog.trace.api.InstrumentationMetrics;
 import datadog.trace.api.Pair;
 import datadog.trace.bootstrap.WeakCache;
 import de.thetaphi.forbiddenapis.SuppressForbidden;
@@ -15,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,14 +33,46 @@ public final class ReferenceMatcher implements IReferenceMatcher {
   private final WeakCache<ClassLoader, Boolean> mismatchCache = WeakCaches.newWeakCache();
   private final Reference[] references;
   private final Set<String> helperClassNames;
+  private final String[] probes;
 
   public ReferenceMatcher(final Reference... references) {
     this(new String[0], references);
   }
 
   public ReferenceMatcher(final String[] helperClassNames, final Reference[] references) {
+    this(helperClassNames, probes(helperClassNames, references), references);
+  }
+
+  /**
+   * @param probes class resources which must be found for the references to match, generated at
+   *     build time by the muzzle plugin
+   */
+  public ReferenceMatcher(
+      final String[] helperClassNames, final String[] probes, final Reference[] references) {
     this.references = references;
     this.helperClassNames = new HashSet<>(Arrays.asList(helperClassNames));
+    this.probes = probes;
+  }
+
+  /**
+   * @return the class resources of the references which are not helpers, library classes first as
+   *     they are the most likely to be missing
+   */
+  public static String[] probes(final String[] helperClassNames, final Reference[] references) {
+    Set<String> helpers = new HashSet<>(Arrays.asList(helperClassNames));
+    Set<String> libraryProbes = new LinkedHashSet<>();
+    Set<String> jdkProbes = new LinkedHashSet<>();
+    for (Reference reference : references) {
+      if (!helpers.contains(reference.className)) {
+        if (reference.className.startsWith("java.")) {
+          jdkProbes.add(getResourceName(reference.className));
+        } else {
+          libraryProbes.add(getResourceName(reference.className));
+        }
+      }
+    }
+    libraryProbes.addAll(jdkProbes);
+    return libraryProbes.toArray(new String[0]);
   }
 
   public Reference[] getReferences() {
@@ -66,18 +103,59 @@ public final class ReferenceMatcher implements IReferenceMatcher {
       };
 
   private boolean doesMatch(final ClassLoader loader) {
-    final List<Mismatch> mismatches = new ArrayList<>();
-    for (final Reference reference : references) {
-      // Don't reference-check helper classes.
-      // They will be injected by the instrumentation's HelperInjector.
-      if (!helperClassNames.contains(reference.className)) {
-        if (!checkMatch(reference, loader, mismatches)) {
+    final long startNanos = System.nanoTime();
+    try {
+      // most mismatches are missing classes, look for them before describing any type
+      if (!hasProbedClasses(loader)) {
+        return false;
+      }
+      final List<Mismatch> mismatches = new ArrayList<>();
+      for (final Reference reference : references) {
+        // Don't reference-check helper classes.
+        // They will be injected by the instrumentation's HelperInjector.
+        if (!helperClassNames.contains(reference.className)) {
+          if (!checkMatch(reference, loader, mismatches)) {
+            return false;
+          }
+        }
+      }
+
+      return true;
+    } finally {
+      InstrumentationMetrics.onMuzzleCheck(System.nanoTime() - startNanos);
+    }
+  }
+
+  /** @return false if a referenced class is definitely missing, like the type pool would find */
+  private boolean hasProbedClasses(final ClassLoader loader) {
+    final ClassLoader bootstrapProxy = Utils.getBootstrapProxy();
+    final boolean fallBackToLoadClass = DDCachingPoolStrategy.INSTANCE.fallsBackToLoadClass();
+    PROBING_CLASSLOADER.begin();
+    try {
+      for (final String probe : probes) {
+        if (null == bootstrapProxy.getResource(probe)
+            && null == loader.getResource(probe)
+            // like the type pool, load classes whose class file cannot be located
+            && !(fallBackToLoadClass && canLoadClass(loader, probe))) {
           return false;
         }
       }
+      return true;
+    } catch (final Throwable ignored) {
+      // leave it to the full reference check
+      return true;
+    } finally {
+      PROBING_CLASSLOADER.end();
     }
+  }
 
-    return true;
+  private static boolean canLoadClass(final ClassLoader loader, final String probe) {
+    try {
+      loader.loadClass(getClassName(probe));
+      return true;
+    } catch (final ClassNotFoundException | LinkageError e) {
+      return false;
+    }
   }
 
   /**
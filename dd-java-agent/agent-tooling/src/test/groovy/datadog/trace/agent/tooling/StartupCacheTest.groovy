@@ -0,0 +1,144 @@
+package datadog.trace.agent.tooling
+
+import datadog.trace.test.util.DDSpecification
+
+import java.nio.file.Path
+import java.security.CodeSource
+import java.security.ProtectionDomain
+import java.security.cert.Certificate
+
+import static datadog.trace.agent.tooling.StartupCache.NOT_CACHEABLE
+
+class StartupCacheTest extends DDSpecification {
+
+  File dir = File.createTempDir()
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "results are read back by the next run"() {
+    setup:
+    Path file = new File(dir, "test.cache").toPath()
+    def cache = new StartupCache(file, 42)
+    def loader = new URLClassLoader([jar("a.jar")] as URL[], (ClassLoader) null)
+    long fingerprint = cache.fingerprint(loader)
+    cache.putMatches(fingerprint, "foo.Bar", bits(1, 70))
+    cache.putMatches(fingerprint, "foo.Baz", bits())
+    cache.putMuzzleVerdict(fingerprint, "foo.Instrumentation", true)
+    cache.putMuzzleVerdict(fingerprint, "foo.OtherInstrumentation", false)
+    cache.save()
+
+    when:
+    def nextRun = new StartupCache(file, 42)
+    nextRun.read()
+
+    then:
+    nextRun.fingerprint(loader) == fingerprint
+    nextRun.getMatches(fingerprint, "foo.Bar") == bits(1, 70)
+    nextRun.getMatches(fingerprint, "foo.Baz") == bits()
+    nextRun.getMatches(fingerprint, "foo.Unknown") == null
+    nextRun.getMuzzleVerdict(fingerprint, "foo.Instrumentation")
+    !nextRun.getMuzzleVerdict(fingerprint, "foo.OtherInstrumentation")
+    nextRun.getMuzzleVerdict(fingerprint, "foo.Unknown") == null
+
+    and: 'the temporary file was moved into place'
+    dir.list().findAll { it.endsWith(".tmp") } == []
+  }
+
+  def "results of another agent are ignored"() {
+    setup:
+    Path file = new File(dir, "test.cache").toPath()
+    def cache = new StartupCache(file, 42)
+    cache.putMatches(7, "foo.Bar", bits(1))
+    cache.save()
+
+    when:
+    def nextRun = new StartupCache(file, 43)
+    nextRun.read()
+
+    then:
+    nextRun.getMatches(7, "foo.Bar") == null
+  }
+
+  def "only results of class-loaders used by the run are written"() {
+    setup:
+    Path file = new File(dir, "test.cache").toPath()
+    def cache = new StartupCache(file, 42)
+    cache.putMatches(7, "foo.Bar", bits(1))
+    cache.putMatches(8, "foo.Baz", bits(2))
+    cache.save()
+    def secondRun = new StartupCache(file, 42)
+    secondRun.read()
+    secondRun.getMatches(8, "foo.Baz")
+    secondRun.save()
+
+    when:
+    def thirdRun = new StartupCache(file, 42)
+    thirdRun.read()
+
+    then:
+    thirdRun.getMatches(7, "foo.Bar") == null
+    thirdRun.getMatches(8, "foo.Baz") == bits(2)
+  }
+
+  def "fingerprint changes with the jars"() {
+    setup:
+    def cache = new StartupCache(new File(dir, "test.cache").toPath(), 42)
+    def a = jar("a.jar")
+    def fingerprint = cache.fingerprint(new URLClassLoader([a] as URL[], (ClassLoader) null))
+
+    when:
+    new File(a.toURI()) << "more"
+
+    then:
+    fingerprint != NOT_CACHEABLE
+    cache.fingerprint(new URLClassLoader([a] as URL[], (ClassLoader) null)) != fingerprint
+    cache.fingerprint(new URLClassLoader([a, jar("b.jar")] as URL[], (ClassLoader) null)) != fingerprint
+  }
+
+  def "class-loaders which cannot be fingerprinted are not cached"() {
+    setup:
+    def cache = new StartupCache(new File(dir, "test.cache").toPath(), 42)
+    def jarLoader = new URLClassLoader([jar("a.jar")] as URL[], (ClassLoader) null)
+
+    expect: 'directories can change without being modified'
+    cache.fingerprint(new URLClassLoader([dir.toURI().toURL()] as URL[], (ClassLoader) null)) == NOT_CACHEABLE
+    cache.fingerprint(new URLClassLoader([new URL("http://localhost/a.jar")] as URL[], (ClassLoader) null)) == NOT_CACHEABLE
+    cache.fingerprint(new ClassLoader(jarLoader) {}) == NOT_CACHEABLE
+    cache.fingerprint(new URLClassLoader([jar("b.jar")] as URL[], new ClassLoader(null) {})) == NOT_CACHEABLE
+    cache.fingerprint(new URLClassLoader([jar("b.jar")] as URL[], jarLoader)) != NOT_CACHEABLE
+  }
+
+  def "only types from fingerprinted jars are cached"() {
+    setup:
+    def cache = new StartupCache(new File(dir, "test.cache").toPath(), 42)
+    def a = jar("a.jar")
+    def loader = new URLClassLoader([a] as URL[], (ClassLoader) null)
+    cache.fingerprint(loader)
+
+    expect:
+    cache.isFingerprinted(loader, domain(a))
+    cache.isFingerprinted(null, null)
+    !cache.isFingerprinted(loader, domain(jar("b.jar")))
+    !cache.isFingerprinted(loader, domain(dir.toURI().toURL()))
+    !cache.isFingerprinted(loader, domain(null))
+    !cache.isFingerprinted(loader, null)
+  }
+
+  static ProtectionDomain domain(URL location) {
+    return new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null)
+  }
+
+  URL jar(String name) {
+    def jar = new File(dir, name)
+    jar << name
+    return jar.toURI().toURL()
+  }
+
+  static BitSet bits(int... ids) {
+    def bits = new BitSet()
+    ids.each { bits.set(it) }
+    return bits
+  }
+}
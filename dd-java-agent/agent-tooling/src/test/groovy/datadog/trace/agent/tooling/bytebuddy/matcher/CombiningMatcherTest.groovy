@@ -0,0 +1,104 @@
+package datadog.trace.agent.tooling.bytebuddy.matcher
+
+import datadog.trace.agent.tooling.bytebuddy.DDCachingPoolStrategy
+import datadog.trace.agent.tooling.bytebuddy.DDClassFileLocator
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.A
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.B
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.E
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.F
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.G
+import datadog.trace.test.util.DDSpecification
+import net.bytebuddy.matcher.ElementMatcher
+import spock.lang.Shared
+
+import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.extendsClass
+import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.implementsInterface
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.named
+import static net.bytebuddy.matcher.ElementMatchers.any
+import static net.bytebuddy.matcher.ElementMatchers.none
+
+class CombiningMatcherTest extends DDSpecification {
+  @Shared
+  def typePool = DDCachingPoolStrategy.INSTANCE.typePool(
+  new DDClassFileLocator(this.class.classLoader), this.class.classLoader)
+
+  static final String[] NO_NAMES = []
+
+  def "instrumentations are matched by name and by hierarchy"() {
+    setup:
+    def combiningMatcher = new CombiningMatcher()
+    def matchers = [
+      combiningMatcher.add([A.name] as String[], null, null, any(), "a"),
+      combiningMatcher.add([A.name, B.name] as String[], null, null, any(), "a or b"),
+      combiningMatcher.add([B.name] as String[], null, null, none(), "b elsewhere"),
+      combiningMatcher.add(NO_NAMES, extendsClass(named(F.name)), null, any(), "extends f"),
+      combiningMatcher.add([A.name] as String[], implementsInterface(named(E.name)), null, any(), "a or implements e"),
+      combiningMatcher.add(NO_NAMES, implementsInterface(named(E.name)), named(F.name), any(), "f implementing e")
+    ]
+    combiningMatcher.index()
+
+    when:
+    def description = typePool.describe(type.name).resolve()
+
+    then:
+    matchers.findIndexValues {
+      it.matches(description, this.class.classLoader, null, null, null)
+    } == expected
+
+    where:
+    type | expected
+    A    | [0, 1, 4]
+    B    | [1]
+    E    | []
+    F    | [3, 4, 5]
+    G    | [3, 4]
+  }
+
+  def "hierarchy matchers are only evaluated once per type"() {
+    setup:
+    def hierarchyMatcher = Mock(ElementMatcher)
+    def combiningMatcher = new CombiningMatcher()
+    def first = combiningMatcher.add(NO_NAMES, hierarchyMatcher, null, any(), "first")
+    def second = combiningMatcher.add([G.name] as String[], null, null, any(), "second")
+    combiningMatcher.index()
+    def description = typePool.describe(G.name).resolve()
+
+    when:
+    def firstMatched = first.matches(description, null, null, null, null)
+    def secondMatched = second.matches(description, null, null, null, null)
+
+    then:
+    1 * hierarchyMatcher.matches(description) >> true
+    0 * _
+    firstMatched
+    secondMatched
+
+    when: 'ByteBuddy is done with the type'
+    combiningMatcher.onComplete(G.name, null, null, false)
+    firstMatched = first.matches(description, null, null, null, null)
+
+    then:
+    1 * hierarchyMatcher.matches(description) >> false
+    !firstMatched
+  }
+
+  def "matcher exceptions only fail their instrumentation"() {
+    setup:
+    def hierarchyMatcher = Mock(ElementMatcher)
+    def combiningMatcher = new CombiningMatcher()
+    def failing = combiningMatcher.add(NO_NAMES, hierarchyMatcher, null, any(), "failing")
+    def named = combiningMatcher.add([G.name] as String[], null, null, any(), "named")
+    combiningMatcher.index()
+    def description = typePool.describe(G.name).resolve()
+
+    when:
+    def failingMatched = failing.matches(description, null, null, null, null)
+    def namedMatched = named.matches(description, null, null, null, null)
+
+    then:
+    1 * hierarchyMatcher.matches(_) >> { throw new Exception("matcher exception") }
+    noExceptionThrown()
+    !failingMatched
+    namedMatched
+  }
+}
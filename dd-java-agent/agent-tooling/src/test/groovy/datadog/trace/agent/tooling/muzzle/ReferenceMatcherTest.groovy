@@ -47,6 +47,48 @@ class ReferenceMatcherTest extends DDSpecification {
     getMismatchClassSet(refMatcher.getMismatchedReferenceSources(unsafeClasspath)) == new HashSet<>([MissingClass])
   }
 
+  def "missing classes are found by probing"() {
+    setup:
+    Reference[] refs = ReferenceCreator.createReferencesFrom(MethodBodyAdvice.getName(), this.getClass().getClassLoader()).values().toArray(new Reference[0])
+    ReferenceMatcher refMatcher = new ReferenceMatcher(refs)
+
+    expect:
+    refMatcher.matches(safeClasspath)
+    !refMatcher.matches(unsafeClasspath)
+  }
+
+  def "classes which can be loaded without a class file are not missing"() {
+    setup:
+    Reference[] refs = ReferenceCreator.createReferencesFrom(MethodBodyAdvice.getName(), this.getClass().getClassLoader()).values().toArray(new Reference[0])
+    ReferenceMatcher refMatcher = new ReferenceMatcher(refs)
+    ClassLoader noResources = new URLClassLoader([] as URL[], safeClasspath) {
+        @Override
+        URL getResource(String name) {
+          return null
+        }
+      }
+
+    expect:
+    refMatcher.matches(noResources)
+  }
+
+  def "probes skip helpers and start with library classes"() {
+    setup:
+    Reference[] refs = [
+      new Reference.Builder("java.lang.String").build(),
+      new Reference.Builder("com.example.Library").build(),
+      new Reference.Builder("com.example.Helper").build(),
+      new Reference.Builder("com.example.Other").build()
+    ]
+
+    expect:
+    ReferenceMatcher.probes(["com.example.Helper"] as String[], refs) == [
+      "com/example/Library.class",
+      "com/example/Other.class",
+      "java/lang/String.class"
+    ] as String[]
+  }
+
   def "matching does not hold a strong reference to classloaders"() {
     expect:
     MuzzleWeakReferenceTest.classLoaderRefIsGarbageCollected()
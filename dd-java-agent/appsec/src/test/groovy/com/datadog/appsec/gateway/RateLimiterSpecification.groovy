@@ -1,13 +1,13 @@
 package com.datadog.appsec.gateway
 
-import datadog.trace.api.time.TimeSource
+import datadog.trace.api.time.ControllableTimeSource
 import spock.lang.Specification
 
 class RateLimiterSpecification extends Specification {
   int throttledCounter = 0
-  def mock = Mock(TimeSource)
+  def timeSource = new ControllableTimeSource()
   RateLimiter testee = new RateLimiter(
-  10, mock, { throttledCounter++ } as RateLimiter.ThrottledCallback)
+  10, timeSource, { throttledCounter++ } as RateLimiter.ThrottledCallback)
 
   void 'limit is respected in a single interval'() {
     setup:
@@ -17,150 +17,56 @@ class RateLimiterSpecification extends Specification {
     15.times {testee.throttled || count++ }
 
     then:
-    15 * mock.nanoTicks >> System.nanoTime()
     count == 10
     throttledCounter == 5
   }
 
-  void 'limit considers fraction of previous interval'() {
+  void 'operations are allowed again as time passes'() {
     setup:
-    def initialTime = 0
     def count = 0
 
     when:
-    8.times {testee.throttled || count++ }
-
-    then:
-    8 * mock.nanoTicks >> initialTime
-    count == 8
-
-    when:
-    20.times {testee.throttled || count++ }
-
-    then:
-    20 * mock.nanoTicks >> initialTime + 1_500_000_000L
-    // 4 events from previous period are considered.
-    count == 8 + (10 - 4)
-  }
-
-  void 'limit may be applied even when 1 sec ahead'() {
-    setup:
-    def initialTime = 0
-    def count = 0
-
-    when:
-    10.times {testee.throttled || count++ }
-
-    then:
-    10 * mock.nanoTicks >> initialTime
-    count == 10
-
-    when:
-    testee.throttled || count++
-
-    then:
-    1 * mock.nanoTicks >> initialTime + 1_000_000_000L
-    count == 10
-  }
-
-  void 'limit considers fraction of previous interval — ushort wrap around'() {
-    setup:
-    def initialTime = 1_000_000_000L
-    def count = 0
-
-    // this is needed because of initial state of the rate limiter:
-    when:
-    testee.throttled
-    then:
-    1 * mock.nanoTicks >> -42_000_000_000L
-
-    when:
-    8.times {testee.throttled || count++ }
-
-    then:
-    8 * mock.nanoTicks >> initialTime
-    count == 8
-
-    when:
-    20.times {testee.throttled || count++ }
-
-    then:
-    20 * mock.nanoTicks >> initialTime + 1_500_000_000L
-    // 4 events from previous period are considered.
-    count == 8 + (10 - 4)
-  }
-
-  void 'limit ignores fraction of old interval'() {
-    setup:
-    def initialTime = 0
-    def count = 0
-
-    when:
-    8.times {testee.throttled || count++ }
-
-    then:
-    8 * mock.nanoTicks >> initialTime
-    count == 8
-
-    when:
-    20.times {testee.throttled || count++ }
+    15.times {testee.throttled || count++ }
+    timeSource.advance(500_000_000L)
+    15.times {testee.throttled || count++ }
 
-    then:
-    20 * mock.nanoTicks >> initialTime + 2_000_000_000L
-    count == 8 + 10
+    then: 'half a second does not refill every token'
+    count > 10
+    count <= 10 + 5
 
     when:
-    20.times {testee.throttled || count++ }
+    def before = count
+    timeSource.advance(2_000_000_000L)
+    15.times {testee.throttled || count++ }
 
-    then:
-    20 * mock.nanoTicks >> initialTime
-    count == 8 + 10 + 10
+    then: 'tokens are never refilled beyond a second worth'
+    count - before == 10
+    throttledCounter == 45 - count
   }
 
-  void 'if 1 sec behind reread the time with initialTime=#initialTime'() {
+  void 'limit is respected over time'() {
     setup:
     def count = 0
 
     when:
-    9.times {testee.throttled || count++ }
-
-    then:
-    9 * mock.nanoTicks >> initialTime
-
-    when:
-    testee.throttled || count++
+    10_000.times {
+      timeSource.advance(1_000_000L)
+      testee.throttled || count++
+    }
 
-    then:
-    2 * mock.nanoTicks >>> [initialTime - 1_000_000_000L, initialTime]
-    count == 10
-
-    when:
-    testee.throttled || count++
-
-    then:
-    2 * mock.nanoTicks >>> [initialTime - 1_000_000_000L, initialTime]
-    count == 10
-
-    where:
-    initialTime << [1_000_000_000L, 0L]
+    then: 'the initial burst, and then up to the limit every second'
+    count > 95
+    count <= 10 + 100
   }
 
-  void 'if still 1 sec behind after reread assume the time has wrapped around'() {
+  void 'limit of zero throttles everything'() {
     setup:
-    def initialTime = 1_000_000_000L
-    def count = 0
-
-    when:
-    10.times {testee.throttled || count++ }
-
-    then:
-    10 * mock.nanoTicks >> initialTime
+    def limiter = new RateLimiter(0, timeSource, { throttledCounter++ } as RateLimiter.ThrottledCallback)
 
     when:
-    testee.throttled || count++
+    5.times { limiter.throttled }
 
     then:
-    2 * mock.nanoTicks >> initialTime - 1_000_000_000L
-    count == 11
+    throttledCounter == 5
   }
 }
@@ -0,0 +1,100 @@
+package datadog.benchmark;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import datadog.benchmark.classes.UntracedClass;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Boot time of a JVM running the agent, with and without a dynamic AppCDS archive (JDK 13+)
+ * trained by a previous run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class AgentStartupBenchmark {
+
+  private static final String AGENT_JAR =
+      "/path/to/dd-trace-java/dd-java-agent/build/libs/dd-java-agent.jar";
+
+  @Param({"false", "true"})
+  boolean sharedArchive;
+
+  private File archive;
+  private File classList;
+  private List<String> command;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (sharedArchive) {
+      archive = File.createTempFile("dd-java-agent", ".jsa");
+      classList = File.createTempFile("dd-java-agent", ".classlist");
+      // the JVM refuses to overwrite a file which isn't an archive
+      archive.delete();
+      launch(
+          command(
+              "-XX:ArchiveClassesAtExit=" + archive.getPath(),
+              "-Ddd.cds.classlist=" + classList.getPath()));
+      command = command("-XX:SharedArchiveFile=" + archive.getPath());
+    } else {
+      command = command();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (null != archive) {
+      archive.delete();
+      classList.delete();
+    }
+  }
+
+  @Benchmark
+  public void startup() throws Exception {
+    launch(command);
+  }
+
+  private static List<String> command(final String... jvmArgs) {
+    final List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(Arrays.asList(jvmArgs));
+    command.add("-javaagent:" + AGENT_JAR);
+    command.add("-Ddd.jmxfetch.enabled=false");
+    command.add("-Ddd.writer.type=LoggingWriter");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(AgentStartupBenchmark.class.getName());
+    return command;
+  }
+
+  private static void launch(final List<String> command) throws IOException, InterruptedException {
+    final Process process = new ProcessBuilder(command).inheritIO().start();
+    final int exitCode = process.waitFor();
+    if (exitCode != 0) {
+      throw new IllegalStateException("JVM exited with " + exitCode + ": " + command);
+    }
+  }
+
+  /** Entry point of the launched JVM. */
+  public static void main(final String... args) {
+    new UntracedClass().a();
+  }
+}
@@ -1,6 +1,9 @@
 package datadog.trace.api;
 
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 public final class ConfigDefaults {
 
@@ -34,6 +37,11 @@ public final class ConfigDefaults {
 
   static final boolean DEFAULT_TRACE_ENABLED = true;
   static final boolean DEFAULT_INTEGRATIONS_ENABLED = true;
+  static final boolean DEFAULT_INTEGRATIONS_DEFERRED = false;
+  // installed before the application starts even when other integrations are deferred
+  static final List<String> DEFAULT_INTEGRATIONS_CRITICAL =
+      Collections.unmodifiableList(
+          Arrays.asList("servlet", "java_concurrent", "jdbc", "classloading"));
   static final String DEFAULT_AGENT_WRITER_TYPE = "DDAgentWriter";
 
   static final boolean DEFAULT_RUNTIME_CONTEXT_FIELD_INJECTION = true;
@@ -51,6 +59,8 @@ public final class ConfigDefaults {
   static final int DEFAULT_SCOPE_DEPTH_LIMIT = 100;
   static final int DEFAULT_SCOPE_ITERATION_KEEP_ALIVE = 10; // in seconds
   static final int DEFAULT_PARTIAL_FLUSH_MIN_SPANS = 1000;
+  static final boolean DEFAULT_PARTIAL_FLUSH_MEMORY_ENABLED = false;
+  static final int DEFAULT_SPAN_STREAMING_CHUNK_SIZE = 64;
   static final boolean DEFAULT_PROPAGATION_EXTRACT_LOG_HEADER_NAMES_ENABLED = false;
   static final String DEFAULT_PROPAGATION_STYLE_EXTRACT = PropagationStyle.DATADOG.name();
   static final String DEFAULT_PROPAGATION_STYLE_INJECT = PropagationStyle.DATADOG.name();
@@ -54,6 +54,24 @@ public class DDId {
     return DDId.create(parseUnsignedLongHex(s), null);
   }
 
+  /**
+   * Create a new {@code DDId} from a section of the given {@code String} hex representation of the
+   * unsigned 64 bit id, without copying the section.
+   *
+   * @param s String containing the id in hex
+   * @param start index of the first character of the id
+   * @param length number of characters of the id
+   * @return DDId
+   * @throws NumberFormatException
+   */
+  public static DDId fromHex(String s, int start, int length) throws NumberFormatException {
+    if (s == null) {
+      throw new NumberFormatException("null");
+    }
+
+    return DDId.create(parseUnsignedLongHex(s, start, length), null);
+  }
+
   /**
    * Create a new {@code DDId} from the given {@code String} hex representation of the unsigned 64
    * bit id, while retalining the original {@code String} representation for use in headers.
@@ -74,7 +92,10 @@ public class DDId {
    * @param s String in hex of unsigned 64 bit (or more) id
    * @return DDId
    * @throws NumberFormatException
+   * @deprecated the high order bits of 128 bit ids should be kept with {@link
+   *     #parseUnsignedLongHex(String, int, int)} rather than in the original {@code String}
    */
+  @Deprecated
   public static DDId fromHexTruncatedWithOriginal(String s) throws NumberFormatException {
     if (s == null) {
       throw new NumberFormatException("null");
@@ -168,7 +189,18 @@ public class DDId {
     return parseUnsignedLongHex(s, 0, s.length());
   }
 
-  private static long parseUnsignedLongHex(String s, int start, int len)
+  /**
+   * Parses a section of the given {@code String} hex representation of an unsigned 64 bit value,
+   * without copying the section. This is used for the high order bits of 128 bit trace ids, which
+   * are kept as a {@code long} next to the {@code DDId} of the low order bits.
+   *
+   * @param s String containing the value in hex
+   * @param start index of the first character of the value
+   * @param len number of characters of the value
+   * @return long representing the bits of the unsigned 64 bit value
+   * @throws NumberFormatException
+   */
+  public static long parseUnsignedLongHex(String s, int start, int len)
       throws NumberFormatException {
     if (len > 0) {
       if (len > 16 && (len - firstNonZeroCharacter(s, start)) > 16) {
@@ -261,17 +293,41 @@ public class DDId {
       size = 16;
     }
     byte[] bytes = new byte[size];
-    long remaining = this.id;
-    int nibbleCount = Long.numberOfLeadingZeros(remaining) >>> 2;
-    Arrays.fill(bytes, 0, (size - 16) + nibbleCount, (byte) '0');
-    for (int i = 0; i < 16 - nibbleCount; i++) {
-      int b = (int) (remaining & 0xF);
-      bytes[size - 1 - i] = HEX_DIGITS[b];
-      remaining >>>= 4;
-    }
+    Arrays.fill(bytes, 0, size - 16, (byte) '0');
+    writeHexPadded(this.id, bytes, size - 16);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the 32 character zero padded hex representation, in lower case, of the unsigned 128 bit
+   * id with the given high order bits and this id as its low order bits. The hex {@code String}
+   * will NOT be cached.
+   *
+   * @param highOrderBits long representing the high order bits of the 128 bit id
+   * @return zero padded hex String
+   */
+  public String toHexString128(long highOrderBits) {
+    byte[] bytes = new byte[32];
+    writeHexPadded(highOrderBits, bytes, 0);
+    writeHexPadded(this.id, bytes, 16);
     return new String(bytes, StandardCharsets.ISO_8859_1);
   }
 
+  /**
+   * Writes the 16 character zero padded hex representation, in lower case, of the given unsigned
+   * 64 bit value as ASCII bytes.
+   *
+   * @param bits long representing the bits of the unsigned 64 bit value
+   * @param bytes the array to write to
+   * @param offset index of the first character in the array
+   */
+  public static void writeHexPadded(long bits, byte[] bytes, int offset) {
+    for (int i = offset + 15; i >= offset; i--) {
+      bytes[i] = HEX_DIGITS[(int) (bits & 0xF)];
+      bits >>>= 4;
+    }
+  }
+
   /**
    * Returns the no zero padded hex representation, in lower case, of the unsigned 64 bit id, or the
    * original {@code String} used to create this {@code DDId}. The hex {@code String} will NOT be
@@ -20,4 +20,16 @@ public enum IdGenerationStrategy {
   };
 
   public abstract DDId generate();
+
+  /**
+   * Generates the high order bits of a 128 bit trace id, which are the current time in seconds
+   * since the epoch followed by 32 random bits. The low order bits are generated by {@link
+   * #generate()}.
+   *
+   * @return long representing the high order bits of the 128 bit trace id
+   */
+  public long generateHighOrderBits() {
+    long epochSeconds = System.currentTimeMillis() / 1000;
+    return epochSeconds << 32 | (ThreadLocalRandom.current().nextInt() & 0xFFFFFFFFL);
+  }
 }
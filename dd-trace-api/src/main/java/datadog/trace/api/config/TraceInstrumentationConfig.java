@@ -11,6 +11,8 @@ package datadog.trace.api.config;
 public final class TraceInstrumentationConfig {
   public static final String TRACE_ENABLED = "trace.enabled";
   public static final String INTEGRATIONS_ENABLED = "integrations.enabled";
+  public static final String INTEGRATIONS_DEFERRED = "integrations.deferred";
+  public static final String INTEGRATIONS_CRITICAL = "integrations.critical";
 
   public static final String TRACE_ANNOTATIONS = "trace.annotations";
   public static final String TRACE_EXECUTORS_ALL = "trace.executors.all";
@@ -87,6 +89,7 @@ public final class TraceInstrumentationConfig {
 
   public static final String RESOLVER_USE_LOADCLASS = "resolver.use.loadclass";
   public static final String RESOLVER_TYPE_POOL_SIZE = "resolver.type.pool.size";
+  public static final String RESOLVER_CACHE_DIR = "resolver.cache.dir";
 
   private TraceInstrumentationConfig() {}
 }
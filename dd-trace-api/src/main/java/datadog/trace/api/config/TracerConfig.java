@@ -13,6 +13,8 @@ package datadog.trace.api.config;
  */
 public final class TracerConfig {
   public static final String ID_GENERATION_STRATEGY = "id.generation.strategy";
+  public static final String TRACE_128_BIT_TRACEID_GENERATION_ENABLED =
+      "trace.128.bit.traceid.generation.enabled";
   public static final String WRITER_TYPE = "writer.type";
   public static final String PRIORITIZATION_TYPE = "prioritization.type";
   public static final String TRACE_AGENT_URL = "trace.agent.url";
@@ -53,7 +55,15 @@ public final class TracerConfig {
       "trace.scope.inherit.async.propagation";
   public static final String SCOPE_ITERATION_KEEP_ALIVE = "trace.scope.iteration.keep.alive";
   public static final String PARTIAL_FLUSH_MIN_SPANS = "trace.partial.flush.min.spans";
+  public static final String PARTIAL_FLUSH_MEMORY_ENABLED = "trace.partial.flush.memory.enabled";
+  public static final String SPAN_STREAMING_ENABLED = "trace.span.streaming.enabled";
+  public static final String SPAN_STREAMING_CHUNK_SIZE = "trace.span.streaming.chunk.size";
   public static final String TRACE_STRICT_WRITES_ENABLED = "trace.strict.writes.enabled";
+  public static final String TRACE_EARLY_SAMPLING_ENABLED = "trace.early.sampling.enabled";
+  public static final String TRACE_SERIALIZATION_SHARDS = "trace.serialization.shards";
+  public static final String TRACE_AGENT_MAX_IN_FLIGHT_REQUESTS =
+      "trace.agent.max.in.flight.requests";
+  public static final String TRACE_SPAN_RECYCLING_ENABLED = "trace.span.recycling.enabled";
   public static final String PROPAGATION_EXTRACT_LOG_HEADER_NAMES_ENABLED =
       "propagation.extract.log_header_names.enabled";
   public static final String PROPAGATION_STYLE_EXTRACT = "propagation.style.extract";
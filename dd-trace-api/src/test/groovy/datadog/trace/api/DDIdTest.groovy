@@ -91,6 +91,55 @@ class DDIdTest extends DDSpecification {
     "123456789abcdef"        | DDId.from(81985529216486895)
   }
 
+  def "convert ids from/to a section of a hex String"() {
+    when:
+    final ddid = DDId.fromHex(hexId, start, length)
+
+    then:
+    ddid == expectedId
+    DDId.parseUnsignedLongHex(hexId, start, length) == expectedId.toLong()
+
+    where:
+    hexId                 | start | length | expectedId
+    "1"                   | 0     | 1      | DDId.ONE
+    "x-1-y"               | 2     | 1      | DDId.ONE
+    "a" * 16 + "f" * 16   | 16    | 16     | DDId.MAX
+    "a" * 16 + "f" * 16   | 0     | 16     | DDId.from(-6148914691236517206)
+    "0" * 16 + "cafebabe" | 8     | 16     | DDId.from(3405691582)
+  }
+
+  def "convert 128 bit ids to hex String"() {
+    when:
+    final hex = DDId.from(lowOrderBits).toHexString128(highOrderBits)
+
+    then:
+    hex == expectedHex
+    DDId.parseUnsignedLongHex(hex, 0, 16) == highOrderBits
+    DDId.fromHex(hex, 16, 16).toLong() == lowOrderBits
+
+    where:
+    highOrderBits       | lowOrderBits   | expectedHex
+    0                   | 1              | "0" * 31 + "1"
+    1                   | 0              | "0" * 15 + "1" + "0" * 16
+    -1                  | -1             | "f" * 32
+    0x6305ab6a00000001L | Long.MIN_VALUE | "6305ab6a00000001" + "8" + "0" * 15
+  }
+
+  def "generate the high order bits of 128 bit ids with #idGenerator"() {
+    setup:
+    final before = System.currentTimeMillis().intdiv(1000)
+
+    when:
+    final highOrderBits = idGenerator.generateHighOrderBits()
+
+    then:
+    (highOrderBits >>> 32) >= before
+    (highOrderBits >>> 32) <= System.currentTimeMillis().intdiv(1000)
+
+    where:
+    idGenerator << IdGenerationStrategy.values()
+  }
+
   def "fail on illegal hex String"() {
     when:
     DDId.fromHex(hexId)
@@ -0,0 +1,157 @@
+package datadog.trace.common.metrics;
+
+import datadog.communication.ddagent.DDAgentFeaturesDiscovery;
+import datadog.communication.monitor.Monitoring;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures publishing finished traces to the span metrics aggregators, from several threads at
+ * once. The traces cover a fixed set of metric keys, so after warmup this measures the steady
+ * state where the keys are known and only the aggregates are updated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class MetricsAggregatorPublish {
+
+  private static final int TRACE_COUNT = 64;
+
+  @Param({"conflating", "striped"})
+  String aggregatorType;
+
+  MetricsAggregator aggregator;
+
+  final List<List<DDSpan>> traces = new ArrayList<>(TRACE_COUNT);
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+  }
+
+  @Setup(Level.Trial)
+  public void init() {
+    ListWriter writer = new ListWriter();
+    CoreTracer tracer = CoreTracer.builder().writer(writer).strictTraceWrites(true).build();
+    for (int i = 0; i < TRACE_COUNT; ++i) {
+      AgentSpan root =
+          tracer
+              .buildSpan("servlet.request")
+              .withServiceName("service-" + (i % 4))
+              .withResourceName("GET /resource/" + i)
+              .start();
+      AgentSpan child = tracer.buildSpan("db.query").asChildOf(root.context()).start();
+      child.setMeasured(true);
+      child.finish();
+      root.finish();
+    }
+    for (List<DDSpan> trace : writer) {
+      traces.add(trace);
+    }
+    tracer.close();
+    DDAgentFeaturesDiscovery features = new MetricsFeatures();
+    MetricWriter metricWriter = new NoopMetricWriter();
+    if ("striped".equals(aggregatorType)) {
+      aggregator =
+          new StripedMetricsAggregator(
+              Collections.<String>emptySet(),
+              features,
+              new NoopSink(),
+              metricWriter,
+              2048,
+              0,
+              10,
+              TimeUnit.SECONDS);
+    } else {
+      aggregator =
+          new ConflatingMetricsAggregator(
+              Collections.<String>emptySet(),
+              features,
+              new NoopSink(),
+              metricWriter,
+              2048,
+              2048,
+              10,
+              TimeUnit.SECONDS);
+    }
+    aggregator.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    aggregator.close();
+  }
+
+  @Benchmark
+  public boolean publish(Cursor cursor) {
+    return aggregator.publish(traces.get(cursor.next++ & (TRACE_COUNT - 1)));
+  }
+
+  /** Pretends the agent supports span metrics without asking it. */
+  private static final class MetricsFeatures extends DDAgentFeaturesDiscovery {
+    MetricsFeatures() {
+      super(
+          new OkHttpClient(),
+          Monitoring.DISABLED,
+          HttpUrl.parse("http://localhost:8126"),
+          false,
+          true);
+    }
+
+    @Override
+    public void discover() {}
+
+    @Override
+    public String getMetricsEndpoint() {
+      return V6_METRICS_ENDPOINT;
+    }
+
+    @Override
+    public boolean supportsMetrics() {
+      return true;
+    }
+  }
+
+  private static final class NoopSink implements Sink {
+    @Override
+    public void register(EventListener listener) {}
+
+    @Override
+    public void accept(int messageCount, ByteBuffer buffer) {}
+  }
+
+  private static final class NoopMetricWriter implements MetricWriter {
+    @Override
+    public void startBucket(int metricCount, long start, long duration) {}
+
+    @Override
+    public void add(MetricKey key, AggregateMetric aggregate) {}
+
+    @Override
+    public void finishBucket() {}
+
+    @Override
+    public void reset() {}
+  }
+}
@@ -0,0 +1,91 @@
+package datadog.trace.common.sampling;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.OperationSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares finding the sampling rule matching a span with the compiled rules against trying the
+ * rules in order. Half of the rules are literal service or operation names and the other half are
+ * patterns, and the spans mostly match one of the last rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SamplingRuleMatching {
+
+  private static final int SPAN_COUNT = 64;
+
+  @Param({"4", "40"})
+  int ruleCount;
+
+  List<SamplingRule<DDSpan>> rules;
+  CompiledSamplingRules<DDSpan> compiledRules;
+  final List<DDSpan> spans = new ArrayList<>(SPAN_COUNT);
+  int next;
+
+  @Setup(Level.Trial)
+  public void init() {
+    rules = new ArrayList<>(ruleCount + 1);
+    for (int i = 0; i < ruleCount / 2; ++i) {
+      RateSampler<DDSpan> sampler = new DeterministicSampler<>(0.5);
+      rules.add(
+          (i & 1) == 0
+              ? new ServiceSamplingRule<>("service-" + i, sampler)
+              : new OperationSamplingRule<>("operation-" + i, sampler));
+      rules.add(
+          (i & 1) == 0
+              ? new ServiceSamplingRule<>("service-" + i + "-.*", sampler)
+              : new OperationSamplingRule<>("operation\\." + i + "\\..*", sampler));
+    }
+    rules.add(new AlwaysMatchesSamplingRule<>(new DeterministicSampler<DDSpan>(1)));
+    compiledRules = new CompiledSamplingRules<>(rules);
+    CoreTracer tracer = CoreTracer.builder().writer(new ListWriter()).build();
+    for (int i = 0; i < SPAN_COUNT; ++i) {
+      int rule = ruleCount / 2 - 1 - (i % 4);
+      AgentSpan span =
+          tracer
+              .buildSpan((i & 1) == 0 ? "operation." + rule + ".query" : "operation-" + i)
+              .withServiceName((i & 1) == 0 ? "other-service" : "service-" + rule + "-db")
+              .start();
+      spans.add((DDSpan) span);
+    }
+    tracer.close();
+  }
+
+  @Benchmark
+  public SamplingRule<DDSpan> compiled() {
+    return compiledRules.match(nextSpan());
+  }
+
+  @Benchmark
+  public SamplingRule<DDSpan> inOrder() {
+    DDSpan span = nextSpan();
+    for (SamplingRule<DDSpan> rule : rules) {
+      if (rule.matches(span)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  private DDSpan nextSpan() {
+    return spans.get(next++ & (SPAN_COUNT - 1));
+  }
+}
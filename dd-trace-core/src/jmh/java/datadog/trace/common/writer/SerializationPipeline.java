@@ -0,0 +1,135 @@
+package datadog.trace.common.writer;
+
+import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_KEEP;
+
+import datadog.communication.monitor.Monitoring;
+import datadog.trace.api.StatsDClient;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.ddagent.Prioritization;
+import datadog.trace.common.writer.ddagent.TraceMapperV0_4;
+import datadog.trace.common.writer.ddagent.TraceMapperV0_5;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import datadog.trace.core.monitor.HealthMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures traces going through the writer pipeline: they are published to a {@link
+ * TraceProcessingWorker}, serialized by its thread, and the payloads are handed to a {@link
+ * RemoteApi} which consumes them without sending anything.
+ *
+ * <p>Publishing blocks while the queue is full, so the throughput is bounded by serialization. Run
+ * with {@code -prof gc} to see the allocation rate of the serializer thread as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class SerializationPipeline {
+
+  private static final int TRACE_COUNT = 64;
+
+  @Param({"v0.4", "v0.5"})
+  String version;
+
+  @Param({"1", "10"})
+  int spansPerTrace;
+
+  final List<List<DDSpan>> traces = new ArrayList<>(TRACE_COUNT);
+
+  TraceProcessingWorker worker;
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+  }
+
+  @Setup(Level.Trial)
+  public void init(Blackhole blackhole) {
+    ListWriter listWriter = new ListWriter();
+    CoreTracer tracer = CoreTracer.builder().writer(listWriter).strictTraceWrites(true).build();
+    for (int i = 0; i < TRACE_COUNT; ++i) {
+      AgentSpan root = tracer.buildSpan("servlet.request").withResourceName("GET /" + i).start();
+      root.setTag("http.url", "http://localhost:8080/" + i);
+      root.setTag("http.status_code", 200);
+      for (int j = 1; j < spansPerTrace; ++j) {
+        AgentSpan child = tracer.buildSpan("db.query").asChildOf(root.context()).start();
+        child.setTag("db.statement", "select * from users where id = ?");
+        child.finish();
+      }
+      root.finish();
+    }
+    traces.addAll(listWriter);
+    tracer.close();
+    final RemoteMapper mapper =
+        "v0.5".equals(version) ? new TraceMapperV0_5() : new TraceMapperV0_4();
+    RemoteMapperDiscovery discovery =
+        new RemoteMapperDiscovery() {
+          @Override
+          public void discover() {}
+
+          @Override
+          public RemoteMapper getMapper() {
+            return mapper;
+          }
+        };
+    HealthMetrics healthMetrics = new HealthMetrics(StatsDClient.NO_OP);
+    worker =
+        new TraceProcessingWorker(
+            1024,
+            healthMetrics,
+            new PayloadDispatcher(
+                discovery, new BlackholeApi(blackhole), healthMetrics, Monitoring.DISABLED),
+            null,
+            Prioritization.ENSURE_TRACE,
+            1,
+            TimeUnit.SECONDS);
+    worker.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    worker.flush(10, TimeUnit.SECONDS);
+    worker.close();
+  }
+
+  @Benchmark
+  public boolean publish(Cursor cursor) {
+    List<DDSpan> trace = traces.get(cursor.next++ & (TRACE_COUNT - 1));
+    return worker.publish(trace.get(0), SAMPLER_KEEP, trace);
+  }
+
+  /** Consumes the serialized payloads instead of sending them. */
+  private static final class BlackholeApi implements RemoteApi {
+    private final Blackhole blackhole;
+
+    BlackholeApi(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public Response sendSerializedTraces(Payload payload) {
+      blackhole.consume(payload.sizeInBytes());
+      blackhole.consume(payload.toRequest());
+      payload.release();
+      return Response.success(200);
+    }
+
+    @Override
+    public void addResponseListener(RemoteResponseListener listener) {}
+  }
+}
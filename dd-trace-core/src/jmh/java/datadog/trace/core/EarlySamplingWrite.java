@@ -0,0 +1,95 @@
+package datadog.trace.core;
+
+import datadog.communication.ddagent.DDAgentFeaturesDiscovery;
+import datadog.communication.ddagent.SharedCommunicationObjects;
+import datadog.communication.monitor.Monitoring;
+import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.api.sampling.SamplingMechanism;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.sampling.ForcePrioritySampler;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares writing traces which are dropped by the sampler with the sampling decision made at the
+ * end of the trace (the default) against the decision being made when the root span starts.
+ *
+ * <p>Run with {@code -prof gc} to see the difference in allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EarlySamplingWrite {
+
+  CoreTracer tracer;
+
+  @Param({"false", "true"})
+  boolean earlySampling;
+
+  @Param({"10", "100"})
+  int spansPerTrace;
+
+  @Setup(Level.Trial)
+  public void init(TraceCounters counters, Blackhole blackhole) {
+    SharedCommunicationObjects sharedCommunicationObjects = new SharedCommunicationObjects();
+    sharedCommunicationObjects.featuresDiscovery = new ClientDroppingFeatures();
+    tracer =
+        CoreTracer.builder()
+            .sharedCommunicationObjects(sharedCommunicationObjects)
+            .writer(new BlackholeWriter(blackhole, counters, 0))
+            .sampler(
+                new ForcePrioritySampler<DDSpan>(
+                    PrioritySampling.SAMPLER_DROP, SamplingMechanism.DEFAULT))
+            .strictTraceWrites(false)
+            .earlySampling(earlySampling)
+            .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    tracer.close();
+  }
+
+  @Threads(4)
+  @Benchmark
+  public void writeDroppedTraces() {
+    AgentSpan root = tracer.startSpan("operation", true);
+    for (int i = 0; i < spansPerTrace; ++i) {
+      tracer.startSpan("child", root.context(), true).finish();
+    }
+    root.finish();
+  }
+
+  /** Pretends the agent supports client side dropping of traces and computes their stats. */
+  private static final class ClientDroppingFeatures extends DDAgentFeaturesDiscovery {
+    ClientDroppingFeatures() {
+      super(
+          new OkHttpClient(),
+          Monitoring.DISABLED,
+          HttpUrl.parse("http://localhost:8126"),
+          false,
+          true);
+    }
+
+    @Override
+    public void discover() {}
+
+    @Override
+    public boolean active() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package datadog.trace.core;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentScope;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the stages of a span's life on the application thread: starting it with the span
+ * builder, setting tags of each value type, and activating and closing its scope. Finished traces
+ * are consumed by a {@link BlackholeWriter}, so serialization is left out; see {@code
+ * datadog.trace.common.writer.SerializationPipeline} for that.
+ *
+ * <p>Run with {@code -prof gc} to see the allocation rate of each stage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class SpanLifecycle {
+
+  CoreTracer tracer;
+
+  /** Tag values of each type, only used by {@link #setTags} so the other stages run once. */
+  @State(Scope.Benchmark)
+  public static class TagValues {
+    @Param({"string", "int", "long", "double", "boolean", "object"})
+    String tagType;
+
+    Object tagValue;
+
+    @Setup(Level.Trial)
+    public void init() {
+      switch (tagType) {
+        case "int":
+          tagValue = 8080;
+          break;
+        case "long":
+          tagValue = 1234567890123L;
+          break;
+        case "double":
+          tagValue = 0.5D;
+          break;
+        case "boolean":
+          tagValue = true;
+          break;
+        case "object":
+          tagValue = TimeUnit.SECONDS;
+          break;
+        default:
+          tagValue = "GET /api/v1/users/{id}";
+      }
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void init(TraceCounters counters, Blackhole blackhole) {
+    tracer =
+        CoreTracer.builder()
+            .writer(new BlackholeWriter(blackhole, counters, 0))
+            .strictTraceWrites(false)
+            .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    tracer.close();
+  }
+
+  @Benchmark
+  public void startSpan() {
+    tracer.buildSpan("operation").ignoreActiveSpan().start().finish();
+  }
+
+  @Benchmark
+  public void startSpanWithTags() {
+    tracer
+        .buildSpan("operation")
+        .ignoreActiveSpan()
+        .withTag("component", "jmh")
+        .withTag("peer.port", 8080)
+        .withTag("error", false)
+        .start()
+        .finish();
+  }
+
+  @Benchmark
+  public void setTags(TagValues tags) {
+    AgentSpan span = tracer.buildSpan("operation").ignoreActiveSpan().start();
+    setTag(span, "tag.0", tags);
+    setTag(span, "tag.1", tags);
+    setTag(span, "tag.2", tags);
+    setTag(span, "tag.3", tags);
+    span.finish();
+  }
+
+  private static void setTag(AgentSpan span, String key, TagValues tags) {
+    Object value = tags.tagValue;
+    switch (tags.tagType) {
+      case "int":
+        span.setTag(key, (int) (Integer) value);
+        break;
+      case "long":
+        span.setTag(key, (long) (Long) value);
+        break;
+      case "double":
+        span.setTag(key, (double) (Double) value);
+        break;
+      case "boolean":
+        span.setTag(key, (boolean) (Boolean) value);
+        break;
+      case "object":
+        span.setTag(key, value);
+        break;
+      default:
+        span.setTag(key, (String) value);
+    }
+  }
+
+  @Benchmark
+  public void activateAndCloseScope() {
+    AgentSpan span = tracer.buildSpan("operation").ignoreActiveSpan().start();
+    try (AgentScope scope = tracer.activateSpan(span)) {
+      AgentSpan child = tracer.buildSpan("child").start();
+      try (AgentScope childScope = tracer.activateSpan(child)) {
+        childScope.span().finish();
+      }
+    }
+    span.finish();
+  }
+}
@@ -87,6 +87,19 @@ public class TracerMapperMap {
     mapperV5.map(enrichedSpansWithOrigin, writer);
   }
 
+  // resetting the mapper starts a new payload, so the dictionary must be rebuilt
+  @Benchmark
+  public void mapTracesAcrossPayloadsV5() {
+    mapperV5.map(spans, writer);
+    mapperV5.reset();
+  }
+
+  @Benchmark
+  public void mapEnrichedTracesAcrossPayloadsV5() {
+    mapperV5.map(enrichedSpans, writer);
+    mapperV5.reset();
+  }
+
   private DDSpan createEnrichedSpanWithOrigin(int iter, final String origin) {
     final DDSpan span = createSpanWithOrigin(iter, origin);
     span.setTag("some-tag-key", "some-tag-value");
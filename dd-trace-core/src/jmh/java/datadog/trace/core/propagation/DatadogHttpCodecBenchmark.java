@@ -0,0 +1,95 @@
+package datadog.trace.core.propagation;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentPropagation;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.bootstrap.instrumentation.api.TagContext;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpanContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures injecting a span context into, and extracting one from, the headers of a request with
+ * the Datadog propagation style. The extracted headers include some which aren't propagation
+ * headers, like a real request would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class DatadogHttpCodecBenchmark {
+
+  CoreTracer tracer;
+  DDSpanContext context;
+  HttpCodec.Extractor extractor;
+  Map<String, String> headers;
+
+  @Setup(Level.Trial)
+  public void init() {
+    tracer = CoreTracer.builder().writer(new ListWriter()).strictTraceWrites(false).build();
+    AgentSpan span = tracer.buildSpan("operation").start();
+    span.setBaggageItem("user", "jmh");
+    context = (DDSpanContext) span.context();
+    extractor = DatadogHttpCodec.newExtractor(Collections.<String, String>emptyMap());
+    headers = new HashMap<>();
+    headers.put("Host", "localhost:8080");
+    headers.put("Accept", "application/json");
+    headers.put("User-Agent", "okhttp/3.12.12");
+    headers.put("Content-Length", "0");
+    DatadogHttpCodec.INJECTOR.inject(context, headers, MapSetter.INSTANCE);
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    tracer.close();
+  }
+
+  @Benchmark
+  public Map<String, String> inject() {
+    Map<String, String> carrier = new HashMap<>();
+    DatadogHttpCodec.INJECTOR.inject(context, carrier, MapSetter.INSTANCE);
+    return carrier;
+  }
+
+  @Benchmark
+  public TagContext extract() {
+    return extractor.extract(headers, MapVisitor.INSTANCE);
+  }
+
+  private static final class MapSetter implements AgentPropagation.Setter<Map<String, String>> {
+    static final MapSetter INSTANCE = new MapSetter();
+
+    @Override
+    public void set(Map<String, String> carrier, String key, String value) {
+      carrier.put(key, value);
+    }
+  }
+
+  private static final class MapVisitor
+      implements AgentPropagation.ContextVisitor<Map<String, String>> {
+    static final MapVisitor INSTANCE = new MapVisitor();
+
+    @Override
+    public void forEachKey(
+        Map<String, String> carrier, AgentPropagation.KeyClassifier classifier) {
+      for (Map.Entry<String, String> header : carrier.entrySet()) {
+        if (!classifier.accept(header.getKey(), header.getValue())) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package datadog.trace.core.util;
+
+import datadog.trace.api.sampling.TokenBucketRateLimiter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares taking tokens from the striped {@link TokenBucketRateLimiter} against the {@link
+ * SimpleRateLimiter}, from as many threads as there are processors. With a high rate most attempts
+ * get a token, with a low rate most are refused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(Threads.MAX)
+public class RateLimiterContention {
+
+  @Param({"100", "1000000"})
+  int rate;
+
+  SimpleRateLimiter simpleRateLimiter;
+  TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Setup(Level.Trial)
+  public void init() {
+    simpleRateLimiter = new SimpleRateLimiter(rate);
+    tokenBucketRateLimiter = new TokenBucketRateLimiter(rate);
+  }
+
+  @Benchmark
+  public boolean simple() {
+    return simpleRateLimiter.tryAcquire();
+  }
+
+  @Benchmark
+  public boolean tokenBucket() {
+    return tokenBucketRateLimiter.tryAcquire();
+  }
+}
@@ -28,24 +28,45 @@ public final class AggregateMetric {
   public AggregateMetric recordDurations(int count, AtomicLongArray durations) {
     this.hitCount += count;
     for (int i = 0; i < count && i < durations.length(); ++i) {
-      long duration = durations.getAndSet(i, 0);
-      if ((duration & TOP_LEVEL_TAG) == TOP_LEVEL_TAG) {
-        duration ^= TOP_LEVEL_TAG;
-        ++topLevelCount;
-      }
-      if ((duration & ERROR_TAG) == ERROR_TAG) {
-        // then it's an error
-        duration ^= ERROR_TAG;
-        errorLatencies.accept(duration);
-        ++errorCount;
-      } else {
-        okLatencies.accept(duration);
-      }
-      this.duration += duration;
+      accept(durations.getAndSet(i, 0));
     }
     return this;
   }
 
+  /** Records a single duration, tagged with {@link #ERROR_TAG} and {@link #TOP_LEVEL_TAG}. */
+  public AggregateMetric recordDuration(long taggedDuration) {
+    ++hitCount;
+    accept(taggedDuration);
+    return this;
+  }
+
+  private void accept(long duration) {
+    if ((duration & TOP_LEVEL_TAG) == TOP_LEVEL_TAG) {
+      duration ^= TOP_LEVEL_TAG;
+      ++topLevelCount;
+    }
+    if ((duration & ERROR_TAG) == ERROR_TAG) {
+      // then it's an error
+      duration ^= ERROR_TAG;
+      errorLatencies.accept(duration);
+      ++errorCount;
+    } else {
+      okLatencies.accept(duration);
+    }
+    this.duration += duration;
+  }
+
+  /** Adds the counts and durations of another aggregate to this one. */
+  public AggregateMetric mergeWith(AggregateMetric other) {
+    this.errorCount += other.errorCount;
+    this.hitCount += other.hitCount;
+    this.topLevelCount += other.topLevelCount;
+    this.duration += other.duration;
+    this.okLatencies.mergeWith(other.okLatencies);
+    this.errorLatencies.mergeWith(other.errorLatencies);
+    return this;
+  }
+
   public int getErrorCount() {
     return errorCount;
   }
@@ -24,14 +24,64 @@ public final class MetricKey {
     this.operationName = null == operationName ? EMPTY : UTF8BytesString.create(operationName);
     this.type = null == type ? EMPTY : UTF8BytesString.create(type);
     this.httpStatusCode = httpStatusCode;
+    this.hash =
+        hash(
+            this.resource.hashCode(),
+            this.service.hashCode(),
+            this.operationName.hashCode(),
+            this.type.hashCode(),
+            httpStatusCode);
+  }
+
+  /** @return the hash code of the key these fields would make, without creating the key */
+  static int hash(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode) {
+    return hash(
+        contentHash(resource),
+        contentHash(service),
+        contentHash(operationName),
+        contentHash(type),
+        httpStatusCode);
+  }
+
+  private static int hash(
+      int resource, int service, int operationName, int type, int httpStatusCode) {
     // unrolled polynomial hashcode which avoids allocating varargs
     // the constants are 31^4, 31^3, 31^2, 31^1, 31^0
-    this.hash =
-        923521 * this.resource.hashCode()
-            + 29791 * this.service.hashCode()
-            + 961 * this.operationName.hashCode()
-            + 31 * this.type.hashCode()
-            + httpStatusCode;
+    return 923521 * resource + 29791 * service + 961 * operationName + 31 * type + httpStatusCode;
+  }
+
+  private static int contentHash(CharSequence chars) {
+    if (null == chars) {
+      return EMPTY.hashCode();
+    }
+    // both hash their content like a string does
+    if (chars instanceof String || chars instanceof UTF8BytesString) {
+      return chars.hashCode();
+    }
+    return chars.toString().hashCode();
+  }
+
+  /** @return true if the key would be equal to a key made of these fields */
+  boolean matches(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode) {
+    return this.httpStatusCode == httpStatusCode
+        && contentEquals(this.resource, resource)
+        && contentEquals(this.service, service)
+        && contentEquals(this.operationName, operationName)
+        && contentEquals(this.type, type);
+  }
+
+  private static boolean contentEquals(UTF8BytesString field, CharSequence chars) {
+    return null == chars ? field.length() == 0 : field.toString().contentEquals(chars);
   }
 
   public UTF8BytesString getResource() {
@@ -12,6 +12,10 @@ public class MetricsAggregatorFactory {
       Config config, SharedCommunicationObjects sharedCommunicationObjects) {
     if (config.isTracerMetricsEnabled()) {
       log.debug("tracer metrics enabled");
+      // a negative number of stripes means one stripe per core
+      if (config.getTracerMetricsStripes() != 0) {
+        return new StripedMetricsAggregator(config, sharedCommunicationObjects);
+      }
       return new ConflatingMetricsAggregator(config, sharedCommunicationObjects);
     }
     log.debug("tracer metrics disabled");
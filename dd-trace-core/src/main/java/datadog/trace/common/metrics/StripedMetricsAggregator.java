@@ -0,0 +1,485 @@
+package datadog.trace.common.metrics;
+
+import static datadog.communication.ddagent.DDAgentFeaturesDiscovery.V6_METRICS_ENDPOINT;
+import static datadog.trace.api.Functions.UTF8_ENCODE;
+import static datadog.trace.common.metrics.AggregateMetric.ERROR_TAG;
+import static datadog.trace.common.metrics.AggregateMetric.TOP_LEVEL_TAG;
+import static datadog.trace.common.metrics.Batch.REPORT;
+import static datadog.trace.common.metrics.ConflatingMetricsAggregator.POISON_PILL;
+import static datadog.trace.util.AgentThreadFactory.AgentThread.METRICS_AGGREGATOR;
+import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import datadog.communication.ddagent.DDAgentFeaturesDiscovery;
+import datadog.communication.ddagent.SharedCommunicationObjects;
+import datadog.trace.api.Config;
+import datadog.trace.api.WellKnownTags;
+import datadog.trace.api.cache.DDCache;
+import datadog.trace.api.cache.DDCaches;
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import datadog.trace.common.writer.ddagent.DDAgentApi;
+import datadog.trace.core.CoreSpan;
+import datadog.trace.core.DDTraceCoreInfo;
+import datadog.trace.util.AgentTaskScheduler;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jctools.queues.MpscBlockingConsumerArrayQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates span metrics into stripes instead of sending partial aggregates to a single aggregator
+ * thread. Each stripe has its own table of aggregates, which spans are recorded into directly on
+ * the thread publishing them, and the stripes are only merged when the metrics are reported.
+ *
+ * <p>A thread records into the stripe its id maps to, or into the next stripe which isn't locked
+ * when that one is in use, so publishing only blocks when every stripe is in use. Aggregates are
+ * looked up with a hash of the span's fields, so no key is allocated unless the span is the first
+ * with these fields in its stripe.
+ *
+ * <p>The {@code maxAggregates} limit is split evenly between the stripes, and aggregates which were
+ * not updated during a reporting interval are removed when reporting. Spans with a new key are not
+ * aggregated while their stripe is full.
+ */
+public final class StripedMetricsAggregator implements MetricsAggregator, EventListener {
+
+  private static final Logger log = LoggerFactory.getLogger(StripedMetricsAggregator.class);
+
+  private static final Map<String, String> DEFAULT_HEADERS =
+      Collections.singletonMap(DDAgentApi.DATADOG_META_TRACER_VERSION, DDTraceCoreInfo.VERSION);
+
+  private static final DDCache<String, UTF8BytesString> SERVICE_NAMES =
+      DDCaches.newFixedSizeCache(32);
+
+  private final Set<String> ignoredResources;
+  private final Stripe[] stripes;
+  private final Thread thread;
+  private final BlockingQueue<Batch> inbox;
+  private final Sink sink;
+  private final Reporter reporter;
+  private final long reportingInterval;
+  private final TimeUnit reportingIntervalTimeUnit;
+  private final DDAgentFeaturesDiscovery features;
+
+  private volatile AgentTaskScheduler.Scheduled<?> cancellation;
+
+  public StripedMetricsAggregator(
+      Config config, SharedCommunicationObjects sharedCommunicationObjects) {
+    this(
+        config.getWellKnownTags(),
+        config.getMetricsIgnoredResources(),
+        sharedCommunicationObjects.featuresDiscovery,
+        new OkHttpSink(
+            sharedCommunicationObjects.okHttpClient,
+            config.getAgentUrl(),
+            V6_METRICS_ENDPOINT,
+            config.isTracerMetricsBufferingEnabled(),
+            false,
+            DEFAULT_HEADERS),
+        config.getTracerMetricsMaxAggregates(),
+        config.getTracerMetricsStripes(),
+        10,
+        SECONDS);
+  }
+
+  StripedMetricsAggregator(
+      WellKnownTags wellKnownTags,
+      Set<String> ignoredResources,
+      DDAgentFeaturesDiscovery features,
+      Sink sink,
+      int maxAggregates,
+      int stripes,
+      long reportingInterval,
+      TimeUnit timeUnit) {
+    this(
+        ignoredResources,
+        features,
+        sink,
+        new SerializingMetricWriter(wellKnownTags, sink),
+        maxAggregates,
+        stripes,
+        reportingInterval,
+        timeUnit);
+  }
+
+  StripedMetricsAggregator(
+      Set<String> ignoredResources,
+      DDAgentFeaturesDiscovery features,
+      Sink sink,
+      MetricWriter metricWriter,
+      int maxAggregates,
+      int stripes,
+      long reportingInterval,
+      TimeUnit timeUnit) {
+    this.ignoredResources = ignoredResources;
+    this.stripes = new Stripe[stripeCount(stripes)];
+    // the limit is shared by the stripes, so it doesn't grow with the number of cores
+    int maxStripeAggregates = Math.max(1, maxAggregates / this.stripes.length);
+    for (int i = 0; i < this.stripes.length; ++i) {
+      this.stripes[i] = new Stripe(maxStripeAggregates);
+    }
+    this.inbox = new MpscBlockingConsumerArrayQueue<>(8);
+    this.features = features;
+    this.sink = sink;
+    this.reporter =
+        new Reporter(metricWriter, this.stripes, inbox, timeUnit.toNanos(reportingInterval));
+    this.thread = newAgentThread(METRICS_AGGREGATOR, reporter);
+    this.reportingInterval = reportingInterval;
+    this.reportingIntervalTimeUnit = timeUnit;
+  }
+
+  /** @return the number of stripes rounded up to a power of two, one per core if not positive */
+  static int stripeCount(int stripes) {
+    int count = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+    return count <= 1 ? 1 : Math.min(1 << 10, Integer.highestOneBit(count - 1) << 1);
+  }
+
+  @Override
+  public void start() {
+    if (features.getMetricsEndpoint() == null) {
+      features.discover();
+    }
+    if (features.supportsMetrics()) {
+      sink.register(this);
+      thread.start();
+      cancellation =
+          AgentTaskScheduler.INSTANCE.scheduleAtFixedRate(
+              new ReportTask(),
+              this,
+              reportingInterval,
+              reportingInterval,
+              reportingIntervalTimeUnit);
+      log.debug("started striped metrics aggregator with {} stripes", stripes.length);
+    } else {
+      log.debug("metrics not supported by trace agent");
+    }
+  }
+
+  @Override
+  public boolean report() {
+    boolean published;
+    int attempts = 0;
+    do {
+      published = inbox.offer(REPORT);
+      ++attempts;
+    } while (!published && attempts < 10);
+    if (!published) {
+      log.debug("Skipped metrics reporting because the queue is full");
+    }
+    return published;
+  }
+
+  @Override
+  public boolean publish(List<? extends CoreSpan<?>> trace) {
+    boolean forceKeep = false;
+    if (features.supportsMetrics()) {
+      for (CoreSpan<?> span : trace) {
+        boolean isTopLevel = span.isTopLevel();
+        if (isTopLevel || span.isMeasured()) {
+          if (ignoredResources.contains(span.getResourceName().toString())) {
+            // skip publishing all children
+            return false;
+          }
+          forceKeep |= publish(span, isTopLevel);
+        }
+      }
+    }
+    return forceKeep;
+  }
+
+  private boolean publish(CoreSpan<?> span, boolean isTopLevel) {
+    long tag = (span.getError() > 0 ? ERROR_TAG : 0L) | (isTopLevel ? TOP_LEVEL_TAG : 0L);
+    long taggedDuration = tag | span.getDurationNano();
+    int hash =
+        MetricKey.hash(
+            span.getResourceName(),
+            span.getServiceName(),
+            span.getOperationName(),
+            span.getType(),
+            span.getHttpStatusCode());
+    Stripe stripe = lockStripe();
+    boolean isNewKey;
+    try {
+      isNewKey = stripe.record(span, hash, taggedDuration);
+    } finally {
+      stripe.lock.unlock();
+    }
+    // force keep keys we haven't seen before or errors
+    return isNewKey || span.getError() > 0;
+  }
+
+  /** @return a locked stripe, preferring the stripe of the current thread */
+  private Stripe lockStripe() {
+    final Stripe[] stripes = this.stripes;
+    final int mask = stripes.length - 1;
+    long id = Thread.currentThread().getId();
+    int home = (int) (id ^ (id >>> 32)) * 0x9E3779B9 >>> 16;
+    for (int i = 0; i < stripes.length; ++i) {
+      Stripe stripe = stripes[(home + i) & mask];
+      if (stripe.lock.tryLock()) {
+        return stripe;
+      }
+    }
+    Stripe stripe = stripes[home & mask];
+    stripe.lock.lock();
+    return stripe;
+  }
+
+  public void stop() {
+    if (null != cancellation) {
+      cancellation.cancel();
+    }
+    inbox.offer(POISON_PILL);
+  }
+
+  @Override
+  public void close() {
+    stop();
+    try {
+      thread.join(THREAD_JOIN_TIMOUT_MS);
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  @Override
+  public void onEvent(EventType eventType, String message) {
+    switch (eventType) {
+      case DOWNGRADED:
+        log.debug("Agent downgrade was detected");
+        disable();
+        break;
+      case BAD_PAYLOAD:
+        log.debug("bad metrics payload sent to trace agent: {}", message);
+        break;
+      case ERROR:
+        log.debug("trace agent errored receiving metrics payload: {}", message);
+        break;
+      default:
+    }
+  }
+
+  private void disable() {
+    features.discover();
+    if (!features.supportsMetrics()) {
+      log.debug("Disabling metric reporting because an agent downgrade was detected");
+      AgentTaskScheduler.Scheduled<?> cancellation = this.cancellation;
+      if (null != cancellation) {
+        cancellation.cancel();
+      }
+      this.thread.interrupt();
+      this.inbox.clear();
+      for (Stripe stripe : stripes) {
+        stripe.lock.lock();
+        try {
+          stripe.clear();
+        } finally {
+          stripe.lock.unlock();
+        }
+      }
+    }
+  }
+
+  /** An open addressed table of aggregates, guarded by its lock. */
+  static final class Stripe {
+    final ReentrantLock lock = new ReentrantLock();
+
+    private final int maxAggregates;
+    private int[] hashes;
+    private MetricKey[] keys;
+    private AggregateMetric[] aggregates;
+    private int size;
+
+    Stripe(int maxAggregates) {
+      this.maxAggregates = Math.max(1, maxAggregates);
+      allocate(16);
+    }
+
+    private void allocate(int capacity) {
+      this.hashes = new int[capacity];
+      this.keys = new MetricKey[capacity];
+      this.aggregates = new AggregateMetric[capacity];
+    }
+
+    /** @return true if a new aggregate was created for the span */
+    boolean record(CoreSpan<?> span, int hash, long taggedDuration) {
+      final MetricKey[] keys = this.keys;
+      final int mask = keys.length - 1;
+      int i = hash & mask;
+      MetricKey key;
+      while (null != (key = keys[i])) {
+        if (hashes[i] == hash
+            && key.matches(
+                span.getResourceName(),
+                span.getServiceName(),
+                span.getOperationName(),
+                span.getType(),
+                span.getHttpStatusCode())) {
+          aggregates[i].recordDuration(taggedDuration);
+          return false;
+        }
+        i = (i + 1) & mask;
+      }
+      if (size >= maxAggregates) {
+        // full until the aggregates which aren't updated anymore are removed when reporting
+        return false;
+      }
+      key =
+          new MetricKey(
+              span.getResourceName(),
+              SERVICE_NAMES.computeIfAbsent(span.getServiceName(), UTF8_ENCODE),
+              span.getOperationName(),
+              span.getType(),
+              span.getHttpStatusCode());
+      AggregateMetric aggregate = new AggregateMetric().recordDuration(taggedDuration);
+      insert(hash, key, aggregate);
+      return true;
+    }
+
+    private void insert(int hash, MetricKey key, AggregateMetric aggregate) {
+      // keep the load factor under 1/2
+      if (2 * (size + 1) > keys.length) {
+        rehash(keys.length << 1);
+      }
+      final int mask = keys.length - 1;
+      int i = hash & mask;
+      while (null != keys[i]) {
+        i = (i + 1) & mask;
+      }
+      hashes[i] = hash;
+      keys[i] = key;
+      aggregates[i] = aggregate;
+      ++size;
+    }
+
+    private void rehash(int capacity) {
+      final int[] oldHashes = this.hashes;
+      final MetricKey[] oldKeys = this.keys;
+      final AggregateMetric[] oldAggregates = this.aggregates;
+      allocate(capacity);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; ++i) {
+        if (null != oldKeys[i] && null != oldAggregates[i]) {
+          insert(oldHashes[i], oldKeys[i], oldAggregates[i]);
+        }
+      }
+    }
+
+    /**
+     * Merges the aggregates updated since the last report into the merged aggregates, then clears
+     * them. Aggregates which weren't updated are removed.
+     */
+    void drainTo(Map<MetricKey, AggregateMetric> merged) {
+      boolean stale = false;
+      for (int i = 0; i < keys.length; ++i) {
+        MetricKey key = keys[i];
+        if (null != key) {
+          AggregateMetric aggregate = aggregates[i];
+          if (aggregate.getHitCount() == 0) {
+            aggregates[i] = null;
+            stale = true;
+          } else {
+            AggregateMetric total = merged.get(key);
+            if (null == total) {
+              merged.put(key, new AggregateMetric().mergeWith(aggregate));
+            } else {
+              total.mergeWith(aggregate);
+            }
+            aggregate.clear();
+          }
+        }
+      }
+      if (stale) {
+        // rehashing drops the removed aggregates
+        rehash(keys.length);
+      }
+    }
+
+    void clear() {
+      allocate(16);
+      size = 0;
+    }
+  }
+
+  /** Merges the stripes and writes the merged aggregates when metrics are reported. */
+  private static final class Reporter implements Runnable {
+    private final MetricWriter writer;
+    private final Stripe[] stripes;
+    private final BlockingQueue<Batch> inbox;
+    private final long reportingIntervalNanos;
+    private final Map<MetricKey, AggregateMetric> merged = new HashMap<>();
+
+    Reporter(
+        MetricWriter writer,
+        Stripe[] stripes,
+        BlockingQueue<Batch> inbox,
+        long reportingIntervalNanos) {
+      this.writer = writer;
+      this.stripes = stripes;
+      this.inbox = inbox;
+      this.reportingIntervalNanos = reportingIntervalNanos;
+    }
+
+    @Override
+    public void run() {
+      Thread currentThread = Thread.currentThread();
+      while (!currentThread.isInterrupted()) {
+        try {
+          Batch event = inbox.take();
+          report(MILLISECONDS.toNanos(System.currentTimeMillis()));
+          if (event == POISON_PILL) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          currentThread.interrupt();
+        } catch (Throwable error) {
+          log.debug("error aggregating metrics", error);
+        }
+      }
+      log.debug("metrics aggregator exited");
+    }
+
+    private void report(long when) {
+      for (Stripe stripe : stripes) {
+        stripe.lock.lock();
+        try {
+          stripe.drainTo(merged);
+        } finally {
+          stripe.lock.unlock();
+        }
+      }
+      if (merged.isEmpty()) {
+        log.debug("skipped metrics reporting because no points have changed");
+        return;
+      }
+      try {
+        writer.startBucket(merged.size(), when, reportingIntervalNanos);
+        for (Map.Entry<MetricKey, AggregateMetric> aggregate : merged.entrySet()) {
+          writer.add(aggregate.getKey(), aggregate.getValue());
+        }
+        // note that this may do IO and block
+        writer.finishBucket();
+      } catch (Throwable error) {
+        writer.reset();
+        log.debug("Error publishing metrics. Dropping payload", error);
+      }
+      merged.clear();
+    }
+  }
+
+  private static final class ReportTask
+      implements AgentTaskScheduler.Task<StripedMetricsAggregator> {
+
+    @Override
+    public void run(StripedMetricsAggregator target) {
+      target.report();
+    }
+  }
+}
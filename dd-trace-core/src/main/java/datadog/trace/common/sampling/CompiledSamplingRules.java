@@ -0,0 +1,166 @@
+package datadog.trace.common.sampling;
+
+import datadog.trace.api.Function;
+import datadog.trace.api.cache.DDCache;
+import datadog.trace.api.cache.DDCaches;
+import datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.OperationSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.PatternMatchSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule;
+import datadog.trace.core.CoreSpan;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first of a list of sampling rules which matches a span, without trying the rules one
+ * after the other.
+ *
+ * <p>The rules matching on the service or on the operation are grouped by what they match on. For
+ * each of these, the position of the first rule matching a value is computed once, from a map of
+ * the rules whose pattern is a literal and by trying the other patterns in order, and cached. The
+ * first rule matching a span is then the first of the rules found for its service and operation,
+ * and of the first rule matching everything. Rules of other types are tried in order, but only
+ * until a rule found this way.
+ *
+ * <p>Supporting more rule types, like resource or tag rules, only adds a lookup for what they
+ * match on, however many rules there are.
+ */
+final class CompiledSamplingRules<T extends CoreSpan<T>> {
+
+  private static final int NO_MATCH = Integer.MAX_VALUE;
+  private static final Integer NO_MATCH_BOXED = NO_MATCH;
+
+  private static final int CACHE_SIZE = 256;
+
+  private final List<SamplingRule<T>> rules;
+  private final int firstAlwaysMatching;
+  private final PatternIndex servicePatterns;
+  private final PatternIndex operationPatterns;
+  // rules which can only be tried on the span, with their positions
+  private final SamplingRule<T>[] otherRules;
+  private final int[] otherRulePositions;
+
+  @SuppressWarnings("unchecked")
+  CompiledSamplingRules(List<SamplingRule<T>> rules) {
+    this.rules = rules;
+    int firstAlwaysMatching = NO_MATCH;
+    List<Pattern> servicePatterns = new ArrayList<>();
+    List<Integer> servicePositions = new ArrayList<>();
+    List<Pattern> operationPatterns = new ArrayList<>();
+    List<Integer> operationPositions = new ArrayList<>();
+    List<SamplingRule<T>> otherRules = new ArrayList<>();
+    List<Integer> otherPositions = new ArrayList<>();
+    for (int i = 0; i < rules.size(); ++i) {
+      SamplingRule<T> rule = rules.get(i);
+      if (rule instanceof AlwaysMatchesSamplingRule) {
+        firstAlwaysMatching = Math.min(firstAlwaysMatching, i);
+      } else if (rule instanceof ServiceSamplingRule) {
+        servicePatterns.add(((PatternMatchSamplingRule<T>) rule).getPattern());
+        servicePositions.add(i);
+      } else if (rule instanceof OperationSamplingRule) {
+        operationPatterns.add(((PatternMatchSamplingRule<T>) rule).getPattern());
+        operationPositions.add(i);
+      } else {
+        otherRules.add(rule);
+        otherPositions.add(i);
+      }
+    }
+    this.firstAlwaysMatching = firstAlwaysMatching;
+    this.servicePatterns = PatternIndex.compile(servicePatterns, servicePositions);
+    this.operationPatterns = PatternIndex.compile(operationPatterns, operationPositions);
+    this.otherRules = otherRules.toArray(new SamplingRule[0]);
+    this.otherRulePositions = new int[otherPositions.size()];
+    for (int i = 0; i < otherRulePositions.length; ++i) {
+      otherRulePositions[i] = otherPositions.get(i);
+    }
+  }
+
+  /** @return the first rule matching the span, or null if none does */
+  SamplingRule<T> match(T span) {
+    int first = firstAlwaysMatching;
+    if (null != servicePatterns) {
+      first = Math.min(first, servicePatterns.firstMatching(span.getServiceName()));
+    }
+    if (null != operationPatterns) {
+      first = Math.min(first, operationPatterns.firstMatching(span.getOperationName()));
+    }
+    for (int i = 0; i < otherRules.length && otherRulePositions[i] < first; ++i) {
+      if (otherRules[i].matches(span)) {
+        first = otherRulePositions[i];
+        break;
+      }
+    }
+    return first == NO_MATCH ? null : rules.get(first);
+  }
+
+  /** Finds the position of the first pattern matching a value, for one kind of rule */
+  private static final class PatternIndex implements Function<String, Integer> {
+    // the first position of each literal pattern
+    private final Map<String, Integer> literals;
+    private final Pattern[] patterns;
+    private final int[] positions;
+    private final DDCache<String, Integer> cache = DDCaches.newFixedSizeCache(CACHE_SIZE);
+
+    private PatternIndex(Map<String, Integer> literals, Pattern[] patterns, int[] positions) {
+      this.literals = literals;
+      this.patterns = patterns;
+      this.positions = positions;
+    }
+
+    /** @return an index of the patterns, given in order of position, or null if there are none */
+    static PatternIndex compile(List<Pattern> patterns, List<Integer> positions) {
+      if (patterns.isEmpty()) {
+        return null;
+      }
+      Map<String, Integer> literals = new HashMap<>();
+      List<Pattern> otherPatterns = new ArrayList<>();
+      List<Integer> otherPositions = new ArrayList<>();
+      for (int i = 0; i < patterns.size(); ++i) {
+        Pattern pattern = patterns.get(i);
+        if (isLiteral(pattern.pattern())) {
+          if (!literals.containsKey(pattern.pattern())) {
+            literals.put(pattern.pattern(), positions.get(i));
+          }
+        } else {
+          otherPatterns.add(pattern);
+          otherPositions.add(positions.get(i));
+        }
+      }
+      int[] otherPositionArray = new int[otherPositions.size()];
+      for (int i = 0; i < otherPositionArray.length; ++i) {
+        otherPositionArray[i] = otherPositions.get(i);
+      }
+      return new PatternIndex(literals, otherPatterns.toArray(new Pattern[0]), otherPositionArray);
+    }
+
+    private static boolean isLiteral(String regex) {
+      for (int i = 0; i < regex.length(); ++i) {
+        if ("\\[](){}.*+?^$|".indexOf(regex.charAt(i)) >= 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    int firstMatching(CharSequence value) {
+      // operation names may be UTF8BytesStrings, which aren't equal to the same String
+      return null == value ? NO_MATCH : cache.computeIfAbsent(value.toString(), this);
+    }
+
+    @Override
+    public Integer apply(String value) {
+      Integer literal = literals.get(value);
+      int first = null == literal ? NO_MATCH : literal;
+      for (int i = 0; i < patterns.length && positions[i] < first; ++i) {
+        if (patterns[i].matcher(value).matches()) {
+          first = positions[i];
+          break;
+        }
+      }
+      return first == NO_MATCH ? NO_MATCH_BOXED : Integer.valueOf(first);
+    }
+  }
+}
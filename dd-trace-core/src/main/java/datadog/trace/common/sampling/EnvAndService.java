@@ -0,0 +1,110 @@
+package datadog.trace.common.sampling;
+
+import datadog.trace.api.Function;
+import datadog.trace.api.cache.DDCache;
+import datadog.trace.api.cache.DDCaches;
+
+/**
+ * The env and service a root span is sampled by, with its hash computed once. Instances are
+ * interned so that spans with the same env and service share them, and they can be compared by
+ * identity most of the time.
+ */
+public final class EnvAndService {
+
+  private static final DDCache<String, EnvAndService> PARSED = DDCaches.newFixedSizeCache(32);
+
+  private static final Function<String, EnvAndService> PARSE =
+      new Function<String, EnvAndService>() {
+
+        @Override
+        public EnvAndService apply(String key) {
+          // "service:,env:"
+          int serviceStart = key.indexOf(':') + 1;
+          int serviceEnd = key.indexOf(',', serviceStart);
+          int envStart = key.indexOf(':', serviceEnd) + 1;
+          // both empty or at least one invalid
+          if ((serviceStart == serviceEnd && envStart == key.length())
+              || (serviceStart | serviceEnd | envStart) < 0) {
+            return DEFAULT;
+          }
+          String service = key.substring(serviceStart, serviceEnd);
+          String env = key.substring(envStart);
+          return of(env, service);
+        }
+      };
+
+  private static final DDCache<String, ServicesInEnv> ENVS = DDCaches.newFixedSizeCache(8);
+
+  private static final Function<String, ServicesInEnv> NEW_ENV =
+      new Function<String, ServicesInEnv>() {
+        @Override
+        public ServicesInEnv apply(String env) {
+          return new ServicesInEnv(env);
+        }
+      };
+
+  public static final EnvAndService DEFAULT = new EnvAndService("", "");
+
+  /** @return the env and service of a key in the agent's rates, like "service:foo,env:bar" */
+  public static EnvAndService fromString(String key) {
+    return PARSED.computeIfAbsent(key, PARSE);
+  }
+
+  /** @return the interned env and service, without allocating when it has been seen before */
+  public static EnvAndService of(String env, String service) {
+    ServicesInEnv services = ENVS.computeIfAbsent(null == env ? "" : env, NEW_ENV);
+    return services.cache.computeIfAbsent(null == service ? "" : service, services);
+  }
+
+  private final String env;
+  private final String service;
+  private final int hash;
+
+  private EnvAndService(String env, String service) {
+    this.env = env;
+    this.service = service;
+    this.hash = 31 * (31 + env.hashCode()) + service.hashCode();
+  }
+
+  public String getEnv() {
+    return env;
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof EnvAndService)) return false;
+    EnvAndService that = (EnvAndService) o;
+    // only equal but distinct when evicted from the cache and interned again
+    return hash == that.hash && env.equals(that.env) && service.equals(that.service);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "service:" + service + ",env:" + env;
+  }
+
+  /** The interned services of an env, which also creates them */
+  private static final class ServicesInEnv implements Function<String, EnvAndService> {
+    final String env;
+    final DDCache<String, EnvAndService> cache = DDCaches.newFixedSizeCache(64);
+
+    ServicesInEnv(String env) {
+      this.env = env;
+    }
+
+    @Override
+    public EnvAndService apply(String service) {
+      return new EnvAndService(env, service);
+    }
+  }
+}
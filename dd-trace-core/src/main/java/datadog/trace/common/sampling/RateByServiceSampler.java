@@ -1,12 +1,10 @@
 package datadog.trace.common.sampling;
 
-import datadog.trace.api.Function;
-import datadog.trace.api.cache.DDCache;
-import datadog.trace.api.cache.DDCaches;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.api.sampling.SamplingMechanism;
 import datadog.trace.common.writer.RemoteResponseListener;
 import datadog.trace.core.CoreSpan;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -38,11 +36,8 @@ public class RateByServiceSampler<T extends CoreSpan<T>>
   /** If span is a root span, set the span context samplingPriority to keep or drop */
   @Override
   public void setSamplingPriority(final T span) {
-    final String serviceName = span.getServiceName();
-    final String env = getSpanEnv(span);
-
     final RateSamplersByEnvAndService<T> rates = serviceRates;
-    RateSampler<T> sampler = rates.getSampler(new EnvAndService(env, serviceName));
+    RateSampler<T> sampler = rates.getSampler(span.getEnvAndService());
 
     if (sampler.sample(span)) {
       span.setSamplingPriority(
@@ -59,10 +54,6 @@ public class RateByServiceSampler<T extends CoreSpan<T>>
     }
   }
 
-  private String getSpanEnv(final T span) {
-    return span.getTag("env", "");
-  }
-
   @Override
   public void onResponse(
       final String endpoint, final Map<String, Map<String, Number>> responseJson) {
@@ -96,78 +87,51 @@ public class RateByServiceSampler<T extends CoreSpan<T>>
     return new DeterministicSampler<>(sanitizedRate);
   }
 
+  /**
+   * Immutable open addressed table of the samplers by env and service, so that lookups neither
+   * allocate nor take a lock.
+   */
   private static final class RateSamplersByEnvAndService<T extends CoreSpan<T>> {
     private static final RateSampler<?> DEFAULT = createRateSampler(DEFAULT_RATE);
 
-    private final Map<EnvAndService, RateSampler<T>> serviceRates;
+    private final EnvAndService[] keys;
+    private final RateSampler<T>[] samplers;
+    private final int mask;
 
     RateSamplersByEnvAndService() {
-      this(new HashMap<EnvAndService, RateSampler<T>>(0));
+      this(Collections.<EnvAndService, RateSampler<T>>emptyMap());
     }
 
+    @SuppressWarnings("unchecked")
     RateSamplersByEnvAndService(Map<EnvAndService, RateSampler<T>> serviceRates) {
-      this.serviceRates = serviceRates;
+      // at most half full, so that probing stops early on a miss
+      int capacity = Integer.highestOneBit(Math.max(1, serviceRates.size()) * 4 - 1);
+      this.keys = new EnvAndService[capacity];
+      this.samplers = new RateSampler[capacity];
+      this.mask = capacity - 1;
+      for (Map.Entry<EnvAndService, RateSampler<T>> entry : serviceRates.entrySet()) {
+        int index = indexOf(entry.getKey());
+        keys[index] = entry.getKey();
+        samplers[index] = entry.getValue();
+      }
     }
 
     @SuppressWarnings("unchecked")
     public RateSampler<T> getSampler(EnvAndService key) {
-      RateSampler<T> sampler = serviceRates.get(key);
+      int index = indexOf(key);
+      RateSampler<T> sampler = samplers[index];
       return null == sampler ? (RateSampler<T>) DEFAULT : sampler;
     }
-  }
-
-  private static final class EnvAndService {
-
-    private static final DDCache<String, EnvAndService> CACHE = DDCaches.newFixedSizeCache(32);
-
-    private static final Function<String, EnvAndService> PARSE =
-        new Function<String, EnvAndService>() {
-
-          @Override
-          public EnvAndService apply(String key) {
-            // "service:,env:"
-            int serviceStart = key.indexOf(':') + 1;
-            int serviceEnd = key.indexOf(',', serviceStart);
-            int envStart = key.indexOf(':', serviceEnd) + 1;
-            // both empty or at least one invalid
-            if ((serviceStart == serviceEnd && envStart == key.length())
-                || (serviceStart | serviceEnd | envStart) < 0) {
-              return DEFAULT;
-            }
-            String service = key.substring(serviceStart, serviceEnd);
-            String env = key.substring(envStart);
-            return new EnvAndService(env, service);
-          }
-        };
-
-    static final EnvAndService DEFAULT = new EnvAndService("", "");
-
-    public static EnvAndService fromString(String key) {
-      return CACHE.computeIfAbsent(key, PARSE);
-    }
-
-    private final CharSequence env;
-    private final CharSequence service;
-
-    private EnvAndService(CharSequence env, CharSequence service) {
-      this.env = env;
-      this.service = service;
-    }
 
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      EnvAndService that = (EnvAndService) o;
-      return env.equals(that.env) && service.equals(that.service);
-    }
-
-    @Override
-    public int hashCode() {
-      int hash = 1;
-      hash = 31 * hash + env.hashCode();
-      hash = 31 * hash + service.hashCode();
-      return hash;
+    /** @return the position of the key, or of the empty slot where it would be */
+    private int indexOf(EnvAndService key) {
+      int hash = key.hashCode();
+      int index = (hash ^ (hash >>> 16)) & mask;
+      EnvAndService current;
+      while (null != (current = keys[index]) && !current.equals(key)) {
+        index = (index + 1) & mask;
+      }
+      return index;
     }
   }
 }
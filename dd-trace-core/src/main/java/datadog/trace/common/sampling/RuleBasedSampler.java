@@ -2,11 +2,11 @@ package datadog.trace.common.sampling;
 
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.api.sampling.SamplingMechanism;
+import datadog.trace.api.sampling.TokenBucketRateLimiter;
 import datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule;
 import datadog.trace.common.sampling.SamplingRule.OperationSamplingRule;
 import datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule;
 import datadog.trace.core.CoreSpan;
-import datadog.trace.core.util.SimpleRateLimiter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -17,10 +17,9 @@ import org.slf4j.LoggerFactory;
 public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, PrioritySampler<T> {
 
   private static final Logger log = LoggerFactory.getLogger(RuleBasedSampler.class);
-  private final List<SamplingRule<T>> samplingRules;
+  private final CompiledSamplingRules<T> samplingRules;
   private final PrioritySampler<T> fallbackSampler;
-  private final SimpleRateLimiter rateLimiter;
-  private final long rateLimit;
+  private final TokenBucketRateLimiter rateLimiter;
 
   public static final String SAMPLING_RULE_RATE = "_dd.rule_psr";
   public static final String SAMPLING_LIMIT_RATE = "_dd.limit_psr";
@@ -29,11 +28,9 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
       final List<SamplingRule<T>> samplingRules,
       final int rateLimit,
       final PrioritySampler<T> fallbackSampler) {
-    this.samplingRules = samplingRules;
+    this.samplingRules = new CompiledSamplingRules<>(samplingRules);
     this.fallbackSampler = fallbackSampler;
-    rateLimiter = new SimpleRateLimiter(rateLimit);
-
-    this.rateLimit = rateLimit;
+    rateLimiter = new TokenBucketRateLimiter(rateLimit);
   }
 
   public static <T extends CoreSpan<T>> RuleBasedSampler<T> build(
@@ -87,14 +84,7 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
 
   @Override
   public void setSamplingPriority(final T span) {
-    SamplingRule<T> matchedRule = null;
-
-    for (final SamplingRule<T> samplingRule : samplingRules) {
-      if (samplingRule.matches(span)) {
-        matchedRule = samplingRule;
-        break;
-      }
-    }
+    final SamplingRule<T> matchedRule = samplingRules.match(span);
 
     if (matchedRule == null) {
       fallbackSampler.setSamplingPriority(span);
@@ -113,7 +103,8 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
               matchedRule.getSampler().getSampleRate(),
               SamplingMechanism.RULE);
         }
-        span.setMetric(SAMPLING_LIMIT_RATE, rateLimit);
+        // the fraction of the traces kept by the rules which the limit lets through
+        span.setMetric(SAMPLING_LIMIT_RATE, rateLimiter.getEffectiveRate());
       } else {
         span.setSamplingPriority(
             PrioritySampling.USER_DROP,
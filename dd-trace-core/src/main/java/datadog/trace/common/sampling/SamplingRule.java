@@ -47,6 +47,10 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
       return relevantString != null && pattern.matcher(relevantString).matches();
     }
 
+    public Pattern getPattern() {
+      return pattern;
+    }
+
     protected abstract CharSequence getRelevantString(T span);
   }
 
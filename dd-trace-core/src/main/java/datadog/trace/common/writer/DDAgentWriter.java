@@ -40,6 +40,9 @@ public class DDAgentWriter extends RemoteWriter {
     boolean traceAgentV05Enabled = Config.get().isTraceAgentV05Enabled();
     boolean metricsReportingEnabled = Config.get().isTracerMetricsEnabled();
     boolean alwaysFlush = false;
+    int serializationShards = 1;
+    int maxInFlightRequests = 1;
+    boolean spanRecycling = false;
 
     private DDAgentApi agentApi;
     private Prioritization prioritization;
@@ -120,6 +123,21 @@ public class DDAgentWriter extends RemoteWriter {
       return this;
     }
 
+    public DDAgentWriterBuilder serializationShards(int serializationShards) {
+      this.serializationShards = serializationShards;
+      return this;
+    }
+
+    public DDAgentWriterBuilder maxInFlightRequests(int maxInFlightRequests) {
+      this.maxInFlightRequests = maxInFlightRequests;
+      return this;
+    }
+
+    public DDAgentWriterBuilder spanRecycling(boolean spanRecycling) {
+      this.spanRecycling = spanRecycling;
+      return this;
+    }
+
     public DDAgentWriter build() {
       final HttpUrl agentUrl = HttpUrl.get("http://" + agentHost + ":" + traceAgentPort);
       final OkHttpClient client =
@@ -137,17 +155,49 @@ public class DDAgentWriter extends RemoteWriter {
       }
 
       final DDAgentMapperDiscovery mapperDiscovery = new DDAgentMapperDiscovery(featureDiscovery);
-      final PayloadDispatcher dispatcher =
-          new PayloadDispatcher(mapperDiscovery, agentApi, healthMetrics, monitoring);
-      final TraceProcessingWorker traceProcessingWorker =
-          new TraceProcessingWorker(
-              traceBufferSize,
-              healthMetrics,
-              dispatcher,
-              featureDiscovery,
-              null == prioritization ? FAST_LANE : prioritization,
-              flushFrequencySeconds,
-              TimeUnit.SECONDS);
+      final PayloadDispatcher dispatcher;
+      final TraceProcessingWorker traceProcessingWorker;
+      if (serializationShards > 1 || maxInFlightRequests > 1) {
+        // each shard serializes into its own buffer, and the sender sends the payloads
+        final PayloadSender sender =
+            new PayloadSender(
+                agentApi,
+                healthMetrics,
+                2 * Math.max(serializationShards, maxInFlightRequests),
+                maxInFlightRequests);
+        dispatcher =
+            new PayloadDispatcher(mapperDiscovery, agentApi, healthMetrics, monitoring, sender)
+                .withSpanRecycling(spanRecycling);
+        final PayloadDispatcher[] dispatchers =
+            new PayloadDispatcher[Math.max(1, serializationShards)];
+        dispatchers[0] = dispatcher;
+        for (int i = 1; i < dispatchers.length; ++i) {
+          dispatchers[i] = dispatcher.newShard(new DDAgentMapperDiscovery(featureDiscovery));
+        }
+        traceProcessingWorker =
+            new TraceProcessingWorker(
+                traceBufferSize,
+                healthMetrics,
+                dispatchers,
+                sender,
+                featureDiscovery,
+                null == prioritization ? FAST_LANE : prioritization,
+                flushFrequencySeconds,
+                TimeUnit.SECONDS);
+      } else {
+        dispatcher =
+            new PayloadDispatcher(mapperDiscovery, agentApi, healthMetrics, monitoring)
+                .withSpanRecycling(spanRecycling);
+        traceProcessingWorker =
+            new TraceProcessingWorker(
+                traceBufferSize,
+                healthMetrics,
+                dispatcher,
+                featureDiscovery,
+                null == prioritization ? FAST_LANE : prioritization,
+                flushFrequencySeconds,
+                TimeUnit.SECONDS);
+      }
 
       return new DDAgentWriter(
           featureDiscovery,
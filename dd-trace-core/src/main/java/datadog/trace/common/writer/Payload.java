@@ -4,6 +4,7 @@ import static datadog.communication.serialization.msgpack.MsgPackWriter.ARRAY16;
 import static datadog.communication.serialization.msgpack.MsgPackWriter.ARRAY32;
 import static datadog.communication.serialization.msgpack.MsgPackWriter.FIXARRAY;
 
+import datadog.communication.serialization.BufferPool;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -17,6 +18,7 @@ public abstract class Payload {
   private long droppedTraces = 0;
   private long droppedSpans = 0;
   protected ByteBuffer body = EMPTY_ARRAY.duplicate();
+  private BufferPool bufferPool;
 
   public Payload withBody(int traceCount, ByteBuffer body) {
     this.traceCount = traceCount;
@@ -36,6 +38,34 @@ public abstract class Payload {
     return this;
   }
 
+  /** The body was acquired from the pool, and is released to it with {@link #release()}. */
+  public Payload withBufferPool(BufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+    return this;
+  }
+
+  /**
+   * Makes the payload independent of the buffers it was serialized into, so it can still be sent
+   * after those buffers have been reset and reused. A pooled body already belongs to the payload,
+   * so it isn't copied.
+   */
+  public Payload detach() {
+    if (null == bufferPool) {
+      this.body = copy(body);
+    }
+    return this;
+  }
+
+  /** Releases a pooled body once the payload has been sent. The payload must not be used after. */
+  public void release() {
+    if (null != bufferPool) {
+      ByteBuffer pooled = body;
+      this.body = EMPTY_ARRAY.duplicate();
+      bufferPool.release(pooled);
+      this.bufferPool = null;
+    }
+  }
+
   public int traceCount() {
     return traceCount;
   }
@@ -54,6 +84,13 @@ public abstract class Payload {
 
   public abstract RequestBody toRequest();
 
+  protected static ByteBuffer copy(ByteBuffer buffer) {
+    ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
   protected int msgpackArrayHeaderSize(int count) {
     if (count < 0x10) {
       return 1;
@@ -2,11 +2,13 @@ package datadog.trace.common.writer;
 
 import datadog.communication.monitor.Monitoring;
 import datadog.communication.monitor.Recording;
+import datadog.communication.serialization.BufferPool;
 import datadog.communication.serialization.ByteBufferConsumer;
 import datadog.communication.serialization.FlushingBuffer;
 import datadog.communication.serialization.WritableFormatter;
 import datadog.communication.serialization.msgpack.MsgPackWriter;
 import datadog.trace.core.CoreSpan;
+import datadog.trace.core.DDSpan;
 import datadog.trace.core.monitor.HealthMetrics;
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -23,25 +25,93 @@ public class PayloadDispatcher implements ByteBufferConsumer {
   private final RemoteMapperDiscovery mapperDiscovery;
   private final HealthMetrics healthMetrics;
   private final Monitoring monitoring;
+  // when null, payloads are sent synchronously on the serializer thread
+  private final PayloadSender sender;
+  // when set, the tags of spans are recycled once they have been serialized
+  private boolean recycleSpans;
 
   private Recording batchTimer;
   private RemoteMapper mapper;
   private WritableFormatter packer;
+  // only used with a sender, so the buffers handed over to it can be recycled
+  private BufferPool bufferPool;
 
-  private final FixedSizeStripedLongCounter droppedSpanCount =
-      CountersFactory.createFixedSizeStripedCounter(8);
-  private final FixedSizeStripedLongCounter droppedTraceCount =
-      CountersFactory.createFixedSizeStripedCounter(8);
+  private final FixedSizeStripedLongCounter droppedSpanCount;
+  private final FixedSizeStripedLongCounter droppedTraceCount;
 
   public PayloadDispatcher(
       RemoteMapperDiscovery mapperDiscovery,
       RemoteApi api,
       HealthMetrics healthMetrics,
       Monitoring monitoring) {
+    this(
+        mapperDiscovery,
+        api,
+        healthMetrics,
+        monitoring,
+        null,
+        CountersFactory.createFixedSizeStripedCounter(8),
+        CountersFactory.createFixedSizeStripedCounter(8));
+  }
+
+  public PayloadDispatcher(
+      RemoteMapperDiscovery mapperDiscovery,
+      RemoteApi api,
+      HealthMetrics healthMetrics,
+      Monitoring monitoring,
+      PayloadSender sender) {
+    this(
+        mapperDiscovery,
+        api,
+        healthMetrics,
+        monitoring,
+        sender,
+        CountersFactory.createFixedSizeStripedCounter(8),
+        CountersFactory.createFixedSizeStripedCounter(8));
+  }
+
+  private PayloadDispatcher(
+      RemoteMapperDiscovery mapperDiscovery,
+      RemoteApi api,
+      HealthMetrics healthMetrics,
+      Monitoring monitoring,
+      PayloadSender sender,
+      FixedSizeStripedLongCounter droppedSpanCount,
+      FixedSizeStripedLongCounter droppedTraceCount) {
     this.mapperDiscovery = mapperDiscovery;
     this.api = api;
     this.healthMetrics = healthMetrics;
     this.monitoring = monitoring;
+    this.sender = sender;
+    this.droppedSpanCount = droppedSpanCount;
+    this.droppedTraceCount = droppedTraceCount;
+  }
+
+  /**
+   * Creates a dispatcher for another serializer shard. It has its own mapper and buffer but shares
+   * the sender and the dropped trace counts with this dispatcher, so drops are reported with
+   * whichever shard's payload is sent next.
+   */
+  PayloadDispatcher newShard(RemoteMapperDiscovery mapperDiscovery) {
+    return new PayloadDispatcher(
+        mapperDiscovery,
+        api,
+        healthMetrics,
+        monitoring,
+        sender,
+        droppedSpanCount,
+        droppedTraceCount)
+        .withSpanRecycling(recycleSpans);
+  }
+
+  /**
+   * Recycles the tags of the spans written by this dispatcher. Nothing else may use the spans once
+   * they have been handed over to the writer, so this must not be enabled when trace interceptors
+   * keep references to spans, or when traces are written by several writers.
+   */
+  PayloadDispatcher withSpanRecycling(boolean recycleSpans) {
+    this.recycleSpans = recycleSpans;
+    return this;
   }
 
   void flush() {
@@ -64,6 +134,13 @@ public class PayloadDispatcher implements ByteBufferConsumer {
     if (null == mapper || !packer.format(trace, mapper)) {
       healthMetrics.onFailedPublish(trace.get(0).samplingPriority());
     }
+    if (recycleSpans) {
+      for (CoreSpan<?> span : trace) {
+        if (span instanceof DDSpan) {
+          ((DDSpan) span).recycle();
+        }
+      }
+    }
   }
 
   private void selectMapper() {
@@ -76,7 +153,14 @@ public class PayloadDispatcher implements ByteBufferConsumer {
       if (null != mapper && null == packer) {
         this.batchTimer =
             monitoring.newTimer("tracer.trace.buffer.fill.time", "endpoint:" + mapper.endpoint());
-        this.packer = new MsgPackWriter(new FlushingBuffer(mapper.messageBufferSize(), this));
+        if (null == sender) {
+          this.packer = new MsgPackWriter(new FlushingBuffer(mapper.messageBufferSize(), this));
+        } else {
+          // one buffer being filled, and one for each request in flight
+          this.bufferPool =
+              new BufferPool(mapper.messageBufferSize(), sender.maxInFlightRequests() + 1);
+          this.packer = new MsgPackWriter(new FlushingBuffer(bufferPool, this));
+        }
         batchTimer.start();
       }
     }
@@ -86,6 +170,7 @@ public class PayloadDispatcher implements ByteBufferConsumer {
     return mapper
         .newPayload()
         .withBody(messageCount, buffer)
+        .withBufferPool(bufferPool)
         .withDroppedSpans(droppedSpanCount.getAndReset())
         .withDroppedTraces(droppedTraceCount.getAndReset());
   }
@@ -99,20 +184,35 @@ public class PayloadDispatcher implements ByteBufferConsumer {
       Payload payload = newPayload(messageCount, buffer);
       final int sizeInBytes = payload.sizeInBytes();
       healthMetrics.onSerialize(sizeInBytes);
-      RemoteApi.Response response = api.sendSerializedTraces(payload);
-      mapper.reset();
-      if (response.success()) {
-        if (log.isDebugEnabled()) {
-          log.debug("Successfully sent {} traces to the API", messageCount);
-        }
-        healthMetrics.onSend(messageCount, sizeInBytes, response);
+      if (null == sender) {
+        RemoteApi.Response response = api.sendSerializedTraces(payload);
+        mapper.reset();
+        onResponse(healthMetrics, messageCount, sizeInBytes, response);
       } else {
-        if (log.isDebugEnabled()) {
-          log.debug(
-              "Failed to send {} traces of size {} bytes to the API", messageCount, sizeInBytes);
-        }
-        healthMetrics.onFailedSend(messageCount, sizeInBytes, response);
+        // the body is handed over with the payload and returned to the pool once sent,
+        // but the mapper's own buffers are reused as soon as this returns
+        sender.send(payload.detach());
+        mapper.reset();
+      }
+    }
+  }
+
+  static void onResponse(
+      HealthMetrics healthMetrics,
+      int messageCount,
+      int sizeInBytes,
+      RemoteApi.Response response) {
+    if (response.success()) {
+      if (log.isDebugEnabled()) {
+        log.debug("Successfully sent {} traces to the API", messageCount);
+      }
+      healthMetrics.onSend(messageCount, sizeInBytes, response);
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "Failed to send {} traces of size {} bytes to the API", messageCount, sizeInBytes);
       }
+      healthMetrics.onFailedSend(messageCount, sizeInBytes, response);
     }
   }
 }
@@ -0,0 +1,196 @@
+package datadog.trace.common.writer;
+
+import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_SENDER;
+import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import datadog.trace.common.writer.ddagent.FlushEvent;
+import datadog.trace.core.monitor.HealthMetrics;
+import datadog.trace.util.AgentThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends serialized payloads to the agent on a dedicated thread, so the serializer threads can keep
+ * serializing while a request is in flight.
+ *
+ * <p>The queue of payloads waiting to be sent is bounded: when it is full the serializer threads
+ * block until the sender catches up, which in turn makes the trace queues fill and traces get
+ * dropped rather than buffering an unbounded number of payloads.
+ *
+ * <p>Up to {@code maxInFlightRequests} payloads can be sent concurrently. Payloads are taken from
+ * the queue in order, but may complete out of order. A flush event waits for all requests in
+ * flight before it is synced.
+ */
+public class PayloadSender implements Runnable, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(PayloadSender.class);
+
+  private static final long ENQUEUE_TIMEOUT_MS = 100;
+
+  private final RemoteApi api;
+  private final HealthMetrics healthMetrics;
+  // producers block while it is full, which the jctools queues don't support
+  private final BlockingQueue<Object> queue;
+  private final Thread senderThread;
+
+  private final int maxInFlightRequests;
+  private final Semaphore inFlightRequests;
+  // null when only one request can be in flight, in which case it is sent by the sender thread
+  private final ExecutorService requestExecutor;
+
+  public PayloadSender(RemoteApi api, HealthMetrics healthMetrics, int capacity) {
+    this(api, healthMetrics, capacity, 1);
+  }
+
+  public PayloadSender(
+      RemoteApi api, HealthMetrics healthMetrics, int capacity, int maxInFlightRequests) {
+    this.api = api;
+    this.healthMetrics = healthMetrics;
+    this.queue = new ArrayBlockingQueue<>(Math.max(2, capacity));
+    this.senderThread = newAgentThread(TRACE_SENDER, this);
+    this.maxInFlightRequests = Math.max(1, maxInFlightRequests);
+    this.inFlightRequests = new Semaphore(this.maxInFlightRequests);
+    this.requestExecutor =
+        this.maxInFlightRequests > 1
+            ? Executors.newFixedThreadPool(
+                this.maxInFlightRequests, new AgentThreadFactory(TRACE_SENDER))
+            : null;
+  }
+
+  public void start() {
+    senderThread.start();
+  }
+
+  /**
+   * Hands over a payload to be sent. The payload must not share memory with any buffer the caller
+   * will reuse.
+   */
+  void send(Payload payload) {
+    if (!enqueue(payload)) {
+      onFailedSend(payload);
+    }
+  }
+
+  /** Syncs the flush event once all payloads handed over before it have been sent. */
+  void sync(FlushEvent event) {
+    if (!enqueue(event)) {
+      event.sync();
+    }
+  }
+
+  private boolean enqueue(Object event) {
+    try {
+      while (!queue.offer(event, ENQUEUE_TIMEOUT_MS, MILLISECONDS)) {
+        if (!senderThread.isAlive()) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  public void run() {
+    Thread thread = Thread.currentThread();
+    try {
+      while (!thread.isInterrupted()) {
+        onEvent(queue.take());
+      }
+    } catch (InterruptedException e) {
+      thread.interrupt();
+    }
+    log.debug("Datadog trace sender exited. Sending payloads stopped");
+  }
+
+  private void onEvent(Object event) throws InterruptedException {
+    if (event instanceof Payload) {
+      Payload payload = (Payload) event;
+      if (null == requestExecutor) {
+        doSend(payload);
+      } else {
+        // blocks while the window is full, which in turn fills the queue
+        inFlightRequests.acquire();
+        try {
+          requestExecutor.execute(new Request(payload));
+        } catch (RejectedExecutionException e) {
+          inFlightRequests.release();
+          onFailedSend(payload);
+        }
+      }
+    } else if (event instanceof FlushEvent) {
+      if (null != requestExecutor) {
+        // wait for every request in flight to complete
+        inFlightRequests.acquire(maxInFlightRequests);
+        inFlightRequests.release(maxInFlightRequests);
+      }
+      ((FlushEvent) event).sync();
+    }
+  }
+
+  private void doSend(Payload payload) {
+    final int sizeInBytes = payload.sizeInBytes();
+    RemoteApi.Response response;
+    try {
+      response = api.sendSerializedTraces(payload);
+    } catch (Throwable e) {
+      response = RemoteApi.Response.failed(e);
+    } finally {
+      payload.release();
+    }
+    PayloadDispatcher.onResponse(healthMetrics, payload.traceCount(), sizeInBytes, response);
+  }
+
+  private void onFailedSend(Payload payload) {
+    healthMetrics.onFailedSend(
+        payload.traceCount(), payload.sizeInBytes(), RemoteApi.Response.failed(-1));
+    payload.release();
+  }
+
+  int maxInFlightRequests() {
+    return maxInFlightRequests;
+  }
+
+  @Override
+  public void close() {
+    senderThread.interrupt();
+    try {
+      senderThread.join(THREAD_JOIN_TIMOUT_MS);
+    } catch (InterruptedException ignored) {
+    }
+    if (null != requestExecutor) {
+      requestExecutor.shutdown();
+      try {
+        requestExecutor.awaitTermination(THREAD_JOIN_TIMOUT_MS, MILLISECONDS);
+      } catch (InterruptedException ignored) {
+      }
+    }
+  }
+
+  private final class Request implements Runnable {
+    private final Payload payload;
+
+    Request(Payload payload) {
+      this.payload = payload;
+    }
+
+    @Override
+    public void run() {
+      try {
+        doSend(payload);
+      } finally {
+        inFlightRequests.release();
+      }
+    }
+  }
+}
@@ -26,16 +26,18 @@ import org.slf4j.LoggerFactory;
  *
  * <p>publishing to the buffer will not block the calling thread, but instead will return false if
  * the buffer is full. This is to avoid impacting an application thread.
+ *
+ * <p>Serialization can be split into shards, each with its own queues, serializer thread and
+ * {@link PayloadDispatcher}. Traces are routed to a shard by trace id. When a {@link PayloadSender}
+ * is provided, the dispatchers hand over their payloads to it instead of sending them on the
+ * serializer thread.
  */
 public class TraceProcessingWorker implements AutoCloseable {
 
   private static final Logger log = LoggerFactory.getLogger(TraceProcessingWorker.class);
 
-  private final PrioritizationStrategy prioritizationStrategy;
-  private final MpscBlockingConsumerArrayQueue<Object> primaryQueue;
-  private final MpscBlockingConsumerArrayQueue<Object> secondaryQueue;
-  private final TraceSerializingHandler serializingHandler;
-  private final Thread serializerThread;
+  private final Shard[] shards;
+  private final PayloadSender sender;
   private final int capacity;
 
   public TraceProcessingWorker(
@@ -46,28 +48,63 @@ public class TraceProcessingWorker implements AutoCloseable {
       final Prioritization prioritization,
       final long flushInterval,
       final TimeUnit timeUnit) {
+    this(
+        capacity,
+        healthMetrics,
+        new PayloadDispatcher[] {dispatcher},
+        null,
+        droppingPolicy,
+        prioritization,
+        flushInterval,
+        timeUnit);
+  }
+
+  public TraceProcessingWorker(
+      final int capacity,
+      final HealthMetrics healthMetrics,
+      final PayloadDispatcher[] dispatchers,
+      final PayloadSender sender,
+      final DroppingPolicy droppingPolicy,
+      final Prioritization prioritization,
+      final long flushInterval,
+      final TimeUnit timeUnit) {
     this.capacity = capacity;
-    this.primaryQueue = createQueue(capacity);
-    this.secondaryQueue = createQueue(capacity);
-    this.prioritizationStrategy =
-        prioritization.create(primaryQueue, secondaryQueue, droppingPolicy);
-    this.serializingHandler =
-        new TraceSerializingHandler(
-            primaryQueue, secondaryQueue, healthMetrics, dispatcher, flushInterval, timeUnit);
-    this.serializerThread = newAgentThread(TRACE_PROCESSOR, serializingHandler);
+    this.sender = sender;
+    this.shards = new Shard[dispatchers.length];
+    // the configured capacity is split between the shards
+    int shardCapacity = Math.max(2, (capacity + dispatchers.length - 1) / dispatchers.length);
+    for (int i = 0; i < dispatchers.length; ++i) {
+      shards[i] =
+          new Shard(
+              shardCapacity,
+              healthMetrics,
+              dispatchers[i],
+              sender,
+              droppingPolicy,
+              prioritization,
+              flushInterval,
+              timeUnit);
+    }
   }
 
   public void start() {
-    this.serializerThread.start();
+    if (null != sender) {
+      sender.start();
+    }
+    for (Shard shard : shards) {
+      shard.serializerThread.start();
+    }
   }
 
   public boolean flush(long timeout, TimeUnit timeUnit) {
-    CountDownLatch latch = new CountDownLatch(1);
+    CountDownLatch latch = new CountDownLatch(shards.length);
     FlushEvent flush = new FlushEvent(latch);
-    boolean offered;
-    do {
-      offered = primaryQueue.offer(flush);
-    } while (!offered && serializerThread.isAlive());
+    for (Shard shard : shards) {
+      boolean offered;
+      do {
+        offered = shard.primaryQueue.offer(flush);
+      } while (!offered && shard.serializerThread.isAlive());
+    }
     try {
       return latch.await(timeout, timeUnit);
     } catch (InterruptedException e) {
@@ -78,16 +115,31 @@ public class TraceProcessingWorker implements AutoCloseable {
 
   @Override
   public void close() {
-    serializerThread.interrupt();
-    try {
-      serializerThread.join(THREAD_JOIN_TIMOUT_MS);
-    } catch (InterruptedException ignored) {
+    for (Shard shard : shards) {
+      shard.serializerThread.interrupt();
+    }
+    for (Shard shard : shards) {
+      try {
+        shard.serializerThread.join(THREAD_JOIN_TIMOUT_MS);
+      } catch (InterruptedException ignored) {
+      }
+    }
+    if (null != sender) {
+      sender.close();
     }
   }
 
   public <T extends CoreSpan<T>> boolean publish(
       T root, int samplingPriority, final List<T> trace) {
-    return prioritizationStrategy.publish(root, samplingPriority, trace);
+    return shardFor(root).prioritizationStrategy.publish(root, samplingPriority, trace);
+  }
+
+  private Shard shardFor(CoreSpan<?> root) {
+    if (shards.length == 1) {
+      return shards[0];
+    }
+    // keep all chunks of a trace on the same shard
+    return shards[(root.getTraceId().hashCode() & Integer.MAX_VALUE) % shards.length];
   }
 
   public int getCapacity() {
@@ -96,7 +148,44 @@ public class TraceProcessingWorker implements AutoCloseable {
 
   public long getRemainingCapacity() {
     // only advertise primary capacity (partly to keep test which aims to saturate the queue happy)
-    return primaryQueue.remainingCapacity();
+    long remainingCapacity = 0;
+    for (Shard shard : shards) {
+      remainingCapacity += shard.primaryQueue.remainingCapacity();
+    }
+    return remainingCapacity;
+  }
+
+  private static final class Shard {
+    private final PrioritizationStrategy prioritizationStrategy;
+    private final MpscBlockingConsumerArrayQueue<Object> primaryQueue;
+    private final MpscBlockingConsumerArrayQueue<Object> secondaryQueue;
+    private final TraceSerializingHandler serializingHandler;
+    private final Thread serializerThread;
+
+    Shard(
+        final int capacity,
+        final HealthMetrics healthMetrics,
+        final PayloadDispatcher dispatcher,
+        final PayloadSender sender,
+        final DroppingPolicy droppingPolicy,
+        final Prioritization prioritization,
+        final long flushInterval,
+        final TimeUnit timeUnit) {
+      this.primaryQueue = createQueue(capacity);
+      this.secondaryQueue = createQueue(capacity);
+      this.prioritizationStrategy =
+          prioritization.create(primaryQueue, secondaryQueue, droppingPolicy);
+      this.serializingHandler =
+          new TraceSerializingHandler(
+              primaryQueue,
+              secondaryQueue,
+              healthMetrics,
+              dispatcher,
+              sender,
+              flushInterval,
+              timeUnit);
+      this.serializerThread = newAgentThread(TRACE_PROCESSOR, serializingHandler);
+    }
   }
 
   private static MpscBlockingConsumerArrayQueue<Object> createQueue(int capacity) {
@@ -112,6 +201,7 @@ public class TraceProcessingWorker implements AutoCloseable {
     private final long ticksRequiredToFlush;
     private final boolean doTimeFlush;
     private final PayloadDispatcher payloadDispatcher;
+    private final PayloadSender payloadSender;
     private long lastTicks;
 
     public TraceSerializingHandler(
@@ -121,11 +211,30 @@ public class TraceProcessingWorker implements AutoCloseable {
         final PayloadDispatcher payloadDispatcher,
         final long flushInterval,
         final TimeUnit timeUnit) {
+      this(
+          primaryQueue,
+          secondaryQueue,
+          healthMetrics,
+          payloadDispatcher,
+          null,
+          flushInterval,
+          timeUnit);
+    }
+
+    public TraceSerializingHandler(
+        final MpscBlockingConsumerArrayQueue<Object> primaryQueue,
+        final MpscBlockingConsumerArrayQueue<Object> secondaryQueue,
+        final HealthMetrics healthMetrics,
+        final PayloadDispatcher payloadDispatcher,
+        final PayloadSender payloadSender,
+        final long flushInterval,
+        final TimeUnit timeUnit) {
       this.primaryQueue = primaryQueue;
       this.secondaryQueue = secondaryQueue;
       this.healthMetrics = healthMetrics;
       this.doTimeFlush = flushInterval > 0;
       this.payloadDispatcher = payloadDispatcher;
+      this.payloadSender = payloadSender;
       if (doTimeFlush) {
         this.lastTicks = System.nanoTime();
         this.ticksRequiredToFlush = timeUnit.toNanos(flushInterval);
@@ -146,7 +255,12 @@ public class TraceProcessingWorker implements AutoCloseable {
           payloadDispatcher.addTrace(trace);
         } else if (event instanceof FlushEvent) {
           payloadDispatcher.flush();
-          ((FlushEvent) event).sync();
+          if (null == payloadSender) {
+            ((FlushEvent) event).sync();
+          } else {
+            // only complete the flush once the payloads have actually been sent
+            payloadSender.sync((FlushEvent) event);
+          }
         }
       } catch (final Throwable e) {
         if (log.isDebugEnabled()) {
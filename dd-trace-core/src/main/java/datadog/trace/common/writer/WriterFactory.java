@@ -93,6 +93,12 @@ public class WriterFactory {
             .healthMetrics(new HealthMetrics(statsDClient))
             .monitoring(commObjects.monitoring)
             .alwaysFlush(alwaysFlush)
+            .serializationShards(config.getTraceSerializationShards())
+            .maxInFlightRequests(config.getTraceAgentMaxInFlightRequests())
+            // the other writers of a multi writer would see the recycled spans
+            .spanRecycling(
+                config.isTraceSpanRecyclingEnabled()
+                    && !config.getWriterType().startsWith(MULTI_WRITER_TYPE))
             .build();
 
     if (sampler instanceof RemoteResponseListener) {
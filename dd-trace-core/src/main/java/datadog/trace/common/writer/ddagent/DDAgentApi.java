@@ -15,18 +15,23 @@ import datadog.trace.common.writer.RemoteResponseListener;
 import datadog.trace.core.DDTraceCoreInfo;
 import datadog.trace.relocate.api.IOLogger;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** The API pointing to a DD agent */
+/**
+ * The API pointing to a DD agent
+ *
+ * <p>Payloads may be sent concurrently from several threads. The sampling rates in a response are
+ * only passed on to the listeners when no response to a later request has been handled yet.
+ */
 public class DDAgentApi implements RemoteApi {
 
   public static final String DATADOG_META_TRACER_VERSION = "Datadog-Meta-Tracer-Version";
@@ -42,13 +47,17 @@ public class DDAgentApi implements RemoteApi {
   private static final String DATADOG_DROPPED_SPAN_COUNT = "Datadog-Client-Dropped-P0-Spans";
   private static final String DATADOG_AGENT_STATE = "Datadog-Agent-State";
 
-  private final List<RemoteResponseListener> responseListeners = new ArrayList<>();
+  private final CopyOnWriteArrayList<RemoteResponseListener> responseListeners =
+      new CopyOnWriteArrayList<>();
   private final boolean metricsEnabled;
 
-  private long totalTraces = 0;
-  private long receivedTraces = 0;
-  private long sentTraces = 0;
-  private long failedTraces = 0;
+  private final AtomicLong totalTraces = new AtomicLong();
+  private final AtomicLong receivedTraces = new AtomicLong();
+  private final AtomicLong sentTraces = new AtomicLong();
+  private final AtomicLong failedTraces = new AtomicLong();
+
+  private final AtomicLong requestSequence = new AtomicLong();
+  private final AtomicLong lastResponseSequence = new AtomicLong();
 
   private final Recording sendPayloadTimer;
   private final Counter agentErrorCounter;
@@ -88,9 +97,7 @@ public class DDAgentApi implements RemoteApi {
   }
 
   public void addResponseListener(final RemoteResponseListener listener) {
-    if (!responseListeners.contains(listener)) {
-      responseListeners.add(listener);
-    }
+    responseListeners.addIfAbsent(listener);
   }
 
   public Response sendSerializedTraces(final Payload payload) {
@@ -118,8 +125,9 @@ public class DDAgentApi implements RemoteApi {
                   metricsEnabled && featuresDiscovery.supportsMetrics() ? "true" : "")
               .put(payload.toRequest())
               .build();
-      this.totalTraces += payload.traceCount();
-      this.receivedTraces += payload.traceCount();
+      this.totalTraces.addAndGet(payload.traceCount());
+      this.receivedTraces.addAndGet(payload.traceCount());
+      final long sequence = requestSequence.incrementAndGet();
       try (final Recording recording = sendPayloadTimer.start();
           final okhttp3.Response response = httpClient.newCall(request).execute()) {
         handleAgentChange(response.header(DATADOG_AGENT_STATE));
@@ -132,7 +140,9 @@ public class DDAgentApi implements RemoteApi {
         String responseString = null;
         try {
           responseString = getResponseBody(response);
-          if (!"".equals(responseString) && !"OK".equalsIgnoreCase(responseString)) {
+          if (!"".equals(responseString)
+              && !"OK".equalsIgnoreCase(responseString)
+              && isLatestResponse(sequence)) {
             final Map<String, Map<String, Number>> parsedResponse =
                 RESPONSE_ADAPTER.fromJson(responseString);
             final String endpoint = tracesUrl.toString();
@@ -152,6 +162,18 @@ public class DDAgentApi implements RemoteApi {
     }
   }
 
+  /** Don't let a slow response overwrite the rates of a later one. */
+  private boolean isLatestResponse(long sequence) {
+    long last;
+    do {
+      last = lastResponseSequence.get();
+      if (sequence < last) {
+        return false;
+      }
+    } while (!lastResponseSequence.compareAndSet(last, sequence));
+    return true;
+  }
+
   private void handleAgentChange(String state) {
     String previous = featuresDiscovery.state();
     if (!Objects.equals(state, previous)) {
@@ -161,7 +183,7 @@ public class DDAgentApi implements RemoteApi {
 
   private void countAndLogSuccessfulSend(final int traceCount, final int sizeInBytes) {
     // count the successful traces
-    this.sentTraces += traceCount;
+    this.sentTraces.addAndGet(traceCount);
 
     ioLogger.success(createSendLogMessage(traceCount, sizeInBytes, "Success"));
   }
@@ -172,7 +194,7 @@ public class DDAgentApi implements RemoteApi {
       final okhttp3.Response response,
       final IOException outer) {
     // count the failed traces
-    this.failedTraces += traceCount;
+    this.failedTraces.addAndGet(traceCount);
     // these are used to catch and log if there is a failure in debug logging the response body
     String agentError = getResponseBody(response);
     String sendErrorString =
@@ -209,13 +231,13 @@ public class DDAgentApi implements RemoteApi {
         + ")"
         + " traces to the DD agent."
         + " Total: "
-        + this.totalTraces
+        + this.totalTraces.get()
         + ", Received: "
-        + this.receivedTraces
+        + this.receivedTraces.get()
         + ", Sent: "
-        + this.sentTraces
+        + this.sentTraces.get()
         + ", Failed: "
-        + this.failedTraces
+        + this.failedTraces.get()
         + ".";
   }
 }
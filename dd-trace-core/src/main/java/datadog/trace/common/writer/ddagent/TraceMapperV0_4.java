@@ -3,11 +3,13 @@ package datadog.trace.common.writer.ddagent;
 import static datadog.communication.http.OkHttpUtils.msgpackRequestBodyOf;
 
 import datadog.communication.serialization.Writable;
+import datadog.trace.api.DDId;
 import datadog.trace.bootstrap.instrumentation.api.InstrumentationTags;
 import datadog.trace.common.writer.Payload;
 import datadog.trace.core.CoreSpan;
 import datadog.trace.core.Metadata;
 import datadog.trace.core.MetadataConsumer;
+import datadog.trace.core.TagMap;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -28,10 +30,14 @@ public final class TraceMapperV0_4 implements TraceMapper {
     this(5 << 20);
   }
 
-  private static final class MetaWriter extends MetadataConsumer {
+  private static final class MetaWriter extends MetadataConsumer implements TagMap.Visitor {
 
+    // the high order bits of 128 bit trace ids are written from here without allocating
+    private final byte[] traceIdHigh = new byte[16];
     private Writable writable;
     private boolean writeSamplingPriority;
+    private boolean writeTraceIdHigh;
+    private boolean writingMetrics;
 
     MetaWriter withWritable(Writable writable) {
       this.writable = writable;
@@ -43,25 +49,29 @@ public final class TraceMapperV0_4 implements TraceMapper {
       return this;
     }
 
+    MetaWriter withWriteTraceIdHigh(final boolean writeTraceIdHigh) {
+      this.writeTraceIdHigh = writeTraceIdHigh;
+      return this;
+    }
+
     @Override
     public void accept(Metadata metadata) {
+      final int numericTagCount = metadata.numericTagCount();
+      final boolean hasTraceIdHigh = writeTraceIdHigh && metadata.getTraceIdHigh() != 0;
       int metaSize =
           metadata.getBaggage().size()
               + metadata.getTags().size()
+              - numericTagCount
               + (null == metadata.getHttpStatusCode() ? 0 : 1)
               + (null == metadata.getOrigin() ? 0 : 1)
+              + (hasTraceIdHigh ? 1 : 0)
               + 1;
       int metricsSize =
           (writeSamplingPriority && metadata.hasSamplingPriority() ? 1 : 0)
               + (metadata.measured() ? 1 : 0)
               + (metadata.topLevel() ? 1 : 0)
+              + numericTagCount
               + 1;
-      for (Map.Entry<String, Object> tag : metadata.getTags().entrySet()) {
-        if (tag.getValue() instanceof Number) {
-          ++metricsSize;
-          --metaSize;
-        }
-      }
       writable.writeUTF8(METRICS);
       writable.startMap(metricsSize);
       if (writeSamplingPriority && metadata.hasSamplingPriority()) {
@@ -78,12 +88,8 @@ public final class TraceMapperV0_4 implements TraceMapper {
       }
       writable.writeUTF8(THREAD_ID);
       writable.writeLong(metadata.getThreadId());
-      for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        if (entry.getValue() instanceof Number) {
-          writable.writeString(entry.getKey(), null);
-          writable.writeObject(entry.getValue(), null);
-        }
-      }
+      writingMetrics = true;
+      metadata.forEachTag(this);
 
       writable.writeUTF8(META);
       writable.startMap(metaSize);
@@ -104,11 +110,25 @@ public final class TraceMapperV0_4 implements TraceMapper {
         writable.writeUTF8(ORIGIN_KEY);
         writable.writeString(metadata.getOrigin(), null);
       }
-      for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        if (!(entry.getValue() instanceof Number)) {
-          writable.writeString(entry.getKey(), null);
-          writable.writeObjectString(entry.getValue(), null);
+      if (hasTraceIdHigh) {
+        writable.writeUTF8(TRACE_ID_HIGH_KEY);
+        DDId.writeHexPadded(metadata.getTraceIdHigh(), traceIdHigh, 0);
+        writable.writeUTF8(traceIdHigh);
+      }
+      writingMetrics = false;
+      metadata.forEachTag(this);
+    }
+
+    @Override
+    public void visit(String key, Object value) {
+      if (value instanceof Number) {
+        if (writingMetrics) {
+          writable.writeString(key, null);
+          writable.writeObject(value, null);
         }
+      } else if (!writingMetrics) {
+        writable.writeString(key, null);
+        writable.writeObjectString(value, null);
       }
     }
   }
@@ -155,7 +175,8 @@ public final class TraceMapperV0_4 implements TraceMapper {
       span.processTagsAndBaggage(
           metaWriter
               .withWritable(writable)
-              .withWriteSamplingPriority(i == 0 || i == trace.size() - 1));
+              .withWriteSamplingPriority(i == 0 || i == trace.size() - 1)
+              .withWriteTraceIdHigh(i == 0));
     }
   }
 
@@ -1,33 +1,55 @@
 package datadog.trace.common.writer.ddagent;
 
 import static datadog.communication.http.OkHttpUtils.msgpackRequestBodyOf;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import datadog.communication.serialization.GrowableBuffer;
 import datadog.communication.serialization.Mapper;
 import datadog.communication.serialization.Writable;
 import datadog.communication.serialization.WritableFormatter;
 import datadog.communication.serialization.msgpack.MsgPackWriter;
+import datadog.trace.api.DDId;
 import datadog.trace.bootstrap.instrumentation.api.InstrumentationTags;
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
 import datadog.trace.common.writer.Payload;
 import datadog.trace.core.CoreSpan;
 import datadog.trace.core.Metadata;
 import datadog.trace.core.MetadataConsumer;
+import datadog.trace.core.TagMap;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import okhttp3.RequestBody;
 
+/**
+ * Maps traces to the v0.5 format, where strings are replaced by their index in a dictionary sent
+ * with each payload.
+ *
+ * <p>The UTF-8 encoding of recently used service names, operation names, resources, types and tag
+ * keys is cached across payloads, along with the index the string has in the current payload's
+ * dictionary, if any. Building a payload's dictionary only copies the cached bytes, and such a
+ * string costs one hash lookup however many payloads it appears in. The cache is bounded and
+ * evicts the least recently used strings. Tag values can have any cardinality and length, so they
+ * are only deduplicated within a payload.
+ */
 public final class TraceMapperV0_5 implements TraceMapper {
 
+  private static final int MAX_CACHED_STRINGS = 4096;
+
   private final WritableFormatter dictionaryWriter;
   private final DictionaryMapper dictionaryMapper = new DictionaryMapper();
-  private final Map<Object, Integer> encoding = new HashMap<>();
+  private final StringCache stringCache = new StringCache(MAX_CACHED_STRINGS);
+  // dictionary indexes of the tag values in the current payload
+  private final Map<String, Integer> valueEncoding = new HashMap<>();
   private final GrowableBuffer dictionary;
+  // identifies the current payload, so dictionary indexes from previous payloads aren't reused
+  private int generation;
 
   private final MetaWriter metaWriter = new MetaWriter();
   private final int size;
@@ -77,19 +99,32 @@ public final class TraceMapperV0_5 implements TraceMapper {
       span.processTagsAndBaggage(
           metaWriter
               .withWritable(writable)
-              .withWriteSamplingPriority(i == 0 || i == trace.size() - 1));
+              .withWriteSamplingPriority(i == 0 || i == trace.size() - 1)
+              .withWriteTraceIdHigh(i == 0));
       /* 12 */
       writeDictionaryEncoded(writable, span.getType());
     }
   }
 
   private void writeDictionaryEncoded(final Writable writable, final Object value) {
-    final Object target = null == value ? "" : value;
-    final Integer encoded = encoding.get(target);
+    final CachedString cached = cachedString(value);
+    if (cached.generation != generation) {
+      dictionaryWriter.format(cached.utf8, dictionaryMapper);
+      cached.code = dictionary.messageCount() - 1;
+      cached.generation = generation;
+    }
+    // this call can fail, but the dictionary has been written to now
+    // so should make sure dictionary state is consistent first
+    writable.writeInt(cached.code);
+  }
+
+  private void writeDictionaryEncodedValue(final Writable writable, final Object value) {
+    final String key = null == value ? "" : value.toString();
+    final Integer encoded = valueEncoding.get(key);
     if (null == encoded) {
-      dictionaryWriter.format(target, dictionaryMapper);
+      dictionaryWriter.format(utf8(value, key), dictionaryMapper);
       final int dictionaryCode = dictionary.messageCount() - 1;
-      encoding.put(target, dictionaryCode);
+      valueEncoding.put(key, dictionaryCode);
       // this call can fail, but the dictionary has been written to now
       // so should make sure dictionary state is consistent first
       writable.writeInt(dictionaryCode);
@@ -98,6 +133,23 @@ public final class TraceMapperV0_5 implements TraceMapper {
     }
   }
 
+  private static byte[] utf8(final Object value, final String key) {
+    return value instanceof UTF8BytesString
+        ? ((UTF8BytesString) value).getUtf8Bytes()
+        : key.getBytes(UTF_8);
+  }
+
+  private CachedString cachedString(final Object value) {
+    // String and UTF8BytesString with the same contents share an entry
+    final String key = null == value ? "" : value.toString();
+    CachedString cached = stringCache.get(key);
+    if (null == cached) {
+      cached = new CachedString(utf8(value, key), generation - 1);
+      stringCache.put(key, cached);
+    }
+    return cached;
+  }
+
   @Override
   public Payload newPayload() {
     return new PayloadV0_5(dictionary.slice(), dictionary.messageCount());
@@ -111,7 +163,8 @@ public final class TraceMapperV0_5 implements TraceMapper {
   @Override
   public void reset() {
     dictionary.reset();
-    encoding.clear();
+    valueEncoding.clear();
+    ++generation;
   }
 
   @Override
@@ -119,21 +172,42 @@ public final class TraceMapperV0_5 implements TraceMapper {
     return "v0.5";
   }
 
-  private static class DictionaryMapper implements Mapper<Object> {
+  private static class DictionaryMapper implements Mapper<byte[]> {
 
     @Override
-    public void map(final Object data, final Writable packer) {
-      if (data instanceof UTF8BytesString) {
-        packer.writeObject(data, null);
-      } else {
-        packer.writeString(String.valueOf(data), null);
-      }
+    public void map(final byte[] utf8, final Writable packer) {
+      packer.writeUTF8(utf8);
+    }
+  }
+
+  private static final class CachedString {
+    private final byte[] utf8;
+    private int code;
+    private int generation;
+
+    private CachedString(byte[] utf8, int generation) {
+      this.utf8 = utf8;
+      this.generation = generation;
+    }
+  }
+
+  private static final class StringCache extends LinkedHashMap<String, CachedString> {
+    private final int maxSize;
+
+    private StringCache(int maxSize) {
+      super(maxSize * 4 / 3 + 1, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedString> eldest) {
+      return size() > maxSize;
     }
   }
 
   private static class PayloadV0_5 extends Payload {
 
-    private final ByteBuffer dictionary;
+    private ByteBuffer dictionary;
     private final int stringCount;
 
     private PayloadV0_5(ByteBuffer dictionary, int stringCount) {
@@ -141,6 +215,12 @@ public final class TraceMapperV0_5 implements TraceMapper {
       this.stringCount = stringCount;
     }
 
+    @Override
+    public Payload detach() {
+      this.dictionary = copy(dictionary);
+      return super.detach();
+    }
+
     @Override
     public int sizeInBytes() {
       return 1
@@ -175,10 +255,16 @@ public final class TraceMapperV0_5 implements TraceMapper {
     }
   }
 
-  private final class MetaWriter extends MetadataConsumer {
+  private final class MetaWriter extends MetadataConsumer implements TagMap.Visitor {
 
     private Writable writable;
     private boolean writeSamplingPriority;
+    private boolean writeTraceIdHigh;
+    private boolean writingMetrics;
+    // the chunks of a trace are usually written one after the other, so the hex string of the
+    // high order bits of the last 128 bit trace id is kept for the next chunk
+    private long lastTraceIdHigh;
+    private String lastTraceIdHighHex;
 
     MetaWriter withWritable(final Writable writable) {
       this.writable = writable;
@@ -190,49 +276,53 @@ public final class TraceMapperV0_5 implements TraceMapper {
       return this;
     }
 
+    MetaWriter withWriteTraceIdHigh(final boolean writeTraceIdHigh) {
+      this.writeTraceIdHigh = writeTraceIdHigh;
+      return this;
+    }
+
     @Override
     public void accept(Metadata metadata) {
+      final int numericTagCount = metadata.numericTagCount();
+      final boolean hasTraceIdHigh = writeTraceIdHigh && metadata.getTraceIdHigh() != 0;
       int metaSize =
           metadata.getBaggage().size()
               + metadata.getTags().size()
+              - numericTagCount
               + (null == metadata.getHttpStatusCode() ? 0 : 1)
               + (null == metadata.getOrigin() ? 0 : 1)
+              + (hasTraceIdHigh ? 1 : 0)
               + 1;
       int metricsSize =
           (writeSamplingPriority && metadata.hasSamplingPriority() ? 1 : 0)
               + (metadata.measured() ? 1 : 0)
               + (metadata.topLevel() ? 1 : 0)
+              + numericTagCount
               + 1;
-      for (Map.Entry<String, Object> tag : metadata.getTags().entrySet()) {
-        if (tag.getValue() instanceof Number) {
-          ++metricsSize;
-          --metaSize;
-        }
-      }
       writable.startMap(metaSize);
       // we don't need to deduplicate any overlap between tags and baggage here
       // since they will be accumulated into maps in the same order downstream,
       // we just need to be sure that the size is the same as the number of elements
       for (Map.Entry<String, String> entry : metadata.getBaggage().entrySet()) {
         writeDictionaryEncoded(writable, entry.getKey());
-        writeDictionaryEncoded(writable, entry.getValue());
+        writeDictionaryEncodedValue(writable, entry.getValue());
       }
       writeDictionaryEncoded(writable, THREAD_NAME);
-      writeDictionaryEncoded(writable, metadata.getThreadName());
+      writeDictionaryEncodedValue(writable, metadata.getThreadName());
       if (null != metadata.getHttpStatusCode()) {
         writeDictionaryEncoded(writable, HTTP_STATUS);
-        writeDictionaryEncoded(writable, metadata.getHttpStatusCode());
+        writeDictionaryEncodedValue(writable, metadata.getHttpStatusCode());
       }
       if (null != metadata.getOrigin()) {
         writeDictionaryEncoded(writable, ORIGIN_KEY);
-        writeDictionaryEncoded(writable, metadata.getOrigin());
+        writeDictionaryEncodedValue(writable, metadata.getOrigin());
       }
-      for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        if (!(entry.getValue() instanceof Number)) {
-          writeDictionaryEncoded(writable, entry.getKey());
-          writeDictionaryEncoded(writable, entry.getValue());
-        }
+      if (hasTraceIdHigh) {
+        writeDictionaryEncoded(writable, TRACE_ID_HIGH_KEY);
+        writeDictionaryEncodedValue(writable, traceIdHighHex(metadata.getTraceIdHigh()));
       }
+      writingMetrics = false;
+      metadata.forEachTag(this);
       writable.startMap(metricsSize);
       if (writeSamplingPriority && metadata.hasSamplingPriority()) {
         writeDictionaryEncoded(writable, SAMPLING_PRIORITY_KEY);
@@ -248,11 +338,30 @@ public final class TraceMapperV0_5 implements TraceMapper {
       }
       writeDictionaryEncoded(writable, THREAD_ID);
       writable.writeLong(metadata.getThreadId());
-      for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        if (entry.getValue() instanceof Number) {
-          writeDictionaryEncoded(writable, entry.getKey());
-          writable.writeObject(entry.getValue(), null);
+      writingMetrics = true;
+      metadata.forEachTag(this);
+    }
+
+    private String traceIdHighHex(long traceIdHigh) {
+      if (traceIdHigh != lastTraceIdHigh || null == lastTraceIdHighHex) {
+        byte[] hex = new byte[16];
+        DDId.writeHexPadded(traceIdHigh, hex, 0);
+        lastTraceIdHighHex = new String(hex, ISO_8859_1);
+        lastTraceIdHigh = traceIdHigh;
+      }
+      return lastTraceIdHighHex;
+    }
+
+    @Override
+    public void visit(String key, Object value) {
+      if (value instanceof Number) {
+        if (writingMetrics) {
+          writeDictionaryEncoded(writable, key);
+          writable.writeObject(value, null);
         }
+      } else if (!writingMetrics) {
+        writeDictionaryEncoded(writable, key);
+        writeDictionaryEncodedValue(writable, value);
       }
     }
   }
@@ -1,6 +1,7 @@
 package datadog.trace.core;
 
 import datadog.trace.api.DDId;
+import datadog.trace.common.sampling.EnvAndService;
 
 public interface CoreSpan<T extends CoreSpan<T>> {
 
@@ -8,6 +9,9 @@ public interface CoreSpan<T extends CoreSpan<T>> {
 
   String getServiceName();
 
+  /** @return the env and service the span is sampled by, without taking the tags' lock */
+  EnvAndService getEnvAndService();
+
   CharSequence getOperationName();
 
   CharSequence getResourceName();
@@ -10,6 +10,7 @@ import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import datadog.communication.ddagent.DroppingPolicy;
 import datadog.communication.ddagent.ExternalAgentLauncher;
 import datadog.communication.ddagent.SharedCommunicationObjects;
 import datadog.communication.monitor.Monitoring;
@@ -56,6 +57,7 @@ import datadog.trace.core.propagation.HttpCodec;
 import datadog.trace.core.scopemanager.ContinuableScopeManager;
 import datadog.trace.core.taginterceptor.RuleFlags;
 import datadog.trace.core.taginterceptor.TagInterceptor;
+import datadog.trace.core.util.MemoryPressure;
 import datadog.trace.relocate.api.RatelimitedLogger;
 import datadog.trace.util.AgentTaskScheduler;
 import de.thetaphi.forbiddenapis.SuppressForbidden;
@@ -112,6 +114,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
 
   private final PendingTraceBuffer pendingTraceBuffer;
 
+  /** Budget of the memory retained by buffered spans, null when disabled */
+  private final PendingTraceMemory pendingTraceMemory;
+
   /** Default service name if none provided on the trace or span */
   final String serviceName;
   /** Writer is an charge of reporting traces and spans to the desired endpoint */
@@ -132,12 +137,21 @@ public class CoreTracer implements AgentTracer.TracerAPI {
 
   /** number of spans in a pending trace before they get flushed */
   private final int partialFlushMinSpans;
+  /** Number of finished spans written together when span streaming, zero when not streaming */
+  private final int spanStreamingChunkSize;
+
+  /** Whether the sampling decision is made when the local root span starts */
+  private final boolean earlySampling;
+  /** Decides whether traces dropped by early sampling can be discarded without the agent */
+  private final DroppingPolicy droppingPolicy;
 
   private final StatsDClient statsDClient;
   private final Monitoring monitoring;
   private final Monitoring performanceMonitoring;
   private final Recording traceWriteTimer;
   private final IdGenerationStrategy idGenerationStrategy;
+  /** Whether new traces are given 128 bit trace ids */
+  private final boolean trace128bitTraceIdGeneration;
   private final PendingTrace.Factory pendingTraceFactory;
   private final SamplingCheckpointer spanCheckpointer;
   private final DataStreamsCheckpointer dataStreamsCheckpointer;
@@ -239,9 +253,11 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     private Map<String, String> serviceNameMappings;
     private Map<String, String> taggedHeaders;
     private int partialFlushMinSpans;
+    private int spanStreamingChunkSize;
     private StatsDClient statsDClient;
     private TagInterceptor tagInterceptor;
     private boolean strictTraceWrites;
+    private boolean earlySampling;
     private InstrumentationGateway instrumentationGateway;
     private TimeSource timeSource;
     private DataStreamsCheckpointer dataStreamsCheckpointer;
@@ -332,6 +348,20 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       return this;
     }
 
+    /**
+     * @param spanStreamingChunkSize write finished spans in chunks of this size without waiting for
+     *     the rest of their trace, or zero to write whole traces
+     */
+    public CoreTracerBuilder spanStreamingChunkSize(int spanStreamingChunkSize) {
+      this.spanStreamingChunkSize = spanStreamingChunkSize;
+      return this;
+    }
+
+    public CoreTracerBuilder earlySampling(boolean earlySampling) {
+      this.earlySampling = earlySampling;
+      return this;
+    }
+
     public CoreTracerBuilder instrumentationGateway(InstrumentationGateway instrumentationGateway) {
       this.instrumentationGateway = instrumentationGateway;
       return this;
@@ -371,7 +401,10 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       serviceNameMappings(config.getServiceMapping());
       taggedHeaders(config.getRequestHeaderTags());
       partialFlushMinSpans(config.getPartialFlushMinSpans());
+      spanStreamingChunkSize(
+          config.isSpanStreamingEnabled() ? config.getSpanStreamingChunkSize() : 0);
       strictTraceWrites(config.isTraceStrictWritesEnabled());
+      earlySampling(config.isTraceEarlySamplingEnabled());
 
       return this;
     }
@@ -392,9 +425,11 @@ public class CoreTracer implements AgentTracer.TracerAPI {
           serviceNameMappings,
           taggedHeaders,
           partialFlushMinSpans,
+          spanStreamingChunkSize,
           statsDClient,
           tagInterceptor,
           strictTraceWrites,
+          earlySampling,
           instrumentationGateway,
           timeSource,
           dataStreamsCheckpointer);
@@ -417,9 +452,11 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       final Map<String, String> serviceNameMappings,
       final Map<String, String> taggedHeaders,
       final int partialFlushMinSpans,
+      final int spanStreamingChunkSize,
       final StatsDClient statsDClient,
       final TagInterceptor tagInterceptor,
       final boolean strictTraceWrites,
+      final boolean earlySampling,
       final InstrumentationGateway instrumentationGateway,
       final TimeSource timeSource,
       final DataStreamsCheckpointer dataStreamsCheckpointer) {
@@ -444,6 +481,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     this.defaultSpanTags = defaultSpanTags;
     this.serviceNameMappings = serviceNameMappings;
     this.partialFlushMinSpans = partialFlushMinSpans;
+    this.spanStreamingChunkSize = Math.max(0, spanStreamingChunkSize);
+    this.earlySampling = earlySampling && sampler instanceof PrioritySampler;
     this.idGenerationStrategy =
         null == idGenerationStrategy
             ? Config.get().getIdGenerationStrategy()
@@ -483,12 +522,14 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     this.externalAgentLauncher = new ExternalAgentLauncher(config);
 
     this.disableSamplingMechanismValidation = config.isSamplingMechanismValidationDisabled();
+    this.trace128bitTraceIdGeneration = config.isTrace128bitTraceIdGenerationEnabled();
 
     if (sharedCommunicationObjects == null) {
       sharedCommunicationObjects = new SharedCommunicationObjects();
     }
     sharedCommunicationObjects.monitoring = monitoring;
     sharedCommunicationObjects.createRemaining(config);
+    this.droppingPolicy = sharedCommunicationObjects.featuresDiscovery;
 
     if (writer == null) {
       this.writer =
@@ -502,8 +543,15 @@ public class CoreTracer implements AgentTracer.TracerAPI {
         strictTraceWrites
             ? PendingTraceBuffer.discarding()
             : PendingTraceBuffer.delaying(this.timeSource);
+    if (config.isPartialFlushMemoryEnabled()) {
+      this.pendingTraceMemory = PendingTraceMemory.scaledToHeap();
+      MemoryPressure.addListener(pendingTraceMemory);
+    } else {
+      this.pendingTraceMemory = null;
+    }
     pendingTraceFactory =
-        new PendingTrace.Factory(this, pendingTraceBuffer, this.timeSource, strictTraceWrites);
+        new PendingTrace.Factory(
+            this, pendingTraceBuffer, this.timeSource, strictTraceWrites, pendingTraceMemory);
     pendingTraceBuffer.start();
 
     this.writer.start();
@@ -706,6 +754,10 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     return partialFlushMinSpans;
   }
 
+  public int getSpanStreamingChunkSize() {
+    return spanStreamingChunkSize;
+  }
+
   @Override
   public AgentSpan activeSpan() {
     return scopeManager.activeSpan();
@@ -803,6 +855,36 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     if (trace.isEmpty()) {
       return;
     }
+    List<DDSpan> writtenTrace = intercept(trace);
+
+    if (!writtenTrace.isEmpty()) {
+      boolean forceKeep = metricsAggregator.publish(writtenTrace);
+
+      DDSpan rootSpan = writtenTrace.get(0).getLocalRootSpan();
+      setSamplingPriorityIfNecessary(rootSpan);
+
+      DDSpan spanToSample = rootSpan == null ? writtenTrace.get(0) : rootSpan;
+      spanToSample.forceKeep(forceKeep);
+      boolean published = forceKeep || sampler.sample(spanToSample);
+      if (published) {
+        writeToWriter(writtenTrace);
+      } else {
+        // with span streaming this won't work - it needs to be changed
+        // to track an effective sampling rate instead, however, tests
+        // checking that a hard reference on a continuation prevents
+        // reporting fail without this, so will need to be fixed first.
+        writer.incrementDropCounts(writtenTrace.size());
+      }
+      // partial flushes and streamed chunks may not contain the root span, which is only done
+      // with once the chunk containing it has been written
+      if (null != rootSpan && containsSpan(trace, rootSpan)) {
+        onRootSpanWritten(rootSpan, published);
+      }
+    }
+  }
+
+  /** @return the trace as changed by the trace interceptors */
+  private List<DDSpan> intercept(final List<DDSpan> trace) {
     List<DDSpan> writtenTrace = trace;
     if (!interceptors.isEmpty()) {
       Collection<? extends MutableSpan> interceptedTrace = new ArrayList<>(trace);
@@ -822,54 +904,88 @@ public class CoreTracer implements AgentTracer.TracerAPI {
         }
       }
     }
+    return writtenTrace;
+  }
 
-    if (!writtenTrace.isEmpty()) {
-      boolean forceKeep = metricsAggregator.publish(writtenTrace);
+  /** Stores the tracing context of the spans, if tracked, and hands the trace to the writer. */
+  private void writeToWriter(final List<DDSpan> writtenTrace) {
+    if (TracingContextTrackerFactory.isTrackingAvailable()) {
+      for (DDSpan span : writtenTrace) {
+        int stored = span.storeContextToTag();
+        if (stored > -1) {
+          log.trace(
+              "Sending statsd metric 'tracing.context.size'={} (client={})",
+              stored,
+              statsDClient);
+          statsDClient.histogram("tracing.context.size", stored);
+        }
+      }
+    }
+    writer.write(writtenTrace);
+  }
 
-      DDSpan rootSpan = writtenTrace.get(0).getLocalRootSpan();
-      setSamplingPriorityIfNecessary(rootSpan);
+  private static boolean containsSpan(final List<DDSpan> trace, final DDSpan span) {
+    for (int i = 0; i < trace.size(); ++i) {
+      if (trace.get(i) == span) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-      DDSpan spanToSample = rootSpan == null ? writtenTrace.get(0) : rootSpan;
-      spanToSample.forceKeep(forceKeep);
-      boolean published = forceKeep || sampler.sample(spanToSample);
-      if (published) {
-        if (TracingContextTrackerFactory.isTrackingAvailable()) {
-          for (DDSpan span : writtenTrace) {
-            int stored = span.storeContextToTag();
-            if (stored > -1) {
-              log.trace(
-                  "Sending statsd metric 'tracing.context.size'={} (client={})",
-                  stored,
-                  statsDClient);
-              statsDClient.histogram("tracing.context.size", stored);
-            }
-          }
-        }
-        writer.write(writtenTrace);
-      } else {
-        // with span streaming this won't work - it needs to be changed
-        // to track an effective sampling rate instead, however, tests
-        // checking that a hard reference on a continuation prevents
-        // reporting fail without this, so will need to be fixed first.
-        writer.incrementDropCounts(writtenTrace.size());
+  /**
+   * Completes a chunk of a trace dropped by early sampling. Its spans are published to the metrics
+   * aggregator so that stats stay accurate, and should the aggregator need the chunk, for instance
+   * because of an error or a new metric key, it is kept and written after all, through the trace
+   * interceptors like any other trace. Otherwise only the drop counts are reported to the writer.
+   */
+  void writeSampledOut(final List<DDSpan> trace) {
+    boolean forceKeep = metricsAggregator.publish(trace);
+
+    DDSpan rootSpan = trace.get(0).getLocalRootSpan();
+    if (forceKeep) {
+      DDSpan spanToSample = rootSpan == null ? trace.get(0) : rootSpan;
+      spanToSample.forceKeep(true);
+      // already published to the metrics aggregator, which must not count the spans twice
+      List<DDSpan> writtenTrace = intercept(trace);
+      if (!writtenTrace.isEmpty()) {
+        writeToWriter(writtenTrace);
       }
-      if (null != rootSpan) {
-        onRootSpanFinished(rootSpan, published);
-
-        // request context is propagated to contexts in child spans
-        // Assume here that if present it will be so starting in the top span
-        RequestContext<Object> requestContext = rootSpan.getRequestContext();
-        if (requestContext != null && requestContext.getData() instanceof Closeable) {
-          try {
-            ((Closeable) requestContext.getData()).close();
-          } catch (IOException e) {
-            log.warn("Error closing request context data", e);
-          }
-        }
+    } else {
+      writer.incrementDropCounts(trace.size());
+    }
+    if (null != rootSpan && containsSpan(trace, rootSpan)) {
+      onRootSpanWritten(rootSpan, forceKeep);
+    }
+  }
+
+  private void onRootSpanWritten(final DDSpan rootSpan, final boolean published) {
+    onRootSpanFinished(rootSpan, published);
+
+    // request context is propagated to contexts in child spans
+    // Assume here that if present it will be so starting in the top span
+    RequestContext<Object> requestContext = rootSpan.getRequestContext();
+    if (requestContext != null && requestContext.getData() instanceof Closeable) {
+      try {
+        ((Closeable) requestContext.getData()).close();
+      } catch (IOException e) {
+        log.warn("Error closing request context data", e);
       }
     }
   }
 
+  /**
+   * Makes the sampling decision as soon as the local root span starts. If the trace is dropped and
+   * the agent doesn't need to see dropped traces, its spans won't be buffered in {@link
+   * PendingTrace}.
+   */
+  private void sampleEarly(final DDSpan rootSpan) {
+    setSamplingPriorityIfNecessary(rootSpan);
+    if (rootSpan.eligibleForDropping() && null != droppingPolicy && droppingPolicy.active()) {
+      rootSpan.context().getTrace().sampleOut();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   void setSamplingPriorityIfNecessary(final DDSpan rootSpan) {
     // There's a race where multiple threads can see PrioritySampling.UNSET here
@@ -926,6 +1042,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
 
   @Override
   public void close() {
+    if (null != pendingTraceMemory) {
+      MemoryPressure.removeListener(pendingTraceMemory);
+    }
     pendingTraceBuffer.close();
     writer.close();
     statsDClient.close();
@@ -1051,6 +1170,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     private DDSpan buildSpan() {
       DDSpan span = DDSpan.create(timestampMicro, buildSpanContext(), emitCheckpoints);
       if (span.isLocalRootSpan()) {
+        if (earlySampling) {
+          sampleEarly(span);
+        }
         tracer.onRootSpanStarted(span);
       }
       return span;
@@ -1147,6 +1269,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
      */
     private DDSpanContext buildSpanContext() {
       final DDId traceId;
+      final long traceIdHigh;
+      final boolean traceId128;
       final DDId spanId = idGenerationStrategy.generate();
       final DDId parentSpanId;
       final Map<String, String> baggage;
@@ -1180,6 +1304,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       if (parentContext instanceof DDSpanContext) {
         final DDSpanContext ddsc = (DDSpanContext) parentContext;
         traceId = ddsc.getTraceId();
+        traceIdHigh = ddsc.getTraceIdHigh();
+        traceId128 = ddsc.isTraceId128();
         parentSpanId = ddsc.getSpanId();
         baggage = ddsc.getBaggageItems();
         parentTrace = ddsc.getTrace();
@@ -1205,6 +1331,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
           // Propagate external trace
           final ExtractedContext extractedContext = (ExtractedContext) parentContext;
           traceId = extractedContext.getTraceId();
+          traceIdHigh = extractedContext.getTraceIdHigh();
+          traceId128 = extractedContext.isTraceId128();
           parentSpanId = extractedContext.getSpanId();
           samplingPriority = extractedContext.getSamplingPriority();
           samplingMechanism = extractedContext.getSamplingMechanism();
@@ -1213,6 +1341,11 @@ public class CoreTracer implements AgentTracer.TracerAPI {
         } else {
           // Start a new trace
           traceId = IdGenerationStrategy.RANDOM.generate();
+          traceIdHigh =
+              trace128bitTraceIdGeneration
+                  ? IdGenerationStrategy.RANDOM.generateHighOrderBits()
+                  : 0;
+          traceId128 = trace128bitTraceIdGeneration;
           parentSpanId = DDId.ZERO;
           samplingPriority = PrioritySampling.UNSET;
           samplingMechanism = SamplingMechanism.UNKNOWN;
@@ -1259,6 +1392,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       context =
           new DDSpanContext(
               traceId,
+              traceIdHigh,
+              traceId128,
               spanId,
               parentSpanId,
               parentServiceName,
@@ -23,6 +23,7 @@ import datadog.trace.bootstrap.instrumentation.api.AttachableWrapper;
 import datadog.trace.bootstrap.instrumentation.api.PathwayContext;
 import datadog.trace.bootstrap.instrumentation.api.ResourceNamePriorities;
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import datadog.trace.common.sampling.EnvAndService;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
@@ -87,6 +88,9 @@ public class DDSpan
 
   private boolean forceKeep;
 
+  /** Estimate of the bytes retained by the span while its trace buffers it, see PendingTrace */
+  long retainedSize;
+
   // Marked as volatile to assure proper publication to child spans executed on different threads
   private volatile byte emittingCheckpoints; // 0 = unset, 1 = true, -1 = false
 
@@ -248,6 +252,19 @@ public class DDSpan
     }
   }
 
+  /**
+   * Recycles the tag storage of a span which has been written. This is internal API: it must only
+   * be called by the writer once the span has been serialized, when span recycling is enabled.
+   *
+   * <p>A local root span which was written before the rest of its trace is kept, because the spans
+   * still running can set tags on it.
+   */
+  public void recycle() {
+    if (getLocalRootSpan() != this || context.getTrace().isCompleted()) {
+      context.recycleTags();
+    }
+  }
+
   public int storeContextToTag() {
     try {
       byte[] contextContent = tracingContextTracker.persist();
@@ -638,6 +655,11 @@ public class DDSpan
     return context.getServiceName();
   }
 
+  @Override
+  public EnvAndService getEnvAndService() {
+    return context.getEnvAndService();
+  }
+
   @Override
   public DDId getTraceId() {
     return context.getTraceId();
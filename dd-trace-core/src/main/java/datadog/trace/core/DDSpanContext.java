@@ -17,9 +17,9 @@ import datadog.trace.bootstrap.instrumentation.api.PathwayContext;
 import datadog.trace.bootstrap.instrumentation.api.ResourceNamePriorities;
 import datadog.trace.bootstrap.instrumentation.api.Tags;
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import datadog.trace.common.sampling.EnvAndService;
 import datadog.trace.core.taginterceptor.TagInterceptor;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -42,11 +42,16 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
   public static final String PRIORITY_SAMPLING_KEY = "_sampling_priority_v1";
   public static final String SAMPLE_RATE_KEY = "_sample_rate";
 
+  private static final String ENV = "env";
+
   private static final DDCache<String, UTF8BytesString> THREAD_NAMES =
       DDCaches.newFixedSizeCache(256);
 
   private static final Map<String, String> EMPTY_BAGGAGE = Collections.emptyMap();
 
+  // rough size of a span and its context, without the tags
+  private static final long CONTEXT_RETAINED_SIZE = 256;
+
   /** The collection of all span related to this one */
   private final PendingTrace trace;
 
@@ -55,9 +60,17 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
 
   // Not Shared with other span contexts
   private final DDId traceId;
+  // high order bits of 128 bit trace ids, zero for 64 bit trace ids
+  private final long traceIdHigh;
+  /** Whether the trace id is propagated as 128 bits, even when its high order bits are zero */
+  private final boolean traceId128;
   private final DDId spanId;
   private final DDId parentId;
 
+  // hexadecimal ids for propagation, only computed once when the context is injected
+  private String hexTraceId;
+  private String hexSpanId;
+
   private final String parentServiceName;
 
   private final long threadId;
@@ -68,16 +81,21 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
   /**
    * Tags are associated to the current span, they will not propagate to the children span.
    *
-   * <p>The underlying assumption for using a normal Map with synchronized access instead of a
-   * ConcurrentHashMap is that even though the tags can be accessed and modified from multiple
+   * <p>The underlying assumption for using a non thread-safe map with synchronized access instead
+   * of a ConcurrentHashMap is that even though the tags can be accessed and modified from multiple
    * threads, they will rarely, if ever, be read and modified concurrently by multiple threads but
    * rather read and accessed in a serial fashion on thread after thread. The synchronization can
    * then be wrapped around bulk operations to minimize the costly atomic operations.
    */
-  private final Map<String, Object> unsafeTags;
+  private final TagMap unsafeTags;
 
   /** The service name is required, otherwise the span are dropped by the agent */
   private volatile String serviceName;
+  /** The env tag, kept out of the tags so that it can be read without taking their lock */
+  private volatile String env = "";
+  /** Interned env and service, reset when either changes */
+  private volatile EnvAndService envAndService;
+
   /** The resource associated to the service (server_web, database, etc.) */
   private volatile CharSequence resourceName;
 
@@ -148,6 +166,50 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
       final Object requestContextData,
       final PathwayContext pathwayContext,
       final boolean disableSamplingMechanismValidation) {
+    this(
+        traceId,
+        0,
+        false,
+        spanId,
+        parentId,
+        parentServiceName,
+        serviceName,
+        operationName,
+        resourceName,
+        samplingPriority,
+        samplingMechanism,
+        origin,
+        baggageItems,
+        errorFlag,
+        spanType,
+        tagsSize,
+        trace,
+        requestContextData,
+        pathwayContext,
+        disableSamplingMechanismValidation);
+  }
+
+  public DDSpanContext(
+      final DDId traceId,
+      final long traceIdHigh,
+      final boolean traceId128,
+      final DDId spanId,
+      final DDId parentId,
+      final CharSequence parentServiceName,
+      final String serviceName,
+      final CharSequence operationName,
+      final CharSequence resourceName,
+      final int samplingPriority,
+      final int samplingMechanism,
+      final CharSequence origin,
+      final Map<String, String> baggageItems,
+      final boolean errorFlag,
+      final CharSequence spanType,
+      final int tagsSize,
+      final PendingTrace trace,
+      final Object requestContextData,
+      final PathwayContext pathwayContext,
+      final boolean disableSamplingMechanismValidation) {
 
     assert trace != null;
     this.trace = trace;
@@ -156,6 +218,8 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     assert spanId != null;
     assert parentId != null;
     this.traceId = traceId;
+    this.traceIdHigh = traceIdHigh;
+    this.traceId128 = traceId128 || traceIdHigh != 0;
     this.spanId = spanId;
     this.parentId = parentId;
     this.parentServiceName = String.valueOf(parentServiceName);
@@ -171,10 +235,8 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     assert pathwayContext != null;
     this.pathwayContext = pathwayContext;
 
-    // The +1 is the magic number from the tags below that we set at the end,
-    // and "* 4 / 3" is to make sure that we don't resize immediately
-    final int capacity = Math.max((tagsSize <= 0 ? 3 : (tagsSize + 1)) * 4 / 3, 8);
-    this.unsafeTags = new HashMap<>(capacity);
+    // The +1 is the magic number from the tags below that we set at the end
+    this.unsafeTags = new TagMap(tagsSize <= 0 ? 3 : (tagsSize + 1));
 
     setServiceName(serviceName);
     this.operationName = operationName;
@@ -201,6 +263,16 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     return traceId;
   }
 
+  /** @return the high order bits of a 128 bit trace id, or zero for a 64 bit trace id */
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /** @return whether the trace id is 128 bits wide, even when its high order bits are zero */
+  public boolean isTraceId128() {
+    return traceId128;
+  }
+
   public DDId getParentId() {
     return parentId;
   }
@@ -210,6 +282,26 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     return spanId;
   }
 
+  /** @return the trace id in hexadecimal, zero padded to 32 characters if 128 bits, else 16 */
+  public String getHexTraceId() {
+    String hex = hexTraceId;
+    if (hex == null) {
+      hexTraceId =
+          hex =
+              traceId128 ? traceId.toHexString128(traceIdHigh) : traceId.toHexStringPadded(16);
+    }
+    return hex;
+  }
+
+  /** @return the span id in hexadecimal, zero padded to 16 characters */
+  public String getHexSpanId() {
+    String hex = hexSpanId;
+    if (hex == null) {
+      hexSpanId = hex = spanId.toHexStringPadded(16);
+    }
+    return hex;
+  }
+
   public String getServiceName() {
     return serviceName;
   }
@@ -217,6 +309,21 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
   public void setServiceName(final String serviceName) {
     this.serviceName = trace.getTracer().mapServiceName(serviceName);
     this.topLevel = isTopLevel(parentServiceName, this.serviceName);
+    this.envAndService = null;
+  }
+
+  public EnvAndService getEnvAndService() {
+    EnvAndService envAndService = this.envAndService;
+    while (null == envAndService) {
+      final String env = this.env;
+      final String serviceName = this.serviceName;
+      this.envAndService = envAndService = EnvAndService.of(env, serviceName);
+      // a setter may have reset the key before it was stored, compute it again if so
+      if (env != this.env || serviceName != this.serviceName) {
+        this.envAndService = envAndService = null;
+      }
+    }
+    return envAndService;
   }
 
   // TODO this logic is inconsistent with hasResourceName
@@ -491,6 +598,9 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     if (null == value || "".equals(value)) {
       synchronized (unsafeTags) {
         unsafeTags.remove(tag);
+        if (ENV.equals(tag)) {
+          setEnv("");
+        }
       }
     } else if (!trace.getTracer().getTagInterceptor().interceptTag(this, tag, value)) {
       synchronized (unsafeTags) {
@@ -516,6 +626,15 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
 
   void unsafeSetTag(final String tag, final Object value) {
     unsafeTags.put(tag, value);
+    if (ENV.equals(tag)) {
+      // a null value removes the tag, so clear the env rather than setting it to "null"
+      setEnv(null == value ? "" : String.valueOf(value));
+    }
+  }
+
+  private void setEnv(final String env) {
+    this.env = env;
+    this.envAndService = null;
   }
 
   Object getTag(final String key) {
@@ -547,7 +666,7 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
 
   public Map<String, Object> getTags() {
     synchronized (unsafeTags) {
-      Map<String, Object> tags = new HashMap<>(unsafeTags);
+      TagMap tags = new TagMap(unsafeTags);
       tags.put(DDTags.THREAD_ID, threadId);
       tags.put(DDTags.THREAD_NAME, threadName.toString());
       if (samplingDecision != SamplingDecision.UNSET_UNKNOWN) {
@@ -560,6 +679,19 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
     }
   }
 
+  /** @return an estimate of the bytes retained by the context and its tags */
+  long estimateRetainedSize() {
+    synchronized (unsafeTags) {
+      return CONTEXT_RETAINED_SIZE + unsafeTags.estimateRetainedSize();
+    }
+  }
+
+  void recycleTags() {
+    synchronized (unsafeTags) {
+      unsafeTags.recycle();
+    }
+  }
+
   public void processTagsAndBaggage(final MetadataConsumer consumer) {
     synchronized (unsafeTags) {
       consumer.accept(
@@ -575,7 +707,8 @@ public class DDSpanContext implements AgentSpan.Context, RequestContext<Object>,
               measured,
               topLevel,
               httpStatusCode == 0 ? null : HTTP_STATUSES.get(httpStatusCode),
-              getOrigin())); // Get origin from rootSpan.context
+              getOrigin(), // Get origin from rootSpan.context
+              traceIdHigh));
     }
   }
 
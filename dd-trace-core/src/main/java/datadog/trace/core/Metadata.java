@@ -16,6 +16,7 @@ public final class Metadata {
   private final boolean measured;
   private final boolean topLevel;
   private final CharSequence origin;
+  private final long traceIdHigh;
 
   public Metadata(
       long threadId,
@@ -26,7 +27,8 @@ public final class Metadata {
       boolean measured,
       boolean topLevel,
       UTF8BytesString httpStatusCode,
-      CharSequence origin) {
+      CharSequence origin,
+      long traceIdHigh) {
     this.threadId = threadId;
     this.threadName = threadName;
     this.httpStatusCode = httpStatusCode;
@@ -36,6 +38,7 @@ public final class Metadata {
     this.measured = measured;
     this.topLevel = topLevel;
     this.origin = origin;
+    this.traceIdHigh = traceIdHigh;
   }
 
   public UTF8BytesString getHttpStatusCode() {
@@ -46,6 +49,11 @@ public final class Metadata {
     return origin;
   }
 
+  /** @return the high order bits of a 128 bit trace id, or zero for a 64 bit trace id */
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
   public long getThreadId() {
     return threadId;
   }
@@ -58,6 +66,31 @@ public final class Metadata {
     return tags;
   }
 
+  /** Visits the tags, without allocating when they are held in a {@link TagMap}. */
+  public void forEachTag(TagMap.Visitor visitor) {
+    if (tags instanceof TagMap) {
+      ((TagMap) tags).forEachTag(visitor);
+    } else {
+      for (Map.Entry<String, Object> tag : tags.entrySet()) {
+        visitor.visit(tag.getKey(), tag.getValue());
+      }
+    }
+  }
+
+  /** @return the number of tags with a {@link Number} value */
+  public int numericTagCount() {
+    if (tags instanceof TagMap) {
+      return ((TagMap) tags).numericCount();
+    }
+    int count = 0;
+    for (Object value : tags.values()) {
+      if (value instanceof Number) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
   public Map<String, String> getBaggage() {
     return baggage;
   }
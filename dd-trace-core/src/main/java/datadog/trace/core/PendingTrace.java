@@ -32,6 +32,20 @@ import org.slf4j.LoggerFactory;
  * </ul>
  *
  * Delayed write is handled by PendingTraceBuffer. <br>
+ *
+ * <p>When span streaming, finished spans are written as soon as there are enough of them to fill a
+ * chunk, and whatever has finished is written when the root span finishes, so a trace holds at
+ * most about a chunk of finished spans. The trace level data, like the sampling priority, is
+ * decided when the first chunk is written and is carried by the first span of every chunk.
+ *
+ * <p>When the memory retained by the spans buffered across traces is kept under a budget, large
+ * traces are partially flushed by {@link PendingTraceMemory} whatever their span count.
+ *
+ * <p>When a trace has been dropped by early sampling, finished spans are kept apart from the
+ * buffered spans: they don't count towards partial flushes, streamed chunks or the retained memory.
+ * They are published to the metrics aggregator in chunks of at most {@link
+ * #SAMPLED_OUT_CHUNK_SIZE} spans, and whatever has finished when the trace is complete, then
+ * released unless the aggregator needs the chunk to be kept.
  */
 public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
@@ -42,30 +56,47 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     private final PendingTraceBuffer pendingTraceBuffer;
     private final TimeSource timeSource;
     private final boolean strictTraceWrites;
+    private final PendingTraceMemory memory;
 
     Factory(
         CoreTracer tracer,
         PendingTraceBuffer pendingTraceBuffer,
         TimeSource timeSource,
         boolean strictTraceWrites) {
+      this(tracer, pendingTraceBuffer, timeSource, strictTraceWrites, null);
+    }
+
+    Factory(
+        CoreTracer tracer,
+        PendingTraceBuffer pendingTraceBuffer,
+        TimeSource timeSource,
+        boolean strictTraceWrites,
+        PendingTraceMemory memory) {
       this.tracer = tracer;
       this.pendingTraceBuffer = pendingTraceBuffer;
       this.timeSource = timeSource;
       this.strictTraceWrites = strictTraceWrites;
+      this.memory = memory;
     }
 
     PendingTrace create(@Nonnull DDId traceId) {
-      return new PendingTrace(tracer, traceId, pendingTraceBuffer, timeSource, strictTraceWrites);
+      return new PendingTrace(
+          tracer, traceId, pendingTraceBuffer, timeSource, strictTraceWrites, memory);
     }
   }
 
   private static final List<DDSpan> EMPTY = new ArrayList<>(0);
 
+  /** Most finished spans held for a trace dropped by early sampling. */
+  static final int SAMPLED_OUT_CHUNK_SIZE = 64;
+
   private final CoreTracer tracer;
   private final DDId traceId;
   private final PendingTraceBuffer pendingTraceBuffer;
   private final TimeSource timeSource;
   private final boolean strictTraceWrites;
+  // null when the memory retained by buffered spans isn't accounted for
+  private final PendingTraceMemory memory;
 
   private final ConcurrentLinkedDeque<DDSpan> finishedSpans = new ConcurrentLinkedDeque<>();
 
@@ -78,13 +109,25 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
   private static final AtomicIntegerFieldUpdater<PendingTrace> PENDING_REFERENCE_COUNT =
       AtomicIntegerFieldUpdater.newUpdater(PendingTrace.class, "pendingReferenceCount");
 
+  /** Estimate of the bytes retained by the buffered spans, only kept with {@link #memory} */
+  private volatile long retainedSize = 0;
+  private static final AtomicLongFieldUpdater<PendingTrace> RETAINED_SIZE =
+      AtomicLongFieldUpdater.newUpdater(PendingTrace.class, "retainedSize");
+
+  // finished spans of a trace dropped by early sampling, kept apart until published in a chunk
+  private final ConcurrentLinkedDeque<DDSpan> sampledOutSpans = new ConcurrentLinkedDeque<>();
+
+  private volatile int sampledOutSpanCount = 0;
+  private static final AtomicIntegerFieldUpdater<PendingTrace> SAMPLED_OUT_SPAN_COUNT =
+      AtomicIntegerFieldUpdater.newUpdater(PendingTrace.class, "sampledOutSpanCount");
+
   private volatile int isEnqueued = 0;
   private static final AtomicIntegerFieldUpdater<PendingTrace> IS_ENQUEUED =
       AtomicIntegerFieldUpdater.newUpdater(PendingTrace.class, "isEnqueued");
 
   /**
    * During a trace there are cases where the root span must be accessed (e.g. priority sampling and
-   * trace-search tags). These use cases are an obstacle to span-streaming.
+   * trace-search tags). When span streaming, the root span is kept for these after it is written.
    */
   private volatile DDSpan rootSpan = null;
 
@@ -93,12 +136,21 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
   private volatile boolean rootSpanWritten = false;
 
+  /** Set when the trace was dropped by a sampling decision made at the start of the root span. */
+  private volatile boolean sampledOut = false;
+
   /**
    * Updated with the latest nanoTicks each time getCurrentTimeNano is called (at the start and
    * finish of each span).
    */
   private volatile long lastReferenced = 0;
 
+  /** The finish time of the oldest buffered span, maintained as spans are published. */
+  private volatile long oldestFinishedTime = Long.MAX_VALUE;
+
+  private static final AtomicLongFieldUpdater<PendingTrace> OLDEST_FINISHED_TIME =
+      AtomicLongFieldUpdater.newUpdater(PendingTrace.class, "oldestFinishedTime");
+
   private volatile long endToEndStartTime;
   private static final AtomicLongFieldUpdater<PendingTrace> END_TO_END_START_TIME =
       AtomicLongFieldUpdater.newUpdater(PendingTrace.class, "endToEndStartTime");
@@ -108,12 +160,14 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
       @Nonnull DDId traceId,
       @Nonnull PendingTraceBuffer pendingTraceBuffer,
       @Nonnull TimeSource timeSource,
-      boolean strictTraceWrites) {
+      boolean strictTraceWrites,
+      PendingTraceMemory memory) {
     this.tracer = tracer;
     this.traceId = traceId;
     this.pendingTraceBuffer = pendingTraceBuffer;
     this.timeSource = timeSource;
     this.strictTraceWrites = strictTraceWrites;
+    this.memory = memory;
   }
 
   CoreTracer getTracer() {
@@ -144,10 +198,8 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
   }
 
   @Override
-  public boolean lastReferencedNanosAgo(long nanos) {
-    long currentNanoTicks = timeSource.getNanoTicks();
-    long age = currentNanoTicks - lastReferenced;
-    return nanos < age;
+  public long lastReferenced() {
+    return lastReferenced;
   }
 
   void registerSpan(final DDSpan span) {
@@ -164,12 +216,37 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     }
   }
 
+  /**
+   * Stop buffering the finished spans of this trace, because it was dropped by early sampling.
+   * Should the sampling priority later be changed to keep the trace, spans finishing after that
+   * point will be buffered and written as usual.
+   */
+  void sampleOut() {
+    sampledOut = true;
+  }
+
   PublishState onPublish(final DDSpan span) {
-    finishedSpans.addFirst(span);
-    // There is a benign race here where the span added above can get written out by a writer in
-    // progress before the count has been incremented. It's being taken care of in the internal
-    // write method.
-    COMPLETED_SPAN_COUNT.incrementAndGet(this);
+    if (sampledOut && span.eligibleForDropping()) {
+      sampledOutSpans.addFirst(span);
+      if (SAMPLED_OUT_SPAN_COUNT.incrementAndGet(this) >= SAMPLED_OUT_CHUNK_SIZE) {
+        writeSampledOut(true);
+      }
+    } else {
+      if (null != memory) {
+        span.retainedSize = span.context().estimateRetainedSize();
+      }
+      updateOldestFinishedTime(span.getStartTime() + span.getDurationNano());
+      finishedSpans.addFirst(span);
+      // There is a benign race here where the span added above can get written out by a writer in
+      // progress before the count has been incremented. It's being taken care of in the internal
+      // write method.
+      COMPLETED_SPAN_COUNT.incrementAndGet(this);
+      if (null != memory) {
+        // the same race can make the retained size briefly negative
+        memory.onBuffered(
+            this, RETAINED_SIZE.addAndGet(this, span.retainedSize), span.retainedSize);
+      }
+    }
     return decrementRefAndMaybeWrite(span == getRootSpan());
   }
 
@@ -181,11 +258,15 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
   /** @return Long.MAX_VALUE if no spans finished. */
   @Override
   public long oldestFinishedTime() {
-    long oldest = Long.MAX_VALUE;
-    for (DDSpan span : finishedSpans) {
-      oldest = Math.min(oldest, span.getStartTime() + span.getDurationNano());
-    }
-    return oldest;
+    return oldestFinishedTime;
+  }
+
+  private void updateOldestFinishedTime(long finishTime) {
+    long oldest;
+    do {
+      oldest = oldestFinishedTime;
+    } while (finishTime < oldest
+        && !OLDEST_FINISHED_TIME.compareAndSet(this, oldest, finishTime));
   }
 
   /**
@@ -205,6 +286,7 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
   enum PublishState {
     WRITTEN,
     PARTIAL_FLUSH,
+    STREAMED,
     ROOT_BUFFERED,
     BUFFERED,
     PENDING
@@ -216,15 +298,24 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
       throw new IllegalStateException("Pending reference count " + count + " is negative");
     }
     int partialFlushMinSpans = tracer.getPartialFlushMinSpans();
+    int spanStreamingChunkSize = tracer.getSpanStreamingChunkSize();
 
     if (count == 0 && (strictTraceWrites || !rootSpanWritten)) {
       // Finished with no pending work ... write immediately
       write();
       return PublishState.WRITTEN;
     } else if (isRootSpan) {
+      if (0 < spanStreamingChunkSize) {
+        // Streaming ... write what has finished, the rest is written in chunks or by the buffer
+        write(true, 0);
+      }
       // Finished root with pending work ... delay write
       pendingTraceBuffer.enqueue(this);
       return PublishState.ROOT_BUFFERED;
+    } else if (0 < spanStreamingChunkSize && spanStreamingChunkSize <= size()) {
+      // Streaming ... write the chunk without waiting for the rest of the trace
+      write(true, spanStreamingChunkSize - 1);
+      return PublishState.STREAMED;
     } else if (0 < partialFlushMinSpans && partialFlushMinSpans < size()) {
       // Trace is getting too big, write anything completed.
       partialFlush();
@@ -239,19 +330,43 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
   /** Important to note: may be called multiple times. */
   private void partialFlush() {
-    int size = write(true);
+    int size = write(true, tracer.getPartialFlushMinSpans());
     if (log.isDebugEnabled()) {
       log.debug("t_id={} -> wrote partial trace of size {}", traceId, size);
     }
   }
 
+  /** Writes the finished spans to release the memory they retain. */
+  void flushRetainedSpans() {
+    int size = write(true, 0);
+    if (log.isDebugEnabled()) {
+      log.debug("t_id={} -> wrote partial trace of size {} to release memory", traceId, size);
+    }
+  }
+
+  long getRetainedSize() {
+    return retainedSize;
+  }
+
+  /** @return true once every span of the trace has finished, so nothing can add tags anymore */
+  boolean isCompleted() {
+    return pendingReferenceCount <= 0;
+  }
+
   /** Important to note: may be called multiple times. */
   @Override
   public void write() {
-    write(false);
+    write(false, 0);
   }
 
-  private int write(boolean isPartial) {
+  /**
+   * @param isPartial whether spans of the trace are still pending
+   * @param minSpans a partial write is skipped unless more spans than this have finished
+   */
+  private int write(boolean isPartial, int minSpans) {
+    if (!isPartial && sampledOut) {
+      writeSampledOut(false);
+    }
     if (!finishedSpans.isEmpty()) {
       try (Recording recording = tracer.writeTimer()) {
         // Only one writer at a time
@@ -267,13 +382,21 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
           // the completedSpanCount has not yet been incremented. This means that eventually the
           // count(s) will be incremented, and any new spans added during the period that the count
           // was negative will be written by someone even if we don't write them right now.
-          if (size > 0 && (!isPartial || size > tracer.getPartialFlushMinSpans())) {
+          if (size > 0 && (!isPartial || size > minSpans)) {
+            // reset before taking the spans, so a span published meanwhile is at worst counted
+            // without being buffered, which only makes the trace look older than it is
+            oldestFinishedTime = Long.MAX_VALUE;
             trace = new ArrayList<>(size);
+            long writtenSize = 0;
             DDSpan span = finishedSpans.pollFirst();
             while (null != span) {
               trace.add(span);
+              writtenSize += span.retainedSize;
               span = finishedSpans.pollFirst();
             }
+            if (null != memory) {
+              memory.onWritten(this, RETAINED_SIZE.addAndGet(this, -writtenSize), writtenSize);
+            }
           } else {
             trace = EMPTY;
           }
@@ -288,6 +411,23 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     return 0;
   }
 
+  /** @param isPartial whether spans of the trace are still pending */
+  private void writeSampledOut(boolean isPartial) {
+    DDSpan span = sampledOutSpans.pollFirst();
+    if (null != span) {
+      final List<DDSpan> trace = new ArrayList<>();
+      while (null != span) {
+        trace.add(span);
+        span = sampledOutSpans.pollFirst();
+      }
+      SAMPLED_OUT_SPAN_COUNT.addAndGet(this, -trace.size());
+      if (!isPartial) {
+        rootSpanWritten = true;
+      }
+      tracer.writeSampledOut(trace);
+    }
+  }
+
   public int size() {
     return completedSpanCount;
   }
@@ -3,8 +3,10 @@ package datadog.trace.core;
 import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_MONITOR;
 import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
 import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import datadog.trace.api.time.TimeSource;
+import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.jctools.queues.MessagePassingQueue;
@@ -13,12 +15,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class PendingTraceBuffer implements AutoCloseable {
-  private static final int BUFFER_SIZE = 1 << 12; // 4096
+  // one buffered trace per 256KB of heap, so 4096 traces with a 1GB heap
+  private static final int HEAP_PER_BUFFERED_TRACE = 256 << 10;
+  private static final int MIN_BUFFER_SIZE = 1 << 10;
+  private static final int MAX_BUFFER_SIZE = 1 << 15;
 
   public interface Element {
+    /** @return the time the oldest finished span finished, or Long.MAX_VALUE if none has */
     long oldestFinishedTime();
 
-    boolean lastReferencedNanosAgo(long nanos);
+    /** @return the nano ticks when the element was last referenced */
+    long lastReferenced();
 
     void write();
 
@@ -35,13 +42,15 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
   }
 
   private static class DelayingPendingTraceBuffer extends PendingTraceBuffer {
-    private static final long FORCE_SEND_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long FORCE_SEND_DELAY_NS = TimeUnit.SECONDS.toNanos(5);
     private static final long SEND_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(500);
-    private static final long SLEEP_TIME_MS = 100;
 
+    private final int bufferSize;
     private final MpscBlockingConsumerArrayQueue<Element> queue;
     private final Thread worker;
     private final TimeSource timeSource;
+    // only accessed by the worker thread
+    private final TimerWheel wheel;
 
     private volatile boolean closed = false;
     private final AtomicInteger flushCounter = new AtomicInteger(0);
@@ -109,10 +118,16 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
 
       @Override
       public void accept(Element pendingTrace) {
-        pendingTrace.write();
+        write(pendingTrace);
       }
     }
 
+    private static void write(Element pendingTrace) {
+      // The element is no longer buffered
+      pendingTrace.setEnqueued(false);
+      pendingTrace.write();
+    }
+
     private static final class FlushElement implements Element {
       static FlushElement FLUSH_ELEMENT = new FlushElement();
 
@@ -122,8 +137,8 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
       }
 
       @Override
-      public boolean lastReferencedNanosAgo(long nanos) {
-        return false;
+      public long lastReferenced() {
+        return 0;
       }
 
       @Override
@@ -140,6 +155,97 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
       }
     }
 
+    /**
+     * Hashed timing wheel of the buffered traces, keyed on the time each trace is due to be
+     * written: {@code SEND_DELAY_NS} after it was last referenced, or {@code FORCE_SEND_DELAY_NS}
+     * after its oldest span finished, whichever comes first. A trace is only looked at again when
+     * its bucket expires, and is then either written or moved to the bucket of its new deadline if
+     * it has been referenced since it was scheduled.
+     *
+     * <p>Deadlines are never more than {@code SEND_DELAY_NS} ahead, so the wheel spans more than
+     * that and doesn't need to track rounds.
+     */
+    private static final class TimerWheel {
+      private static final long TICK_NS = SEND_DELAY_NS / 10;
+      private static final int BUCKETS = 16; // 800ms
+
+      private final ArrayList<Element>[] buckets;
+      private ArrayList<Element> expiring = new ArrayList<>();
+      private final long origin;
+      private long currentTick;
+      private int size;
+
+      @SuppressWarnings("unchecked")
+      TimerWheel(long nowNanoTicks) {
+        this.buckets = new ArrayList[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+          buckets[i] = new ArrayList<>();
+        }
+        this.origin = nowNanoTicks;
+      }
+
+      boolean isEmpty() {
+        return size == 0;
+      }
+
+      int size() {
+        return size;
+      }
+
+      long nanosUntilNextTick(long nowNanoTicks) {
+        return Math.max(0, origin + (currentTick + 1) * TICK_NS - nowNanoTicks);
+      }
+
+      void schedule(Element pendingTrace, long nowNanoTicks, long nowNanos) {
+        long deadline = pendingTrace.lastReferenced() + SEND_DELAY_NS;
+        long oldestFinishedTime = pendingTrace.oldestFinishedTime();
+        if (oldestFinishedTime != Long.MAX_VALUE) {
+          // the finish time is wall clock time, convert the time left to nano ticks
+          long forceSendDelay = oldestFinishedTime + FORCE_SEND_DELAY_NS - nowNanos;
+          deadline = Math.min(deadline, nowNanoTicks + forceSendDelay);
+        }
+        if (deadline - nowNanoTicks <= 0) {
+          write(pendingTrace);
+          return;
+        }
+        // round up so the trace doesn't expire before its deadline
+        long tick = Math.max(currentTick + 1, (deadline - origin + TICK_NS - 1) / TICK_NS);
+        buckets[(int) (tick & (BUCKETS - 1))].add(pendingTrace);
+        ++size;
+      }
+
+      void advance(long nowNanoTicks, long nowNanos) {
+        long nowTick = (nowNanoTicks - origin) / TICK_NS;
+        long firstTick = currentTick + 1;
+        // every bucket expires at most once, even if the worker fell behind a full turn
+        long lastTick = firstTick + Math.min(nowTick - currentTick, BUCKETS);
+        // expired traces which aren't due yet are rescheduled after now
+        currentTick = Math.max(currentTick, nowTick);
+        for (long tick = firstTick; tick < lastTick; ++tick) {
+          int bucket = (int) (tick & (BUCKETS - 1));
+          // swap in an empty bucket so expired traces can be rescheduled
+          ArrayList<Element> expired = buckets[bucket];
+          buckets[bucket] = expiring;
+          expiring = expired;
+          size -= expired.size();
+          for (Element pendingTrace : expired) {
+            schedule(pendingTrace, nowNanoTicks, nowNanos);
+          }
+          expired.clear();
+        }
+      }
+
+      void writeAll() {
+        for (ArrayList<Element> bucket : buckets) {
+          for (Element pendingTrace : bucket) {
+            write(pendingTrace);
+          }
+          bucket.clear();
+        }
+        size = 0;
+      }
+    }
+
     private final class Worker implements Runnable {
 
       @Override
@@ -147,35 +253,32 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
         try {
           while (!closed && !Thread.currentThread().isInterrupted()) {
 
-            Element pendingTrace = queue.take(); // block until available.
+            // block until a trace is buffered, or until the next tick when traces are buffered
+            Element pendingTrace =
+                wheel.isEmpty()
+                    ? queue.take()
+                    : queue.poll(
+                        wheel.nanosUntilNextTick(timeSource.getNanoTicks()), NANOSECONDS);
 
             if (pendingTrace instanceof FlushElement) {
               // Since this is an MPSC queue, the drain needs to be called on the consumer thread
               queue.drain(WriteDrain.WRITE_DRAIN);
+              wheel.writeAll();
               flushCounter.incrementAndGet();
               continue;
             }
 
-            // The element is no longer in the queue
-            pendingTrace.setEnqueued(false);
-
-            long oldestFinishedTime = pendingTrace.oldestFinishedTime();
-
-            long finishTimestampMillis = TimeUnit.NANOSECONDS.toMillis(oldestFinishedTime);
-            if (finishTimestampMillis <= timeSource.getCurrentTimeMillis() - FORCE_SEND_DELAY_MS) {
-              // Root span is getting old. Send the trace to avoid being discarded by agent.
-              pendingTrace.write();
-              continue;
-            }
-
-            if (pendingTrace.lastReferencedNanosAgo(SEND_DELAY_NS)) {
-              // Trace has been unmodified long enough, go ahead and write whatever is finished.
-              pendingTrace.write();
-            } else {
-              // Trace is too new.  Requeue it and sleep to avoid a hot loop.
-              enqueue(pendingTrace);
-              Thread.sleep(SLEEP_TIME_MS);
+            long nowNanoTicks = timeSource.getNanoTicks();
+            long nowNanos = timeSource.getCurrentTimeNanos();
+            if (null != pendingTrace) {
+              if (wheel.size() < bufferSize) {
+                wheel.schedule(pendingTrace, nowNanoTicks, nowNanos);
+              } else {
+                // too many traces are buffered, write this one out directly instead
+                write(pendingTrace);
+              }
             }
+            wheel.advance(nowNanoTicks, nowNanos);
           }
         } catch (InterruptedException e) {
           Thread.currentThread().interrupt();
@@ -184,9 +287,11 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
     }
 
     public DelayingPendingTraceBuffer(int bufferSize, TimeSource timeSource) {
+      this.bufferSize = bufferSize;
       this.queue = new MpscBlockingConsumerArrayQueue<>(bufferSize);
       this.worker = newAgentThread(TRACE_MONITOR, new Worker());
       this.timeSource = timeSource;
+      this.wheel = new TimerWheel(timeSource.getNanoTicks());
     }
   }
 
@@ -210,7 +315,17 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
   }
 
   public static PendingTraceBuffer delaying(TimeSource timeSource) {
-    return new DelayingPendingTraceBuffer(BUFFER_SIZE, timeSource);
+    return new DelayingPendingTraceBuffer(
+        bufferSizeFor(Runtime.getRuntime().maxMemory()), timeSource);
+  }
+
+  /** @return the number of traces to buffer, scaled to the maximum heap size */
+  static int bufferSizeFor(long maxMemory) {
+    if (maxMemory <= 0 || maxMemory == Long.MAX_VALUE) {
+      return MIN_BUFFER_SIZE << 2;
+    }
+    long bufferSize = Long.highestOneBit(Math.max(1, maxMemory / HEAP_PER_BUFFERED_TRACE));
+    return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, bufferSize));
   }
 
   public static PendingTraceBuffer discarding() {
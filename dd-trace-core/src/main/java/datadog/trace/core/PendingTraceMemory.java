@@ -0,0 +1,187 @@
+package datadog.trace.core;
+
+import datadog.trace.core.util.MemoryPressure;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the heap retained by the finished spans which pending traces buffer under a budget scaled
+ * to the heap. Each trace tracks an estimate of the bytes its buffered spans retain, tags included,
+ * and when the total goes over the budget the largest traces are partially flushed, the oldest
+ * first when they are as large, until the total is back under three quarters of the budget.
+ *
+ * <p>Only traces retaining more than {@code 1/256} of the budget are candidates, so that small
+ * traces, which make up most of them, are accounted for without any bookkeeping.
+ *
+ * <p>The budget adapts to the heap: it is halved, down to an eighth of its full size, when a
+ * garbage collection leaves the heap more than {@code 80%} full, and doubled back when less than
+ * half of the heap is left used.
+ */
+final class PendingTraceMemory implements MemoryPressure.Listener {
+
+  private static final Logger log = LoggerFactory.getLogger(PendingTraceMemory.class);
+
+  // a budget of 1/32 of the heap, so 32MB with a 1GB heap
+  private static final int HEAP_PER_BUDGET = 32;
+  private static final long MIN_BUDGET = 4 << 20;
+  private static final long MAX_BUDGET = 256 << 20;
+
+  private static final double HIGH_HEAP_USAGE = 0.8;
+  private static final double LOW_HEAP_USAGE = 0.5;
+
+  private static final Comparator<Candidate> LARGEST_FIRST =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate left, Candidate right) {
+          int bySize = Long.compare(right.retainedSize, left.retainedSize);
+          return bySize != 0
+              ? bySize
+              : Long.compare(left.oldestFinishedTime, right.oldestFinishedTime);
+        }
+      };
+
+  private final long maxBudget;
+  private final long largeTraceSize;
+  private final Set<PendingTrace> largeTraces =
+      Collections.newSetFromMap(new ConcurrentHashMap<PendingTrace, Boolean>());
+
+  private volatile long budget;
+
+  /** Relief isn't attempted again until the total has grown past this */
+  private volatile long nextRelief;
+
+  private volatile long retainedSize;
+  private static final AtomicLongFieldUpdater<PendingTraceMemory> RETAINED_SIZE =
+      AtomicLongFieldUpdater.newUpdater(PendingTraceMemory.class, "retainedSize");
+
+  private volatile int relieving;
+  private static final AtomicIntegerFieldUpdater<PendingTraceMemory> RELIEVING =
+      AtomicIntegerFieldUpdater.newUpdater(PendingTraceMemory.class, "relieving");
+
+  PendingTraceMemory(long budget) {
+    this.maxBudget = budget;
+    this.budget = budget;
+    this.largeTraceSize = budget >> 8;
+  }
+
+  static PendingTraceMemory scaledToHeap() {
+    return new PendingTraceMemory(budgetFor(Runtime.getRuntime().maxMemory()));
+  }
+
+  /** @return the bytes pending traces may retain, scaled to the maximum heap size */
+  static long budgetFor(long maxMemory) {
+    if (maxMemory <= 0 || maxMemory == Long.MAX_VALUE) {
+      return MIN_BUDGET << 2;
+    }
+    return Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, maxMemory / HEAP_PER_BUDGET));
+  }
+
+  long getBudget() {
+    return budget;
+  }
+
+  long getRetainedSize() {
+    return retainedSize;
+  }
+
+  /**
+   * Called once a span is buffered by the trace.
+   *
+   * @param traceRetainedSize the bytes retained by the trace, including the span
+   * @param spanRetainedSize the bytes retained by the span
+   */
+  void onBuffered(PendingTrace trace, long traceRetainedSize, long spanRetainedSize) {
+    long total = RETAINED_SIZE.addAndGet(this, spanRetainedSize);
+    if (traceRetainedSize > largeTraceSize
+        && traceRetainedSize - spanRetainedSize <= largeTraceSize) {
+      // the trace may have been written meanwhile, check again while writes are held off
+      synchronized (trace) {
+        if (trace.getRetainedSize() > largeTraceSize) {
+          largeTraces.add(trace);
+        }
+      }
+    }
+    if (total > budget && total > nextRelief) {
+      relieve();
+    }
+  }
+
+  /**
+   * Called by the trace while it holds its lock, once it has taken spans to write them.
+   *
+   * @param traceRetainedSize the bytes still retained by the trace
+   * @param writtenSize the bytes retained by the spans taken
+   */
+  void onWritten(PendingTrace trace, long traceRetainedSize, long writtenSize) {
+    RETAINED_SIZE.addAndGet(this, -writtenSize);
+    if (traceRetainedSize <= largeTraceSize && traceRetainedSize + writtenSize > largeTraceSize) {
+      largeTraces.remove(trace);
+    }
+  }
+
+  /** Partially flushes the largest traces until the total is back under 3/4 of the budget */
+  void relieve() {
+    if (!RELIEVING.compareAndSet(this, 0, 1)) {
+      return;
+    }
+    try {
+      long target = budget - (budget >> 2);
+      if (retainedSize > target) {
+        // sizes change while traces are flushed, so they're taken once to be sorted
+        List<Candidate> candidates = new ArrayList<>(largeTraces.size());
+        for (PendingTrace trace : largeTraces) {
+          candidates.add(new Candidate(trace));
+        }
+        Collections.sort(candidates, LARGEST_FIRST);
+        int flushed = 0;
+        for (Candidate candidate : candidates) {
+          if (retainedSize <= target) {
+            break;
+          }
+          candidate.trace.flushRetainedSpans();
+          ++flushed;
+        }
+        log.debug(
+            "Flushed {} traces to keep pending spans under {} bytes, {} bytes retained",
+            flushed,
+            budget,
+            retainedSize);
+      }
+      // what is left is in small traces, wait for more to be buffered before trying again
+      nextRelief = retainedSize + (budget >> 3);
+    } finally {
+      relieving = 0;
+    }
+  }
+
+  @Override
+  public void onGarbageCollection(double heapUsage) {
+    if (heapUsage > HIGH_HEAP_USAGE) {
+      // the next span buffered relieves the memory, rather than the thread notifying collections
+      budget = Math.max(maxBudget >> 3, budget >> 1);
+      nextRelief = 0;
+    } else if (heapUsage < LOW_HEAP_USAGE && budget < maxBudget) {
+      budget = Math.min(maxBudget, budget << 1);
+    }
+  }
+
+  private static final class Candidate {
+    final PendingTrace trace;
+    final long retainedSize;
+    final long oldestFinishedTime;
+
+    Candidate(PendingTrace trace) {
+      this.trace = trace;
+      this.retainedSize = trace.getRetainedSize();
+      this.oldestFinishedTime = trace.oldestFinishedTime();
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package datadog.trace.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.jctools.queues.MpmcArrayQueue;
+
+/**
+ * Map of span tags, stored in a single open addressed array with linear probing. Keys and values
+ * are stored next to each other, so unlike a {@code HashMap}, adding a tag doesn't allocate an
+ * entry, and the table is sized up front from the expected number of tags.
+ *
+ * <p>{@link #forEachTag(Visitor)} visits the tags without allocating, and the number of tags with
+ * numeric values is maintained as tags are set, which is what the trace mappers need to write the
+ * meta and metrics maps. The {@link Map} view is kept for everything else.
+ *
+ * <p>When span recycling is enabled, the table of a span which has been written is returned to a
+ * shared pool by {@link #recycle()}, and new tag maps take their table from the pool. Reading or
+ * writing the tags of a recycled map throws an {@link IllegalStateException}, rather than losing
+ * the tags silently.
+ *
+ * <p>This class is not thread-safe; {@link DDSpanContext} guards access to it.
+ */
+public final class TagMap extends AbstractMap<String, Object> {
+
+  public interface Visitor {
+    void visit(String key, Object value);
+  }
+
+  private static final int MIN_CAPACITY = 8;
+
+  private static final String USE_AFTER_RECYCLE = "tags used after the span was recycled";
+  // shared by every recycled map, it is never written to
+  private static final Object[] RECYCLED = new Object[2 * MIN_CAPACITY];
+
+  // tables of 2 * MIN_CAPACITY, 4 * MIN_CAPACITY, and 8 * MIN_CAPACITY slots are pooled
+  private static final int POOLED_SIZE_CLASSES = 3;
+  private static final int MAX_POOLED_TABLES = 256;
+  private static final MpmcArrayQueue<Object[]>[] POOLS = newPools();
+
+  // keys are at even indexes, followed by their value
+  private Object[] table;
+  private int size;
+  private int numericCount;
+
+  public TagMap(int expectedSize) {
+    this.table = newTable(2 * capacityFor(expectedSize));
+  }
+
+  public TagMap(TagMap other) {
+    other.checkNotRecycled();
+    this.table = other.table.clone();
+    this.size = other.size;
+    this.numericCount = other.numericCount;
+  }
+
+  /** @return the smallest power of two table capacity which keeps the load factor under 2/3 */
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 2 < expectedSize * 3) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static MpmcArrayQueue<Object[]>[] newPools() {
+    MpmcArrayQueue<Object[]>[] pools = new MpmcArrayQueue[POOLED_SIZE_CLASSES];
+    for (int i = 0; i < pools.length; ++i) {
+      pools[i] = new MpmcArrayQueue<>(MAX_POOLED_TABLES);
+    }
+    return pools;
+  }
+
+  /** @return the pool of tables of the given length, or -1 if they aren't pooled */
+  private static int sizeClass(int length) {
+    int sizeClass = Integer.numberOfTrailingZeros(length / (2 * MIN_CAPACITY));
+    return sizeClass < POOLED_SIZE_CLASSES ? sizeClass : -1;
+  }
+
+  private static Object[] newTable(int length) {
+    int sizeClass = sizeClass(length);
+    if (sizeClass >= 0) {
+      Object[] table = POOLS[sizeClass].relaxedPoll();
+      if (null != table) {
+        return table;
+      }
+    }
+    return new Object[length];
+  }
+
+  /** @return the number of tables waiting to be reused */
+  static int pooledTables() {
+    int pooled = 0;
+    for (MpmcArrayQueue<Object[]> pool : POOLS) {
+      pooled += pool.size();
+    }
+    return pooled;
+  }
+
+  private static int indexFor(Object key, int mask) {
+    int h = key.hashCode();
+    return ((h ^ (h >>> 16)) << 1) & mask;
+  }
+
+  /** @return the index of the key, or of the empty slot where it would be inserted */
+  private int find(Object key) {
+    final Object[] table = this.table;
+    final int mask = table.length - 1;
+    int i = indexFor(key, mask);
+    Object k;
+    while (null != (k = table[i]) && !k.equals(key)) {
+      i = (i + 2) & mask;
+    }
+    return i;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** @return the number of tags which have a {@link Number} value */
+  public int numericCount() {
+    return numericCount;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    checkNotRecycled();
+    return null != key && null != table[find(key)];
+  }
+
+  @Override
+  public Object get(Object key) {
+    checkNotRecycled();
+    return null == key ? null : table[find(key) + 1];
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    if (null == value) {
+      return remove(key);
+    }
+    checkNotRecycled();
+    int i = find(key);
+    final Object previous = table[i + 1];
+    if (null == table[i]) {
+      table[i] = key;
+      if (++size * 3 > table.length) {
+        table[i + 1] = value;
+        resize();
+        countNumeric(value, 1);
+        return null;
+      }
+    } else {
+      countNumeric(previous, -1);
+    }
+    table[i + 1] = value;
+    countNumeric(value, 1);
+    return previous;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (null == key) {
+      return null;
+    }
+    checkNotRecycled();
+    final Object[] table = this.table;
+    final int mask = table.length - 1;
+    int i = find(key);
+    final Object previous = table[i + 1];
+    if (null == table[i]) {
+      return null;
+    }
+    table[i] = null;
+    table[i + 1] = null;
+    --size;
+    countNumeric(previous, -1);
+    // shift back the entries which would no longer be found past the new empty slot
+    int j = i;
+    Object k;
+    while (null != (k = table[j = (j + 2) & mask])) {
+      int home = indexFor(k, mask);
+      boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+      if (!reachable) {
+        table[i] = k;
+        table[i + 1] = table[j + 1];
+        table[j] = null;
+        table[j + 1] = null;
+        i = j;
+      }
+    }
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    table = new Object[table.length];
+    size = 0;
+    numericCount = 0;
+  }
+
+  /**
+   * @return an estimate of the bytes retained by the map, counting its table and the string values
+   *     but not the keys, which are mostly shared constants
+   */
+  public long estimateRetainedSize() {
+    final Object[] table = this.table;
+    long retainedSize = 16 + 4L * table.length;
+    for (int i = 1; i < table.length; i += 2) {
+      Object value = table[i];
+      if (value instanceof String) {
+        retainedSize += 40 + 2L * ((String) value).length();
+      } else if (null != value) {
+        retainedSize += 16;
+      }
+    }
+    return retainedSize;
+  }
+
+  /** Visits every tag without allocating. The map must not be modified by the visitor. */
+  public void forEachTag(Visitor visitor) {
+    checkNotRecycled();
+    final Object[] table = this.table;
+    for (int i = 0; i < table.length; i += 2) {
+      Object key = table[i];
+      if (null != key) {
+        visitor.visit((String) key, table[i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Clears the map and returns its table to the pool, unless it is too large to be pooled. This
+   * must only be called once nothing reads or writes the tags anymore.
+   */
+  void recycle() {
+    final Object[] table = this.table;
+    if (table != RECYCLED) {
+      this.table = RECYCLED;
+      this.size = 0;
+      this.numericCount = 0;
+      int sizeClass = sizeClass(table.length);
+      if (sizeClass >= 0) {
+        Arrays.fill(table, null);
+        POOLS[sizeClass].relaxedOffer(table);
+      }
+    }
+  }
+
+  private void checkNotRecycled() {
+    if (table == RECYCLED) {
+      throw new IllegalStateException(USE_AFTER_RECYCLE);
+    }
+  }
+
+  private void countNumeric(Object value, int delta) {
+    if (value instanceof Number) {
+      numericCount += delta;
+    }
+  }
+
+  private void resize() {
+    final Object[] old = this.table;
+    final Object[] table = new Object[old.length << 1];
+    final int mask = table.length - 1;
+    for (int i = 0; i < old.length; i += 2) {
+      Object key = old[i];
+      if (null != key) {
+        int j = indexFor(key, mask);
+        while (null != table[j]) {
+          j = (j + 2) & mask;
+        }
+        table[j] = key;
+        table[j + 1] = old[i + 1];
+      }
+    }
+    this.table = table;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        checkNotRecycled();
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Entry<String, Object>> {
+    private int next = advance(0);
+
+    private int advance(int i) {
+      while (i < table.length && null == table[i]) {
+        i += 2;
+      }
+      return i;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < table.length;
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry<String, Object> entry =
+          new SimpleImmutableEntry<>((String) table[next], table[next + 1]);
+      next = advance(next + 2);
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
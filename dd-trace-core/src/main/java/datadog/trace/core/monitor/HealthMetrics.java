@@ -4,8 +4,10 @@ import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_DROP;
 import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_KEEP;
 import static datadog.trace.api.sampling.PrioritySampling.USER_DROP;
 import static datadog.trace.api.sampling.PrioritySampling.USER_KEEP;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import datadog.trace.api.InstrumentationMetrics;
 import datadog.trace.api.IntFunction;
 import datadog.trace.api.StatsDClient;
 import datadog.trace.api.cache.RadixTreeCache;
@@ -228,6 +230,31 @@ public class HealthMetrics implements AutoCloseable {
       reportIfChanged(
           target.statsd, "queue.dropped.traces", target.unsetPriorityDroppedTraces, UNSET_TAG);
       reportIfChanged(target.statsd, "queue.enqueued.spans", target.enqueuedSpans, NO_TAGS);
+      reportIfChanged(
+          target.statsd,
+          "instrumentation.install.time_ms",
+          NANOSECONDS.toMillis(InstrumentationMetrics.getAndResetInstallNanos()),
+          NO_TAGS);
+      reportIfChanged(
+          target.statsd,
+          "instrumentation.muzzle.checks",
+          InstrumentationMetrics.getAndResetMuzzleChecks(),
+          NO_TAGS);
+      reportIfChanged(
+          target.statsd,
+          "instrumentation.muzzle.time_ms",
+          NANOSECONDS.toMillis(InstrumentationMetrics.getAndResetMuzzleNanos()),
+          NO_TAGS);
+      reportIfChanged(
+          target.statsd,
+          "instrumentation.helpers.injections",
+          InstrumentationMetrics.getAndResetHelperInjections(),
+          NO_TAGS);
+      reportIfChanged(
+          target.statsd,
+          "instrumentation.helpers.time_ms",
+          NANOSECONDS.toMillis(InstrumentationMetrics.getAndResetHelperInjectionNanos()),
+          NO_TAGS);
     }
 
     private void reportIfChanged(
@@ -235,7 +262,11 @@ public class HealthMetrics implements AutoCloseable {
         String aspect,
         FixedSizeStripedLongCounter counter,
         String[] tags) {
-      long count = counter.getAndReset();
+      reportIfChanged(statsDClient, aspect, counter.getAndReset(), tags);
+    }
+
+    private void reportIfChanged(
+        StatsDClient statsDClient, String aspect, long count, String[] tags) {
       if (count > 0) {
         statsDClient.count(aspect, count, tags);
       }
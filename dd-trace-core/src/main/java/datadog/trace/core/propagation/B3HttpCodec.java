@@ -1,5 +1,10 @@
 package datadog.trace.core.propagation;
 
+import static datadog.trace.core.propagation.HttpCodec.FORWARDED_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_FOR_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_HOST_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_PORT_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_PROTO_KEY;
 import static datadog.trace.core.propagation.HttpCodec.firstHeaderValue;
 
 import datadog.trace.api.DDId;
@@ -44,22 +49,18 @@ class B3HttpCodec {
     public <C> void inject(
         final DDSpanContext context, final C carrier, final AgentPropagation.Setter<C> setter) {
       try {
-        final String injectedTraceId = context.getTraceId().toHexStringOrOriginal();
-        final String injectedSpanId = context.getSpanId().toHexStringOrOriginal();
+        final String injectedTraceId = context.getHexTraceId();
+        final String injectedSpanId = context.getHexSpanId();
         setter.set(carrier, TRACE_ID_KEY, injectedTraceId);
         setter.set(carrier, SPAN_ID_KEY, injectedSpanId);
 
-        final StringBuilder injectedB3Id = new StringBuilder(100);
-        injectedB3Id.append(injectedTraceId).append('-').append(injectedSpanId);
-
+        String injectedSamplingPriority = null;
         if (context.lockSamplingPriority()) {
-          final String injectedSamplingPriority =
-              convertSamplingPriority(context.getSamplingPriority());
+          injectedSamplingPriority = convertSamplingPriority(context.getSamplingPriority());
           setter.set(carrier, SAMPLING_PRIORITY_KEY, injectedSamplingPriority);
-
-          injectedB3Id.append('-').append(injectedSamplingPriority);
         }
-        setter.set(carrier, B3_KEY, injectedB3Id.toString());
+        setter.set(
+            carrier, B3_KEY, b3Id(injectedTraceId, injectedSpanId, injectedSamplingPriority));
 
         log.debug("{} - B3 parent context injected - {}", context.getTraceId(), injectedTraceId);
       } catch (final NumberFormatException e) {
@@ -70,6 +71,28 @@ class B3HttpCodec {
       }
     }
 
+    /** Builds the single b3 header value straight into a char array of the right size */
+    private static String b3Id(
+        final String traceId, final String spanId, final String samplingPriority) {
+      final int length =
+          traceId.length()
+              + 1
+              + spanId.length()
+              + (samplingPriority == null ? 0 : 1 + samplingPriority.length());
+      final char[] chars = new char[length];
+      int pos = 0;
+      traceId.getChars(0, traceId.length(), chars, pos);
+      pos += traceId.length();
+      chars[pos++] = '-';
+      spanId.getChars(0, spanId.length(), chars, pos);
+      pos += spanId.length();
+      if (samplingPriority != null) {
+        chars[pos++] = '-';
+        samplingPriority.getChars(0, samplingPriority.length(), chars, pos);
+      }
+      return new String(chars);
+    }
+
     private String convertSamplingPriority(final int samplingPriority) {
       return samplingPriority > 0 ? SAMPLING_PRIORITY_ACCEPT : SAMPLING_PRIORITY_DROP;
     }
@@ -88,17 +111,38 @@ class B3HttpCodec {
 
   private static class B3ContextInterpreter extends ContextInterpreter {
 
+    // the handled headers are classified by their index in handledHeaders
     private static final int TRACE_ID = 0;
     private static final int SPAN_ID = 1;
-    private static final int TAGS = 2;
-    private static final int SAMPLING_PRIORITY = 3;
-    private static final int B3_ID = 4;
+    private static final int SAMPLING_PRIORITY = 2;
+    private static final int B3_ID = 3;
+    private static final int FORWARDED = 4;
+    private static final int X_FORWARDED_PROTO = 5;
+    private static final int X_FORWARDED_HOST = 6;
+    private static final int X_FORWARDED_FOR = 7;
+    private static final int X_FORWARDED_PORT = 8;
+    private static final int TAGS = 9;
     private static final int IGNORE = -1;
 
     private B3ContextInterpreter(final Map<String, String> taggedHeaders) {
       super(taggedHeaders);
     }
 
+    @Override
+    protected String[] handledHeaders() {
+      return new String[] {
+        TRACE_ID_KEY,
+        SPAN_ID_KEY,
+        SAMPLING_PRIORITY_KEY,
+        B3_KEY,
+        FORWARDED_KEY,
+        X_FORWARDED_PROTO_KEY,
+        X_FORWARDED_HOST_KEY,
+        X_FORWARDED_FOR_KEY,
+        X_FORWARDED_PORT_KEY
+      };
+    }
+
     @Override
     public boolean accept(final String key, final String value) {
       if (null == key || key.isEmpty()) {
@@ -107,41 +151,46 @@ class B3HttpCodec {
       if (LOG_EXTRACT_HEADER_NAMES) {
         log.debug("Header: {}", key);
       }
-      String lowerCaseKey = null;
+      final int index = classifyHeader(key);
       int classification = IGNORE;
       // Prioritize b3 header. If b3 has already propagated traceId, spanId, and Sampling, we won't
       // overwrite those
-      if (B3_KEY.equals(key)) {
-        classification = B3_ID;
-      } else {
-        char first = Character.toLowerCase(key.charAt(0));
-        switch (first) {
-          case 'x':
-            if ((traceId == null || traceId == DDId.ZERO) && TRACE_ID_KEY.equalsIgnoreCase(key)) {
-              classification = TRACE_ID;
-            } else if ((spanId == null || spanId == DDId.ZERO)
-                && SPAN_ID_KEY.equalsIgnoreCase(key)) {
-              classification = SPAN_ID;
-            } else if (samplingPriority == defaultSamplingPriority()
-                && SAMPLING_PRIORITY_KEY.equalsIgnoreCase(key)) {
-              classification = SAMPLING_PRIORITY;
-            } else if (handledXForwarding(key, value)) {
-              return true;
-            }
-            break;
-          case 'f':
-            if (handledForwarding(key, value)) {
-              return true;
-            }
-            break;
-          default:
-        }
+      switch (isHandledHeader(index) ? index : IGNORE) {
+        case B3_ID:
+          classification = B3_ID;
+          break;
+        case TRACE_ID:
+          if (traceId == null || traceId == DDId.ZERO) {
+            classification = TRACE_ID;
+          }
+          break;
+        case SPAN_ID:
+          if (spanId == null || spanId == DDId.ZERO) {
+            classification = SPAN_ID;
+          }
+          break;
+        case SAMPLING_PRIORITY:
+          if (samplingPriority == defaultSamplingPriority()) {
+            classification = SAMPLING_PRIORITY;
+          }
+          break;
+        case FORWARDED:
+          if (handledForwarding(key, value)) {
+            return true;
+          }
+          break;
+        case X_FORWARDED_PROTO:
+        case X_FORWARDED_HOST:
+        case X_FORWARDED_FOR:
+        case X_FORWARDED_PORT:
+          if (handledXForwarding(key, value)) {
+            return true;
+          }
+          break;
+        default:
       }
-      if (!taggedHeaders.isEmpty() && classification == IGNORE) {
-        lowerCaseKey = toLowerCase(key);
-        if (taggedHeaders.containsKey(lowerCaseKey)) {
-          classification = TAGS;
-        }
+      if (classification == IGNORE && null != headerTag(index)) {
+        classification = TAGS;
       }
       if (classification != IGNORE) {
         try {
@@ -168,7 +217,7 @@ class B3HttpCodec {
                 break;
               case TAGS:
                 {
-                  final String mappedKey = taggedHeaders.get(lowerCaseKey);
+                  final String mappedKey = headerTag(index);
                   if (null != mappedKey) {
                     if (tags.isEmpty()) {
                       tags = new TreeMap<>();
@@ -214,7 +263,7 @@ class B3HttpCodec {
     }
 
     private void setSpanId(final String sId) {
-      spanId = DDId.fromHexWithOriginal(sId);
+      spanId = DDId.fromHex(sId);
       if (tags.isEmpty()) {
         tags = new TreeMap<>();
       }
@@ -227,8 +276,15 @@ class B3HttpCodec {
         log.debug("Header {} exceeded max length of 32: {}", TRACE_ID_KEY, tId);
         traceId = DDId.ZERO;
         return true;
+      } else if (length > 16) {
+        // 128 bit trace id, the high order bits are kept apart from the 64 bit DDId
+        traceIdHigh = DDId.parseUnsignedLongHex(tId, 0, length - 16);
+        traceId128 = true;
+        traceId = DDId.fromHex(tId, length - 16, 16);
       } else {
-        traceId = DDId.fromHexTruncatedWithOriginal(tId);
+        traceIdHigh = 0;
+        traceId128 = false;
+        traceId = DDId.fromHex(tId);
       }
       if (tags.isEmpty()) {
         tags = new TreeMap<>();
@@ -16,8 +16,11 @@ import datadog.trace.api.sampling.SamplingMechanism;
 import datadog.trace.bootstrap.instrumentation.api.AgentPropagation;
 import datadog.trace.bootstrap.instrumentation.api.ForwardedTagContext;
 import datadog.trace.bootstrap.instrumentation.api.TagContext;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public abstract class ContextInterpreter implements AgentPropagation.KeyClassifier {
@@ -25,6 +28,9 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
   protected final Map<String, String> taggedHeaders;
 
   protected DDId traceId;
+  // high order bits of 128 bit trace ids
+  protected long traceIdHigh;
+  protected boolean traceId128;
   protected DDId spanId;
   protected int samplingPriority;
   protected int samplingMechanism;
@@ -43,10 +49,78 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
   protected static final boolean LOG_EXTRACT_HEADER_NAMES = Config.get().isLogExtractHeaderNames();
   private static final DDCache<String, String> CACHE = DDCaches.newFixedSizeCache(64);
 
+  // null unless the interpreter classifies the headers it handles
+  private ClassifiedHeaders classifiedHeaders;
+
   protected String toLowerCase(String key) {
     return CACHE.computeIfAbsent(key, Functions.LowerCase.INSTANCE);
   }
 
+  /**
+   * @return the headers to recognize with {@link #classifyHeader(String)}, which are classified by
+   *     their index, or null if the interpreter doesn't classify headers
+   */
+  protected String[] handledHeaders() {
+    return null;
+  }
+
+  /**
+   * @return the index of the header in the handled headers, an index past them if it is only a
+   *     tagged header, or {@link HeaderClassifier#UNKNOWN}
+   */
+  protected final int classifyHeader(String key) {
+    return classifiedHeaders.classifier.classify(key);
+  }
+
+  protected final boolean isHandledHeader(int index) {
+    return index >= 0 && index < classifiedHeaders.handledHeaderCount;
+  }
+
+  /** @return the tag for the classified header, or null if it isn't tagged */
+  protected final String headerTag(int index) {
+    return index >= 0 ? classifiedHeaders.headerTags[index] : null;
+  }
+
+  /**
+   * The headers handled by an interpreter, followed by the other tagged headers. Finding a perfect
+   * hash for them takes a while, so it is only done once per factory rather than for each of the
+   * per-thread interpreters.
+   */
+  static final class ClassifiedHeaders {
+    // as given to the factory, and once cleaned
+    final Map<String, String> tagsMapping;
+    final Map<String, String> taggedHeaders;
+    final HeaderClassifier classifier;
+    final int handledHeaderCount;
+    // tag names of the classified headers, null when the header isn't tagged
+    final String[] headerTags;
+
+    ClassifiedHeaders(
+        String[] handledHeaders,
+        Map<String, String> tagsMapping,
+        Map<String, String> taggedHeaders) {
+      List<String> names = new ArrayList<>(handledHeaders.length + taggedHeaders.size());
+      for (String header : handledHeaders) {
+        names.add(header.toLowerCase(Locale.ROOT));
+      }
+      for (String header : taggedHeaders.keySet()) {
+        String name = header.toLowerCase(Locale.ROOT);
+        if (!names.contains(name)) {
+          names.add(name);
+        }
+      }
+      String[] tags = new String[names.size()];
+      for (int i = 0; i < tags.length; ++i) {
+        tags[i] = taggedHeaders.get(names.get(i));
+      }
+      this.tagsMapping = tagsMapping;
+      this.taggedHeaders = taggedHeaders;
+      this.classifier = HeaderClassifier.create(names);
+      this.handledHeaderCount = handledHeaders.length;
+      this.headerTags = tags;
+    }
+  }
+
   protected ContextInterpreter(Map<String, String> taggedHeaders) {
     this.taggedHeaders = taggedHeaders;
     reset();
@@ -54,8 +128,26 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
 
   public abstract static class Factory {
 
+    private volatile ClassifiedHeaders classifiedHeaders;
+
     public ContextInterpreter create(Map<String, String> tagsMapping) {
-      return construct(cleanMapping(tagsMapping));
+      ClassifiedHeaders classified = this.classifiedHeaders;
+      if (null != classified && classified.tagsMapping != tagsMapping) {
+        classified = null;
+      }
+      Map<String, String> taggedHeaders =
+          null != classified ? classified.taggedHeaders : cleanMapping(tagsMapping);
+      ContextInterpreter interpreter = construct(taggedHeaders);
+      String[] handledHeaders = interpreter.handledHeaders();
+      if (null != handledHeaders) {
+        if (null == classified) {
+          // racing threads may each classify the headers, which only wastes some work
+          classified = new ClassifiedHeaders(handledHeaders, tagsMapping, taggedHeaders);
+          this.classifiedHeaders = classified;
+        }
+        interpreter.classifiedHeaders = classified;
+      }
+      return interpreter;
     }
 
     protected abstract ContextInterpreter construct(Map<String, String> tagsMapping);
@@ -107,6 +199,8 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
 
   public ContextInterpreter reset() {
     traceId = DDId.ZERO;
+    traceIdHigh = 0;
+    traceId128 = false;
     spanId = DDId.ZERO;
     samplingPriority = defaultSamplingPriority();
     samplingMechanism = defaultSamplingMechanism();
@@ -132,6 +226,8 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
           context =
               new ForwardedExtractedContext(
                   traceId,
+                  traceIdHigh,
+                  traceId128,
                   spanId,
                   samplingPriority,
                   samplingMechanism,
@@ -148,6 +244,8 @@ public abstract class ContextInterpreter implements AgentPropagation.KeyClassifi
           context =
               new ExtractedContext(
                   traceId,
+                  traceIdHigh,
+                  traceId128,
                   spanId,
                   samplingPriority,
                   samplingMechanism,
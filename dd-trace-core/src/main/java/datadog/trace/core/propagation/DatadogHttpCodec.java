@@ -1,5 +1,10 @@
 package datadog.trace.core.propagation;
 
+import static datadog.trace.core.propagation.HttpCodec.FORWARDED_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_FOR_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_HOST_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_PORT_KEY;
+import static datadog.trace.core.propagation.HttpCodec.X_FORWARDED_PROTO_KEY;
 import static datadog.trace.core.propagation.HttpCodec.firstHeaderValue;
 import static datadog.trace.core.propagation.XRayHttpCodec.XRayContextInterpreter.handleXRayTraceHeader;
 import static datadog.trace.core.propagation.XRayHttpCodec.X_AMZN_TRACE_ID;
@@ -26,6 +31,8 @@ class DatadogHttpCodec {
   private static final String SAMPLING_PRIORITY_KEY = "x-datadog-sampling-priority";
   private static final String ORIGIN_KEY = "x-datadog-origin";
   private static final String E2E_START_KEY = OT_BAGGAGE_PREFIX + DDTags.TRACE_START_TIME;
+  private static final HttpCodec.PrefixedKeys BAGGAGE_KEYS =
+      new HttpCodec.PrefixedKeys(OT_BAGGAGE_PREFIX);
 
   private DatadogHttpCodec() {
     // This class should not be created. This also makes code coverage checks happy.
@@ -42,7 +49,10 @@ class DatadogHttpCodec {
       setter.set(carrier, TRACE_ID_KEY, context.getTraceId().toString());
       setter.set(carrier, SPAN_ID_KEY, context.getSpanId().toString());
       if (context.lockSamplingPriority()) {
-        setter.set(carrier, SAMPLING_PRIORITY_KEY, String.valueOf(context.getSamplingPriority()));
+        setter.set(
+            carrier,
+            SAMPLING_PRIORITY_KEY,
+            HttpCodec.encodePriority(context.getSamplingPriority()));
       }
       final CharSequence origin = context.getOrigin();
       if (origin != null) {
@@ -54,7 +64,7 @@ class DatadogHttpCodec {
       }
 
       for (final Map.Entry<String, String> entry : context.baggageItems()) {
-        setter.set(carrier, OT_BAGGAGE_PREFIX + entry.getKey(), HttpCodec.encode(entry.getValue()));
+        setter.set(carrier, BAGGAGE_KEYS.get(entry.getKey()), HttpCodec.encode(entry.getValue()));
       }
     }
   }
@@ -72,19 +82,43 @@ class DatadogHttpCodec {
 
   private static class DatadogContextInterpreter extends ContextInterpreter {
 
+    // the handled headers are classified by their index in handledHeaders
     private static final int TRACE_ID = 0;
     private static final int SPAN_ID = 1;
     private static final int ORIGIN = 2;
     private static final int SAMPLING_PRIORITY = 3;
-    private static final int TAGS = 4;
-    private static final int OT_BAGGAGE = 5;
-    private static final int E2E_START = 6;
+    private static final int E2E_START = 4;
+    private static final int FORWARDED = 5;
+    private static final int X_FORWARDED_PROTO = 6;
+    private static final int X_FORWARDED_HOST = 7;
+    private static final int X_FORWARDED_FOR = 8;
+    private static final int X_FORWARDED_PORT = 9;
+    private static final int XRAY_TRACE_ID = 10;
+    private static final int TAGS = 11;
+    private static final int OT_BAGGAGE = 12;
     private static final int IGNORE = -1;
 
     private DatadogContextInterpreter(Map<String, String> taggedHeaders) {
       super(taggedHeaders);
     }
 
+    @Override
+    protected String[] handledHeaders() {
+      return new String[] {
+        TRACE_ID_KEY,
+        SPAN_ID_KEY,
+        ORIGIN_KEY,
+        SAMPLING_PRIORITY_KEY,
+        E2E_START_KEY,
+        FORWARDED_KEY,
+        X_FORWARDED_PROTO_KEY,
+        X_FORWARDED_HOST_KEY,
+        X_FORWARDED_FOR_KEY,
+        X_FORWARDED_PORT_KEY,
+        X_AMZN_TRACE_ID
+      };
+    }
+
     @Override
     public boolean accept(String key, String value) {
       if (null == key || key.isEmpty()) {
@@ -93,45 +127,37 @@ class DatadogHttpCodec {
       if (LOG_EXTRACT_HEADER_NAMES) {
         log.debug("Header: {}", key);
       }
-      String lowerCaseKey = null;
-      int classification = IGNORE;
-      char first = Character.toLowerCase(key.charAt(0));
-      switch (first) {
-        case 'x':
-          if (TRACE_ID_KEY.equalsIgnoreCase(key)) {
-            classification = TRACE_ID;
-          } else if (SPAN_ID_KEY.equalsIgnoreCase(key)) {
-            classification = SPAN_ID;
-          } else if (SAMPLING_PRIORITY_KEY.equalsIgnoreCase(key)) {
-            classification = SAMPLING_PRIORITY;
-          } else if (ORIGIN_KEY.equalsIgnoreCase(key)) {
-            classification = ORIGIN;
-          } else if (Config.get().isAwsPropagationEnabled()
-              && X_AMZN_TRACE_ID.equalsIgnoreCase(key)) {
-            handleXRayTraceHeader(this, value);
-            return true;
-          } else if (handledXForwarding(key, value)) {
+      final int index = classifyHeader(key);
+      int classification = isHandledHeader(index) ? index : IGNORE;
+      switch (classification) {
+        case FORWARDED:
+          if (handledForwarding(key, value)) {
             return true;
           }
+          classification = IGNORE;
           break;
-        case 'f':
-          if (handledForwarding(key, value)) {
+        case X_FORWARDED_PROTO:
+        case X_FORWARDED_HOST:
+        case X_FORWARDED_FOR:
+        case X_FORWARDED_PORT:
+          if (handledXForwarding(key, value)) {
             return true;
           }
+          classification = IGNORE;
           break;
-        case 'o':
-          lowerCaseKey = toLowerCase(key);
-          if (E2E_START_KEY.equals(lowerCaseKey)) {
-            classification = E2E_START;
-          } else if (lowerCaseKey.startsWith(OT_BAGGAGE_PREFIX)) {
-            classification = OT_BAGGAGE;
+        case XRAY_TRACE_ID:
+          if (Config.get().isAwsPropagationEnabled()) {
+            handleXRayTraceHeader(this, value);
+            return true;
           }
+          classification = IGNORE;
           break;
         default:
       }
-      if (!taggedHeaders.isEmpty() && classification == IGNORE) {
-        lowerCaseKey = toLowerCase(key);
-        if (taggedHeaders.containsKey(lowerCaseKey)) {
+      if (classification == IGNORE) {
+        if (key.regionMatches(true, 0, OT_BAGGAGE_PREFIX, 0, OT_BAGGAGE_PREFIX.length())) {
+          classification = OT_BAGGAGE;
+        } else if (null != headerTag(index)) {
           classification = TAGS;
         }
       }
@@ -157,7 +183,7 @@ class DatadogHttpCodec {
                 break;
               case TAGS:
                 {
-                  String mappedKey = taggedHeaders.get(lowerCaseKey);
+                  String mappedKey = headerTag(index);
                   if (null != mappedKey) {
                     if (tags.isEmpty()) {
                       tags = new TreeMap<>();
@@ -172,7 +198,8 @@ class DatadogHttpCodec {
                     baggage = new TreeMap<>();
                   }
                   baggage.put(
-                      lowerCaseKey.substring(OT_BAGGAGE_PREFIX.length()), HttpCodec.decode(value));
+                      toLowerCase(key).substring(OT_BAGGAGE_PREFIX.length()),
+                      HttpCodec.decode(value));
                 }
                 break;
               default:
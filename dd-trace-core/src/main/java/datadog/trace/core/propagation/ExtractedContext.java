@@ -9,6 +9,8 @@ import java.util.Map;
  */
 public class ExtractedContext extends TagContext {
   private final DDId traceId;
+  private final long traceIdHigh;
+  private final boolean traceId128;
   private final DDId spanId;
   private final int samplingPriority;
   private final int samplingMechanism;
@@ -24,8 +26,34 @@ public class ExtractedContext extends TagContext {
       final long endToEndStartTime,
       final Map<String, String> baggage,
       final Map<String, String> tags) {
+    this(
+        traceId,
+        0,
+        false,
+        spanId,
+        samplingPriority,
+        samplingMechanism,
+        origin,
+        endToEndStartTime,
+        baggage,
+        tags);
+  }
+
+  public ExtractedContext(
+      final DDId traceId,
+      final long traceIdHigh,
+      final boolean traceId128,
+      final DDId spanId,
+      final int samplingPriority,
+      final int samplingMechanism,
+      final String origin,
+      final long endToEndStartTime,
+      final Map<String, String> baggage,
+      final Map<String, String> tags) {
     super(origin, tags);
     this.traceId = traceId;
+    this.traceIdHigh = traceIdHigh;
+    this.traceId128 = traceId128 || traceIdHigh != 0;
     this.spanId = spanId;
     this.samplingPriority = samplingPriority;
     this.samplingMechanism = samplingMechanism;
@@ -43,6 +71,16 @@ public class ExtractedContext extends TagContext {
     return traceId;
   }
 
+  /** @return the high order bits of a 128 bit trace id, or zero for a 64 bit trace id */
+  public final long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /** @return whether the trace id was extracted as 128 bits, even with zero high order bits */
+  public final boolean isTraceId128() {
+    return traceId128;
+  }
+
   @Override
   public final DDId getSpanId() {
     return spanId;
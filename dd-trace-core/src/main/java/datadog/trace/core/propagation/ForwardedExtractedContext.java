@@ -14,6 +14,8 @@ public final class ForwardedExtractedContext extends ExtractedContext {
 
   public ForwardedExtractedContext(
       final DDId traceId,
+      final long traceIdHigh,
+      final boolean traceId128,
       final DDId spanId,
       final int samplingPriority,
       final int samplingMechanism,
@@ -28,6 +30,8 @@ public final class ForwardedExtractedContext extends ExtractedContext {
       final Map<String, String> tags) {
     super(
         traceId,
+        traceIdHigh,
+        traceId128,
         spanId,
         samplingPriority,
         samplingMechanism,
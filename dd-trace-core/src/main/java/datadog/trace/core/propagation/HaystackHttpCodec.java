@@ -31,6 +31,8 @@ class HaystackHttpCodec {
   private static final String DD_TRACE_ID_BAGGAGE_KEY = OT_BAGGAGE_PREFIX + "Datadog-Trace-Id";
   private static final String DD_SPAN_ID_BAGGAGE_KEY = OT_BAGGAGE_PREFIX + "Datadog-Span-Id";
   private static final String DD_PARENT_ID_BAGGAGE_KEY = OT_BAGGAGE_PREFIX + "Datadog-Parent-Id";
+  private static final HttpCodec.PrefixedKeys BAGGAGE_KEYS =
+      new HttpCodec.PrefixedKeys(OT_BAGGAGE_PREFIX);
 
   private static final String HAYSTACK_TRACE_ID_BAGGAGE_KEY = "Haystack-Trace-ID";
   private static final String HAYSTACK_SPAN_ID_BAGGAGE_KEY = "Haystack-Span-ID";
@@ -80,8 +82,7 @@ class HaystackHttpCodec {
             carrier, DD_PARENT_ID_BAGGAGE_KEY, HttpCodec.encode(context.getParentId().toString()));
 
         for (final Map.Entry<String, String> entry : context.baggageItems()) {
-          setter.set(
-              carrier, OT_BAGGAGE_PREFIX + entry.getKey(), HttpCodec.encode(entry.getValue()));
+          setter.set(carrier, BAGGAGE_KEYS.get(entry.getKey()), HttpCodec.encode(entry.getValue()));
         }
         log.debug(
             "{} - Haystack parent context injected - {}", context.getTraceId(), injectedTraceId);
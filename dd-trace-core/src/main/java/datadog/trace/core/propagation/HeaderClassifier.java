@@ -0,0 +1,91 @@
+package datadog.trace.core.propagation;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds which of a fixed set of header names a header is, ignoring case, in a single pass over the
+ * header and without allocating a lower case copy of it.
+ *
+ * <p>The names are placed with a perfect hash: the seed is chosen when the classifier is built so
+ * that no two names share a slot, and the table is kept at most half full. A header is hashed with
+ * its ASCII letters folded to lower case, and then only compared with the one name in its slot.
+ */
+final class HeaderClassifier {
+
+  static final int UNKNOWN = -1;
+
+  private static final int MAX_SEEDS = 256;
+  private static final int MAX_CAPACITY = 1 << 16;
+
+  private final String[] names;
+  private final int[] indexes;
+  private final int seed;
+  private final int mask;
+
+  private HeaderClassifier(String[] names, int[] indexes, int seed) {
+    this.names = names;
+    this.indexes = indexes;
+    this.seed = seed;
+    this.mask = names.length - 1;
+  }
+
+  /**
+   * @param names header names which are distinct ignoring case, they are classified by their index
+   *     in the list
+   */
+  static HeaderClassifier create(List<String> names) {
+    String[] lowerCaseNames = new String[names.size()];
+    for (int i = 0; i < lowerCaseNames.length; ++i) {
+      lowerCaseNames[i] = names.get(i).toLowerCase(Locale.ROOT);
+    }
+    int capacity = 2;
+    while (capacity < 2 * lowerCaseNames.length) {
+      capacity <<= 1;
+    }
+    while (capacity <= MAX_CAPACITY) {
+      for (int seed = 1; seed <= MAX_SEEDS; ++seed) {
+        HeaderClassifier classifier = tryCreate(lowerCaseNames, seed, capacity);
+        if (null != classifier) {
+          return classifier;
+        }
+      }
+      capacity <<= 1;
+    }
+    throw new IllegalArgumentException("Header names are not distinct: " + names);
+  }
+
+  private static HeaderClassifier tryCreate(String[] lowerCaseNames, int seed, int capacity) {
+    String[] slots = new String[capacity];
+    int[] indexes = new int[capacity];
+    for (int i = 0; i < lowerCaseNames.length; ++i) {
+      int slot = hash(lowerCaseNames[i], seed) & (capacity - 1);
+      if (null != slots[slot]) {
+        return null;
+      }
+      slots[slot] = lowerCaseNames[i];
+      indexes[slot] = i;
+    }
+    return new HeaderClassifier(slots, indexes, seed);
+  }
+
+  // FNV-1a over the case folded characters, starting from a seeded basis
+  private static int hash(String header, int seed) {
+    int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+    for (int i = 0; i < header.length(); ++i) {
+      char c = header.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      h = (h ^ c) * 0x01000193;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /** @return the index of the header's name, or {@link #UNKNOWN} */
+  int classify(String header) {
+    int slot = hash(header, seed) & mask;
+    String name = names[slot];
+    return null != name && name.equalsIgnoreCase(header) ? indexes[slot] : UNKNOWN;
+  }
+}
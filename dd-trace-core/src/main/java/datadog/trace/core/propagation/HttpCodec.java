@@ -1,7 +1,10 @@
 package datadog.trace.core.propagation;
 
 import datadog.trace.api.Config;
+import datadog.trace.api.Function;
 import datadog.trace.api.PropagationStyle;
+import datadog.trace.api.cache.DDCache;
+import datadog.trace.api.cache.DDCaches;
 import datadog.trace.bootstrap.instrumentation.api.AgentPropagation;
 import datadog.trace.bootstrap.instrumentation.api.TagContext;
 import datadog.trace.core.DDSpanContext;
@@ -144,8 +147,44 @@ public class HttpCodec {
     }
   }
 
+  // sampling priorities from USER_DROP (-1) to USER_KEEP (2)
+  private static final String[] ENCODED_PRIORITIES = {"-1", "0", "1", "2"};
+
+  /** Encodes the sampling priority, without allocating for the known priorities */
+  static String encodePriority(final int samplingPriority) {
+    int index = samplingPriority + 1;
+    return index >= 0 && index < ENCODED_PRIORITIES.length
+        ? ENCODED_PRIORITIES[index]
+        : String.valueOf(samplingPriority);
+  }
+
+  /**
+   * Header names made of a prefix and a baggage key. The same few baggage keys are propagated on
+   * every request, so their header names are only built once.
+   */
+  static final class PrefixedKeys implements Function<String, String> {
+    private final String prefix;
+    private final DDCache<String, String> keys = DDCaches.newFixedSizeCache(256);
+
+    PrefixedKeys(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    String get(final String key) {
+      return keys.computeIfAbsent(key, this);
+    }
+
+    @Override
+    public String apply(final String key) {
+      return prefix + key;
+    }
+  }
+
   /** URL encode value */
   static String encode(final String value) {
+    if (!needsEncoding(value)) {
+      return value;
+    }
     String encoded = value;
     try {
       encoded = URLEncoder.encode(value, "UTF-8");
@@ -155,6 +194,23 @@ public class HttpCodec {
     return encoded;
   }
 
+  /** @return false if URL encoding would return the value as it is */
+  private static boolean needsEncoding(final String value) {
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (!((c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || c == '-'
+          || c == '_'
+          || c == '.'
+          || c == '*')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /** URL decode value */
   static String decode(final String value) {
     String decoded = value;
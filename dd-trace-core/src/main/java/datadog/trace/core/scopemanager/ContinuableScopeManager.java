@@ -17,13 +17,11 @@ import datadog.trace.bootstrap.instrumentation.api.AttachableWrapper;
 import datadog.trace.bootstrap.instrumentation.api.ScopeSource;
 import datadog.trace.context.ScopeListener;
 import datadog.trace.util.AgentTaskScheduler;
-import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -36,25 +34,27 @@ import org.slf4j.LoggerFactory;
  * currently active Scope. Such scopes can be suspended with a Continuation to prevent the trace
  * from being reported even if all related spans are finished. It also delegates to other
  * ScopeInterceptors to provide additional functionality.
+ *
+ * <p>Scope stacks are only created when a thread first activates a scope, so threads which just
+ * look for the active span, like most short-lived virtual threads, don't get one.
+ *
+ * <p>Activating a scope for the span which is already active doesn't notify the scope listeners,
+ * and neither does closing that scope, as the span they know about stays the same.
  */
 public final class ContinuableScopeManager implements AgentScopeManager {
 
   static final Logger log = LoggerFactory.getLogger(ContinuableScopeManager.class);
-  final ThreadLocal<ScopeStack> tlsScopeStack =
-      new ThreadLocal<ScopeStack>() {
-        @Override
-        protected final ScopeStack initialValue() {
-          return new ScopeStack();
-        }
-      };
+  // created lazily by scopeStack()
+  final ThreadLocal<ScopeStack> tlsScopeStack = new ThreadLocal<>();
 
   static final long iterationKeepAlive =
       SECONDS.toMillis(Config.get().getScopeIterationKeepAlive());
 
-  volatile ConcurrentMap<ScopeStack, ContinuableScope> rootIterationScopes;
+  volatile Set<ContinuableScope> rootIterationScopes;
 
-  final List<ScopeListener> scopeListeners;
-  final List<ExtendedScopeListener> extendedScopeListeners;
+  // copied on write, so notifying listeners doesn't allocate an iterator
+  volatile ScopeListener[] scopeListeners = new ScopeListener[0];
+  volatile ExtendedScopeListener[] extendedScopeListeners = new ExtendedScopeListener[0];
   final StatsDClient statsDClient;
 
   private final int depthLimit;
@@ -71,8 +71,6 @@ public final class ContinuableScopeManager implements AgentScopeManager {
     this.statsDClient = statsDClient;
     this.strictMode = strictMode;
     this.inheritAsyncPropagation = inheritAsyncPropagation;
-    this.scopeListeners = new CopyOnWriteArrayList<>();
-    this.extendedScopeListeners = new CopyOnWriteArrayList<>();
   }
 
   @Override
@@ -152,13 +150,16 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
   @Override
   public void closePrevious(final boolean finishSpan) {
-    ScopeStack scopeStack = scopeStack();
+    ScopeStack scopeStack = tlsScopeStack.get();
+    if (scopeStack == null) {
+      return;
+    }
 
     // close any immediately previous iteration scope
     final ContinuableScope top = scopeStack.top;
     if (top != null && top.source() == ScopeSource.ITERATION.id()) {
       if (iterationKeepAlive > 0) { // skip depth check because cancelling is cheap
-        cancelRootIterationScopeCleanup(scopeStack, top);
+        cancelRootIterationScopeCleanup(top);
       }
       top.close();
       scopeStack.cleanup();
@@ -192,7 +193,7 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
     if (iterationKeepAlive > 0 && currentDepth == 0) {
       // no surrounding scope to aid cleanup, so use background task instead
-      scheduleRootIterationScopeCleanup(scopeStack, scope);
+      scheduleRootIterationScopeCleanup(scope);
     }
 
     scopeStack.push(scope);
@@ -202,12 +203,14 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
   @Override
   public AgentScope active() {
-    return scopeStack().active();
+    final ScopeStack scopeStack = tlsScopeStack.get();
+    return scopeStack == null ? null : scopeStack.active();
   }
 
   @Override
   public AgentSpan activeSpan() {
-    final ContinuableScope active = scopeStack().active();
+    final ScopeStack scopeStack = tlsScopeStack.get();
+    final ContinuableScope active = scopeStack == null ? null : scopeStack.active();
     return active == null ? null : active.span;
   }
 
@@ -216,7 +219,11 @@ public final class ContinuableScopeManager implements AgentScopeManager {
     if (listener instanceof ExtendedScopeListener) {
       addExtendedScopeListener((ExtendedScopeListener) listener);
     } else {
-      scopeListeners.add(listener);
+      synchronized (this) {
+        ScopeListener[] listeners = Arrays.copyOf(scopeListeners, scopeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        scopeListeners = listeners;
+      }
       log.debug("Added scope listener {}", listener);
       AgentSpan activeSpan = activeSpan();
       if (activeSpan != null) {
@@ -227,7 +234,12 @@ public final class ContinuableScopeManager implements AgentScopeManager {
   }
 
   private void addExtendedScopeListener(final ExtendedScopeListener listener) {
-    extendedScopeListeners.add(listener);
+    synchronized (this) {
+      ExtendedScopeListener[] listeners =
+          Arrays.copyOf(extendedScopeListeners, extendedScopeListeners.length + 1);
+      listeners[listeners.length - 1] = listener;
+      extendedScopeListeners = listeners;
+    }
     log.debug("Added scope listener {}", listener);
     AgentSpan activeSpan = activeSpan();
     if (activeSpan != null && activeSpan != NoopAgentSpan.INSTANCE) {
@@ -237,10 +249,21 @@ public final class ContinuableScopeManager implements AgentScopeManager {
   }
 
   ScopeStack scopeStack() {
-    return this.tlsScopeStack.get();
+    ScopeStack scopeStack = tlsScopeStack.get();
+    if (scopeStack == null) {
+      scopeStack = new ScopeStack();
+      tlsScopeStack.set(scopeStack);
+    }
+    return scopeStack;
   }
 
   private static class ContinuableScope implements AgentScope, AttachableWrapper {
+    // the listeners were notified when the scope was activated
+    private static final int NOTIFIED = 0x80;
+    // the scope was activated on top of a scope for the same span, so listeners are not notified
+    private static final int COALESCED = 0x40;
+    private static final int SOURCE_MASK = 0x3F;
+
     private final ContinuableScopeManager scopeManager;
 
     final AgentSpan span; // package-private so scopeManager can access it directly
@@ -252,6 +275,9 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
     private short referenceCount = 1;
 
+    // set by background task when a root iteration scope remains unclosed for too long
+    volatile boolean overdue;
+
     private volatile Object wrapper;
     private static final AtomicReferenceFieldUpdater<ContinuableScope, Object>
         WRAPPER_FIELD_UPDATER =
@@ -308,6 +334,10 @@ public final class ContinuableScopeManager implements AgentScopeManager {
      * I would hope this becomes unnecessary.
      */
     final void onProperClose() {
+      if (coalesced()) {
+        return;
+      }
+
       for (final ScopeListener listener : scopeManager.scopeListeners) {
         try {
           listener.afterScopeClosed();
@@ -408,7 +438,7 @@ public final class ContinuableScopeManager implements AgentScopeManager {
       if (span.eligibleForDropping()) {
         return;
       }
-      flags |= 0x80;
+      flags |= NOTIFIED;
 
       for (final ExtendedScopeListener listener : scopeManager.extendedScopeListeners) {
         try {
@@ -421,11 +451,19 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
     @Override
     public byte source() {
-      return (byte) (flags & 0x7F);
+      return (byte) (flags & SOURCE_MASK);
     }
 
     private boolean notifiedOnActivate() {
-      return flags < 0;
+      return (flags & NOTIFIED) != 0;
+    }
+
+    final void coalesce() {
+      flags |= COALESCED;
+    }
+
+    final boolean coalesced() {
+      return (flags & COALESCED) != 0;
     }
 
     @Override
@@ -471,36 +509,50 @@ public final class ContinuableScopeManager implements AgentScopeManager {
    * cleanup() is called to ensure the invariant
    */
   static final class ScopeStack {
-    private final ArrayDeque<ContinuableScope> stack = new ArrayDeque<>(); // previous scopes
+    private static final ContinuableScope[] NO_SCOPES = new ContinuableScope[0];
+    private static final int INITIAL_CAPACITY = 4;
 
-    ContinuableScope top; // current scope
+    // previous scopes, only allocated once scopes are nested
+    private ContinuableScope[] stack = NO_SCOPES;
+    private int size;
 
-    // set by background task when a root iteration scope remains unclosed for too long
-    volatile ContinuableScope overdueRootScope;
+    ContinuableScope top; // current scope
 
     ContinuableScope active() {
+      final ContinuableScope top = this.top;
       // avoid attaching further spans to the root scope when it's been marked as overdue
-      return top != overdueRootScope ? top : null;
+      return top != null && !top.overdue ? top : null;
+    }
+
+    private ContinuableScope poll() {
+      if (size == 0) {
+        return null;
+      }
+      final ContinuableScope scope = stack[--size];
+      stack[size] = null;
+      return scope;
     }
 
     /** Removes and closes all scopes up to the nearest live scope */
     void cleanup() {
       ContinuableScope curScope = top;
       boolean changedTop = false;
+      // only coalesced scopes closed means the listeners still know about the new top's span
+      boolean notify = false;
       while (curScope != null && !curScope.alive()) {
         // no longer alive -- trigger listener & null out
         curScope.onProperClose();
         changedTop = true;
-        curScope = stack.poll();
+        notify |= !curScope.coalesced();
+        curScope = poll();
       }
-      if (curScope != null && curScope == overdueRootScope) {
+      if (curScope != null && curScope.overdue) {
         // we know this scope is the last on the stack and is overdue
         curScope.onProperClose();
-        overdueRootScope = null;
         top = null;
       } else if (changedTop) {
         top = curScope;
-        if (curScope != null) {
+        if (curScope != null && notify) {
           curScope.afterActivated();
         }
       }
@@ -508,11 +560,20 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
     /** Marks a new scope as current, pushing the previous onto the stack */
     void push(final ContinuableScope scope) {
-      if (top != null) {
-        stack.push(top);
+      final ContinuableScope previous = top;
+      if (previous != null) {
+        if (size == stack.length) {
+          stack = Arrays.copyOf(stack, Math.max(INITIAL_CAPACITY, size << 1));
+        }
+        stack[size++] = previous;
       }
       top = scope;
-      scope.afterActivated();
+      if (previous != null && previous.span.equals(scope.span)) {
+        // e.g. a continuation of the active span: the listeners already know about the span
+        scope.coalesce();
+      } else {
+        scope.afterActivated();
+      }
     }
 
     /** Fast check to see if the expectedScope is on top */
@@ -534,7 +595,8 @@ public final class ContinuableScopeManager implements AgentScopeManager {
       top.clearReferences();
       top.span.finishWithEndToEnd();
       // now do the same for any previous iteration scopes ahead of the expected scope
-      for (ContinuableScope scope : stack) {
+      for (int i = size - 1; i >= 0; --i) {
+        final ContinuableScope scope = stack[i];
         if (scope.source() != ScopeSource.ITERATION.id()) {
           return expectedScope.equals(scope);
         } else {
@@ -547,12 +609,13 @@ public final class ContinuableScopeManager implements AgentScopeManager {
 
     /** Returns the current depth, including the top scope */
     int depth() {
-      return top != null ? 1 + stack.size() : 0;
+      return top != null ? 1 + size : 0;
     }
 
     // DQH - regrettably needed for pre-existing tests
     void clear() {
-      stack.clear();
+      Arrays.fill(stack, 0, size, null);
+      size = 0;
       top = null;
     }
   }
@@ -762,55 +825,54 @@ public final class ContinuableScopeManager implements AgentScopeManager {
     }
   }
 
-  private void scheduleRootIterationScopeCleanup(ScopeStack scopeStack, ContinuableScope scope) {
+  private void scheduleRootIterationScopeCleanup(ContinuableScope scope) {
     if (rootIterationScopes == null) {
       synchronized (this) {
         if (rootIterationScopes == null) {
-          rootIterationScopes = new ConcurrentHashMap<>();
+          rootIterationScopes =
+              Collections.newSetFromMap(new ConcurrentHashMap<ContinuableScope, Boolean>());
           RootIterationCleaner.scheduleFor(rootIterationScopes);
         }
       }
     }
-    rootIterationScopes.put(scopeStack, scope);
+    rootIterationScopes.add(scope);
   }
 
-  private void cancelRootIterationScopeCleanup(ScopeStack scopeStack, ContinuableScope scope) {
+  private void cancelRootIterationScopeCleanup(ContinuableScope scope) {
     if (rootIterationScopes != null) {
-      rootIterationScopes.remove(scopeStack, scope);
+      rootIterationScopes.remove(scope);
     }
   }
 
   /**
    * Background task to clean-up scopes from overdue root iterations that have no surrounding scope.
+   * Overdue scopes are flagged rather than removed from their stack, so the task doesn't need to
+   * keep track of the stacks, which would otherwise be retained until the scope is closed.
    */
   private static final class RootIterationCleaner
-      implements AgentTaskScheduler.Task<Map<ScopeStack, ContinuableScope>> {
+      implements AgentTaskScheduler.Task<Set<ContinuableScope>> {
     private static final RootIterationCleaner CLEANER = new RootIterationCleaner();
 
-    public static void scheduleFor(Map<ScopeStack, ContinuableScope> rootIterationScopes) {
+    public static void scheduleFor(Set<ContinuableScope> rootIterationScopes) {
       long period = Math.min(iterationKeepAlive, 10_000);
       AgentTaskScheduler.INSTANCE.scheduleAtFixedRate(
           CLEANER, rootIterationScopes, iterationKeepAlive, period, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public void run(Map<ScopeStack, ContinuableScope> rootIterationScopes) {
-      Iterator<Map.Entry<ScopeStack, ContinuableScope>> itr =
-          rootIterationScopes.entrySet().iterator();
+    public void run(Set<ContinuableScope> rootIterationScopes) {
+      Iterator<ContinuableScope> itr = rootIterationScopes.iterator();
 
       long cutOff = System.currentTimeMillis() - iterationKeepAlive;
 
       while (itr.hasNext()) {
-        Map.Entry<ScopeStack, ContinuableScope> entry = itr.next();
-
-        ScopeStack scopeStack = entry.getKey();
-        ContinuableScope rootScope = entry.getValue();
+        ContinuableScope rootScope = itr.next();
 
         if (!rootScope.alive()) { // no need to track this anymore
           itr.remove();
         } else if (NANOSECONDS.toMillis(rootScope.span.getStartTime()) < cutOff) {
           // mark scope as overdue to allow cleanup and avoid further spans being attached
-          scopeStack.overdueRootScope = rootScope;
+          rootScope.overdue = true;
           rootScope.span.finishThreadMigration();
           rootScope.span.finishWithEndToEnd();
           itr.remove();
@@ -0,0 +1,62 @@
+package datadog.trace.core.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+/** Reports the heap usage after each collection to {@linkplain MemoryPressure}, from GC events */
+final class JmxMemoryPressureMonitor implements NotificationListener, NotificationFilter {
+  // GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION, without the com.sun class
+  private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+  private final List<MemoryPoolMXBean> heapPools;
+
+  private JmxMemoryPressureMonitor(List<MemoryPoolMXBean> heapPools) {
+    this.heapPools = heapPools;
+  }
+
+  public static void install() {
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      // eden and survivor pools are emptied or refilled by every young collection, only tenured
+      // pools, which are the ones supporting a usage threshold, tell what survives collections
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+        heapPools.add(pool);
+      }
+    }
+    if (heapPools.isEmpty()) {
+      return;
+    }
+    JmxMemoryPressureMonitor monitor = new JmxMemoryPressureMonitor(heapPools);
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        ((NotificationEmitter) collector).addNotificationListener(monitor, monitor, null);
+      }
+    }
+  }
+
+  @Override
+  public boolean isNotificationEnabled(Notification notification) {
+    return GC_NOTIFICATION.equals(notification.getType());
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    double heapUsage = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (null != usage && usage.getMax() > 0) {
+        heapUsage = Math.max(heapUsage, (double) usage.getUsed() / usage.getMax());
+      }
+    }
+    MemoryPressure.onGarbageCollection(heapUsage);
+  }
+}
@@ -0,0 +1,66 @@
+package datadog.trace.core.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells listeners how full the heap is after each garbage collection. Like {@linkplain
+ * SystemAccess}, this class may not use JMX classes, the GC notifications are only subscribed to
+ * by {@linkplain JmxMemoryPressureMonitor} once {@linkplain #enableJmx()} says JMX is safe to use.
+ */
+public final class MemoryPressure {
+  private static final Logger log = LoggerFactory.getLogger(MemoryPressure.class);
+
+  public interface Listener {
+    /**
+     * @param heapUsage the fraction of the heap still used after the collection, in the fullest of
+     *     the heap memory pools
+     */
+    void onGarbageCollection(double heapUsage);
+  }
+
+  private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  private static volatile boolean enabled = false;
+
+  public static void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public static void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Subscribe to GC notifications, only once it is safe to touch JMX */
+  public static synchronized void enableJmx() {
+    if (enabled) {
+      return;
+    }
+    try {
+      log.debug("Enabling JMX memory pressure monitor");
+      // loaded by reflection for the same reason as in SystemAccess
+      Class.forName(
+              "datadog.trace.core.util.JmxMemoryPressureMonitor",
+              false,
+              MemoryPressure.class.getClassLoader())
+          .getMethod("install")
+          .invoke(null);
+      enabled = true;
+    } catch (final Exception e) {
+      log.info("Unable to initialize JMX memory pressure monitor", e);
+    }
+  }
+
+  static void onGarbageCollection(double heapUsage) {
+    for (Listener listener : listeners) {
+      try {
+        listener.onGarbageCollection(heapUsage);
+      } catch (Throwable t) {
+        log.debug("Memory pressure listener failed", t);
+      }
+    }
+  }
+
+  private MemoryPressure() {}
+}
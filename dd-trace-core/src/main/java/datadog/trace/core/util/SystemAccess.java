@@ -19,6 +19,9 @@ public final class SystemAccess {
 
   /** Enable JMX accesses */
   public static void enableJmx() {
+    if (Config.get().isPartialFlushMemoryEnabled()) {
+      MemoryPressure.enableJmx();
+    }
     if (!Config.get().isProfilingEnabled() && !Config.get().isHealthMetricsEnabled()) {
       log.debug("Will not enable JMX access. Profiling and metrics are both disabled.");
       return;
@@ -40,6 +40,23 @@ class AggregateMetricTest extends DDSpecification {
     aggregate.getDuration() == 6
   }
 
+  def "merged aggregates add up"() {
+    given:
+    AggregateMetric aggregate = new AggregateMetric()
+      .recordDurations(2, new AtomicLongArray(1, ERROR_TAG | 2))
+    AggregateMetric other = new AggregateMetric()
+      .recordDuration(TOP_LEVEL_TAG | 3)
+      .recordDuration(ERROR_TAG | 4)
+    when:
+    aggregate.mergeWith(other)
+    then:
+    aggregate.getHitCount() == 4
+    aggregate.getErrorCount() == 2
+    aggregate.getTopLevelCount() == 1
+    aggregate.getDuration() == 10
+    aggregate.getErrorLatencies().max() >= 3.9
+  }
+
   def "clear"() {
     given:
     AggregateMetric aggregate = new AggregateMetric()
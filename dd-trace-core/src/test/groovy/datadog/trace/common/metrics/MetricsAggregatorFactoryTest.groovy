@@ -29,4 +29,14 @@ class MetricsAggregatorFactoryTest extends DDSpecification {
     def aggregator = MetricsAggregatorFactory.createMetricsAggregator(config, Mock(SharedCommunicationObjects))
     assert aggregator instanceof ConflatingMetricsAggregator
   }
+
+  def "when metrics stripes are configured striped aggregator created"() {
+    setup:
+    Config config = Spy(Config.get())
+    config.isTracerMetricsEnabled() >> true
+    config.getTracerMetricsStripes() >> 4
+    expect:
+    def aggregator = MetricsAggregatorFactory.createMetricsAggregator(config, Mock(SharedCommunicationObjects))
+    assert aggregator instanceof StripedMetricsAggregator
+  }
 }
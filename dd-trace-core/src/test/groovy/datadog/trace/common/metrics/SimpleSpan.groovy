@@ -1,6 +1,7 @@
 package datadog.trace.common.metrics
 
 import datadog.trace.api.DDId
+import datadog.trace.common.sampling.EnvAndService
 import datadog.trace.core.CoreSpan
 import datadog.trace.core.MetadataConsumer
 
@@ -50,6 +51,11 @@ class SimpleSpan implements CoreSpan<SimpleSpan> {
     return serviceName
   }
 
+  @Override
+  EnvAndService getEnvAndService() {
+    return EnvAndService.of("", serviceName)
+  }
+
   @Override
   CharSequence getOperationName() {
     return operationName
@@ -0,0 +1,280 @@
+package datadog.trace.common.metrics
+
+import datadog.communication.ddagent.DDAgentFeaturesDiscovery
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.test.util.DDSpecification
+import spock.lang.Requires
+import spock.lang.Shared
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
+import static datadog.trace.api.Platform.isJavaVersionAtLeast
+import static java.util.concurrent.TimeUnit.SECONDS
+
+@Requires({
+  isJavaVersionAtLeast(8)
+})
+class StripedMetricsAggregatorTest extends DDSpecification {
+
+  static Set<String> empty = new HashSet<>()
+
+  static final int HTTP_OK = 200
+
+  @Shared
+  long reportingInterval = 10
+
+  def "stripe count is a power of two"() {
+    expect:
+    StripedMetricsAggregator.stripeCount(stripes) == expected
+
+    where:
+    stripes | expected
+    1       | 1
+    2       | 2
+    3       | 4
+    8       | 8
+    9       | 16
+    5000    | 1024
+  }
+
+  def "spans published from several threads are merged when reported"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 10, 4, reportingInterval, SECONDS)
+    long duration = 100
+    Map<MetricKey, AggregateMetric> reported = new ConcurrentHashMap<>()
+    aggregator.start()
+
+    when:
+    def threads = (1..threadCount).collect {
+      Thread.start {
+        for (int i = 0; i < count; ++i) {
+          aggregator.publish([
+            new SimpleSpan("service", "operation", "resource", "type", true, false, false, 0, duration, HTTP_OK),
+            new SimpleSpan("service2", "operation2", UTF8BytesString.create("resource2"), "type", true, false, true, 0, duration * 2, HTTP_OK)
+          ])
+        }
+      }
+    }
+    threads*.join()
+    CountDownLatch latch = new CountDownLatch(1)
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then: "metrics from every stripe are merged"
+    1 * writer.startBucket(2, _, SECONDS.toNanos(reportingInterval))
+    2 * writer.add(_, _) >> { MetricKey key, AggregateMetric value ->
+      reported.put(key, value)
+    }
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    and:
+    def first = reported.get(new MetricKey("resource", "service", "operation", "type", HTTP_OK))
+    first.getHitCount() == threadCount * count
+    first.getDuration() == threadCount * count * duration
+    def second = reported.get(new MetricKey("resource2", "service2", "operation2", "type", HTTP_OK))
+    second.getHitCount() == threadCount * count
+    second.getErrorCount() == threadCount * count
+    second.getDuration() == threadCount * count * duration * 2
+
+    cleanup:
+    aggregator.close()
+
+    where:
+    threadCount | count
+    1           | 10
+    8           | 1000
+  }
+
+  def "aggregate not updated in reporting interval not reported"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 10, 1, reportingInterval, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    for (int i = 0; i < 5; ++i) {
+      aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then:
+    1 * writer.startBucket(5, _, SECONDS.toNanos(reportingInterval))
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    when:
+    latch = new CountDownLatch(1)
+    for (int i = 1; i < 5; ++i) {
+      aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then: "the aggregate which wasn't updated is not reported"
+    1 * writer.startBucket(4, _, SECONDS.toNanos(reportingInterval))
+    0 * writer.add(new MetricKey("resource", "service0", "operation", "type", HTTP_OK), _)
+    4 * writer.add(_, _)
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "full stripes take new keys once stale aggregates are removed"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 2, 1, reportingInterval, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    for (int i = 0; i < 3; ++i) {
+      aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then: "the span with a new key is not aggregated while the stripe is full"
+    1 * writer.startBucket(2, _, _)
+    0 * writer.add(new MetricKey("resource", "service2", "operation", "type", HTTP_OK), _)
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    when:
+    // the first report cleared the aggregates, this one removes them
+    latch = new CountDownLatch(1)
+    aggregator.report()
+    Thread.sleep(100)
+    aggregator.publish([
+      new SimpleSpan("service2", "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+    ])
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then:
+    1 * writer.startBucket(1, _, _)
+    1 * writer.add(new MetricKey("resource", "service2", "operation", "type", HTTP_OK), _)
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "the aggregate limit is split between the stripes"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 4, 2, reportingInterval, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    for (int i = 0; i < 4; ++i) {
+      aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then: "a single thread fills its stripe with half of the aggregates"
+    1 * writer.startBucket(2, _, _)
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "aggregator should force keep the first of each key it sees"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 10, 1, 1, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    def overrides = new boolean[10]
+    for (int i = 0; i < 5; ++i) {
+      overrides[i] = aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    for (int i = 0; i < 5; ++i) {
+      overrides[i + 5] = aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+
+    then: "override only the first of each point in the interval"
+    for (int i = 0; i < 5; ++i) {
+      assert overrides[i]
+    }
+    // these were all repeats, so should be ignored
+    for (int i = 5; i < 10; ++i) {
+      assert !overrides[i]
+    }
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "should be resilient to serialization errors"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    Sink sink = Stub(Sink)
+    DDAgentFeaturesDiscovery features = Mock(DDAgentFeaturesDiscovery)
+    features.supportsMetrics() >> true
+    StripedMetricsAggregator aggregator = new StripedMetricsAggregator(empty,
+      features, sink, writer, 10, 2, 1, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    for (int i = 0; i < 5; ++i) {
+      aggregator.publish([
+        new SimpleSpan("service" + i, "operation", "resource", "type", false, true, false, 0, duration, HTTP_OK)
+      ])
+    }
+    latch.await(2, SECONDS)
+
+    then: "writer should be reset if reporting fails"
+    1 * writer.startBucket(_, _, _) >> {
+      throw new IllegalArgumentException("something went wrong")
+    }
+    1 * writer.reset() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+  }
+}
@@ -0,0 +1,102 @@
+package datadog.trace.common.sampling
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule
+import datadog.trace.common.sampling.SamplingRule.OperationSamplingRule
+import datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.core.DDSpan
+import datadog.trace.core.test.DDCoreSpecification
+
+class CompiledSamplingRulesTest extends DDCoreSpecification {
+
+  def writer = new ListWriter()
+  def tracer = tracerBuilder().writer(writer).build()
+
+  def cleanup() {
+    tracer.close()
+  }
+
+  def "first matching rule is found"() {
+    setup:
+    def rules = [
+      new ServiceSamplingRule<DDSpan>("service", sampler()),
+      new OperationSamplingRule<DDSpan>("operation\\..*", sampler()),
+      new ServiceSamplingRule<DDSpan>("service-.*", sampler()),
+      new OperationSamplingRule<DDSpan>("query", sampler()),
+      new CustomSamplingRule("resource"),
+      new OperationSamplingRule<DDSpan>("operation.later", sampler()),
+      new AlwaysMatchesSamplingRule<DDSpan>(sampler()),
+      new ServiceSamplingRule<DDSpan>("unreachable", sampler())
+    ]
+    def compiled = new CompiledSamplingRules<DDSpan>(rules)
+
+    when:
+    def span = tracer.buildSpan(operation).withServiceName(service).withResourceName(resource).start()
+
+    then:
+    compiled.match(span).is(rules[expected])
+    // a second time from the cache
+    compiled.match(span).is(rules[expected])
+
+    where:
+    service       | operation                                | resource   | expected
+    "service"     | "operation.later"                        | "resource" | 0
+    "other"       | "operation.later"                        | "resource" | 1
+    "other"       | UTF8BytesString.create("operation.java") | "resource" | 1
+    "service-db"  | "query"                                  | "resource" | 2
+    "other"       | "query"                                  | "resource" | 3
+    "other"       | "other"                                  | "resource" | 4
+    "other"       | "operationXlater"                        | "other"    | 5
+    "other"       | "other"                                  | "other"    | 6
+    "unreachable" | "other"                                  | "other"    | 6
+  }
+
+  def "no rule matches"() {
+    setup:
+    def compiled = new CompiledSamplingRules<DDSpan>([
+      new ServiceSamplingRule<DDSpan>("service", sampler()),
+      new OperationSamplingRule<DDSpan>("operation.*", sampler())
+    ])
+
+    when:
+    def span = tracer.buildSpan("query").withServiceName("other").start()
+
+    then:
+    compiled.match(span) == null
+  }
+
+  def "a literal rule only matches the same value"() {
+    setup:
+    def rule = new ServiceSamplingRule<DDSpan>("service", sampler())
+    def compiled = new CompiledSamplingRules<DDSpan>([rule])
+
+    expect:
+    compiled.match(tracer.buildSpan("operation").withServiceName(service).start()).is(matched ? rule : null)
+
+    where:
+    service        | matched
+    "service"      | true
+    "Service"      | false
+    "service-name" | false
+    "my-service"   | false
+  }
+
+  static sampler() {
+    return new DeterministicSampler<DDSpan>(1)
+  }
+
+  static class CustomSamplingRule extends SamplingRule<DDSpan> {
+    final String resource
+
+    CustomSamplingRule(String resource) {
+      super(new DeterministicSampler<DDSpan>(1))
+      this.resource = resource
+    }
+
+    @Override
+    boolean matches(DDSpan span) {
+      return span.resourceName.toString() == resource
+    }
+  }
+}
@@ -8,6 +8,7 @@ import datadog.trace.common.writer.ddagent.DDAgentApi
 import datadog.trace.core.DDSpan
 import datadog.trace.core.DDSpanContext
 import datadog.trace.core.test.DDCoreSpecification
+import groovy.json.JsonOutput
 
 class RateByServiceSamplerTest extends DDCoreSpecification {
   static serializer = DDAgentApi.RESPONSE_ADAPTER
@@ -18,7 +19,7 @@ class RateByServiceSamplerTest extends DDCoreSpecification {
     String response = '{"rate_by_service": {"service:,env:":' + rate + '}}'
     serviceSampler.onResponse("traces", serializer.fromJson(response))
     expect:
-    serviceSampler.serviceRates.getSampler(RateByServiceSampler.EnvAndService.DEFAULT).sampleRate == expectedRate
+    serviceSampler.serviceRates.getSampler(EnvAndService.DEFAULT).sampleRate == expectedRate
 
     where:
     rate | expectedRate
@@ -66,6 +67,84 @@ class RateByServiceSamplerTest extends DDCoreSpecification {
     tracer.close()
   }
 
+  def "rates are found among many env and service pairs"() {
+    setup:
+    RateByServiceSampler serviceSampler = new RateByServiceSampler()
+    def tracer = tracerBuilder().writer(new ListWriter()).build()
+    def rates = (0..<40).collectEntries { ["service:service-$it,env:env-${it % 3}".toString(), it / 100] }
+    serviceSampler.onResponse("traces", serializer.fromJson('{"rate_by_service": ' + JsonOutput.toJson(rates) + '}'))
+
+    when:
+    DDSpan span = tracer.buildSpan("fakeOperation")
+      .withServiceName(service)
+      .withTag("env", env)
+      .ignoreActiveSpan().start()
+    serviceSampler.setSamplingPriority(span)
+
+    then:
+    span.getTag(RateByServiceSampler.SAMPLING_AGENT_RATE) == expectedRate
+
+    cleanup:
+    tracer.close()
+
+    where:
+    service      | env     | expectedRate
+    "service-0"  | "env-0" | 0.0
+    "service-1"  | "env-1" | 0.01
+    "service-17" | "env-2" | 0.17
+    "service-39" | "env-0" | 0.39
+    "service-39" | "env-1" | 1.0
+    "service-40" | "env-1" | 1.0
+    "service-1"  | ""      | 1.0
+  }
+
+  def "env and service follow the span"() {
+    setup:
+    def tracer = tracerBuilder().writer(new ListWriter()).build()
+    DDSpan span = tracer.buildSpan("fakeOperation")
+      .withServiceName("spock")
+      .withTag("env", "test")
+      .ignoreActiveSpan().start()
+    DDSpan other = tracer.buildSpan("fakeOperation")
+      .withServiceName("spock")
+      .withTag("env", "test")
+      .ignoreActiveSpan().start()
+
+    expect: 'interned'
+    span.envAndService.env == "test"
+    span.envAndService.service == "spock"
+    span.envAndService.is(other.envAndService)
+
+    when:
+    span.setTag("env", "prod")
+
+    then:
+    span.envAndService == EnvAndService.fromString("service:spock,env:prod")
+
+    when:
+    span.setServiceName("other")
+
+    then:
+    span.envAndService == EnvAndService.fromString("service:other,env:prod")
+
+    when:
+    span.removeTag("env")
+
+    then:
+    span.envAndService == EnvAndService.fromString("service:other,env:")
+
+    when:
+    span.setTag("env", "prod")
+    span.context().unsafeSetTag("env", null)
+
+    then:
+    span.getTag("env") == null
+    span.envAndService == EnvAndService.fromString("service:other,env:")
+
+    cleanup:
+    tracer.close()
+  }
+
   def "sampling priority set on context"() {
     setup:
     RateByServiceSampler serviceSampler = new RateByServiceSampler()
@@ -80,18 +80,18 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     null              | "xx:1"              | null        | "50"      | null             | null              | 1.0               | SAMPLER_KEEP
 
     // Matching neither with default rate
-    null              | null                | "1"         | "50"      | 1.0              | 50                | null              | USER_KEEP
+    null              | null                | "1"         | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     null              | null                | "0"         | "50"      | 0                | null              | null              | USER_DROP
-    "xx:1"            | null                | "1"         | "50"      | 1.0              | 50                | null              | USER_KEEP
-    null              | "xx:1"              | "1"         | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "xx:1"            | null                | "1"         | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    null              | "xx:1"              | "1"         | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     "xx:1"            | null                | "0"         | "50"      | 0                | null              | null              | USER_DROP
     null              | "xx:1"              | "0"         | "50"      | 0                | null              | null              | USER_DROP
 
     // Matching service: keep
-    "service:1"       | null                | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    "s.*:1"           | null                | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    ".*e:1"           | null                | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    "[a-z]+:1"        | null                | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "service:1"       | null                | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    "s.*:1"           | null                | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    ".*e:1"           | null                | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    "[a-z]+:1"        | null                | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
 
     // Matching service: drop
     "service:0"       | null                | null        | "50"      | 0                | null              | null              | USER_DROP
@@ -100,18 +100,18 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     "[a-z]+:0"        | null                | null        | "50"      | 0                | null              | null              | USER_DROP
 
     // Matching service overrides default rate
-    "service:1"       | null                | "0"         | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "service:1"       | null                | "0"         | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     "service:0"       | null                | "1"         | "50"      | 0                | null              | null              | USER_DROP
 
     // multiple services
-    "xxx:0,service:1" | null                | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "xxx:0,service:1" | null                | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     "xxx:1,service:0" | null                | null        | "50"      | 0                | null              | null              | USER_DROP
 
     // Matching operation : keep
-    null              | "operation:1"       | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    null              | "o.*:1"             | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    null              | ".*n:1"             | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    null              | "[a-z]+:1"          | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    null              | "operation:1"       | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    null              | "o.*:1"             | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    null              | ".*n:1"             | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    null              | "[a-z]+:1"          | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
 
     // Matching operation: drop
     null              | "operation:0"       | null        | "50"      | 0                | null              | null              | USER_DROP
@@ -120,19 +120,19 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     null              | "[a-z]+:0"          | null        | "50"      | 0                | null              | null              | USER_DROP
 
     // Matching operation overrides default rate
-    null              | "operation:1"       | "0"         | "50"      | 1.0              | 50                | null              | USER_KEEP
+    null              | "operation:1"       | "0"         | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     null              | "operation:0"       | "1"         | "50"      | 0                | null              | null              | USER_DROP
 
     // multiple operation combinations
-    null              | "xxx:0,operation:1" | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    null              | "xxx:0,operation:1" | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     null              | "xxx:1,operation:0" | null        | "50"      | 0                | null              | null              | USER_DROP
 
     // Service and operation name combinations
-    "service:1"       | "operation:0"       | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
-    "service:1"       | "xxx:0"             | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "service:1"       | "operation:0"       | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
+    "service:1"       | "xxx:0"             | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     "service:0"       | "operation:1"       | null        | "50"      | 0                | null              | null              | USER_DROP
     "service:0"       | "xxx:1"             | null        | "50"      | 0                | null              | null              | USER_DROP
-    "xxx:0"           | "operation:1"       | null        | "50"      | 1.0              | 50                | null              | USER_KEEP
+    "xxx:0"           | "operation:1"       | null        | "50"      | 1.0              | 1.0               | null              | USER_KEEP
     "xxx:1"           | "operation:0"       | null        | "50"      | 0                | null              | null              | USER_DROP
 
     // There are no tests for ordering within service or operation rules because the rule order in that case is unspecified
@@ -169,7 +169,8 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     span1.getSamplingPriority() == USER_KEEP
 
     span2.getTag(RuleBasedSampler.SAMPLING_RULE_RATE) == 1.0
-    span2.getTag(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 1.0
+    // one of the two traces was let through
+    span2.getTag(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 0.5
     span2.getTag(RateByServiceSampler.SAMPLING_AGENT_RATE) == null
     span2.getSamplingPriority() == USER_DROP
 
@@ -207,7 +208,8 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     span1.getSamplingPriority() == USER_KEEP
 
     span2.getTag(RuleBasedSampler.SAMPLING_RULE_RATE) == 1.0
-    span2.getTag(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 1.0
+    // one of the two traces was let through
+    span2.getTag(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 0.5
     span2.getTag(RateByServiceSampler.SAMPLING_AGENT_RATE) == null
     span2.getSamplingPriority() == USER_DROP
 
@@ -17,8 +17,10 @@ import datadog.trace.core.monitor.MonitoringImpl
 import datadog.trace.test.util.DDSpecification
 import spock.lang.Shared
 import spock.lang.Timeout
+import spock.util.concurrent.PollingConditions
 
 import java.nio.ByteBuffer
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -145,6 +147,48 @@ class PayloadDispatcherTest extends DDSpecification {
     newPayload.droppedTraces() == 0
   }
 
+  def "sharded dispatchers hand over detached payloads to the sender"() {
+    setup:
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery) {
+      it.getTraceEndpoint() >> traceEndpoint
+    }
+    List<Payload> sent = new CopyOnWriteArrayList<>()
+    DDAgentApi api = Mock(DDAgentApi) {
+      it.sendSerializedTraces(_) >> { Payload payload ->
+        sent.add(payload)
+        return RemoteApi.Response.success(200)
+      }
+    }
+    PayloadSender sender = new PayloadSender(api, healthMetrics, 4)
+    PayloadDispatcher dispatcher = new PayloadDispatcher(new DDAgentMapperDiscovery(discovery), api, healthMetrics, monitoring, sender)
+    PayloadDispatcher shard = dispatcher.newShard(new DDAgentMapperDiscovery(discovery))
+    sender.start()
+    def conditions = new PollingConditions(timeout: 5)
+
+    when:
+    dispatcher.onDroppedTrace(3)
+    dispatcher.addTrace([realSpan()])
+    shard.addTrace([realSpan()])
+    shard.addTrace([realSpan()])
+    shard.flush()
+    dispatcher.flush()
+
+    then:
+    conditions.eventually {
+      assert sent.size() == 2
+    }
+    sent*.traceCount() == [2, 1]
+    sent[0].droppedTraces() == 1
+    sent[0].droppedSpans() == 3
+    sent[1].droppedTraces() == 0
+
+    cleanup:
+    sender.close()
+
+    where:
+    traceEndpoint << ["v0.5/traces", "v0.4/traces"]
+  }
 
   def realSpan() {
     CoreTracer tracer = Mock(CoreTracer)
@@ -0,0 +1,100 @@
+package datadog.trace.common.writer
+
+import datadog.trace.common.writer.ddagent.FlushEvent
+import datadog.trace.common.writer.ddagent.TraceMapperV0_4
+import datadog.trace.core.monitor.HealthMetrics
+import datadog.trace.test.util.DDSpecification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class PayloadSenderTest extends DDSpecification {
+
+  def conditions = new PollingConditions(timeout: 5)
+
+  def "sends up to the configured number of payloads concurrently"() {
+    setup:
+    CountDownLatch release = new CountDownLatch(1)
+    AtomicInteger inFlight = new AtomicInteger()
+    AtomicInteger sent = new AtomicInteger()
+    AtomicInteger reported = new AtomicInteger()
+    HealthMetrics healthMetrics = Stub(HealthMetrics) {
+      onSend(1, _, _) >> {
+        reported.incrementAndGet()
+      }
+    }
+    RemoteApi api = Stub(RemoteApi) {
+      sendSerializedTraces(_) >> {
+        inFlight.incrementAndGet()
+        release.await()
+        sent.incrementAndGet()
+        return RemoteApi.Response.success(200)
+      }
+    }
+    PayloadSender sender = new PayloadSender(api, healthMetrics, 8, maxInFlight)
+    sender.start()
+    CountDownLatch flushed = new CountDownLatch(1)
+
+    when:
+    (maxInFlight + 1).times {
+      sender.send(payload())
+    }
+    sender.sync(new FlushEvent(flushed))
+
+    then: "the window is full and the flush waits for the requests"
+    conditions.eventually {
+      assert inFlight.get() == maxInFlight
+    }
+    !flushed.await(100, TimeUnit.MILLISECONDS)
+
+    when:
+    release.countDown()
+
+    then: "all payloads are sent before the flush completes"
+    flushed.await(5, TimeUnit.SECONDS)
+    sent.get() == maxInFlight + 1
+    reported.get() == maxInFlight + 1
+
+    cleanup:
+    sender.close()
+
+    where:
+    maxInFlight << [1, 4]
+  }
+
+  def "reports failed sends"() {
+    setup:
+    AtomicInteger reported = new AtomicInteger()
+    HealthMetrics healthMetrics = Stub(HealthMetrics) {
+      onFailedSend(1, _, { !it.success() }) >> {
+        reported.incrementAndGet()
+      }
+    }
+    RemoteApi api = Stub(RemoteApi) {
+      sendSerializedTraces(_) >> {
+        throw new IllegalStateException("thrown by test")
+      }
+    }
+    PayloadSender sender = new PayloadSender(api, healthMetrics, 8, 2)
+    sender.start()
+    CountDownLatch flushed = new CountDownLatch(1)
+
+    when:
+    sender.send(payload())
+    sender.sync(new FlushEvent(flushed))
+
+    then:
+    flushed.await(5, TimeUnit.SECONDS)
+    reported.get() == 1
+
+    cleanup:
+    sender.close()
+  }
+
+  def payload() {
+    return new TraceMapperV0_4().newPayload().withBody(1, ByteBuffer.allocate(0))
+  }
+}
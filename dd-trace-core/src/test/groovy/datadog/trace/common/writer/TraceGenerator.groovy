@@ -5,6 +5,7 @@ import datadog.trace.api.DDTags
 import datadog.trace.api.IdGenerationStrategy
 import datadog.trace.api.sampling.PrioritySampling
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.common.sampling.EnvAndService
 import datadog.trace.core.CoreSpan
 import datadog.trace.core.Metadata
 import datadog.trace.core.MetadataConsumer
@@ -166,7 +167,7 @@ class TraceGenerator {
       this.samplingPriority = samplingPriority
       this.metadata = new Metadata(Thread.currentThread().getId(),
         UTF8BytesString.create(Thread.currentThread().getName()), tags, baggage, samplingPriority, measured, topLevel,
-        statusCode == 0 ? null : UTF8BytesString.create(Integer.toString(statusCode)), origin)
+        statusCode == 0 ? null : UTF8BytesString.create(Integer.toString(statusCode)), origin, 0)
       this.httpStatusCode = (short) statusCode
     }
 
@@ -180,6 +181,11 @@ class TraceGenerator {
       return serviceName
     }
 
+    @Override
+    EnvAndService getEnvAndService() {
+      return EnvAndService.of(String.valueOf(getTag("env", "")), serviceName)
+    }
+
     @Override
     CharSequence getOperationName() {
       return operationName
@@ -1,5 +1,6 @@
 package datadog.trace.common.writer
 
+import datadog.trace.api.DDId
 import datadog.trace.api.StatsDClient
 import datadog.trace.core.DDSpan
 import datadog.trace.core.monitor.HealthMetrics
@@ -95,14 +96,14 @@ class TraceProcessingWorkerTest extends DDSpecification {
     when: "there is pending work it is completed before a flush"
     // processing this span will throw an exception, but it should be caught
     // and not disrupt the flush
-    worker.primaryQueue.offer([Mock(DDSpan)])
+    worker.shards[0].primaryQueue.offer([Mock(DDSpan)])
     worker.start()
     boolean flushed = worker.flush(10, TimeUnit.SECONDS)
 
     then: "the flush succeeds, triggers a dispatch, and the queue is empty"
     flushed
     flushCount.get() == 1
-    worker.primaryQueue.isEmpty()
+    worker.shards[0].primaryQueue.isEmpty()
 
     cleanup:
     worker.close()
@@ -203,6 +204,40 @@ class TraceProcessingWorkerTest extends DDSpecification {
 
   }
 
+  def "traces are routed to a shard by trace id"() {
+    setup:
+    AtomicInteger[] acceptedCounts = [new AtomicInteger(), new AtomicInteger()]
+    PayloadDispatcher[] dispatchers = (0..1).collect { int shard ->
+      PayloadDispatcher dispatcher = Mock(PayloadDispatcher)
+      dispatcher.addTrace(_) >> {
+        acceptedCounts[shard].incrementAndGet()
+      }
+      return dispatcher
+    }
+    TraceProcessingWorker worker = new TraceProcessingWorker(10, Stub(HealthMetrics),
+      dispatchers, null, {
+        false
+      }, FAST_LANE, 100, TimeUnit.SECONDS)
+    worker.start()
+
+    when:
+    for (long traceId : [1, 2, 3, 5, 7]) {
+      DDSpan root = Stub(DDSpan) {
+        getTraceId() >> DDId.from(traceId)
+      }
+      worker.publish(root, SAMPLER_KEEP, [root])
+    }
+    boolean flushed = worker.flush(10, TimeUnit.SECONDS)
+
+    then: "a flush completes once every shard has been flushed"
+    flushed
+    acceptedCounts[0].get() == 1
+    acceptedCounts[1].get() == 4
+
+    cleanup:
+    worker.close()
+  }
+
   def "flush of full queue after worker thread stopped will not flush but will return"() {
     setup:
     PayloadDispatcher countingDispatcher = Mock(PayloadDispatcher)
@@ -214,7 +249,7 @@ class TraceProcessingWorkerTest extends DDSpecification {
     worker.start()
     worker.close()
     int queueSize = 0
-    while (worker.primaryQueue.offer([Mock(DDSpan)])) {
+    while (worker.shards[0].primaryQueue.offer([Mock(DDSpan)])) {
       queueSize++
     }
 
@@ -128,6 +128,27 @@ class TraceMapperV05PayloadTest extends DDSpecification {
     100 << 10  | 100 << 10      | 1000       | false
   }
 
+  def "cached strings are added to the dictionary of each payload"() {
+    setup:
+    List<List<TraceGenerator.PojoSpan>> traces = generateRandomTraces(10, true)
+    List<List<TraceGenerator.PojoSpan>> expectedTraces = new ArrayList<>(traces)
+    expectedTraces.addAll(traces)
+    TraceMapperV0_5 traceMapper = new TraceMapperV0_5(10 << 10)
+    PayloadVerifier verifier = new PayloadVerifier(expectedTraces, traceMapper)
+    MsgPackWriter packer = new MsgPackWriter(new FlushingBuffer(100 << 10, verifier))
+
+    when:
+    for (int i = 0; i < 2; ++i) {
+      for (List<TraceGenerator.PojoSpan> trace : traces) {
+        packer.format(trace, traceMapper)
+      }
+      packer.flush()
+    }
+
+    then:
+    verifier.verifyTracesConsumed()
+  }
+
   private static final class PayloadVerifier implements ByteBufferConsumer, WritableByteChannel {
 
     private final List<List<TraceGenerator.PojoSpan>> expectedTraces
@@ -328,6 +328,56 @@ class CoreSpanBuilderTest extends DDCoreSpecification {
     new ExtractedContext(DDId.from(3), DDId.from(4), PrioritySampling.SAMPLER_KEEP, SamplingMechanism.DEFAULT, "some-origin", 0, ["asdf": "qwer"], [(ORIGIN_KEY): "some-origin", "zxcv": "1234"]) | _
   }
 
+  def "128 bit trace ids are propagated from the ExtractedContext and the parent span"() {
+    setup:
+    def extractedContext = new ExtractedContext(DDId.ONE, traceIdHigh, traceIdHigh != 0, DDId.from(2), PrioritySampling.UNSET, SamplingMechanism.UNKNOWN, null, 0, [:], [:])
+    final DDSpan span = tracer.buildSpan("op name").asChildOf(extractedContext).start()
+    final DDSpan child = tracer.buildSpan("child").asChildOf(span).start()
+
+    expect:
+    span.context().traceIdHigh == traceIdHigh
+    child.context().traceIdHigh == traceIdHigh
+    child.context().traceId128
+    child.context().hexTraceId == expectedHexTraceId
+
+    cleanup:
+    child.finish()
+    span.finish()
+
+    where:
+    traceIdHigh | expectedHexTraceId
+    42          | "000000000000002a0000000000000001"
+    0           | "00000000000000000000000000000001"
+  }
+
+  def "new traces get 128 bit trace ids when enabled"() {
+    setup:
+    injectSysConfig("dd.trace.128.bit.traceid.generation.enabled", "true")
+    def customTracer = tracerBuilder().writer(writer).build()
+    def before = System.currentTimeMillis().intdiv(1000)
+    final DDSpan span = customTracer.buildSpan("op name").start()
+
+    expect:
+    (span.context().traceIdHigh >>> 32) >= before
+    (span.context().traceIdHigh >>> 32) <= System.currentTimeMillis().intdiv(1000)
+    span.context().hexTraceId.length() == 32
+
+    cleanup:
+    span.finish()
+    customTracer.close()
+  }
+
+  def "new traces get 64 bit trace ids by default"() {
+    setup:
+    final DDSpan span = tracer.buildSpan("op name").start()
+
+    expect:
+    span.context().traceIdHigh == 0
+
+    cleanup:
+    span.finish()
+  }
+
   def "TagContext should populate default span details"() {
     setup:
     def thread = Thread.currentThread()
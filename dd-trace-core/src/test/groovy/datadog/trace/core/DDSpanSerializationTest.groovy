@@ -84,7 +84,7 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     packer.format(Collections.singletonList(span), traceMapper)
     packer.flush()
     def dictionaryUnpacker = MessagePack.newDefaultUnpacker(traceMapper.dictionary.slice())
-    String[] dictionary = new String[traceMapper.encoding.size()]
+    String[] dictionary = new String[traceMapper.dictionary.messageCount()]
     for (int i = 0; i < dictionary.length; ++i) {
       dictionary[i] = dictionaryUnpacker.unpackString()
     }
@@ -134,6 +134,8 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     def tracer = tracerBuilder().writer(writer).build()
     def context = new DDSpanContext(
       DDId.ONE,
+      traceIdHigh,
+      traceIdHigh != 0,
       DDId.ONE,
       DDId.ZERO,
       null,
@@ -191,11 +193,13 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     tracer.close()
 
     where:
-    baggage       | tags          | expected
-    [:]           | [:]           | [:]
-    [foo: "bbar"] | [:]           | [foo: "bbar"]
-    [foo: "bbar"] | [bar: "tfoo"] | [foo: "bbar", bar: "tfoo"]
-    [foo: "bbar"] | [foo: "tbar"] | [foo: "tbar"]
+    baggage       | tags          | traceIdHigh         | expected
+    [:]           | [:]           | 0                   | [:]
+    [foo: "bbar"] | [:]           | 0                   | [foo: "bbar"]
+    [foo: "bbar"] | [bar: "tfoo"] | 0                   | [foo: "bbar", bar: "tfoo"]
+    [foo: "bbar"] | [foo: "tbar"] | 0                   | [foo: "tbar"]
+    [:]           | [:]           | 1                   | ["_dd.p.tid": "0000000000000001"]
+    [foo: "bbar"] | [:]           | 0x6305ab6a00000001L | [foo: "bbar", "_dd.p.tid": "6305ab6a00000001"]
   }
 
   def "serialize trace with baggage and tags correctly v0.5"() {
@@ -204,6 +208,8 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     def tracer = tracerBuilder().writer(writer).build()
     def context = new DDSpanContext(
       DDId.ONE,
+      traceIdHigh,
+      traceIdHigh != 0,
       DDId.ONE,
       DDId.ZERO,
       null,
@@ -233,7 +239,7 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     int spanCount = unpacker.unpackArrayHeader()
     int size = unpacker.unpackArrayHeader()
     def dictionaryUnpacker = MessagePack.newDefaultUnpacker(mapper.dictionary.slice())
-    String[] dictionary = new String[mapper.encoding.size()]
+    String[] dictionary = new String[mapper.dictionary.messageCount()]
     for (int i = 0; i < dictionary.length; ++i) {
       dictionary[i] = dictionaryUnpacker.unpackString()
     }
@@ -261,11 +267,13 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     tracer.close()
 
     where:
-    baggage       | tags          | expected
-    [:]           | [:]           | [:]
-    [foo: "bbar"] | [:]           | [foo: "bbar"]
-    [foo: "bbar"] | [bar: "tfoo"] | [foo: "bbar", bar: "tfoo"]
-    [foo: "bbar"] | [foo: "tbar"] | [foo: "tbar"]
+    baggage       | tags          | traceIdHigh         | expected
+    [:]           | [:]           | 0                   | [:]
+    [foo: "bbar"] | [:]           | 0                   | [foo: "bbar"]
+    [foo: "bbar"] | [bar: "tfoo"] | 0                   | [foo: "bbar", bar: "tfoo"]
+    [foo: "bbar"] | [foo: "tbar"] | 0                   | [foo: "tbar"]
+    [:]           | [:]           | 1                   | ["_dd.p.tid": "0000000000000001"]
+    [foo: "bbar"] | [:]           | 0x6305ab6a00000001L | [foo: "bbar", "_dd.p.tid": "6305ab6a00000001"]
   }
 
   private class CaptureBuffer implements ByteBufferConsumer {
@@ -461,4 +461,29 @@ class DDSpanTest extends DDCoreSpecification {
     child.@emittingCheckpoints == 0 // but no value is stored in the field
     child.getTag(DDSpan.CHECKPOINTED_TAG) == null // child span does not get the tag set
   }
+
+  def "local root span is only recycled once its trace has completed"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    root.setTag("http.route", "/users")
+    root.finish()
+
+    when:
+    root.recycle()
+    child.localRootSpan.setTag("usr.id", "42")
+
+    then:
+    root.getTag("http.route") == "/users"
+    root.getTag("usr.id") == "42"
+
+    when:
+    child.finish()
+    writer.waitForTraces(1)
+    root.recycle()
+    root.getTag("http.route")
+
+    then:
+    thrown(IllegalStateException)
+  }
 }
@@ -6,6 +6,7 @@ import datadog.trace.api.DDId
 import datadog.trace.api.StatsDClient
 import datadog.trace.api.sampling.PrioritySampling
 import datadog.trace.api.sampling.SamplingMechanism
+import datadog.trace.api.time.ControllableTimeSource
 import datadog.trace.api.time.SystemTimeSource
 import datadog.trace.bootstrap.instrumentation.api.AgentTracer.NoopPathwayContext
 import datadog.trace.bootstrap.instrumentation.api.ScopeSource
@@ -19,8 +20,7 @@ import spock.util.concurrent.PollingConditions
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
-
-import static datadog.trace.core.PendingTraceBuffer.BUFFER_SIZE
+import java.util.concurrent.atomic.AtomicLong
 
 @Timeout(5)
 class PendingTraceBufferTest extends DDSpecification {
@@ -169,7 +169,7 @@ class PendingTraceBufferTest extends DDSpecification {
     }
 
     then:
-    buffer.queue.size() == BUFFER_SIZE
+    buffer.queue.size() == buffer.queue.capacity()
     buffer.queue.capacity() * bufferSpy.enqueue(_)
     _ * tracer.getPartialFlushMinSpans() >> 10
     _ * tracer.mapServiceName(_)
@@ -305,8 +305,8 @@ class PendingTraceBufferTest extends DDSpecification {
         }
 
         @Override
-        boolean lastReferencedNanosAgo(long nanos) {
-          return false
+        long lastReferenced() {
+          return System.nanoTime()
         }
 
         @Override
@@ -387,6 +387,135 @@ class PendingTraceBufferTest extends DDSpecification {
     }
   }
 
+  def "trace is written once it has not been referenced for the send delay"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def delayingBuffer = PendingTraceBuffer.delaying(timeSource)
+    def lastReferenced = new AtomicLong(0)
+    def counter = new AtomicInteger(0)
+    def element = new PendingTraceBuffer.Element() {
+        @Override
+        long oldestFinishedTime() {
+          return Long.MAX_VALUE
+        }
+
+        @Override
+        long lastReferenced() {
+          return lastReferenced.get()
+        }
+
+        @Override
+        void write() {
+          counter.incrementAndGet()
+        }
+
+        @Override
+        DDSpan getRootSpan() {
+          return null
+        }
+
+        @Override
+        boolean setEnqueued(boolean enqueued) {
+          return true
+        }
+      }
+    delayingBuffer.start()
+
+    when:
+    delayingBuffer.enqueue(element)
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(400))
+    Thread.sleep(200)
+
+    then:
+    counter.get() == 0
+
+    when: "the trace is referenced again before its deadline"
+    lastReferenced.set(timeSource.getNanoTicks())
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(200))
+    Thread.sleep(200)
+
+    then:
+    counter.get() == 0
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(400))
+
+    then:
+    new PollingConditions(timeout: 2, initialDelay: 0, delay: 0.1, factor: 1).eventually {
+      assert counter.get() == 1
+    }
+
+    cleanup:
+    delayingBuffer.close()
+  }
+
+  def "trace is written once its oldest span finished long enough ago"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def delayingBuffer = PendingTraceBuffer.delaying(timeSource)
+    def counter = new AtomicInteger(0)
+    def element = new PendingTraceBuffer.Element() {
+        @Override
+        long oldestFinishedTime() {
+          return 0
+        }
+
+        @Override
+        long lastReferenced() {
+          // the trace keeps being referenced
+          return timeSource.getNanoTicks()
+        }
+
+        @Override
+        void write() {
+          counter.incrementAndGet()
+        }
+
+        @Override
+        DDSpan getRootSpan() {
+          return null
+        }
+
+        @Override
+        boolean setEnqueued(boolean enqueued) {
+          return true
+        }
+      }
+    delayingBuffer.start()
+
+    when:
+    delayingBuffer.enqueue(element)
+    timeSource.advance(TimeUnit.SECONDS.toNanos(4))
+    Thread.sleep(200)
+
+    then:
+    counter.get() == 0
+
+    when:
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+
+    then:
+    new PollingConditions(timeout: 2, initialDelay: 0, delay: 0.1, factor: 1).eventually {
+      assert counter.get() == 1
+    }
+
+    cleanup:
+    delayingBuffer.close()
+  }
+
+  def "buffer size scales with the heap"() {
+    expect:
+    PendingTraceBuffer.bufferSizeFor(maxMemory) == bufferSize
+
+    where:
+    maxMemory           | bufferSize
+    64L << 20           | 1024
+    1L << 30            | 4096
+    3L << 30            | 8192
+    64L << 30           | 32768
+    Long.MAX_VALUE      | 4096
+  }
+
   def addContinuation(DDSpan span) {
     def scope = scopeManager.activate(span, ScopeSource.INSTRUMENTATION, true)
     continuations << scope.capture()
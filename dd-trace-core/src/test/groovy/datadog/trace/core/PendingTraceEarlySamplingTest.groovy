@@ -0,0 +1,216 @@
+package datadog.trace.core
+
+import datadog.communication.ddagent.DDAgentFeaturesDiscovery
+import datadog.communication.ddagent.SharedCommunicationObjects
+import datadog.trace.api.interceptor.MutableSpan
+import datadog.trace.api.interceptor.TraceInterceptor
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.api.sampling.SamplingMechanism
+import datadog.trace.common.metrics.MetricsAggregator
+import datadog.trace.common.sampling.ForcePrioritySampler
+import datadog.trace.common.writer.Writer
+import datadog.trace.core.test.DDCoreSpecification
+
+class PendingTraceEarlySamplingTest extends DDCoreSpecification {
+
+  def writer = Mock(Writer)
+  def features = Stub(DDAgentFeaturesDiscovery) {
+    active() >> true
+  }
+
+  def tracerWithPriority(int priority, boolean earlySampling = true) {
+    def sharedCommunicationObjects = new SharedCommunicationObjects()
+    sharedCommunicationObjects.featuresDiscovery = features
+    return tracerBuilder()
+      .writer(writer)
+      .sharedCommunicationObjects(sharedCommunicationObjects)
+      .sampler(new ForcePrioritySampler<DDSpan>(priority, SamplingMechanism.DEFAULT))
+      .earlySampling(earlySampling)
+      .build()
+  }
+
+  def "dropped trace is kept apart and only counted"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP)
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    PendingTrace trace = root.context().trace
+
+    then:
+    root.context().samplingPriority == PrioritySampling.SAMPLER_DROP
+    trace.sampledOut
+
+    when:
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.finish()
+
+    then:
+    trace.finishedSpans.isEmpty()
+    trace.sampledOutSpans.asList() == [child]
+    0 * writer._
+
+    when:
+    root.finish()
+
+    then:
+    1 * writer.incrementDropCounts(2)
+    0 * writer.write(_)
+    trace.finishedSpans.isEmpty()
+    trace.sampledOutSpans.isEmpty()
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "dropped trace is written when the metrics aggregator needs it"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP)
+    def aggregator = Mock(MetricsAggregator)
+    def field = CoreTracer.getDeclaredField("metricsAggregator")
+    field.setAccessible(true)
+    field.set(tracer, aggregator)
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.finish()
+    root.finish()
+
+    then:
+    1 * aggregator.publish([root, child]) >> true
+    1 * writer.write([root, child])
+    0 * writer.incrementDropCounts(_)
+    root.isForceKeep()
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "dropped spans are published in bounded chunks"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP)
+    def aggregator = Mock(MetricsAggregator)
+    def field = CoreTracer.getDeclaredField("metricsAggregator")
+    field.setAccessible(true)
+    field.set(tracer, aggregator)
+    DDSpan root = tracer.buildSpan("root").start()
+    PendingTrace trace = root.context().trace
+
+    when:
+    PendingTrace.SAMPLED_OUT_CHUNK_SIZE.times {
+      tracer.buildSpan("child").asChildOf(root).start().finish()
+    }
+
+    then:
+    1 * aggregator.publish({ it.size() == PendingTrace.SAMPLED_OUT_CHUNK_SIZE }) >> false
+    1 * writer.incrementDropCounts(PendingTrace.SAMPLED_OUT_CHUNK_SIZE)
+    trace.sampledOutSpans.isEmpty()
+
+    when:
+    root.finish()
+
+    then:
+    1 * aggregator.publish([root]) >> false
+    1 * writer.incrementDropCounts(1)
+    0 * writer.write(_)
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "dropped trace kept by the metrics aggregator goes through the interceptors"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP)
+    def aggregator = Mock(MetricsAggregator)
+    def field = CoreTracer.getDeclaredField("metricsAggregator")
+    field.setAccessible(true)
+    field.set(tracer, aggregator)
+    tracer.interceptors.add(new TraceInterceptor() {
+        @Override
+        Collection<? extends MutableSpan> onTraceComplete(Collection<? extends MutableSpan> spans) {
+          return spans.findAll { it.operationName != "secret" }
+        }
+
+        @Override
+        int priority() {
+          return 1
+        }
+      })
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("secret").asChildOf(root).start()
+    child.finish()
+    root.finish()
+
+    then:
+    1 * aggregator.publish([root, child]) >> true
+    1 * writer.write([root])
+    0 * aggregator.publish(_)
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "kept trace is written as usual"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_KEEP)
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.finish()
+    root.finish()
+
+    then:
+    !root.context().trace.sampledOut
+    1 * writer.write([root, child])
+    0 * writer.incrementDropCounts(_)
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "spans finishing after a manual keep are buffered"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP)
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    root.context().forceKeep()
+    child.finish()
+    root.finish()
+
+    then:
+    1 * writer.write([root, child])
+    0 * writer.incrementDropCounts(_)
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "dropped trace is buffered when early sampling is disabled"() {
+    setup:
+    def tracer = tracerWithPriority(PrioritySampling.SAMPLER_DROP, false)
+
+    when:
+    DDSpan root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.finish()
+
+    then:
+    !root.context().trace.sampledOut
+    root.context().trace.finishedSpans.asList() == [child]
+
+    when:
+    root.finish()
+
+    then:
+    1 * writer.write([root, child])
+
+    cleanup:
+    tracer.close()
+  }
+}
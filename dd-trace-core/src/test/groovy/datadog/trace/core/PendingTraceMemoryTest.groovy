@@ -0,0 +1,115 @@
+package datadog.trace.core
+
+import datadog.trace.test.util.DDSpecification
+
+class PendingTraceMemoryTest extends DDSpecification {
+
+  static final long BUDGET = 256 << 10
+
+  def memory = new PendingTraceMemory(BUDGET)
+
+  def "budget is scaled to the heap"() {
+    expect:
+    PendingTraceMemory.budgetFor(maxMemory) == budget
+
+    where:
+    maxMemory      | budget
+    0              | 16 << 20
+    Long.MAX_VALUE | 16 << 20
+    64 << 20       | 4 << 20
+    1L << 30       | 32 << 20
+    4L << 30       | 128 << 20
+    64L << 30      | 256 << 20
+  }
+
+  def "largest traces are flushed first when over the budget"() {
+    setup:
+    def large = traceRetaining(100_000)
+    def larger = traceRetaining(150_000)
+    def small = traceRetaining(1000)
+
+    when:
+    memory.onBuffered(large, 100_000, 100_000)
+    memory.onBuffered(larger, 150_000, 150_000)
+
+    then:
+    memory.retainedSize == 250_000
+    0 * _.flushRetainedSpans()
+
+    when:
+    memory.onBuffered(small, 20_000, 20_000)
+
+    then:
+    1 * larger.flushRetainedSpans() >> { memory.onWritten(larger, 0, 150_000) }
+    0 * large.flushRetainedSpans()
+    0 * small.flushRetainedSpans()
+    memory.retainedSize == 120_000
+  }
+
+  def "written traces are no longer flushed"() {
+    setup:
+    def large = traceRetaining(100_000)
+    def other = traceRetaining(100_000)
+
+    when:
+    memory.onBuffered(large, 100_000, 100_000)
+    memory.onWritten(large, 0, 100_000)
+    memory.onBuffered(other, 300_000, 300_000)
+
+    then:
+    1 * other.flushRetainedSpans() >> { memory.onWritten(other, 0, 300_000) }
+    0 * large.flushRetainedSpans()
+    memory.retainedSize == 0
+  }
+
+  def "budget shrinks when the heap stays full after collections"() {
+    when:
+    memory.onGarbageCollection(0.9)
+
+    then:
+    memory.budget == BUDGET / 2
+
+    when:
+    5.times { memory.onGarbageCollection(0.9) }
+
+    then:
+    memory.budget == BUDGET / 8
+
+    when:
+    memory.onGarbageCollection(0.6)
+
+    then:
+    memory.budget == BUDGET / 8
+
+    when:
+    5.times { memory.onGarbageCollection(0.3) }
+
+    then:
+    memory.budget == BUDGET
+  }
+
+  def "traces are flushed sooner once the heap is under pressure"() {
+    setup:
+    def large = traceRetaining(100_000)
+
+    when:
+    memory.onBuffered(large, 100_000, 100_000)
+
+    then:
+    0 * large.flushRetainedSpans()
+
+    when:
+    2.times { memory.onGarbageCollection(0.9) }
+    memory.onBuffered(large, 100_100, 100)
+
+    then:
+    1 * large.flushRetainedSpans() >> { memory.onWritten(large, 0, 100_100) }
+    memory.retainedSize == 0
+  }
+
+  def traceRetaining(long retainedSize) {
+    return Mock(PendingTrace) {
+      getRetainedSize() >> retainedSize
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package datadog.trace.core
+
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.core.test.DDCoreSpecification
+
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_CHUNK_SIZE
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_ENABLED
+import static datadog.trace.api.sampling.PrioritySampling.UNSET
+
+class PendingTraceStreamingTest extends DDCoreSpecification {
+
+  def writer = new ListWriter()
+  CoreTracer tracer
+
+  def setup() {
+    injectSysConfig(SPAN_STREAMING_ENABLED, "true")
+    injectSysConfig(SPAN_STREAMING_CHUNK_SIZE, "2")
+    tracer = tracerBuilder().writer(writer).build()
+  }
+
+  def cleanup() {
+    tracer?.close()
+  }
+
+  def "streaming is configured"() {
+    expect:
+    tracer.spanStreamingChunkSize == 2
+  }
+
+  def "streaming is disabled by default"() {
+    setup:
+    injectSysConfig(SPAN_STREAMING_ENABLED, "false")
+    def defaultTracer = tracerBuilder().writer(writer).build()
+
+    expect:
+    defaultTracer.spanStreamingChunkSize == 0
+
+    cleanup:
+    defaultTracer.close()
+  }
+
+  def "finished spans are written in chunks before the root span finishes"() {
+    setup:
+    def rootSpan = tracer.buildSpan("root").start()
+    def trace = rootSpan.context().trace
+    def child1 = tracer.buildSpan("child1").asChildOf(rootSpan).start()
+    def child2 = tracer.buildSpan("child2").asChildOf(rootSpan).start()
+    def child3 = tracer.buildSpan("child3").asChildOf(rootSpan).start()
+
+    when:
+    child1.finish()
+
+    then:
+    trace.finishedSpans.asList() == [child1]
+    writer.traceCount.get() == 0
+
+    when:
+    child2.finish()
+    writer.waitForTraces(1)
+
+    then:
+    trace.pendingReferenceCount == 2
+    trace.finishedSpans.isEmpty()
+    writer.size() == 1
+    writer[0].toSet() == [child1, child2].toSet()
+
+    when:
+    child3.finish()
+
+    then:
+    trace.finishedSpans.asList() == [child3]
+    writer.size() == 1
+
+    when:
+    rootSpan.finish()
+    writer.waitForTraces(2)
+
+    then:
+    trace.pendingReferenceCount == 0
+    trace.finishedSpans.isEmpty()
+    writer.size() == 2
+    writer[1].toSet() == [rootSpan, child3].toSet()
+  }
+
+  def "spans finishing after the root span are still written"() {
+    setup:
+    def rootSpan = tracer.buildSpan("root").start()
+    def trace = rootSpan.context().trace
+    def child = tracer.buildSpan("child").asChildOf(rootSpan).start()
+
+    when:
+    rootSpan.finish()
+    writer.waitForTraces(1)
+
+    then:
+    trace.pendingReferenceCount == 1
+    writer == [[rootSpan]]
+
+    when:
+    child.finish()
+    writer.waitForTraces(2)
+
+    then:
+    trace.pendingReferenceCount == 0
+    writer == [[rootSpan], [child]]
+  }
+
+  def "sampling priority is decided when the first chunk is written"() {
+    setup:
+    def rootSpan = tracer.buildSpan("root").start()
+    def child1 = tracer.buildSpan("child1").asChildOf(rootSpan).start()
+    def child2 = tracer.buildSpan("child2").asChildOf(rootSpan).start()
+
+    when:
+    child1.finish()
+    child2.finish()
+    writer.waitForTraces(1)
+
+    then:
+    rootSpan.samplingPriority() != UNSET
+    child1.samplingPriority() == rootSpan.samplingPriority()
+
+    cleanup:
+    rootSpan.finish()
+  }
+}
@@ -0,0 +1,147 @@
+package datadog.trace.core
+
+import datadog.trace.test.util.DDSpecification
+
+import java.util.concurrent.ThreadLocalRandom
+
+class TagMapTest extends DDSpecification {
+
+  def "behaves like a HashMap under random puts and removes"() {
+    setup:
+    def random = ThreadLocalRandom.current()
+    TagMap tags = new TagMap(expectedSize)
+    Map<String, Object> expected = new HashMap<>()
+
+    when:
+    for (int i = 0; i < 10000; ++i) {
+      String key = "key-" + random.nextInt(keyCount)
+      if (random.nextInt(3) == 0) {
+        assert tags.remove(key) == expected.remove(key)
+      } else {
+        Object value = random.nextBoolean() ? random.nextInt() : "value-" + i
+        assert tags.put(key, value) == expected.put(key, value)
+      }
+    }
+
+    then:
+    tags == expected
+    tags.size() == expected.size()
+    tags.numericCount() == expected.values().count { it instanceof Number }
+    expected.every { key, value -> tags.get(key) == value && tags.containsKey(key) }
+
+    where:
+    expectedSize | keyCount
+    0            | 5
+    3            | 20
+    20           | 20
+    8            | 200
+  }
+
+  def "visits every tag"() {
+    setup:
+    TagMap tags = new TagMap(2)
+    tags.put("component", "okhttp")
+    tags.put("span.kind", "client")
+    tags.put("peer.port", 8080)
+    Map<String, Object> visited = [:]
+
+    when:
+    tags.forEachTag(new TagMap.Visitor() {
+        @Override
+        void visit(String key, Object value) {
+          visited.put(key, value)
+        }
+      })
+
+    then:
+    visited == ["component": "okhttp", "span.kind": "client", "peer.port": 8080]
+    tags.numericCount() == 1
+  }
+
+  def "null values remove the tag"() {
+    setup:
+    TagMap tags = new TagMap(2)
+    tags.put("peer.port", 8080)
+
+    when:
+    tags.put("peer.port", null)
+
+    then:
+    tags.isEmpty()
+    !tags.containsKey("peer.port")
+    tags.numericCount() == 0
+  }
+
+  def "copies are independent"() {
+    setup:
+    TagMap tags = new TagMap(2)
+    tags.put("component", "okhttp")
+
+    when:
+    TagMap copy = new TagMap(tags)
+    copy.put("span.kind", "client")
+    tags.remove("component")
+
+    then:
+    tags.isEmpty()
+    copy == ["component": "okhttp", "span.kind": "client"]
+  }
+
+  def "recycled tables are reused by new maps"() {
+    setup:
+    TagMap tags = new TagMap(2)
+    tags.put("component", "okhttp")
+    tags.put("peer.port", 8080)
+    int pooled = TagMap.pooledTables()
+
+    when:
+    tags.recycle()
+
+    then:
+    tags.isEmpty()
+    tags.size() == 0
+    TagMap.pooledTables() == pooled + 1
+
+    when:
+    TagMap reused = new TagMap(2)
+
+    then:
+    TagMap.pooledTables() == pooled
+    reused.isEmpty()
+    reused.numericCount() == 0
+    reused.get("component") == null
+  }
+
+  def "tables too large to be pooled are dropped"() {
+    setup:
+    TagMap tags = new TagMap(100)
+    tags.put("component", "okhttp")
+    int pooled = TagMap.pooledTables()
+
+    when:
+    tags.recycle()
+
+    then:
+    tags.isEmpty()
+    TagMap.pooledTables() == pooled
+  }
+
+  def "use after recycle is detected"() {
+    setup:
+    TagMap tags = new TagMap(2)
+    tags.put("component", "okhttp")
+    tags.recycle()
+
+    when:
+    tags.get("component")
+
+    then:
+    thrown(IllegalStateException)
+
+    when:
+    tags.put("component", "okhttp")
+
+    then:
+    thrown(IllegalStateException)
+  }
+}
@@ -1,5 +1,6 @@
 package datadog.trace.core.monitor
 
+import datadog.trace.api.InstrumentationMetrics
 import datadog.trace.api.StatsDClient
 import datadog.trace.api.sampling.PrioritySampling
 import datadog.trace.common.writer.RemoteApi
@@ -97,6 +98,31 @@ class HealthMetricsTest extends DDSpecification {
     ]
   }
 
+  def "test instrumentation metrics"() {
+    setup:
+    def latch = new CountDownLatch(5)
+    def healthMetrics = new HealthMetrics(new Latched(statsD, latch), 100, TimeUnit.MILLISECONDS)
+    InstrumentationMetrics.onInstall(250_000_000)
+    InstrumentationMetrics.onMuzzleCheck(2_000_000)
+    InstrumentationMetrics.onMuzzleCheck(1_000_000)
+    InstrumentationMetrics.onHelperInjection(5_000_000)
+
+    when:
+    healthMetrics.start()
+    latch.await(10, TimeUnit.SECONDS)
+
+    then:
+    1 * statsD.count('instrumentation.install.time_ms', 250)
+    1 * statsD.count('instrumentation.muzzle.checks', 2)
+    1 * statsD.count('instrumentation.muzzle.time_ms', 3)
+    1 * statsD.count('instrumentation.helpers.injections', 1)
+    1 * statsD.count('instrumentation.helpers.time_ms', 5)
+    0 * _
+
+    cleanup:
+    healthMetrics.close()
+  }
+
   def "test onScheduleFlush"() {
     when:
     healthMetrics.onScheduleFlush(true)
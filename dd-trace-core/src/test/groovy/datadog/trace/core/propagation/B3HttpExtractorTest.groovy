@@ -293,7 +293,7 @@ class B3HttpExtractorTest extends DDSpecification {
     context == null
   }
 
-  def "extract ids while retaining the original string"() {
+  def "extract the high order bits of 128 bit trace ids"() {
     setup:
     def headers = [
       (TRACE_ID_KEY.toUpperCase()): traceId,
@@ -304,23 +304,20 @@ class B3HttpExtractorTest extends DDSpecification {
     final ExtractedContext context = extractor.extract(headers, ContextVisitors.stringValuesMap())
 
     then:
-    if (expectedTraceId) {
-      assert context.traceId == expectedTraceId
-      assert context.traceId.toHexStringOrOriginal() == traceId
-      assert context.spanId == expectedSpanId
-      assert context.spanId.toHexStringOrOriginal() == spanId
-    } else {
-      assert context == null
-    }
+    context.traceId == expectedTraceId
+    context.traceIdHigh == expectedTraceIdHigh
+    context.traceId128 == expectedTraceId128
+    context.spanId == expectedSpanId
 
     where:
-    traceId                            | spanId             | expectedTraceId                  | expectedSpanId
-    "00001"                            | "00001"            | DDId.ONE                         | DDId.ONE
-    "463ac35c9f6413ad"                 | "463ac35c9f6413ad" | DDId.from("5060571933882717101") | DDId.from("5060571933882717101")
-    "463ac35c9f6413ad48485a3953bb6124" | "1"                | DDId.from("5208512171318403364") | DDId.ONE
-    "f" * 16                           | "1"                | DDId.MAX                         | DDId.ONE
-    "a" * 16 + "f" * 16                | "1"                | DDId.MAX                         | DDId.ONE
-    "1"                                | "f" * 16           | DDId.ONE                         | DDId.MAX
-    "1"                                | "000" + "f" * 16   | DDId.ONE                         | DDId.MAX
+    traceId                            | spanId             | expectedTraceId                  | expectedTraceIdHigh  | expectedTraceId128 | expectedSpanId
+    "00001"                            | "00001"            | DDId.ONE                         | 0                    | false              | DDId.ONE
+    "463ac35c9f6413ad"                 | "463ac35c9f6413ad" | DDId.from("5060571933882717101") | 0                    | false              | DDId.from("5060571933882717101")
+    "463ac35c9f6413ad48485a3953bb6124" | "1"                | DDId.from("5208512171318403364") | 5060571933882717101  | true               | DDId.ONE
+    "0" * 16 + "463ac35c9f6413ad"      | "1"                | DDId.from("5060571933882717101") | 0                    | true               | DDId.ONE
+    "f" * 16                           | "1"                | DDId.MAX                         | 0                    | false              | DDId.ONE
+    "a" * 16 + "f" * 16                | "1"                | DDId.MAX                         | -6148914691236517206 | true               | DDId.ONE
+    "1"                                | "f" * 16           | DDId.ONE                         | 0                    | false              | DDId.MAX
+    "1"                                | "000" + "f" * 16   | DDId.ONE                         | 0                    | false              | DDId.MAX
   }
 }
@@ -52,13 +52,13 @@ class B3HttpInjectorTest extends DDCoreSpecification {
     injector.inject(mockedContext, carrier, MapSetter.INSTANCE)
 
     then:
-    1 * carrier.put(TRACE_ID_KEY, traceId.toString(16).toLowerCase())
-    1 * carrier.put(SPAN_ID_KEY, spanId.toString(16).toLowerCase())
+    1 * carrier.put(TRACE_ID_KEY, hexTraceId)
+    1 * carrier.put(SPAN_ID_KEY, hexSpanId)
     if (expectedSamplingPriority != null) {
       1 * carrier.put(SAMPLING_PRIORITY_KEY, "$expectedSamplingPriority")
-      1 * carrier.put(B3_KEY, traceId.toString(16).toLowerCase() + "-" + spanId.toString(16).toLowerCase() + "-$expectedSamplingPriority")
+      1 * carrier.put(B3_KEY, hexTraceId + "-" + hexSpanId + "-$expectedSamplingPriority")
     } else {
-      1 * carrier.put(B3_KEY, traceId.toString(16).toLowerCase() + "-" + spanId.toString(16).toLowerCase())
+      1 * carrier.put(B3_KEY, hexTraceId + "-" + hexSpanId)
     }
     0 * _
 
@@ -74,9 +74,12 @@ class B3HttpInjectorTest extends DDCoreSpecification {
     6G               | 7G               | USER_DROP        | MANUAL            | SAMPLER_DROP
     TRACE_ID_MAX     | TRACE_ID_MAX - 1 | UNSET            | UNKNOWN           | null
     TRACE_ID_MAX - 1 | TRACE_ID_MAX     | SAMPLER_KEEP     | DEFAULT           | SAMPLER_KEEP
+
+    hexTraceId = traceId.toString(16).padLeft(16, "0")
+    hexSpanId = spanId.toString(16).padLeft(16, "0")
   }
 
-  def "inject http headers with extracted original"() {
+  def "inject http headers with extracted 128 bit trace id"() {
     setup:
     def writer = new ListWriter()
     def tracer = tracerBuilder().writer(writer).build()
@@ -89,6 +92,8 @@ class B3HttpInjectorTest extends DDCoreSpecification {
     final DDSpanContext mockedContext =
       new DDSpanContext(
       context.traceId,
+      context.traceIdHigh,
+      context.traceId128,
       context.spanId,
       DDId.ZERO,
       null,
@@ -112,22 +117,25 @@ class B3HttpInjectorTest extends DDCoreSpecification {
     injector.inject(mockedContext, carrier, MapSetter.INSTANCE)
 
     then:
-    1 * carrier.put(TRACE_ID_KEY, traceId)
-    1 * carrier.put(SPAN_ID_KEY, spanId)
-    1 * carrier.put(B3_KEY, traceId + "-" + spanId)
+    1 * carrier.put(TRACE_ID_KEY, expectedTraceId)
+    1 * carrier.put(SPAN_ID_KEY, expectedSpanId)
+    1 * carrier.put(B3_KEY, expectedTraceId + "-" + expectedSpanId)
     0 * _
 
     cleanup:
     tracer.close()
 
     where:
-    traceId                            | spanId
-    "00001"                            | "00001"
-    "463ac35c9f6413ad"                 | "463ac35c9f6413ad"
-    "463ac35c9f6413ad48485a3953bb6124" | "1"
-    "f" * 16                           | "1"
-    "a" * 16 + "f" * 16                | "1"
-    "1"                                | "f" * 16
-    "1"                                | "000" + "f" * 16
+    traceId                            | spanId             | expectedTraceId                    | expectedSpanId
+    "00001"                            | "00001"            | "0" * 15 + "1"                     | "0" * 15 + "1"
+    "463ac35c9f6413ad"                 | "463ac35c9f6413ad" | "463ac35c9f6413ad"                 | "463ac35c9f6413ad"
+    "463ac35c9f6413ad48485a3953bb6124" | "1"                | "463ac35c9f6413ad48485a3953bb6124" | "0" * 15 + "1"
+    "0" * 16 + "463ac35c9f6413ad"      | "1"                | "0" * 16 + "463ac35c9f6413ad"      | "0" * 15 + "1"
+    "0" * 17 + "1"                     | "1"                | "0" * 31 + "1"                     | "0" * 15 + "1"
+    "1" + "0" * 15 + "1"               | "1"                | "0" * 15 + "1" + "0" * 15 + "1"    | "0" * 15 + "1"
+    "f" * 16                           | "1"                | "f" * 16                           | "0" * 15 + "1"
+    "a" * 16 + "f" * 16                | "1"                | "a" * 16 + "f" * 16                | "0" * 15 + "1"
+    "1"                                | "f" * 16           | "0" * 15 + "1"                     | "f" * 16
+    "1"                                | "000" + "f" * 16   | "0" * 15 + "1"                     | "f" * 16
   }
 }
@@ -0,0 +1,62 @@
+package datadog.trace.core.propagation
+
+import datadog.trace.test.util.DDSpecification
+
+import static datadog.trace.core.propagation.HeaderClassifier.UNKNOWN
+
+class HeaderClassifierTest extends DDSpecification {
+
+  def "headers are classified by the index of their name ignoring case"() {
+    setup:
+    def classifier = HeaderClassifier.create(["x-datadog-trace-id", "X-Datadog-Parent-Id", "b3", "forwarded"])
+
+    expect:
+    classifier.classify(header) == expected
+
+    where:
+    header                | expected
+    "x-datadog-trace-id"  | 0
+    "X-DATADOG-TRACE-ID"  | 0
+    "x-datadog-parent-id" | 1
+    "X-Datadog-Parent-Id" | 1
+    "B3"                  | 2
+    "Forwarded"           | 3
+    "x-datadog-tags"      | UNKNOWN
+    "x-datadog-trace-i"   | UNKNOWN
+    ""                    | UNKNOWN
+  }
+
+  def "names with the same hash code are told apart"() {
+    setup:
+    def classifier = HeaderClassifier.create(["Aa", "BB", "AaAa", "BBBB", "AaBB", "BBAa"])
+
+    expect:
+    classifier.classify("aa") == 0
+    classifier.classify("bb") == 1
+    classifier.classify("aAaA") == 2
+    classifier.classify("bbbb") == 3
+    classifier.classify("AABB") == 4
+    classifier.classify("bbaa") == 5
+    classifier.classify("AB") == UNKNOWN
+  }
+
+  def "every name of a large set is classified"() {
+    setup:
+    def names = (0..<500).collect { "x-header-" + it }
+    def classifier = HeaderClassifier.create(names)
+
+    expect:
+    names.eachWithIndex { name, i ->
+      assert classifier.classify(name.toUpperCase()) == i
+    }
+    classifier.classify("x-header-500") == UNKNOWN
+  }
+
+  def "names which are not distinct are rejected"() {
+    when:
+    HeaderClassifier.create(["x-forwarded-for", "X-Forwarded-For"])
+
+    then:
+    thrown IllegalArgumentException
+  }
+}
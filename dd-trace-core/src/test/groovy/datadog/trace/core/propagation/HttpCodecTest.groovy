@@ -0,0 +1,54 @@
+package datadog.trace.core.propagation
+
+import datadog.trace.test.util.DDSpecification
+
+import static datadog.trace.api.sampling.PrioritySampling.*
+
+class HttpCodecTest extends DDSpecification {
+
+  def "sampling priorities are encoded"() {
+    expect:
+    HttpCodec.encodePriority(priority) == expected
+
+    where:
+    priority     | expected
+    USER_DROP    | "-1"
+    SAMPLER_DROP | "0"
+    SAMPLER_KEEP | "1"
+    USER_KEEP    | "2"
+    42           | "42"
+    -2           | "-2"
+  }
+
+  def "values which don't need encoding are returned as they are"() {
+    expect:
+    HttpCodec.encode(value).is(value)
+
+    where:
+    value << ["", "value", "Some-Value_1.2*"]
+  }
+
+  def "values are url encoded"() {
+    expect:
+    HttpCodec.encode(value) == expected
+
+    where:
+    value       | expected
+    "a value"   | "a+value"
+    "k=v,k2=v2" | "k%3Dv%2Ck2%3Dv2"
+    "été"       | "%C3%A9t%C3%A9"
+  }
+
+  def "prefixed keys are reused"() {
+    setup:
+    def keys = new HttpCodec.PrefixedKeys("ot-baggage-")
+
+    when:
+    def first = keys.get("user")
+    def second = keys.get("user")
+
+    then:
+    first == "ot-baggage-user"
+    first.is(second)
+  }
+}
@@ -67,13 +67,13 @@ class HttpInjectorTest extends DDCoreSpecification {
       }
     }
     if (styles.contains(B3)) {
-      1 * carrier.put(B3HttpCodec.TRACE_ID_KEY, traceId.toString())
-      1 * carrier.put(B3HttpCodec.SPAN_ID_KEY, spanId.toString())
+      1 * carrier.put(B3HttpCodec.TRACE_ID_KEY, traceId.toHexStringPadded(16))
+      1 * carrier.put(B3HttpCodec.SPAN_ID_KEY, spanId.toHexStringPadded(16))
       if (samplingPriority != UNSET) {
         1 * carrier.put(B3HttpCodec.SAMPLING_PRIORITY_KEY, "1")
-        1 * carrier.put(B3_KEY, traceId.toString() + "-" + spanId.toString() + "-1")
+        1 * carrier.put(B3_KEY, traceId.toHexStringPadded(16) + "-" + spanId.toHexStringPadded(16) + "-1")
       } else {
-        1 * carrier.put(B3_KEY, traceId.toString() + "-" + spanId.toString())
+        1 * carrier.put(B3_KEY, traceId.toHexStringPadded(16) + "-" + spanId.toHexStringPadded(16))
       }
     }
     0 * _
@@ -140,13 +140,13 @@ class HttpInjectorTest extends DDCoreSpecification {
         1 * carrier.put(DatadogHttpCodec.ORIGIN_KEY, origin)
       }
     } else if (style == B3) {
-      1 * carrier.put(B3HttpCodec.TRACE_ID_KEY, traceId.toString())
-      1 * carrier.put(B3HttpCodec.SPAN_ID_KEY, spanId.toString())
+      1 * carrier.put(B3HttpCodec.TRACE_ID_KEY, traceId.toHexStringPadded(16))
+      1 * carrier.put(B3HttpCodec.SPAN_ID_KEY, spanId.toHexStringPadded(16))
       if (samplingPriority != UNSET) {
         1 * carrier.put(B3HttpCodec.SAMPLING_PRIORITY_KEY, "1")
-        1 * carrier.put(B3_KEY, traceId.toString() + "-" + spanId.toString() + "-1")
+        1 * carrier.put(B3_KEY, traceId.toHexStringPadded(16) + "-" + spanId.toHexStringPadded(16) + "-1")
       } else {
-        1 * carrier.put(B3_KEY, traceId.toString() + "-" + spanId.toString())
+        1 * carrier.put(B3_KEY, traceId.toHexStringPadded(16) + "-" + spanId.toHexStringPadded(16))
       }
     }
     0 * _
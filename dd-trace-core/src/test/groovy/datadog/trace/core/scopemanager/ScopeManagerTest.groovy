@@ -91,6 +91,63 @@ class ScopeManagerTest extends DDCoreSpecification {
     writer.empty
   }
 
+  def "threads only get a scope stack once they activate a scope"() {
+    setup:
+    def span = tracer.buildSpan("test").start()
+    def scope = tracer.activateSpan(span)
+    scope.setAsyncPropagation(true)
+    def continuation = scope.capture()
+    scope.close()
+    Map<String, Object> seen = [:]
+
+    when:
+    def thread = Thread.start {
+      seen.activeSpan = scopeManager.activeSpan()
+      seen.stackBeforeActivation = scopeManager.tlsScopeStack.get()
+      def continued = continuation.activate()
+      seen.activeSpanAfterActivation = scopeManager.activeSpan()
+      seen.depth = scopeManager.tlsScopeStack.get().depth()
+      continued.close()
+    }
+    thread.join()
+    span.finish()
+    writer.waitForTraces(1)
+
+    then:
+    seen.activeSpan == null
+    seen.stackBeforeActivation == null
+    seen.activeSpanAfterActivation == span
+    seen.depth == 1
+    writer == [[span]]
+  }
+
+  def "deeply nested scopes are restored in order"() {
+    setup:
+    def spans = (1..depth).collect { tracer.buildSpan("test" + it).start() }
+    def scopes = spans.collect { tracer.activateSpan(it) }
+
+    expect:
+    scopeManager.scopeStack().depth() == depth
+    scopeManager.activeSpan() == spans.last()
+
+    when:
+    for (int i = depth - 1; i > 0; --i) {
+      scopes[i].close()
+      assert scopeManager.activeSpan() == spans[i - 1]
+    }
+    scopes[0].close()
+
+    then:
+    scopeManager.active() == null
+    scopeManager.scopeStack().depth() == 0
+
+    cleanup:
+    spans*.finish()
+
+    where:
+    depth << [1, 2, 5, 20]
+  }
+
   def "simple scope and span lifecycle"() {
     when:
     def span = tracer.buildSpan("test").start()
@@ -850,6 +907,51 @@ class ScopeManagerTest extends DDCoreSpecification {
     listener.events == [ACTIVATE, CLOSE]
   }
 
+  def "activating a continuation of the active span does not notify listeners"() {
+    setup:
+    def span = tracer.buildSpan("test").start()
+    def scope = tracer.activateSpan(span)
+    scope.setAsyncPropagation(true)
+
+    when:
+    def continuation = concurrent ? scope.captureConcurrent() : scope.capture()
+    def continuedScope = continuation.activate()
+
+    then:
+    scopeManager.active() == continuedScope
+    assertEvents([ACTIVATE])
+
+    when: "a different span is activated and closed on top"
+    def child = tracer.buildSpan("child").start()
+    def childScope = tracer.activateSpan(child)
+    childScope.close()
+    child.finish()
+
+    then:
+    assertEvents([ACTIVATE, ACTIVATE, CLOSE, ACTIVATE])
+
+    when:
+    continuedScope.close()
+
+    then:
+    scopeManager.active() == scope
+    assertEvents([ACTIVATE, ACTIVATE, CLOSE, ACTIVATE])
+
+    when:
+    if (concurrent) {
+      continuation.cancel()
+    }
+    scope.close()
+    span.finish()
+
+    then:
+    scopeManager.active() == null
+    assertEvents([ACTIVATE, ACTIVATE, CLOSE, ACTIVATE, CLOSE])
+
+    where:
+    concurrent << [false, true]
+  }
+
   def "extended scope listener should be notified about the currently active scope"() {
     setup:
     def span = tracer.buildSpan("test").start()
@@ -4,6 +4,7 @@ import datadog.trace.api.DDId
 import datadog.trace.api.DDTags
 import datadog.trace.api.IdGenerationStrategy
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.common.sampling.EnvAndService
 import datadog.trace.core.CoreSpan
 import datadog.trace.core.Metadata
 import datadog.trace.core.MetadataConsumer
@@ -154,7 +155,7 @@ class TraceGenerator {
       this.type = type
       this.measured = measured
       this.metadata = new Metadata(Thread.currentThread().getId(),
-        UTF8BytesString.create(Thread.currentThread().getName()), tags, baggage, UNSET, measured, topLevel, null, null)
+        UTF8BytesString.create(Thread.currentThread().getName()), tags, baggage, UNSET, measured, topLevel, null, null, 0)
     }
 
     @Override
@@ -167,6 +168,11 @@ class TraceGenerator {
       return serviceName
     }
 
+    @Override
+    EnvAndService getEnvAndService() {
+      return EnvAndService.of(String.valueOf(getTag("env", "")), serviceName)
+    }
+
     @Override
     CharSequence getOperationName() {
       return operationName
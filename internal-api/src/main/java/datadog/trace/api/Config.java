@@ -25,11 +25,14 @@ import static datadog.trace.api.ConfigDefaults.DEFAULT_HTTP_CLIENT_TAG_QUERY_STR
 import static datadog.trace.api.ConfigDefaults.DEFAULT_HTTP_SERVER_ERROR_STATUSES;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_HTTP_SERVER_ROUTE_BASED_NAMING;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_HTTP_SERVER_TAG_QUERY_STRING;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_INTEGRATIONS_CRITICAL;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_INTEGRATIONS_DEFERRED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_INTEGRATIONS_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_JMX_FETCH_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_JMX_FETCH_MULTIPLE_RUNTIME_SERVICES_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_JMX_FETCH_MULTIPLE_RUNTIME_SERVICES_LIMIT;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_LOGS_INJECTION_ENABLED;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_PARTIAL_FLUSH_MEMORY_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_PARTIAL_FLUSH_MIN_SPANS;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_PERF_METRICS_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_PRIORITY_SAMPLING_ENABLED;
@@ -45,6 +48,7 @@ import static datadog.trace.api.ConfigDefaults.DEFAULT_SERIALVERSIONUID_FIELD_IN
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SERVICE_NAME;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SERVLET_ROOT_CONTEXT_SERVICE_NAME;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SITE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_SPAN_STREAMING_CHUNK_SIZE;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_AGENT_PORT;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_AGENT_V05_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_ANALYTICS_ENABLED;
@@ -104,6 +108,7 @@ import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_ENABLED;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_IGNORED_RESOURCES;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_MAX_AGGREGATES;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_MAX_PENDING;
+import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_STRIPES;
 import static datadog.trace.api.config.GeneralConfig.VERSION;
 import static datadog.trace.api.config.JmxFetchConfig.JMX_FETCH_CHECK_PERIOD;
 import static datadog.trace.api.config.JmxFetchConfig.JMX_FETCH_CONFIG;
@@ -172,6 +177,8 @@ import static datadog.trace.api.config.TraceInstrumentationConfig.HTTP_SERVER_TA
 import static datadog.trace.api.config.TraceInstrumentationConfig.HYSTRIX_MEASURED_ENABLED;
 import static datadog.trace.api.config.TraceInstrumentationConfig.HYSTRIX_TAGS_ENABLED;
 import static datadog.trace.api.config.TraceInstrumentationConfig.IGNITE_CACHE_INCLUDE_KEYS;
+import static datadog.trace.api.config.TraceInstrumentationConfig.INTEGRATIONS_CRITICAL;
+import static datadog.trace.api.config.TraceInstrumentationConfig.INTEGRATIONS_DEFERRED;
 import static datadog.trace.api.config.TraceInstrumentationConfig.INTEGRATIONS_ENABLED;
 import static datadog.trace.api.config.TraceInstrumentationConfig.JDBC_CONNECTION_CLASS_NAME;
 import static datadog.trace.api.config.TraceInstrumentationConfig.JDBC_PREPARED_STATEMENT_CLASS_NAME;
@@ -186,6 +193,7 @@ import static datadog.trace.api.config.TraceInstrumentationConfig.OSGI_SEARCH_DE
 import static datadog.trace.api.config.TraceInstrumentationConfig.PLAY_REPORT_HTTP_STATUS;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RABBIT_PROPAGATION_DISABLED_EXCHANGES;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RABBIT_PROPAGATION_DISABLED_QUEUES;
+import static datadog.trace.api.config.TraceInstrumentationConfig.RESOLVER_CACHE_DIR;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RESOLVER_TYPE_POOL_SIZE;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RESOLVER_USE_LOADCLASS;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RUNTIME_CONTEXT_FIELD_INJECTION;
@@ -213,6 +221,7 @@ import static datadog.trace.api.config.TracerConfig.HEADER_TAGS;
 import static datadog.trace.api.config.TracerConfig.HTTP_CLIENT_ERROR_STATUSES;
 import static datadog.trace.api.config.TracerConfig.HTTP_SERVER_ERROR_STATUSES;
 import static datadog.trace.api.config.TracerConfig.ID_GENERATION_STRATEGY;
+import static datadog.trace.api.config.TracerConfig.PARTIAL_FLUSH_MEMORY_ENABLED;
 import static datadog.trace.api.config.TracerConfig.PARTIAL_FLUSH_MIN_SPANS;
 import static datadog.trace.api.config.TracerConfig.PRIORITY_SAMPLING;
 import static datadog.trace.api.config.TracerConfig.PRIORITY_SAMPLING_FORCE;
@@ -227,13 +236,18 @@ import static datadog.trace.api.config.TracerConfig.SCOPE_INHERIT_ASYNC_PROPAGAT
 import static datadog.trace.api.config.TracerConfig.SCOPE_ITERATION_KEEP_ALIVE;
 import static datadog.trace.api.config.TracerConfig.SCOPE_STRICT_MODE;
 import static datadog.trace.api.config.TracerConfig.SERVICE_MAPPING;
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_CHUNK_SIZE;
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_ENABLED;
 import static datadog.trace.api.config.TracerConfig.SPAN_TAGS;
 import static datadog.trace.api.config.TracerConfig.SPLIT_BY_TAGS;
+import static datadog.trace.api.config.TracerConfig.TRACE_128_BIT_TRACEID_GENERATION_ENABLED;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_ARGS;
+import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_MAX_IN_FLIGHT_REQUESTS;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_PATH;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_PORT;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_URL;
 import static datadog.trace.api.config.TracerConfig.TRACE_ANALYTICS_ENABLED;
+import static datadog.trace.api.config.TracerConfig.TRACE_EARLY_SAMPLING_ENABLED;
 import static datadog.trace.api.config.TracerConfig.TRACE_HTTP_SERVER_PATH_RESOURCE_NAME_MAPPING;
 import static datadog.trace.api.config.TracerConfig.TRACE_RATE_LIMIT;
 import static datadog.trace.api.config.TracerConfig.TRACE_REPORT_HOSTNAME;
@@ -241,6 +255,8 @@ import static datadog.trace.api.config.TracerConfig.TRACE_RESOLVER_ENABLED;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLE_RATE;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_OPERATION_RULES;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_SERVICE_RULES;
+import static datadog.trace.api.config.TracerConfig.TRACE_SERIALIZATION_SHARDS;
+import static datadog.trace.api.config.TracerConfig.TRACE_SPAN_RECYCLING_ENABLED;
 import static datadog.trace.api.config.TracerConfig.TRACE_STRICT_WRITES_ENABLED;
 import static datadog.trace.api.config.TracerConfig.WRITER_TYPE;
 import static datadog.trace.util.CollectionUtils.tryMakeImmutableList;
@@ -320,6 +336,8 @@ public class Config {
   private final String rootContextServiceName;
   private final boolean traceEnabled;
   private final boolean integrationsEnabled;
+  private final boolean integrationsDeferred;
+  private final Set<String> criticalIntegrations;
   private final String writerType;
   private final boolean agentConfiguredUsingDefault;
   private final String agentUrl;
@@ -357,7 +375,14 @@ public class Config {
   private final boolean scopeInheritAsyncPropagation;
   private final int scopeIterationKeepAlive;
   private final int partialFlushMinSpans;
+  private final boolean partialFlushMemoryEnabled;
+  private final boolean spanStreamingEnabled;
+  private final int spanStreamingChunkSize;
   private final boolean traceStrictWritesEnabled;
+  private final boolean traceEarlySamplingEnabled;
+  private final int traceSerializationShards;
+  private final int traceAgentMaxInFlightRequests;
+  private final boolean traceSpanRecyclingEnabled;
   private final boolean runtimeContextFieldInjection;
   private final boolean serialVersionUIDFieldInjection;
   private final boolean logExtractHeaderNames;
@@ -390,6 +415,7 @@ public class Config {
   private final boolean tracerMetricsBufferingEnabled;
   private final int tracerMetricsMaxAggregates;
   private final int tracerMetricsMaxPending;
+  private final int tracerMetricsStripes;
 
   private final boolean logsInjectionEnabled;
   private final boolean logsMDCTagsInjectionEnabled;
@@ -484,11 +510,13 @@ public class Config {
   private final String configFileStatus;
 
   private final IdGenerationStrategy idGenerationStrategy;
+  private final boolean trace128bitTraceIdGenerationEnabled;
 
   private final boolean internalExitOnFailure;
 
   private final boolean resolverUseLoadClassEnabled;
   private final int resolverTypePoolSize;
+  private final String resolverCacheDir;
 
   private final String jdbcPreparedStatementClassName;
   private final String jdbcConnectionClassName;
@@ -565,6 +593,14 @@ public class Config {
     traceEnabled = configProvider.getBoolean(TRACE_ENABLED, DEFAULT_TRACE_ENABLED);
     integrationsEnabled =
         configProvider.getBoolean(INTEGRATIONS_ENABLED, DEFAULT_INTEGRATIONS_ENABLED);
+    integrationsDeferred =
+        configProvider.getBoolean(INTEGRATIONS_DEFERRED, DEFAULT_INTEGRATIONS_DEFERRED);
+    List<String> criticalIntegrationNames = configProvider.getList(INTEGRATIONS_CRITICAL);
+    criticalIntegrations =
+        tryMakeImmutableSet(
+            criticalIntegrationNames.isEmpty()
+                ? DEFAULT_INTEGRATIONS_CRITICAL
+                : criticalIntegrationNames);
     writerType = configProvider.getString(WRITER_TYPE, DEFAULT_AGENT_WRITER_TYPE);
 
     idGenerationStrategy =
@@ -574,6 +610,8 @@ public class Config {
           "*** you are using an unsupported id generation strategy {} - this can impact correctness of traces",
           idGenerationStrategy);
     }
+    trace128bitTraceIdGenerationEnabled =
+        configProvider.getBoolean(TRACE_128_BIT_TRACEID_GENERATION_ENABLED, false);
 
     String agentHostFromEnvironment = null;
     int agentPortFromEnvironment = -1;
@@ -740,9 +778,25 @@ public class Config {
 
     partialFlushMinSpans =
         configProvider.getInteger(PARTIAL_FLUSH_MIN_SPANS, DEFAULT_PARTIAL_FLUSH_MIN_SPANS);
+    partialFlushMemoryEnabled =
+        configProvider.getBoolean(
+            PARTIAL_FLUSH_MEMORY_ENABLED, DEFAULT_PARTIAL_FLUSH_MEMORY_ENABLED);
+
+    spanStreamingEnabled = configProvider.getBoolean(SPAN_STREAMING_ENABLED, false);
+    spanStreamingChunkSize =
+        configProvider.getInteger(SPAN_STREAMING_CHUNK_SIZE, DEFAULT_SPAN_STREAMING_CHUNK_SIZE);
 
     traceStrictWritesEnabled = configProvider.getBoolean(TRACE_STRICT_WRITES_ENABLED, false);
 
+    traceEarlySamplingEnabled = configProvider.getBoolean(TRACE_EARLY_SAMPLING_ENABLED, false);
+
+    traceSerializationShards = configProvider.getInteger(TRACE_SERIALIZATION_SHARDS, 1);
+
+    traceAgentMaxInFlightRequests =
+        configProvider.getInteger(TRACE_AGENT_MAX_IN_FLIGHT_REQUESTS, 1);
+
+    traceSpanRecyclingEnabled = configProvider.getBoolean(TRACE_SPAN_RECYCLING_ENABLED, false);
+
     runtimeContextFieldInjection =
         configProvider.getBoolean(
             RUNTIME_CONTEXT_FIELD_INJECTION, DEFAULT_RUNTIME_CONTEXT_FIELD_INJECTION);
@@ -818,6 +872,7 @@ public class Config {
         configProvider.getBoolean(TRACER_METRICS_BUFFERING_ENABLED, false);
     tracerMetricsMaxAggregates = configProvider.getInteger(TRACER_METRICS_MAX_AGGREGATES, 2048);
     tracerMetricsMaxPending = configProvider.getInteger(TRACER_METRICS_MAX_PENDING, 2048);
+    tracerMetricsStripes = configProvider.getInteger(TRACER_METRICS_STRIPES, 0);
 
     logsInjectionEnabled =
         configProvider.getBoolean(LOGS_INJECTION_ENABLED, DEFAULT_LOGS_INJECTION_ENABLED);
@@ -1017,6 +1072,7 @@ public class Config {
     resolverUseLoadClassEnabled = configProvider.getBoolean(RESOLVER_USE_LOADCLASS, true);
     resolverTypePoolSize =
         configProvider.getInteger(RESOLVER_TYPE_POOL_SIZE, DEFAULT_RESOLVER_TYPE_POOL_SIZE);
+    resolverCacheDir = configProvider.getString(RESOLVER_CACHE_DIR);
 
     cwsEnabled = configProvider.getBoolean(CWS_ENABLED, DEFAULT_CWS_ENABLED);
     cwsTlsRefresh = configProvider.getInteger(CWS_TLS_REFRESH, DEFAULT_CWS_TLS_REFRESH);
@@ -1092,6 +1148,14 @@ public class Config {
     return integrationsEnabled;
   }
 
+  public boolean isIntegrationsDeferred() {
+    return integrationsDeferred;
+  }
+
+  public Set<String> getCriticalIntegrations() {
+    return criticalIntegrations;
+  }
+
   public String getWriterType() {
     return writerType;
   }
@@ -1228,10 +1292,38 @@ public class Config {
     return partialFlushMinSpans;
   }
 
+  public boolean isPartialFlushMemoryEnabled() {
+    return partialFlushMemoryEnabled;
+  }
+
+  public boolean isSpanStreamingEnabled() {
+    return spanStreamingEnabled;
+  }
+
+  public int getSpanStreamingChunkSize() {
+    return spanStreamingChunkSize;
+  }
+
   public boolean isTraceStrictWritesEnabled() {
     return traceStrictWritesEnabled;
   }
 
+  public boolean isTraceEarlySamplingEnabled() {
+    return traceEarlySamplingEnabled;
+  }
+
+  public int getTraceSerializationShards() {
+    return traceSerializationShards;
+  }
+
+  public int getTraceAgentMaxInFlightRequests() {
+    return traceAgentMaxInFlightRequests;
+  }
+
+  public boolean isTraceSpanRecyclingEnabled() {
+    return traceSpanRecyclingEnabled;
+  }
+
   public boolean isRuntimeContextFieldInjection() {
     return runtimeContextFieldInjection;
   }
@@ -1340,6 +1432,10 @@ public class Config {
     return tracerMetricsMaxPending;
   }
 
+  public int getTracerMetricsStripes() {
+    return tracerMetricsStripes;
+  }
+
   public boolean isLogsInjectionEnabled() {
     return logsInjectionEnabled;
   }
@@ -1636,6 +1732,10 @@ public class Config {
     return idGenerationStrategy;
   }
 
+  public boolean isTrace128bitTraceIdGenerationEnabled() {
+    return trace128bitTraceIdGenerationEnabled;
+  }
+
   public boolean isInternalExitOnFailure() {
     return internalExitOnFailure;
   }
@@ -1648,6 +1748,10 @@ public class Config {
     return resolverTypePoolSize;
   }
 
+  public String getResolverCacheDir() {
+    return resolverCacheDir;
+  }
+
   public String getJdbcPreparedStatementClassName() {
     return jdbcPreparedStatementClassName;
   }
@@ -2249,6 +2353,10 @@ public class Config {
         + traceEnabled
         + ", integrationsEnabled="
         + integrationsEnabled
+        + ", integrationsDeferred="
+        + integrationsDeferred
+        + ", criticalIntegrations="
+        + criticalIntegrations
         + ", writerType='"
         + writerType
         + '\''
@@ -2326,8 +2434,22 @@ public class Config {
         + scopeIterationKeepAlive
         + ", partialFlushMinSpans="
         + partialFlushMinSpans
+        + ", partialFlushMemoryEnabled="
+        + partialFlushMemoryEnabled
+        + ", spanStreamingEnabled="
+        + spanStreamingEnabled
+        + ", spanStreamingChunkSize="
+        + spanStreamingChunkSize
         + ", traceStrictWritesEnabled="
         + traceStrictWritesEnabled
+        + ", traceEarlySamplingEnabled="
+        + traceEarlySamplingEnabled
+        + ", traceSerializationShards="
+        + traceSerializationShards
+        + ", traceAgentMaxInFlightRequests="
+        + traceAgentMaxInFlightRequests
+        + ", traceSpanRecyclingEnabled="
+        + traceSpanRecyclingEnabled
         + ", runtimeContextFieldInjection="
         + runtimeContextFieldInjection
         + ", serialVersionUIDFieldInjection="
@@ -2377,6 +2499,8 @@ public class Config {
         + tracerMetricsMaxAggregates
         + ", tracerMetricsMaxPending="
         + tracerMetricsMaxPending
+        + ", tracerMetricsStripes="
+        + tracerMetricsStripes
         + ", logsInjectionEnabled="
         + logsInjectionEnabled
         + ", logsMDCTagsInjectionEnabled="
@@ -2491,12 +2615,17 @@ public class Config {
         + '\''
         + ", idGenerationStrategy="
         + idGenerationStrategy
+        + ", trace128bitTraceIdGenerationEnabled="
+        + trace128bitTraceIdGenerationEnabled
         + ", internalExitOnFailure="
         + internalExitOnFailure
         + ", resolverUseLoadClassEnabled="
         + resolverUseLoadClassEnabled
         + ", resolverTypePoolSize="
         + resolverTypePoolSize
+        + ", resolverCacheDir='"
+        + resolverCacheDir
+        + '\''
         + ", jdbcPreparedStatementClassName='"
         + jdbcPreparedStatementClassName
         + '\''
@@ -0,0 +1,58 @@
+package datadog.trace.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time spent by the agent installing instrumentations, checking they are safe to apply, and
+ * injecting their helpers. Recorded by the instrumentation and reported with the tracer's health
+ * metrics.
+ */
+public final class InstrumentationMetrics {
+
+  private static final AtomicLong installNanos = new AtomicLong();
+  private static final AtomicLong muzzleChecks = new AtomicLong();
+  private static final AtomicLong muzzleNanos = new AtomicLong();
+  private static final AtomicLong helperInjections = new AtomicLong();
+  private static final AtomicLong helperInjectionNanos = new AtomicLong();
+
+  public static void onInstall(long nanos) {
+    installNanos.addAndGet(nanos);
+  }
+
+  public static void onMuzzleCheck(long nanos) {
+    muzzleChecks.incrementAndGet();
+    muzzleNanos.addAndGet(nanos);
+  }
+
+  public static void onHelperInjection(long nanos) {
+    helperInjections.incrementAndGet();
+    helperInjectionNanos.addAndGet(nanos);
+  }
+
+  /** @return the time spent installing instrumentations while the agent starts, once */
+  public static long getAndResetInstallNanos() {
+    return installNanos.getAndSet(0);
+  }
+
+  /** @return the number of muzzle checks since last called */
+  public static long getAndResetMuzzleChecks() {
+    return muzzleChecks.getAndSet(0);
+  }
+
+  /** @return the time spent in muzzle checks since last called */
+  public static long getAndResetMuzzleNanos() {
+    return muzzleNanos.getAndSet(0);
+  }
+
+  /** @return the number of helper injections since last called */
+  public static long getAndResetHelperInjections() {
+    return helperInjections.getAndSet(0);
+  }
+
+  /** @return the time spent injecting helpers since last called */
+  public static long getAndResetHelperInjectionNanos() {
+    return helperInjectionNanos.getAndSet(0);
+  }
+
+  private InstrumentationMetrics() {}
+}
@@ -0,0 +1,226 @@
+package datadog.trace.api.sampling;
+
+import datadog.trace.api.time.SystemTimeSource;
+import datadog.trace.api.time.TimeSource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Rate limiter handing out a number of tokens per second, which are refilled continuously rather
+ * than all at once at the start of each second. Up to a second worth of tokens can be taken in a
+ * burst.
+ *
+ * <p>The tokens are split between buckets, so that threads taking tokens at the same time mostly
+ * update different buckets. A thread takes its tokens from the bucket its id maps to, and only
+ * takes a token from the other buckets when its own is empty, so the buckets are rebalanced as
+ * they are used and the limit applies to all threads together.
+ *
+ * <p>Each bucket only stores the time at which it will be full again: taking a token moves that
+ * time forward by the time it takes to refill one token, which is refused if it would then be
+ * more than the time to refill the whole bucket away. When no bucket has a token left, the
+ * earliest time one of them will have a token again is kept, so that the attempts until then are
+ * refused without looking at every bucket.
+ *
+ * <p>The attempts are counted per bucket too, and their totals are sampled at most once a second,
+ * as the window rolls forward on the first attempt or rate query of a new second.
+ */
+public final class TokenBucketRateLimiter {
+
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_BUCKETS = 64;
+
+  private final TimeSource timeSource;
+  private final int rate;
+  private final Bucket[] buckets;
+  private final int mask;
+
+  // no bucket has a token before then, only ever moves forward with the buckets
+  private volatile long nextTokenAt;
+
+  private volatile Window window;
+  private static final AtomicReferenceFieldUpdater<TokenBucketRateLimiter, Window> WINDOW =
+      AtomicReferenceFieldUpdater.newUpdater(TokenBucketRateLimiter.class, Window.class, "window");
+
+  public TokenBucketRateLimiter(int rate) {
+    this(rate, SystemTimeSource.INSTANCE);
+  }
+
+  public TokenBucketRateLimiter(int rate, TimeSource timeSource) {
+    this(rate, timeSource, bucketCountFor(Runtime.getRuntime().availableProcessors(), rate));
+  }
+
+  TokenBucketRateLimiter(int rate, TimeSource timeSource, int bucketCount) {
+    this.timeSource = timeSource;
+    this.rate = Math.max(1, rate);
+    long now = timeSource.getNanoTicks();
+    this.buckets = new Bucket[bucketCount];
+    for (int i = 0; i < bucketCount; ++i) {
+      // share the tokens out, the first buckets get one more when they don't divide evenly
+      int tokens = this.rate / bucketCount + (i < this.rate % bucketCount ? 1 : 0);
+      buckets[i] = new Bucket(tokens, now);
+    }
+    this.mask = bucketCount - 1;
+    this.nextTokenAt = now;
+    this.window = new Window(now, 0, 0, 0, 0);
+  }
+
+  /**
+   * @return a power of two number of buckets, at most one per processor and one per token, so that
+   *     no bucket is without tokens
+   */
+  static int bucketCountFor(int processors, int rate) {
+    int bucketCount = 1;
+    while (bucketCount < processors && bucketCount < MAX_BUCKETS && bucketCount * 2 <= rate) {
+      bucketCount <<= 1;
+    }
+    return bucketCount;
+  }
+
+  public int getRate() {
+    return rate;
+  }
+
+  /** @return true if a token was taken, false if the limit has been reached */
+  public boolean tryAcquire() {
+    long now = timeSource.getNanoTicks();
+    rollWindow(now);
+    int index = bucketIndex();
+    Bucket bucket = buckets[index];
+    boolean acquired = bucket.tryAcquire(now);
+    if (!acquired && now - nextTokenAt >= 0) {
+      long earliest = bucket.nextTokenAt();
+      for (int i = 1; !acquired && i < buckets.length; ++i) {
+        Bucket other = buckets[(index + i) & mask];
+        acquired = other.tryAcquire(now);
+        long tokenAt = other.nextTokenAt();
+        if (tokenAt - earliest < 0) {
+          earliest = tokenAt;
+        }
+      }
+      if (!acquired) {
+        // taking tokens only delays the buckets, so none of them has a token before then
+        nextTokenAt = earliest;
+      }
+    }
+    // counted in the thread's own bucket, whichever bucket the token came from
+    bucket.count(acquired);
+    return acquired;
+  }
+
+  /**
+   * @return the fraction of the recent attempts to take a token which succeeded, over at least the
+   *     last second, or 1 if there were none
+   */
+  public double getEffectiveRate() {
+    Window window = rollWindow(timeSource.getNanoTicks());
+    long acquired = 0;
+    long refused = 0;
+    for (Bucket bucket : buckets) {
+      acquired += bucket.acquired;
+      refused += bucket.refused;
+    }
+    // measured from the start of the previous window, so never over less than a second
+    long attempts = acquired + refused - window.previousAcquired - window.previousRefused;
+    return attempts <= 0 ? 1 : (double) (acquired - window.previousAcquired) / attempts;
+  }
+
+  /** Starts a new window if the current one is at least a second old, summing the buckets */
+  private Window rollWindow(long now) {
+    Window window = this.window;
+    if (now - window.start >= SECOND_NANOS) {
+      long acquired = 0;
+      long refused = 0;
+      for (Bucket bucket : buckets) {
+        acquired += bucket.acquired;
+        refused += bucket.refused;
+      }
+      Window next = new Window(now, acquired, refused, window.acquired, window.refused);
+      window = WINDOW.compareAndSet(this, window, next) ? next : this.window;
+    }
+    return window;
+  }
+
+  private int bucketIndex() {
+    if (mask == 0) {
+      return 0;
+    }
+    long id = Thread.currentThread().getId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Bucket {
+    // keep buckets on different cache lines
+    private long p0, p1, p2, p3, p4, p5, p6;
+
+    private final long refillNanos;
+    private final long burstNanos;
+
+    private volatile long fullAt;
+    private static final AtomicLongFieldUpdater<Bucket> FULL_AT =
+        AtomicLongFieldUpdater.newUpdater(Bucket.class, "fullAt");
+
+    volatile long acquired;
+    private static final AtomicLongFieldUpdater<Bucket> ACQUIRED =
+        AtomicLongFieldUpdater.newUpdater(Bucket.class, "acquired");
+
+    volatile long refused;
+    private static final AtomicLongFieldUpdater<Bucket> REFUSED =
+        AtomicLongFieldUpdater.newUpdater(Bucket.class, "refused");
+
+    private long q0, q1, q2, q3, q4, q5, q6;
+
+    Bucket(int tokens, long now) {
+      this.refillNanos = SECOND_NANOS / tokens;
+      // the bucket is full until the first token is taken
+      this.burstNanos = (tokens - 1) * refillNanos;
+      this.fullAt = now;
+    }
+
+    boolean tryAcquire(long now) {
+      long fullAt;
+      long nextFullAt;
+      do {
+        fullAt = this.fullAt;
+        // tokens were refilled up to now, but not beyond a full bucket
+        long from = fullAt - now > 0 ? fullAt : now;
+        if (from - now > burstNanos) {
+          return false;
+        }
+        nextFullAt = from + refillNanos;
+      } while (!FULL_AT.compareAndSet(this, fullAt, nextFullAt));
+      return true;
+    }
+
+    /** @return the time from which a token can be taken */
+    long nextTokenAt() {
+      return fullAt - burstNanos;
+    }
+
+    void count(boolean acquired) {
+      if (acquired) {
+        ACQUIRED.incrementAndGet(this);
+      } else {
+        REFUSED.incrementAndGet(this);
+      }
+    }
+  }
+
+  /** Totals at the start of the current window, and at the start of the previous one */
+  private static final class Window {
+    final long start;
+    final long acquired;
+    final long refused;
+    final long previousAcquired;
+    final long previousRefused;
+
+    Window(long start, long acquired, long refused, long previousAcquired, long previousRefused) {
+      this.start = start;
+      this.acquired = acquired;
+      this.refused = refused;
+      this.previousAcquired = previousAcquired;
+      this.previousRefused = previousRefused;
+    }
+  }
+}
@@ -14,8 +14,10 @@ public final class AgentThreadFactory implements ThreadFactory {
     TASK_SCHEDULER("dd-task-scheduler"),
 
     TRACE_STARTUP("dd-agent-startup-datadog-tracer"),
+    INSTRUMENTATION_STARTUP("dd-agent-startup-instrumentation"),
     TRACE_MONITOR("dd-trace-monitor"),
     TRACE_PROCESSOR("dd-trace-processor"),
+    TRACE_SENDER("dd-trace-sender"),
     TRACE_CASSANDRA_ASYNC_SESSION("dd-cassandra-session-executor"),
 
     METRICS_AGGREGATOR("dd-metrics-aggregator"),
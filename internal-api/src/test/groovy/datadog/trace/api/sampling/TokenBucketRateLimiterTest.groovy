@@ -0,0 +1,195 @@
+package datadog.trace.api.sampling
+
+import datadog.trace.api.time.ControllableTimeSource
+import datadog.trace.test.util.DDSpecification
+
+import java.util.concurrent.TimeUnit
+
+class TokenBucketRateLimiterTest extends DDSpecification {
+
+  def "a second worth of tokens is available at creation"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(rate, timeSource, bucketCount)
+
+    when:
+    rate.times {
+      assert limiter.tryAcquire(): "failed for $it"
+    }
+
+    then:
+    !limiter.tryAcquire()
+
+    where:
+    rate | bucketCount
+    1    | 1
+    10   | 1
+    10   | 8
+    100  | 16
+    1000 | 64
+  }
+
+  def "tokens never go beyond a second worth"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(rate, timeSource, bucketCount)
+
+    when:
+    timeSource.advance(TimeUnit.SECONDS.toNanos(5))
+    rate.times {
+      assert limiter.tryAcquire(): "failed for $it"
+    }
+
+    then:
+    !limiter.tryAcquire()
+
+    where:
+    rate | bucketCount
+    10   | 1
+    100  | 4
+    1000 | 16
+  }
+
+  def "tokens are refilled continuously"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(100, timeSource, 1)
+    100.times { limiter.tryAcquire() }
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(10))
+
+    then: 'one token every 10ms'
+    limiter.tryAcquire()
+    !limiter.tryAcquire()
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(250))
+    def acquired = 0
+    while (limiter.tryAcquire()) {
+      ++acquired
+    }
+
+    then:
+    acquired == 25
+  }
+
+  def "threads take tokens from other buckets once theirs is empty"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(64, timeSource, 8)
+
+    when: 'a single thread takes every token'
+    def acquired = 0
+    while (limiter.tryAcquire()) {
+      ++acquired
+    }
+
+    then:
+    acquired == 64
+  }
+
+  def "tokens refilled in other buckets are found after a refusal"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(64, timeSource, 8)
+    while (limiter.tryAcquire()) {}
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(100))
+
+    then: 'no bucket has refilled a token yet'
+    !limiter.tryAcquire()
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(25))
+    def acquired = 0
+    while (limiter.tryAcquire()) {
+      ++acquired
+    }
+
+    then: 'one token every 125ms in each bucket'
+    acquired == 8
+  }
+
+  def "rate is sustained over time"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(rate, timeSource, bucketCount)
+
+    when:
+    def acquired = 0
+    10_000.times {
+      timeSource.advance(TimeUnit.MILLISECONDS.toNanos(1))
+      if (limiter.tryAcquire()) {
+        ++acquired
+      }
+    }
+
+    then: 'the initial burst, then the rate for 10 seconds, less the refills still in progress'
+    acquired <= 11 * rate
+    acquired >= 11 * rate - 2 * bucketCount
+
+    where:
+    rate | bucketCount
+    10   | 1
+    10   | 8
+    100  | 4
+  }
+
+  def "effective rate is the fraction of attempts which got a token"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(10, timeSource, 1)
+
+    expect:
+    limiter.effectiveRate == 1
+
+    when:
+    40.times { limiter.tryAcquire() }
+
+    then:
+    limiter.effectiveRate == 0.25
+
+    when: 'the attempts before the previous window are forgotten'
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+    limiter.effectiveRate
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+    limiter.effectiveRate
+    10.times { limiter.tryAcquire() }
+
+    then:
+    limiter.effectiveRate == 1
+  }
+
+  def "window rolls forward as tokens are taken"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new TokenBucketRateLimiter(10, timeSource, 1)
+    40.times { limiter.tryAcquire() }
+
+    when: 'only tokens are taken, the rate is not queried'
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+    limiter.tryAcquire()
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+    9.times { limiter.tryAcquire() }
+
+    then:
+    limiter.effectiveRate == 1
+  }
+
+  def "bucket count is scaled to the processors and the rate"() {
+    expect:
+    TokenBucketRateLimiter.bucketCountFor(processors, rate) == bucketCount
+
+    where:
+    processors | rate | bucketCount
+    1          | 100  | 1
+    4          | 100  | 4
+    6          | 100  | 8
+    64         | 10   | 8
+    64         | 1000 | 64
+    128        | 1000 | 64
+    8          | 1    | 1
+  }
+}
@@ -46,6 +46,11 @@ public final class DDSketchHistogram implements Histogram {
     return sketch.getMaxValue();
   }
 
+  @Override
+  public void mergeWith(Histogram other) {
+    sketch.mergeWith(((DDSketchHistogram) other).sketch);
+  }
+
   @Override
   public void clear() {
     this.sketch.clear();
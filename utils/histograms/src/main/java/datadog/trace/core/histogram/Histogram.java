@@ -12,6 +12,9 @@ public interface Histogram {
 
   double max();
 
+  /** Adds the values of the other histogram, which must have been created by the same factory. */
+  void mergeWith(Histogram other);
+
   void clear();
 
   ByteBuffer serialize();
@@ -21,6 +21,9 @@ public class StubHistogram implements Histogram, HistogramFactory {
     return 0;
   }
 
+  @Override
+  public void mergeWith(Histogram other) {}
+
   @Override
   public void clear() {}
 